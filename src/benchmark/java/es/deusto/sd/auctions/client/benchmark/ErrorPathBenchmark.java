@@ -0,0 +1,193 @@
+package es.deusto.sd.auctions.client.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import es.deusto.sd.auctions.client.bidding.LatencyHistogram;
+import es.deusto.sd.auctions.client.data.Credentials;
+import es.deusto.sd.auctions.client.data.Money;
+import es.deusto.sd.auctions.client.proxies.CallResult;
+import es.deusto.sd.auctions.client.proxies.HttpServiceProxy;
+import es.deusto.sd.auctions.client.proxies.ServiceException;
+
+/**
+ * ErrorPathBenchmark measures what a rejected bid costs the client, with a
+ * high-conflict load: every bid is below the current price, so the
+ * {@link StubAuctionsServer} (started in this JVM, without added latency)
+ * answers all of them with a 409. Variants, blocking and asynchronous:
+ *
+ * - {@code exceptions-before}: a new RuntimeException, with its stack trace,
+ *   for every rejected bid (what the status mapping of the proxy did). The
+ *   asynchronous variant also gets it wrapped in a CompletionException.
+ * - {@code exceptions}: makeBid / makeBidAsync, which now throw the
+ *   preallocated, stackless ServiceException of the status.
+ * - {@code results}: tryMakeBid / tryMakeBidAsync, which return the failure
+ *   without throwing.
+ *
+ * Besides throughput and latency, the table reports the CPU time of the JVM
+ * per call (the stub included, which does the same work in every variant) and
+ * the memory allocated per call by the platform threads: the callers and the
+ * threads of the HTTP client, but not the virtual threads of the stub.
+ * Settings (system properties, passed by the {@code errorPathBenchmark} Gradle
+ * task): {@code benchmark.concurrency}, {@code benchmark.seconds}.
+ */
+public class ErrorPathBenchmark {
+	private static final long ARTICLE = 1;
+	// Every article of the stub costs at least 10: all the bids are rejected
+	private static final Money LOW_BID = Money.of(1f, "EUR");
+	private static final int WARM_UP_SECONDS = 3;
+
+	private final int concurrency = Integer.getInteger("benchmark.concurrency", 16);
+	private final int seconds = Integer.getInteger("benchmark.seconds", 10);
+
+	private final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private final com.sun.management.OperatingSystemMXBean os =
+			(com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+	private record Result(String variant, long calls, long rejected, double throughput, LatencyHistogram latency,
+						  double cpuMicrosPerCall, double bytesPerCall) {}
+
+	public static void main(String[] args) throws Exception {
+		new ErrorPathBenchmark().run();
+	}
+
+	private void run() throws Exception {
+		try (StubAuctionsServer server = new StubAuctionsServer(1, 10, 0);
+			 HttpServiceProxy proxy = new HttpServiceProxy(List.of(server.baseUrl()), false)) {
+			String token = proxy.login(new Credentials("bidder@example.com", "secret"));
+
+			// Each variant returns whether the bid was rejected
+			Map<String, BooleanSupplier> variants = new LinkedHashMap<>();
+
+			variants.put("exceptions-before", () -> {
+				try {
+					CallResult<Void> result = proxy.tryMakeBid(ARTICLE, LOW_BID, token);
+
+					if (result instanceof CallResult.Failure<Void> failure) {
+						throw new RuntimeException(failure.message());
+					}
+
+					return false;
+				} catch (RuntimeException e) {
+					return true;
+				}
+			});
+			variants.put("exceptions", () -> {
+				try {
+					proxy.makeBid(ARTICLE, LOW_BID, token);
+					return false;
+				} catch (ServiceException e) {
+					return true;
+				}
+			});
+			variants.put("results", () -> !proxy.tryMakeBid(ARTICLE, LOW_BID, token).isSuccess());
+			variants.put("exceptions-before-async", () -> {
+				try {
+					proxy.tryMakeBidAsync(ARTICLE, LOW_BID, token)
+							.thenApply(result -> {
+								if (result instanceof CallResult.Failure<Void> failure) {
+									throw new RuntimeException(failure.message());
+								}
+
+								return result;
+							})
+							.join();
+					return false;
+				} catch (CompletionException e) {
+					return true;
+				}
+			});
+			variants.put("exceptions-async", () -> {
+				try {
+					proxy.makeBidAsync(ARTICLE, LOW_BID, token).join();
+					return false;
+				} catch (CompletionException e) {
+					return true;
+				}
+			});
+			variants.put("results-async", () ->
+					!proxy.tryMakeBidAsync(ARTICLE, LOW_BID, token).join().isSuccess());
+
+			System.out.printf("Rejected bids against %s, %d concurrent callers, %d s per variant%n%n",
+					server.baseUrl(), concurrency, seconds);
+
+			List<Result> results = new ArrayList<>();
+
+			for (Map.Entry<String, BooleanSupplier> variant : variants.entrySet()) {
+				measure(variant.getKey(), variant.getValue(), WARM_UP_SECONDS);
+				results.add(measure(variant.getKey(), variant.getValue(), seconds));
+			}
+
+			System.out.printf("%-24s %10s %10s %10s %8s %8s %12s %12s%n",
+					"variant", "calls", "rejected", "calls/s", "p50 ms", "p99 ms", "cpu us/call", "bytes/call");
+
+			for (Result result : results) {
+				System.out.printf("%-24s %10d %10d %10.0f %8.3f %8.3f %12.1f %12.0f%n",
+						result.variant(), result.calls(), result.rejected(), result.throughput(),
+						result.latency().percentile(0.5) / 1e6, result.latency().percentile(0.99) / 1e6,
+						result.cpuMicrosPerCall(), result.bytesPerCall());
+			}
+		}
+	}
+
+	// Bids in a closed loop from every caller thread for the given time
+	private Result measure(String variant, BooleanSupplier bid, int durationSeconds) throws Exception {
+		LatencyHistogram latency = new LatencyHistogram(variant);
+		AtomicLong rejected = new AtomicLong();
+		long cpuBefore = os.getProcessCpuTime();
+		long bytesBefore = allocatedBytes();
+		long start = System.nanoTime();
+		long end = start + durationSeconds * 1_000_000_000L;
+
+		// Platform threads, whose allocations are counted
+		try (ExecutorService callers = Executors.newFixedThreadPool(concurrency)) {
+			List<Future<?>> tasks = new ArrayList<>();
+
+			for (int i = 0; i < concurrency; i++) {
+				tasks.add(callers.submit(() -> {
+					long now;
+
+					while ((now = System.nanoTime()) < end) {
+						if (bid.getAsBoolean()) {
+							rejected.incrementAndGet();
+						}
+
+						latency.record(System.nanoTime() - now);
+					}
+				}));
+			}
+
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		}
+
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		long calls = Math.max(1, latency.count());
+
+		return new Result(variant, latency.count(), rejected.get(), latency.count() / elapsed, latency,
+				(os.getProcessCpuTime() - cpuBefore) / 1e3 / calls,
+				(double) (allocatedBytes() - bytesBefore) / calls);
+	}
+
+	// Memory allocated so far by the live platform threads
+	private long allocatedBytes() {
+		long total = 0;
+
+		for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+			total += Math.max(0, bytes); // -1 for threads that ended meanwhile
+		}
+
+		return total;
+	}
+}
@@ -0,0 +1,148 @@
+package es.deusto.sd.auctions.client.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.text.NumberFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.function.IntToLongFunction;
+
+import es.deusto.sd.auctions.client.data.Money;
+import es.deusto.sd.auctions.client.data.MoneyFormat;
+
+/**
+ * MoneyFormatBenchmark measures formatting the prices of a large table, the
+ * way the Swing client fills its price column and the web client its pages.
+ * Variants:
+ *
+ * - {@code string-format}: String.format with the pattern of the currency,
+ *   what SwingClientGUI.formatPrice did for every cell.
+ * - {@code decimal-format}: a new NumberFormat for every price, what the
+ *   #numbers.formatDecimal of the templates does.
+ * - {@code money-format}: the shared MoneyFormat of the currency, which only
+ *   allocates the String returned.
+ * - {@code money-format-to}: MoneyFormat.formatTo, appending to a reused
+ *   StringBuilder without allocating.
+ *
+ * Before measuring, the output of MoneyFormat is checked against
+ * String.format for every price of the table. Each variant runs on a single
+ * thread, whose allocations are reported per price. Settings (system
+ * properties, passed by the {@code moneyFormatBenchmark} Gradle task):
+ * {@code benchmark.prices}, {@code benchmark.seconds}.
+ */
+public class MoneyFormatBenchmark {
+	private static final String[] CURRENCIES = { "EUR", "USD", "GBP", "JPY" };
+	private static final int WARM_UP_SECONDS = 2;
+
+	private final int size = Integer.getInteger("benchmark.prices", 10_000);
+	private final int seconds = Integer.getInteger("benchmark.seconds", 5);
+
+	private final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	// The table: a price and its currency per row
+	private final float[] prices = new float[size];
+	private final String[] currencies = new String[size];
+
+	private record Result(String variant, long formatted, double nanosPerPrice, double bytesPerPrice) {}
+
+	public static void main(String[] args) {
+		new MoneyFormatBenchmark().run();
+	}
+
+	private void run() {
+		SplittableRandom random = new SplittableRandom(42);
+
+		for (int i = 0; i < size; i++) {
+			// Prices from cents to millions, with two decimals at most (as quoted by the AuctionsService)
+			prices[i] = (float) (random.nextLong(1, 100_000_000L) / 100.0);
+			currencies[i] = CURRENCIES[random.nextInt(CURRENCIES.length)];
+		}
+
+		checkOutput();
+
+		StringBuilder line = new StringBuilder(64);
+		// Each variant formats a row and returns the length of the text, so the work is not optimized away
+		Map<String, IntToLongFunction> variants = new LinkedHashMap<>();
+
+		variants.put("string-format", row -> stringFormat(prices[row], currencies[row]).length());
+		variants.put("decimal-format", row -> decimalFormat(prices[row]).length());
+		variants.put("money-format", row -> MoneyFormat.of(currencies[row]).format(Money.toMinorUnits(prices[row])).length());
+		variants.put("money-format-to", row -> {
+			line.setLength(0);
+			return MoneyFormat.of(currencies[row]).formatTo(Money.toMinorUnits(prices[row]), line).length();
+		});
+
+		System.out.printf("Formatting a table of %d prices, %d s per variant%n%n", size, seconds);
+		System.out.printf("%-18s %14s %10s %12s%n", "variant", "prices", "ns/price", "bytes/price");
+
+		for (Map.Entry<String, IntToLongFunction> variant : variants.entrySet()) {
+			measure(variant.getKey(), variant.getValue(), WARM_UP_SECONDS);
+			Result result = measure(variant.getKey(), variant.getValue(), seconds);
+
+			System.out.printf("%-18s %14d %10.1f %12.1f%n",
+					result.variant(), result.formatted(), result.nanosPerPrice(), result.bytesPerPrice());
+		}
+	}
+
+	// Formats the whole table over and over for the given time
+	private Result measure(String variant, IntToLongFunction format, int durationSeconds) {
+		long sink = 0;
+		long formatted = 0;
+		long bytesBefore = threads.getCurrentThreadAllocatedBytes();
+		long start = System.nanoTime();
+		long end = start + durationSeconds * 1_000_000_000L;
+
+		while (System.nanoTime() < end) {
+			for (int row = 0; row < size; row++) {
+				sink += format.applyAsLong(row);
+			}
+
+			formatted += size;
+		}
+
+		long elapsed = System.nanoTime() - start;
+		long bytes = threads.getCurrentThreadAllocatedBytes() - bytesBefore;
+
+		if (sink == 0) {
+			throw new IllegalStateException("Nothing formatted");
+		}
+
+		return new Result(variant, formatted, (double) elapsed / formatted, (double) bytes / formatted);
+	}
+
+	// The same text as before, for every price of the table
+	private void checkOutput() {
+		for (int row = 0; row < size; row++) {
+			String expected = stringFormat(prices[row], currencies[row]);
+			String actual = MoneyFormat.of(currencies[row]).format(Money.toMinorUnits(prices[row]));
+
+			if (!expected.equals(actual)) {
+				throw new IllegalStateException("MoneyFormat wrote '" + actual + "' instead of '" + expected + "'");
+			}
+		}
+	}
+
+	// What SwingClientGUI.formatPrice did (with a fixed locale, as MoneyFormat always writes a dot)
+	private static String stringFormat(float price, String currency) {
+		return switch (currency) {
+			case "USD" -> String.format(Locale.ROOT, "$ %.2f", price);
+			case "GBP" -> String.format(Locale.ROOT, "%.2f £", price);
+			case "JPY" -> String.format(Locale.ROOT, "¥ %.2f", price);
+			default -> String.format(Locale.ROOT, "%.2f €", price);
+		};
+	}
+
+	// What #numbers.formatDecimal(price, 2, 2) does: a new NumberFormat for every call
+	private static String decimalFormat(float price) {
+		NumberFormat format = NumberFormat.getNumberInstance(Locale.ROOT);
+
+		format.setMinimumIntegerDigits(2);
+		format.setMinimumFractionDigits(2);
+		format.setMaximumFractionDigits(2);
+		format.setGroupingUsed(false);
+
+		return format.format(price);
+	}
+}
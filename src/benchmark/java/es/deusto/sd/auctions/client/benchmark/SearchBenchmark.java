@@ -0,0 +1,141 @@
+package es.deusto.sd.auctions.client.benchmark;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+import es.deusto.sd.auctions.client.bidding.LatencyHistogram;
+import es.deusto.sd.auctions.client.data.Article;
+import es.deusto.sd.auctions.client.data.Money;
+import es.deusto.sd.auctions.client.search.ArticleSearchIndex;
+
+/**
+ * SearchBenchmark measures the latency of the queries of the search box over
+ * an ArticleSearchIndex of hundreds of thousands of articles, with titles
+ * drawn from a vocabulary of a few thousand words, and the cost of refreshing
+ * a category as the clients do when a list is fetched again.
+ *
+ * Queries (each one matched as a prefix, as typed in the search box):
+ *
+ * - {@code word}: a whole word of the vocabulary.
+ * - {@code two-words}: two words, both required.
+ * - {@code prefix-3}: the first three letters of a word.
+ * - {@code prefix-1}: a single letter, which expands to a large part of the
+ *   dictionary: the worst case of the index.
+ * - {@code owner}: the name of an owner.
+ *
+ * Settings (system properties, passed by the {@code searchBenchmark} Gradle
+ * task): {@code benchmark.articles}, {@code benchmark.queries} (per type).
+ */
+public class SearchBenchmark {
+	private static final int CATEGORIES = 100;
+	private static final int OWNERS = 2_000;
+	private static final int VOCABULARY = 5_000;
+	private static final int WORDS_PER_TITLE = 4;
+	private static final int RESULTS = 50;
+	private static final int WARM_UP_QUERIES = 2_000;
+	private static final Money PRICE = new Money(10 * Money.SCALE, "EUR");
+
+	private final int size = Integer.getInteger("benchmark.articles", 300_000);
+	private final int queries = Integer.getInteger("benchmark.queries", 10_000);
+
+	private final SplittableRandom random = new SplittableRandom(42);
+	private final String[] words = new String[VOCABULARY];
+
+	public static void main(String[] args) {
+		new SearchBenchmark().run();
+	}
+
+	private void run() {
+		for (int i = 0; i < VOCABULARY; i++) {
+			words[i] = word();
+		}
+
+		ArticleSearchIndex index = new ArticleSearchIndex();
+		List<List<Article>> categories = new ArrayList<>();
+		long start = System.nanoTime();
+
+		for (int c = 0; c < CATEGORIES; c++) {
+			List<Article> articles = new ArrayList<>();
+
+			for (int i = c; i < size; i += CATEGORIES) {
+				articles.add(article(i, "Category " + c));
+			}
+
+			index.update("Category " + c, articles);
+			categories.add(articles);
+		}
+
+		System.out.printf("Indexed %d articles in %d categories in %.0f ms%n%n", index.size(), CATEGORIES,
+				(System.nanoTime() - start) / 1e6);
+		System.out.printf("%-12s %8s %10s %10s %10s %10s%n", "query", "queries", "hits", "p50 us", "p99 us",
+				"max us");
+
+		measure(index, "word", () -> words[random.nextInt(VOCABULARY)]);
+		measure(index, "two-words", () -> words[random.nextInt(VOCABULARY)] + " " + words[random.nextInt(VOCABULARY)]);
+		measure(index, "prefix-3", () -> words[random.nextInt(VOCABULARY)].substring(0, 3));
+		measure(index, "prefix-1", () -> String.valueOf((char) ('a' + random.nextInt(26))));
+		measure(index, "owner", () -> "owner" + random.nextInt(OWNERS));
+
+		// A refreshed category where a tenth of the articles changed their title
+		LatencyHistogram refresh = new LatencyHistogram("refresh");
+
+		for (int c = 0; c < CATEGORIES; c++) {
+			List<Article> refreshed = new ArrayList<>(categories.get(c));
+
+			for (int i = 0; i < refreshed.size(); i += 10) {
+				refreshed.set(i, article(refreshed.get(i).id().intValue(), "Category " + c));
+			}
+
+			long refreshStart = System.nanoTime();
+			index.update("Category " + c, refreshed);
+			refresh.record(System.nanoTime() - refreshStart);
+		}
+
+		System.out.printf("%nRefreshing a category of %d articles (10%% changed): p50 %.2f ms, max %.2f ms%n",
+				size / CATEGORIES, refresh.percentile(0.5) / 1e6, refresh.max() / 1e6);
+	}
+
+	private void measure(ArticleSearchIndex index, String name, Supplier<String> query) {
+		for (int i = 0; i < WARM_UP_QUERIES; i++) {
+			index.search(query.get(), RESULTS);
+		}
+
+		LatencyHistogram latency = new LatencyHistogram(name);
+		long hits = 0;
+
+		for (int i = 0; i < queries; i++) {
+			String text = query.get();
+			long start = System.nanoTime();
+			hits += index.search(text, RESULTS).size();
+			latency.record(System.nanoTime() - start);
+		}
+
+		System.out.printf("%-12s %8d %10.1f %10.1f %10.1f %10.1f%n", name, queries, (double) hits / queries,
+				latency.percentile(0.5) / 1e3, latency.percentile(0.99) / 1e3, latency.max() / 1e3);
+	}
+
+	private Article article(int id, String category) {
+		StringBuilder title = new StringBuilder();
+
+		for (int w = 0; w < WORDS_PER_TITLE; w++) {
+			title.append((w == 0) ? "" : " ").append(words[random.nextInt(VOCABULARY)]);
+		}
+
+		return new Article((long) id, title.toString(), PRICE, PRICE, 0, new Date(), category,
+				"Owner" + random.nextInt(OWNERS), "EUR");
+	}
+
+	// A made-up word of 4 to 9 letters
+	private String word() {
+		char[] letters = new char[4 + random.nextInt(6)];
+
+		for (int i = 0; i < letters.length; i++) {
+			letters[i] = (char) ('a' + random.nextInt(26));
+		}
+
+		return new String(letters);
+	}
+}
@@ -0,0 +1,248 @@
+package es.deusto.sd.auctions.client.benchmark;
+
+import java.awt.GraphicsEnvironment;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import es.deusto.sd.auctions.client.monitoring.StartupProbe;
+
+/**
+ * StartupBenchmark measures the time-to-first-request of the three clients,
+ * with and without the startup optimizations available in the build:
+ *
+ * - Console and Swing clients: plain JVM vs. AppCDS archive (created by the
+ *   {@code createConsoleClientCds} / {@code createSwingClientCds} tasks). The
+ *   time is taken from the process launch until the client prints the
+ *   {@link StartupProbe} marker after showing its first server response.
+ * - Web client: plain vs. lazy initialization vs. Spring AOT vs. both. The time
+ *   is taken from the process launch until {@code GET /} answers.
+ *
+ * Every run uses an empty home directory, so the snapshots saved by previous
+ * runs do not hide the network round-trips. The Auctions Server must be running
+ * (see {@code api.base.url}). Results are printed as a table and written as CSV
+ * to the file given in the {@code startup.report} system property.
+ *
+ * The benchmark is launched by the {@code startupBenchmark} Gradle task, which
+ * passes the classpaths and archive locations as system properties.
+ */
+public class StartupBenchmark {
+	private static final String CONSOLE_MAIN = "es.deusto.sd.auctions.client.console.ConsoleClient";
+	private static final String SWING_MAIN = "es.deusto.sd.auctions.client.swing.SwingClientGUI";
+	private static final String WEB_MAIN = "es.deusto.sd.auctions.client.web.WebClientApplication";
+
+	// Maximum time a single client launch may take before it is considered failed
+	private static final Duration LAUNCH_TIMEOUT = Duration.ofSeconds(60);
+
+	private final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+	private final String mainClasspath = System.getProperty("startup.classpath.main");
+	private final String aotClasspath = System.getProperty("startup.classpath.aot");
+	private final String consoleArchive = System.getProperty("startup.cds.console");
+	private final String swingArchive = System.getProperty("startup.cds.swing");
+	private final int runs = Integer.getInteger("startup.runs", 5);
+	private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(200)).build();
+
+	private record Result(String client, String variant, long[] millis) {
+		long median() {
+			long[] sorted = millis.clone();
+			Arrays.sort(sorted);
+			return sorted[sorted.length / 2];
+		}
+
+		long min() {
+			return Arrays.stream(millis).min().orElse(0);
+		}
+
+		long max() {
+			return Arrays.stream(millis).max().orElse(0);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		new StartupBenchmark().run();
+	}
+
+	private void run() throws Exception {
+		List<Result> results = new ArrayList<>();
+
+		results.add(measureProbe("console", "plain", CONSOLE_MAIN, List.of()));
+		results.add(measureProbe("console", "appcds", CONSOLE_MAIN, cdsOptions(consoleArchive)));
+
+		// The Swing client needs a display, and its archive is created on demand
+		// (createSwingClientCds) for the same reason
+		if (GraphicsEnvironment.isHeadless()) {
+			System.out.println("No display available: skipping the Swing client.");
+		} else {
+			results.add(measureProbe("swing", "plain", SWING_MAIN, List.of()));
+
+			if (swingArchive != null && new File(swingArchive).isFile()) {
+				results.add(measureProbe("swing", "appcds", SWING_MAIN, cdsOptions(swingArchive)));
+			} else {
+				System.out.println("No Swing AppCDS archive: run createSwingClientCds to include it.");
+			}
+		}
+
+		String lazy = "--spring.profiles.active=fast-startup";
+		results.add(measureWeb("plain", mainClasspath, List.of(), List.of()));
+		results.add(measureWeb("lazy", mainClasspath, List.of(), List.of(lazy)));
+		results.add(measureWeb("aot", aotClasspath, List.of("-Dspring.aot.enabled=true"), List.of()));
+		results.add(measureWeb("aot+lazy", aotClasspath, List.of("-Dspring.aot.enabled=true"), List.of(lazy)));
+
+		report(results);
+	}
+
+	private List<String> cdsOptions(String archive) {
+		if (archive == null || !new File(archive).isFile()) {
+			throw new IllegalStateException("AppCDS archive not found: " + archive);
+		}
+
+		return List.of("-XX:SharedArchiveFile=" + archive);
+	}
+
+	// Launches a console/Swing client in probe mode and waits for its marker line
+	private Result measureProbe(String client, String variant, String mainClass, List<String> jvmOptions)
+			throws IOException, InterruptedException {
+		long[] millis = new long[runs];
+
+		for (int i = 0; i < runs; i++) {
+			Path home = Files.createTempDirectory("auctions-startup");
+			List<String> command = new ArrayList<>(List.of(java));
+			command.addAll(jvmOptions);
+			command.addAll(List.of("-D" + StartupProbe.PROPERTY + "=exit", "-Duser.home=" + home,
+					"-cp", mainClasspath, mainClass));
+
+			long start = System.nanoTime();
+			Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+			try (BufferedReader reader = new BufferedReader(
+					new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+				String line;
+
+				while ((line = reader.readLine()) != null && !line.startsWith(StartupProbe.MARKER)) {
+					// Skip the client's own output until the marker
+				}
+
+				if (line == null) {
+					throw new IllegalStateException(client + " exited without reaching its first request");
+				}
+
+				millis[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			} finally {
+				process.destroy();
+				process.waitFor(10, TimeUnit.SECONDS);
+				deleteRecursively(home);
+			}
+		}
+
+		return new Result(client, variant, millis);
+	}
+
+	// Launches the web client on a free port and polls GET / until it answers
+	private Result measureWeb(String variant, String classpath, List<String> jvmOptions, List<String> arguments)
+			throws IOException, InterruptedException {
+		long[] millis = new long[runs];
+
+		for (int i = 0; i < runs; i++) {
+			int port = freePort();
+			List<String> command = new ArrayList<>(List.of(java));
+			command.addAll(jvmOptions);
+			command.addAll(List.of("-cp", classpath, WEB_MAIN, "--server.port=" + port,
+					"--spring.main.banner-mode=off"));
+			command.addAll(arguments);
+
+			HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/"))
+					.timeout(Duration.ofSeconds(30)).GET().build();
+			long start = System.nanoTime();
+			Process process = new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+					.redirectErrorStream(true).start();
+
+			try {
+				while (true) {
+					if (!process.isAlive()) {
+						throw new IllegalStateException("Web client (" + variant + ") exited during startup");
+					}
+
+					if (Duration.ofNanos(System.nanoTime() - start).compareTo(LAUNCH_TIMEOUT) > 0) {
+						throw new IllegalStateException("Web client (" + variant + ") did not answer in time");
+					}
+
+					try {
+						if (httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+							break;
+						}
+					} catch (IOException e) {
+						Thread.sleep(5); // Not listening yet
+					}
+				}
+
+				millis[i] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			} finally {
+				process.destroy();
+				process.waitFor(10, TimeUnit.SECONDS);
+			}
+		}
+
+		return new Result("web", variant, millis);
+	}
+
+	private void report(List<Result> results) throws IOException {
+		System.out.printf("%n%-8s %-10s %10s %10s %10s   (time-to-first-request, %d runs)%n",
+				"client", "variant", "median ms", "min ms", "max ms", runs);
+
+		for (Result result : results) {
+			System.out.printf("%-8s %-10s %10d %10d %10d%n",
+					result.client(), result.variant(), result.median(), result.min(), result.max());
+		}
+
+		String reportFile = System.getProperty("startup.report");
+
+		if (reportFile != null) {
+			Path path = Paths.get(reportFile);
+			Files.createDirectories(path.toAbsolutePath().getParent());
+
+			try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+				writer.println("client,variant,run,millis");
+
+				for (Result result : results) {
+					for (int i = 0; i < result.millis().length; i++) {
+						writer.println(result.client() + "," + result.variant() + "," + i + "," + result.millis()[i]);
+					}
+				}
+			}
+
+			System.out.println("\nRaw results written to " + path);
+		}
+	}
+
+	private static void deleteRecursively(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
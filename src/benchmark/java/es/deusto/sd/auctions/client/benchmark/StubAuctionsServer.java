@@ -0,0 +1,282 @@
+package es.deusto.sd.auctions.client.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import tools.jackson.databind.ObjectMapper;
+
+import es.deusto.sd.auctions.client.data.Article;
+import es.deusto.sd.auctions.client.data.Category;
+import es.deusto.sd.auctions.client.data.Money;
+
+/**
+ * StubAuctionsServer is an in-memory AuctionsService for load tests of the
+ * clients: it implements the endpoints used by the service proxies (login,
+ * logout, categories, articles of a category, article details and bids) with
+ * the same status codes as the real server, over a generated catalog, and adds
+ * a fixed latency to every call to stand in for the real backend.
+ *
+ * Any email and password log in. Prices are kept in euros and converted with
+ * fixed rates; a bid must be higher than the current price. Requests are served
+ * by virtual threads, so the stub is never the bottleneck of a test.
+ *
+ * Tests of the clients can change the latency while the stub runs, make it
+ * fail every request with a 500 (an unhealthy replica), and count the
+ * requests it received.
+ */
+public class StubAuctionsServer implements AutoCloseable {
+	private static final Map<String, Float> EUR_RATES = Map.of("EUR", 1f, "USD", 1.08f, "GBP", 0.85f, "JPY", 160f);
+
+	static {
+		// The headers and the body of a response are written separately: with Nagle's algorithm
+		// every response with a body would wait for the delayed ACK of the client (about 40 ms)
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final HttpServer server;
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private volatile long latencyMillis;
+	private volatile boolean failing;
+	private final AtomicLong requests = new AtomicLong();
+	private final Map<String, List<Long>> articlesByCategory = new LinkedHashMap<>();
+	// Articles by id, prices in euros (replaced on every bid)
+	private final Map<Long, Article> articles = new ConcurrentHashMap<>();
+	private final Set<String> tokens = ConcurrentHashMap.newKeySet();
+
+	// Starts the stub on a free port with the given catalog size
+	public StubAuctionsServer(int categories, int articlesPerCategory, long latencyMillis) throws IOException {
+		this.latencyMillis = latencyMillis;
+		long now = System.currentTimeMillis();
+		long id = 1;
+
+		for (int c = 1; c <= categories; c++) {
+			String name = String.format("Category %02d", c);
+			List<Long> ids = new ArrayList<>();
+
+			for (int a = 0; a < articlesPerCategory; a++, id++) {
+				Money price = new Money((10 + id * 37 % 990) * Money.SCALE, "EUR");
+				articles.put(id, new Article(id, "Article " + id + " of " + name, price, price, 0,
+						new Date(now + id * 60_000), name, "owner" + (id % 50) + "@example.com", "EUR"));
+				ids.add(id);
+			}
+
+			articlesByCategory.put(name, ids);
+		}
+
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+		this.server.setExecutor(executor);
+		this.server.createContext("/", this::handle);
+		this.server.start();
+	}
+
+	public String baseUrl() {
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	public void setLatencyMillis(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	// While failing, every request is answered with a 500
+	public void setFailing(boolean failing) {
+		this.failing = failing;
+	}
+
+	// Requests received so far, of any kind
+	public long requests() {
+		return requests.get();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			requests.incrementAndGet();
+			long latency = latencyMillis;
+
+			if (latency > 0) {
+				Thread.sleep(latency);
+			}
+
+			if (failing) {
+				send(exchange, 500, null);
+				return;
+			}
+
+			String[] path = exchange.getRequestURI().getPath().split("/");
+			Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+			String method = exchange.getRequestMethod();
+
+			// path[0] is empty: /auth/login -> ["", "auth", "login"]
+			if (method.equals("POST") && matches(path, "auth", "login")) {
+				exchange.getRequestBody().readAllBytes();
+				String token = UUID.randomUUID().toString();
+				tokens.add(token);
+				send(exchange, 200, token.getBytes(StandardCharsets.UTF_8));
+			} else if (method.equals("POST") && matches(path, "auth", "logout")) {
+				String token = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+				send(exchange, tokens.remove(token) ? 204 : 401, null);
+			} else if (method.equals("GET") && matches(path, "auctions", "categories")) {
+				send(exchange, 200, json(articlesByCategory.keySet().stream().map(Category::new).toList()));
+			} else if (method.equals("GET") && matches(path, "auctions", "categories", null, "articles")) {
+				articlesOf(exchange, path[3], query.get("currency"));
+			} else if (method.equals("GET") && matches(path, "auctions", "articles", null, "details")) {
+				details(exchange, path[3], query.get("currency"));
+			} else if (method.equals("POST") && matches(path, "auctions", "articles", null, "bid")) {
+				String token = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+				bid(exchange, path[3], query.get("amount"), query.get("currency"), token);
+			} else {
+				send(exchange, 404, null);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			send(exchange, 500, null);
+		}
+	}
+
+	private void articlesOf(HttpExchange exchange, String category, String currency) throws IOException {
+		List<Long> ids = articlesByCategory.get(category);
+		Float rate = EUR_RATES.get(currency);
+
+		if (rate == null) {
+			send(exchange, 400, null);
+		} else if (ids == null) {
+			send(exchange, 404, null);
+		} else if (ids.isEmpty()) {
+			send(exchange, 204, null);
+		} else {
+			send(exchange, 200, json(ids.stream().map(id -> convert(articles.get(id), currency, rate)).toList()));
+		}
+	}
+
+	private void details(HttpExchange exchange, String id, String currency) throws IOException {
+		Article article = article(id);
+		Float rate = EUR_RATES.get(currency);
+
+		if (rate == null) {
+			send(exchange, 400, null);
+		} else if (article == null) {
+			send(exchange, 404, null);
+		} else {
+			send(exchange, 200, json(convert(article, currency, rate)));
+		}
+	}
+
+	private void bid(HttpExchange exchange, String id, String amount, String currency, String token)
+			throws IOException {
+		Article article = article(id);
+		Float rate = EUR_RATES.get(currency);
+
+		if (rate == null || amount == null) {
+			send(exchange, 400, null);
+		} else if (!tokens.contains(token)) {
+			send(exchange, 401, null);
+		} else if (article == null) {
+			send(exchange, 404, null);
+		} else {
+			Money euros = Money.of(Float.parseFloat(amount) / rate, "EUR");
+			// Concurrent bids on the same article: only a higher one replaces the current price
+			boolean[] accepted = { false };
+
+			articles.computeIfPresent(article.id(), (key, current) -> {
+				if (euros.minorUnits() <= current.currentPrice().minorUnits()) {
+					return current;
+				}
+
+				accepted[0] = true;
+				return new Article(current.id(), current.title(), current.initialPrice(), euros, current.bids() + 1,
+						current.auctionEnd(), current.categoryName(), current.ownerName(), "EUR");
+			});
+
+			send(exchange, accepted[0] ? 204 : 409, null);
+		}
+	}
+
+	private Article article(String id) {
+		try {
+			return articles.get(Long.parseLong(id));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static Article convert(Article article, String currency, float rate) {
+		return new Article(article.id(), article.title(), Money.of(article.initialPrice().toFloat() * rate, currency),
+				Money.of(article.currentPrice().toFloat() * rate, currency), article.bids(), article.auctionEnd(), article.categoryName(),
+				article.ownerName(), currency);
+	}
+
+	// Whether the path has the given segments (null matches any segment)
+	private static boolean matches(String[] path, String... segments) {
+		if (path.length != segments.length + 1) {
+			return false;
+		}
+
+		for (int i = 0; i < segments.length; i++) {
+			if (segments[i] != null && !segments[i].equals(path[i + 1])) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private static Map<String, String> query(String rawQuery) {
+		Map<String, String> parameters = new HashMap<>();
+
+		if (rawQuery != null) {
+			for (String pair : rawQuery.split("&")) {
+				int equals = pair.indexOf('=');
+
+				if (equals > 0) {
+					parameters.put(pair.substring(0, equals),
+							URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+				}
+			}
+		}
+
+		return parameters;
+	}
+
+	private byte[] json(Object value) {
+		return objectMapper.writeValueAsBytes(value);
+	}
+
+	private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+		if (body == null) {
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, body.length);
+
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,68 @@
+package es.deusto.sd.auctions.client.benchmark;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import es.deusto.sd.auctions.client.capture.TrafficLog;
+import es.deusto.sd.auctions.client.capture.TrafficReplayer;
+import es.deusto.sd.auctions.client.proxies.HttpServiceProxy;
+
+/**
+ * TrafficReplay feeds a capture of the clients (see CapturingServiceProxy)
+ * back to an AuctionsService and prints the latency of every type of call,
+ * recorded and replayed. Without a URL the calls go to a
+ * {@link StubAuctionsServer} started in this JVM, with the given latency; its
+ * catalog is generated, so the calls for categories and articles that it does
+ * not have are counted as changed outcomes.
+ *
+ * Settings (system properties, passed by the {@code replayTraffic} Gradle
+ * task): {@code replay.file}, {@code replay.speed} (1, 10... or {@code max}),
+ * {@code replay.url} (empty: the stub), {@code replay.password} (of every
+ * account logged in) and {@code replay.stub-latency-millis}.
+ */
+public class TrafficReplay {
+	private static final int STUB_CATEGORIES = 10;
+	private static final int STUB_ARTICLES_PER_CATEGORY = 100;
+
+	public static void main(String[] args) throws Exception {
+		Path file = Path.of(System.getProperty("replay.file", "capture.atrf"));
+		String speedSetting = System.getProperty("replay.speed", "1");
+		double speed = speedSetting.equals("max") ? 0 : Double.parseDouble(speedSetting);
+		String url = System.getProperty("replay.url", "");
+		String password = System.getProperty("replay.password", "replay");
+		long stubLatency = Long.getLong("replay.stub-latency-millis", 5);
+
+		List<TrafficLog.Call> calls = TrafficLog.readAll(file);
+
+		if (calls.isEmpty()) {
+			System.out.println("No calls captured in " + file);
+			return;
+		}
+
+		long first = calls.stream().mapToLong(TrafficLog.Call::startMicros).min().getAsLong();
+		long last = calls.stream().mapToLong(call -> call.startMicros() + call.durationMicros()).max().getAsLong();
+
+		if (url.isBlank()) {
+			try (StubAuctionsServer server = new StubAuctionsServer(STUB_CATEGORIES, STUB_ARTICLES_PER_CATEGORY,
+					stubLatency)) {
+				replay(calls, server.baseUrl(), speed, password, (last - first) / 1e6);
+			}
+		} else {
+			replay(calls, url, speed, password, (last - first) / 1e6);
+		}
+	}
+
+	private static void replay(List<TrafficLog.Call> calls, String url, double speed, String password,
+							   double recordedSeconds) throws InterruptedException {
+		System.out.printf("Replaying %d calls (%.1f s recorded) against %s at %s%n%n", calls.size(),
+				recordedSeconds, url, (speed == 0) ? "maximum speed" : speed + "x");
+
+		try (HttpServiceProxy proxy = new HttpServiceProxy(List.of(url), false)) {
+			long start = System.nanoTime();
+			List<TrafficReplayer.Comparison> comparisons = new TrafficReplayer(proxy, speed, password).replay(calls);
+
+			System.out.printf("Replayed in %.1f s%n%n%s", (System.nanoTime() - start) / 1e9,
+					TrafficReplayer.report(comparisons));
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package es.deusto.sd.auctions.client.benchmark;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.web.client.RestTemplate;
+
+import tools.jackson.databind.ObjectMapper;
+
+import es.deusto.sd.auctions.client.bidding.LatencyHistogram;
+import es.deusto.sd.auctions.client.data.Article;
+import es.deusto.sd.auctions.client.monitoring.RestTemplateTiming;
+import es.deusto.sd.auctions.client.proxies.HttpServiceProxy;
+import es.deusto.sd.auctions.client.proxies.RestTemplateServiceProxy;
+
+/**
+ * TransportBenchmark compares the shared HTTP transport of
+ * {@link HttpServiceProxy} with the two implementations it replaced, by
+ * fetching the details of one article from many concurrent threads:
+ *
+ * - {@code http-before}: an HttpClient per proxy, with the URI built by string
+ *   concatenation and parsed on every call, and the body decoded from a String
+ *   (what HttpServiceProxy did).
+ * - {@code resttemplate-before}: RestTemplateServiceProxy, the proxy the web
+ *   client used, on RestTemplate with its timing interceptor
+ *   (HttpURLConnection, HTTP/1.1).
+ * - {@code transport} and {@code transport-async}: HttpServiceProxy, blocking
+ *   and with getArticleDetailsAsync.
+ *
+ * Every variant is warmed up and then run for a fixed time; the table reports
+ * throughput, latency percentiles and errors. Without a URL the calls go to a
+ * {@link StubAuctionsServer} started in this JVM (so the client and the server
+ * share the CPUs). Settings (system properties, passed by the
+ * {@code transportBenchmark} Gradle task): {@code benchmark.url} (empty: the
+ * stub), {@code benchmark.article}, {@code benchmark.concurrency},
+ * {@code benchmark.seconds}.
+ */
+public class TransportBenchmark {
+	private static final String CURRENCY = "EUR";
+	private static final int WARM_UP_SECONDS = 3;
+	private static final int STUB_CATEGORIES = 10;
+	private static final int STUB_ARTICLES_PER_CATEGORY = 100;
+
+	private final String url = System.getProperty("benchmark.url", "");
+	private final long articleId = Long.getLong("benchmark.article", 1);
+	private final int concurrency = Integer.getInteger("benchmark.concurrency", 64);
+	private final int seconds = Integer.getInteger("benchmark.seconds", 10);
+
+	private record Result(String variant, long calls, long errors, double throughput, LatencyHistogram latency) {}
+
+	public static void main(String[] args) throws Exception {
+		new TransportBenchmark().run();
+	}
+
+	private void run() throws Exception {
+		if (url.isBlank()) {
+			try (StubAuctionsServer server = new StubAuctionsServer(STUB_CATEGORIES, STUB_ARTICLES_PER_CATEGORY, 0)) {
+				run(server.baseUrl());
+			}
+		} else {
+			run(url);
+		}
+	}
+
+	private void run(String baseUrl) throws Exception {
+		Map<String, Supplier<Article>> variants = new LinkedHashMap<>();
+
+		HttpClient httpClient = HttpClient.newHttpClient();
+		ObjectMapper objectMapper = new ObjectMapper();
+		variants.put("http-before", () -> {
+			String url = baseUrl + "/auctions/articles/" + articleId + "/details?currency="
+					+ URLEncoder.encode(CURRENCY, StandardCharsets.UTF_8);
+			HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+					.header("Content-Type", "application/json")
+					.GET()
+					.build();
+
+			try {
+				HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+				return objectMapper.readValue(response.body(), Article.class);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+
+		// Configured as the web client's bean was
+		RestTemplate restTemplate = new RestTemplate();
+		restTemplate.getInterceptors().add(new RestTemplateTiming.Interceptor());
+		List<Result> results = new ArrayList<>();
+
+		try (RestTemplateServiceProxy restTemplateProxy = new RestTemplateServiceProxy(restTemplate,
+				List.of(baseUrl), false);
+			 HttpServiceProxy proxy = new HttpServiceProxy(List.of(baseUrl), false)) {
+			variants.put("resttemplate-before", () -> restTemplateProxy.getArticleDetails(articleId, CURRENCY));
+			variants.put("transport", () -> proxy.getArticleDetails(articleId, CURRENCY));
+			variants.put("transport-async", () -> proxy.getArticleDetailsAsync(articleId, CURRENCY).join());
+
+			System.out.printf("Article %d from %s, %d concurrent callers, %d s per variant%n%n",
+					articleId, baseUrl, concurrency, seconds);
+
+			for (Map.Entry<String, Supplier<Article>> variant : variants.entrySet()) {
+				measure(variant.getKey(), variant.getValue(), WARM_UP_SECONDS);
+				results.add(measure(variant.getKey(), variant.getValue(), seconds));
+			}
+		}
+
+		System.out.printf("%-20s %10s %8s %10s %10s %10s %10s%n",
+				"variant", "calls", "errors", "calls/s", "p50 ms", "p99 ms", "max ms");
+
+		for (Result result : results) {
+			System.out.printf("%-20s %10d %8d %10.0f %10.2f %10.2f %10.2f%n",
+					result.variant(), result.calls(), result.errors(), result.throughput(),
+					result.latency().percentile(0.5) / 1e6, result.latency().percentile(0.99) / 1e6,
+					result.latency().max() / 1e6);
+		}
+	}
+
+	// Calls the variant in a closed loop from every caller thread for the given time
+	private Result measure(String variant, Supplier<Article> call, int durationSeconds) throws Exception {
+		LatencyHistogram latency = new LatencyHistogram(variant);
+		AtomicLong errors = new AtomicLong();
+		long start = System.nanoTime();
+		long end = start + durationSeconds * 1_000_000_000L;
+
+		try (ExecutorService callers = Executors.newVirtualThreadPerTaskExecutor()) {
+			List<Future<?>> tasks = new ArrayList<>();
+
+			for (int i = 0; i < concurrency; i++) {
+				tasks.add(callers.submit(() -> {
+					long now;
+
+					while ((now = System.nanoTime()) < end) {
+						try {
+							call.get();
+							latency.record(System.nanoTime() - now);
+						} catch (RuntimeException e) {
+							errors.incrementAndGet();
+						}
+					}
+				}));
+			}
+
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		}
+
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		return new Result(variant, latency.count(), errors.get(), latency.count() / elapsed, latency);
+	}
+}
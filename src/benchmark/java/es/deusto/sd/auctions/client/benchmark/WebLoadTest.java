@@ -0,0 +1,322 @@
+package es.deusto.sd.auctions.client.benchmark;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.CookieManager;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import es.deusto.sd.auctions.client.bidding.LatencyHistogram;
+
+/**
+ * WebLoadTest measures the web client itself under load. It starts a
+ * {@link StubAuctionsServer}, launches {@code WebClientApplication} against it
+ * (in its own JVM, recording the bundled JFR profile) and drives concurrent user
+ * sessions for a fixed time. Every virtual user has its own cookies (and so its
+ * own HTTP session) and repeats the flow of a real visitor:
+ *
+ * <pre>
+ * POST /login -> GET / -> GET /category/{name} -> GET /article/{id}
+ *             -> GET /article/{id}/prices -> POST /bid (one visit in four) -> ...
+ * </pre>
+ *
+ * with the links followed picked at random from the pages received and a think
+ * time between requests. At the end the table reports, per page, the requests,
+ * errors, throughput and latency percentiles seen by the users, plus the
+ * controller and Thymeleaf render time measured by the server (the
+ * {@code PageRequest} JFR events of the web client).
+ *
+ * Settings (system properties, passed by the {@code webLoadTest} Gradle task):
+ * {@code loadtest.users}, {@code loadtest.seconds}, {@code loadtest.think-millis},
+ * {@code loadtest.categories}, {@code loadtest.articles},
+ * {@code loadtest.backend-latency-millis}, {@code loadtest.classpath.main},
+ * {@code loadtest.jfc} and {@code loadtest.report} (CSV).
+ */
+public class WebLoadTest {
+	private static final String WEB_MAIN = "es.deusto.sd.auctions.client.web.WebClientApplication";
+	private static final String PAGE_EVENT = "es.deusto.sd.auctions.PageRequest";
+	private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(60);
+	private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+	private static final Pattern CATEGORY_LINK = Pattern.compile("href=\"/category/([^\"?]+)");
+	private static final Pattern ARTICLE_LINK = Pattern.compile("href=\"/article/(\\d+)");
+	private static final Pattern CURRENT_PRICE = Pattern.compile("\"currentPrice\"\\s*:\\s*([0-9.]+)");
+
+	private final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+	private final String mainClasspath = System.getProperty("loadtest.classpath.main");
+	private final String jfc = System.getProperty("loadtest.jfc");
+	private final int users = Integer.getInteger("loadtest.users", 50);
+	private final int seconds = Integer.getInteger("loadtest.seconds", 60);
+	private final long thinkMillis = Long.getLong("loadtest.think-millis", 100);
+	private final int categories = Integer.getInteger("loadtest.categories", 20);
+	private final int articlesPerCategory = Integer.getInteger("loadtest.articles", 50);
+	private final long backendLatencyMillis = Long.getLong("loadtest.backend-latency-millis", 5);
+
+	// Latency seen by the users and errors, per page
+	private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+	private final Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+	private record ServerTime(LatencyHistogram controller, LatencyHistogram render) {}
+
+	public static void main(String[] args) throws Exception {
+		new WebLoadTest().run();
+	}
+
+	private void run() throws Exception {
+		Path workDirectory = Files.createTempDirectory("auctions-loadtest");
+		Path recording = workDirectory.resolve("web.jfr");
+		int port = freePort();
+
+		try (StubAuctionsServer backend = new StubAuctionsServer(categories, articlesPerCategory, backendLatencyMillis)) {
+			List<String> command = new ArrayList<>(List.of(java,
+					"-XX:StartFlightRecording=settings=" + jfc + ",filename=" + recording + ",dumponexit=true",
+					"-Duser.home=" + workDirectory, "-cp", mainClasspath, WEB_MAIN,
+					"--server.port=" + port, "--api.base.url=" + backend.baseUrl(), "--spring.main.banner-mode=off"));
+			Process webClient = new ProcessBuilder(command)
+					.redirectOutput(workDirectory.resolve("web.log").toFile()).redirectErrorStream(true).start();
+			String baseUrl = "http://localhost:" + port;
+
+			try {
+				awaitStartup(webClient, baseUrl);
+				System.out.printf("Web client on %s, backend stub on %s (%d ms per call)%n", baseUrl,
+						backend.baseUrl(), backendLatencyMillis);
+				System.out.printf("%d users for %d s, %d ms think time%n%n", users, seconds, thinkMillis);
+				drive(baseUrl);
+			} finally {
+				webClient.destroy(); // Graceful shutdown: the JFR recording is written on exit
+				webClient.waitFor(30, TimeUnit.SECONDS);
+			}
+		}
+
+		report(serverTimes(recording));
+	}
+
+	// Polls GET / until the web client answers
+	private void awaitStartup(Process webClient, String baseUrl) throws IOException, InterruptedException {
+		HttpClient client = HttpClient.newHttpClient();
+		HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/")).timeout(REQUEST_TIMEOUT).GET().build();
+		long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+
+		while (true) {
+			if (!webClient.isAlive()) {
+				throw new IllegalStateException("The web client exited during startup (see its log)");
+			}
+
+			if (System.nanoTime() > deadline) {
+				throw new IllegalStateException("The web client did not start in time");
+			}
+
+			try {
+				if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+					return;
+				}
+			} catch (IOException e) {
+				Thread.sleep(50); // Not listening yet
+			}
+		}
+	}
+
+	// Runs the virtual users until the end of the test, then logs them out
+	private void drive(String baseUrl) throws Exception {
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+		try (ExecutorService sessions = Executors.newVirtualThreadPerTaskExecutor()) {
+			List<Future<?>> tasks = new ArrayList<>();
+
+			for (int user = 0; user < users; user++) {
+				int number = user;
+				tasks.add(sessions.submit(() -> {
+					session(baseUrl, number, end);
+					return null;
+				}));
+			}
+
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		}
+	}
+
+	private void session(String baseUrl, int user, long end) throws InterruptedException {
+		HttpClient browser = HttpClient.newBuilder()
+				.cookieHandler(new CookieManager())
+				.followRedirects(HttpClient.Redirect.NEVER)
+				.build();
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+
+		request(browser, "POST /login", baseUrl + "/login", form(Map.of(
+				"email", "user" + user + "@example.com", "password", "password" + user)));
+
+		while (System.nanoTime() < end) {
+			String home = request(browser, "GET /", baseUrl + "/", null);
+			String category = pick(CATEGORY_LINK, home, random);
+			think();
+
+			if (category == null) {
+				continue;
+			}
+
+			String categoryPage = request(browser, "GET /category/{name}", baseUrl + "/category/" + category, null);
+			String article = pick(ARTICLE_LINK, categoryPage, random);
+			think();
+
+			if (article == null) {
+				continue;
+			}
+
+			request(browser, "GET /article/{id}", baseUrl + "/article/" + article, null);
+			String prices = request(browser, "GET /article/{id}/prices", baseUrl + "/article/" + article + "/prices", null);
+			think();
+
+			Matcher price = CURRENT_PRICE.matcher(prices);
+
+			if (random.nextInt(4) == 0 && price.find()) {
+				float amount = (float) Math.ceil(Float.parseFloat(price.group(1))) + 1;
+				request(browser, "POST /bid", baseUrl + "/bid", form(Map.of(
+						"id", article, "amount", String.valueOf(amount), "currency", "EUR")));
+				think();
+			}
+		}
+
+		request(browser, "GET /logout", baseUrl + "/logout", null);
+	}
+
+	// Sends a request (a POST when there is a form) and records its latency under the
+	// given page name; 2xx and 3xx (redirects, not followed) count as successes
+	private String request(HttpClient browser, String page, String url, String form) throws InterruptedException {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url)).timeout(REQUEST_TIMEOUT);
+
+		if (form != null) {
+			builder.header("Content-Type", "application/x-www-form-urlencoded")
+					.POST(HttpRequest.BodyPublishers.ofString(form));
+		}
+
+		long start = System.nanoTime();
+
+		try {
+			HttpResponse<String> response = browser.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+			latencies.computeIfAbsent(page, LatencyHistogram::new).record(System.nanoTime() - start);
+
+			if (response.statusCode() >= 400) {
+				errors.computeIfAbsent(page, key -> new AtomicLong()).incrementAndGet();
+			}
+
+			return response.body();
+		} catch (IOException e) {
+			errors.computeIfAbsent(page, key -> new AtomicLong()).incrementAndGet();
+			return "";
+		}
+	}
+
+	private void think() throws InterruptedException {
+		if (thinkMillis > 0) {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(thinkMillis / 2, thinkMillis * 3 / 2 + 1));
+		}
+	}
+
+	private static String pick(Pattern link, String html, ThreadLocalRandom random) {
+		List<String> found = new ArrayList<>();
+		Matcher matcher = link.matcher(html);
+
+		while (matcher.find()) {
+			found.add(matcher.group(1));
+		}
+
+		return found.isEmpty() ? null : found.get(random.nextInt(found.size()));
+	}
+
+	private static String form(Map<String, String> fields) {
+		StringBuilder form = new StringBuilder();
+
+		fields.forEach((name, value) -> form.append(form.isEmpty() ? "" : "&").append(name).append('=')
+				.append(URLEncoder.encode(value, StandardCharsets.UTF_8)));
+
+		return form.toString();
+	}
+
+	// Controller and render time of every page, from the recording of the web client
+	private static Map<String, ServerTime> serverTimes(Path recording) throws IOException {
+		Map<String, ServerTime> times = new TreeMap<>();
+
+		if (!Files.isRegularFile(recording)) {
+			System.out.println("No JFR recording of the web client: server-side times not available.");
+			return times;
+		}
+
+		for (RecordedEvent event : RecordingFile.readAllEvents(recording)) {
+			if (event.getEventType().getName().equals(PAGE_EVENT)) {
+				ServerTime time = times.computeIfAbsent(event.getString("endpoint"),
+						endpoint -> new ServerTime(new LatencyHistogram(endpoint), new LatencyHistogram(endpoint)));
+				time.controller().record(event.getLong("controller"));
+				time.render().record(event.getLong("render"));
+			}
+		}
+
+		return times;
+	}
+
+	private void report(Map<String, ServerTime> serverTimes) throws IOException {
+		System.out.printf("%-26s %8s %6s %8s %8s %8s %8s %8s   %10s %10s%n", "page", "requests", "errors",
+				"req/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "ctrl p50", "render p50");
+		List<String> csv = new ArrayList<>(List.of(
+				"page,requests,errors,throughput,p50_ms,p90_ms,p99_ms,max_ms,controller_p50_ms,render_p50_ms"));
+
+		for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(latencies).entrySet()) {
+			String page = entry.getKey();
+			LatencyHistogram latency = entry.getValue();
+			ServerTime server = serverTimes.get(page);
+			long failed = errors.getOrDefault(page, new AtomicLong()).get();
+			double controller = (server == null) ? Double.NaN : server.controller().percentile(0.5) / 1e6;
+			double render = (server == null) ? Double.NaN : server.render().percentile(0.5) / 1e6;
+			Object[] row = { page, latency.count(), failed, (double) latency.count() / seconds,
+					latency.percentile(0.5) / 1e6, latency.percentile(0.9) / 1e6, latency.percentile(0.99) / 1e6,
+					latency.max() / 1e6, controller, render };
+
+			System.out.printf("%-26s %8d %6d %8.1f %8.2f %8.2f %8.2f %8.2f   %10.2f %10.2f%n", row);
+			csv.add(String.format(Locale.ROOT, "%s,%d,%d,%.2f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f", row));
+		}
+
+		String reportFile = System.getProperty("loadtest.report");
+
+		if (reportFile != null) {
+			Path path = Paths.get(reportFile);
+			Files.createDirectories(path.toAbsolutePath().getParent());
+
+			try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+				csv.forEach(writer::println);
+			}
+		}
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package es.deusto.sd.auctions.client.bidding;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import jdk.jfr.Timestamp;
+
+/**
+ * JDK Flight Recorder event emitted for every bid sent by the
+ * {@link ProxyBidEngine}. The duration of the event is the round trip of the
+ * bid request. Recorded when the client runs with a recording active, e.g.
+ * {@code -XX:StartFlightRecording=filename=bids.jfr}.
+ */
+@Name("es.deusto.sd.auctions.Bid")
+@Label("Proxy Bid")
+@Category({ "Auctions", "Bidding" })
+@Description("Bid sent automatically by the proxy bidding engine")
+@StackTrace(false)
+class BidEvent extends Event {
+	@Label("Article")
+	long articleId;
+
+	@Label("Strategy")
+	String strategy;
+
+	@Label("Amount")
+	float amount;
+
+	@Label("Currency")
+	String currency;
+
+	@Label("Target Time")
+	@Description("Time at which the bid was meant to be sent (only for last-second bids)")
+	@Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+	long targetTime;
+
+	@Label("Scheduling Error")
+	@Description("Delay between the target time (or the detection of a competing bid) and the moment the bid was sent")
+	@Timespan(Timespan.NANOSECONDS)
+	long schedulingError;
+
+	@Label("Success")
+	boolean success;
+
+	@Label("Message")
+	String message;
+}
@@ -0,0 +1,110 @@
+package es.deusto.sd.auctions.client.bidding;
+
+/**
+ * LatencyHistogram records durations in nanoseconds in log-linear buckets:
+ * every power of two is split into 16 buckets, so any recorded value is known
+ * within about 6% from 1 ns up to centuries, with a fixed footprint of under
+ * one thousand counters and no allocation per sample. Percentiles are reported
+ * as the upper bound of their bucket (never below the real value), capped by
+ * the largest value actually recorded.
+ *
+ * Used by {@link ProxyBidEngine} to report how close to their target time the
+ * bids were sent, and by the batch mode of the console client for the latency
+ * of each type of operation. Thread-safe.
+ */
+public class LatencyHistogram {
+	// Values below this are counted exactly (one bucket per nanosecond)
+	private static final int EXACT_LIMIT = 32;
+	// Buckets per power of two above the exact range
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	// Exponent of the first power of two above the exact range (2^5 = 32)
+	private static final int FIRST_MAGNITUDE = 5;
+
+	private final String name;
+	private final long[] counts = new long[EXACT_LIMIT + (63 - FIRST_MAGNITUDE) * SUB_BUCKETS];
+	private long count;
+	private long sum;
+	private long min = Long.MAX_VALUE;
+	private long max;
+
+	public LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	// Negative values (e.g. an event that happened before its target) count as zero
+	public synchronized void record(long nanos) {
+		long value = Math.max(0, nanos);
+
+		counts[bucketOf(value)]++;
+		count++;
+		sum += value;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	public synchronized long count() {
+		return count;
+	}
+
+	public synchronized long max() {
+		return max;
+	}
+
+	public synchronized double mean() {
+		return (count == 0) ? 0 : (double) sum / count;
+	}
+
+	// Value below which the given fraction (0..1) of the samples fall
+	public synchronized long percentile(double fraction) {
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+
+		for (int bucket = 0; bucket < counts.length; bucket++) {
+			seen += counts[bucket];
+
+			if (seen >= rank) {
+				return Math.min(max, upperBoundOf(bucket));
+			}
+		}
+
+		return max;
+	}
+
+	// One-line summary in microseconds, e.g. for the logs at the end of a session
+	public synchronized String summary() {
+		if (count == 0) {
+			return name + ": no samples";
+		}
+
+		return String.format("%s: n=%d min=%.1fus mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus",
+				name, count, min / 1e3, mean() / 1e3, percentile(0.5) / 1e3, percentile(0.9) / 1e3,
+				percentile(0.99) / 1e3, max / 1e3);
+	}
+
+	static int bucketOf(long value) {
+		if (value < EXACT_LIMIT) {
+			return (int) value;
+		}
+
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+		return EXACT_LIMIT + (magnitude - FIRST_MAGNITUDE) * SUB_BUCKETS + subBucket;
+	}
+
+	static long upperBoundOf(int bucket) {
+		if (bucket < EXACT_LIMIT) {
+			return bucket;
+		}
+
+		int magnitude = (bucket - EXACT_LIMIT) / SUB_BUCKETS + FIRST_MAGNITUDE;
+		long subBucket = (bucket - EXACT_LIMIT) % SUB_BUCKETS;
+
+		return ((SUB_BUCKETS + subBucket + 1) << (magnitude - SUB_BUCKET_BITS)) - 1;
+	}
+}
@@ -0,0 +1,471 @@
+package es.deusto.sd.auctions.client.bidding;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import es.deusto.sd.auctions.client.data.Article;
+import es.deusto.sd.auctions.client.data.Money;
+import es.deusto.sd.auctions.client.proxies.IAuctionsServiceProxy;
+import es.deusto.sd.auctions.client.proxies.PreparedBid;
+import es.deusto.sd.auctions.client.watchlist.Watchlist;
+
+/**
+ * ProxyBidEngine bids automatically on behalf of the user, up to a maximum
+ * price registered for each article. Two strategies are supported:
+ *
+ * - {@link Strategy#MAX_BID}: whenever a competitor outbids the user, the
+ *   engine bids again the current price plus the minimum increment, until the
+ *   maximum price would be exceeded. Competing bids are detected through the
+ *   {@link Watchlist}, which polls more often as the end of the auction nears.
+ * - {@link Strategy#LAST_SECOND}: a single bid sent at a configurable offset
+ *   before {@code auctionEnd}, leaving competitors no time to react.
+ *
+ * Last-second bids are prepared a few seconds ahead: the price is refreshed,
+ * the request is built ({@link PreparedBid}) and the connection to the server is
+ * warmed up. A dedicated high-priority thread then sleeps until just before the
+ * target time and busy-waits the final couple of milliseconds, so the bid leaves
+ * within microseconds of the target instead of the milliseconds of a regular
+ * timer.
+ *
+ * Amounts are handled in minor units of the currency of the bid, as
+ * {@link Money}: the increments and the maximum price are exact.
+ *
+ * Every bid is measured: the delay between its target time (or, for max-bid
+ * bids, the moment the competing bid was detected) and the moment it was sent
+ * is recorded in a {@link LatencyHistogram} and in a JFR {@link BidEvent}.
+ */
+public class ProxyBidEngine implements AutoCloseable {
+	// Time before the target at which a last-second bid is prepared and its connection warmed
+	private static final Duration PREPARE_LEAD = Duration.ofSeconds(3);
+	// Final stretch before the target that is busy-waited instead of slept
+	private static final long SPIN_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+	// Minimum increment over the current price, as a decimal amount (1 by default: 1.00), overridable
+	// with -Dauctions.bidding.increment=...; kept in minor units
+	private static final long INCREMENT = Money.parseMinorUnits(System.getProperty("auctions.bidding.increment", "1"));
+	// Currency the AuctionsService keeps the prices in: the prices of any other one are converted
+	private static final String BASE_CURRENCY = "EUR";
+	// Time before the end at which last-second bids are sent (-Dauctions.bidding.last-second-offset=millis)
+	private static final Duration LAST_SECOND_OFFSET = Duration.ofMillis(
+			Long.parseLong(System.getProperty("auctions.bidding.last-second-offset", "1000")));
+
+	public enum Strategy {
+		MAX_BID, LAST_SECOND
+	}
+
+	/**
+	 * Outcome of a bid sent by the engine, or the end of a proxy bid (maximum
+	 * price reached, auction over).
+	 */
+	public record BidResult(Long articleId, Strategy strategy, Money amount, boolean success, String message) {
+		public String currency() {
+			return amount.currency();
+		}
+	}
+
+	/**
+	 * Receives the results of the engine, from the engine threads.
+	 */
+	@FunctionalInterface
+	public interface Listener {
+		void bidAttempted(BidResult result);
+	}
+
+	private final class ProxyBid {
+		private final Watchlist.WatchKey key;
+		private final Strategy strategy;
+		// In minor units, like every amount below
+		private final long maxAmount;
+		// Token of the account the bids are sent from
+		private final Supplier<String> token;
+		// Latest known state of the article
+		private volatile Article article;
+		// Last amount bid by the engine (0 if none)
+		private volatile long lastBid;
+		// State below is guarded by the ProxyBid's monitor
+		private boolean finished;
+		private boolean fired;
+		private long plannedEndMillis;
+		private ScheduledFuture<?> armTask;
+
+		ProxyBid(Watchlist.WatchKey key, Strategy strategy, long maxAmount, Supplier<String> token) {
+			this.key = key;
+			this.strategy = strategy;
+			this.maxAmount = maxAmount;
+			this.token = token;
+		}
+	}
+
+	private final IAuctionsServiceProxy serviceProxy;
+	private final Watchlist watchlist;
+	private final Supplier<String> tokenSupplier;
+	private final long increment;
+	private final Duration lastSecondOffset;
+	private final Map<Watchlist.WatchKey, ProxyBid> bids = new ConcurrentHashMap<>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	// Reacts to the changes of the articles, one at a time
+	private final ExecutorService bidder;
+	// Prepares the last-second bids
+	private final ScheduledExecutorService scheduler;
+	private final Watchlist.Listener watchListener = this::articleChanged;
+	private final LatencyHistogram schedulingError = new LatencyHistogram("last-second scheduling error");
+	private final LatencyHistogram reactionTime = new LatencyHistogram("max-bid reaction time");
+
+	public ProxyBidEngine(IAuctionsServiceProxy serviceProxy, Watchlist watchlist, Supplier<String> tokenSupplier) {
+		this(serviceProxy, watchlist, tokenSupplier, INCREMENT, LAST_SECOND_OFFSET);
+	}
+
+	public ProxyBidEngine(IAuctionsServiceProxy serviceProxy, Watchlist watchlist, Supplier<String> tokenSupplier,
+						  long increment, Duration lastSecondOffset) {
+		this.serviceProxy = serviceProxy;
+		this.watchlist = watchlist;
+		this.tokenSupplier = tokenSupplier;
+		this.increment = increment;
+		this.lastSecondOffset = lastSecondOffset;
+		this.bidder = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "proxy-bidder"));
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "proxy-bid-scheduler"));
+		watchlist.addListener(watchListener);
+	}
+
+	// Outbids competitors by the minimum increment until maxAmount would be exceeded
+	public void maxBid(Long articleId, Money maxAmount) {
+		maxBid(articleId, maxAmount, tokenSupplier);
+	}
+
+	// Same, bidding from the account whose token is supplied (e.g. one of a SessionPool)
+	public void maxBid(Long articleId, Money maxAmount, Supplier<String> token) {
+		register(new ProxyBid(new Watchlist.WatchKey(articleId, maxAmount.currency()), Strategy.MAX_BID,
+				maxAmount.minorUnits(), token));
+	}
+
+	// Sends a single bid (current price plus the increment, up to maxAmount) just before the end
+	public void lastSecond(Long articleId, Money maxAmount) {
+		lastSecond(articleId, maxAmount, tokenSupplier);
+	}
+
+	// Same, bidding from the account whose token is supplied (e.g. one of a SessionPool)
+	public void lastSecond(Long articleId, Money maxAmount, Supplier<String> token) {
+		register(new ProxyBid(new Watchlist.WatchKey(articleId, maxAmount.currency()), Strategy.LAST_SECOND,
+				maxAmount.minorUnits(), token));
+	}
+
+	public void cancel(Long articleId, String currency) {
+		ProxyBid bid = bids.get(new Watchlist.WatchKey(articleId, currency));
+
+		if (bid != null) {
+			finish(bid);
+		}
+	}
+
+	public boolean isActive(Long articleId, String currency) {
+		return bids.containsKey(new Watchlist.WatchKey(articleId, currency));
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	// Delay between the target time of the last-second bids and the moment they were sent
+	public LatencyHistogram schedulingError() {
+		return schedulingError;
+	}
+
+	// Delay between the detection of a competing bid and the moment the answer was sent
+	public LatencyHistogram reactionTime() {
+		return reactionTime;
+	}
+
+	public String report() {
+		return schedulingError.summary() + System.lineSeparator() + reactionTime.summary();
+	}
+
+	private void register(ProxyBid bid) {
+		ProxyBid previous = bids.put(bid.key, bid);
+
+		if (previous != null) {
+			finish(previous); // A new maximum replaces the previous one
+		}
+
+		watchlist.watch(bid.key.articleId(), bid.key.currency());
+
+		// The watchlist only reports changes: fetch the current state once to start
+		bidder.execute(() -> {
+			try {
+				onArticle(bid, serviceProxy.getArticleDetails(bid.key.articleId(), bid.key.currency()), System.nanoTime());
+			} catch (RuntimeException e) {
+				// The watchlist will report the article as soon as it polls it
+			}
+		});
+	}
+
+	private void articleChanged(Watchlist.WatchKey key, Article article) {
+		ProxyBid bid = bids.get(key);
+
+		if (bid != null) {
+			long detectedNanos = System.nanoTime();
+			bidder.execute(() -> onArticle(bid, article, detectedNanos));
+		}
+	}
+
+	// Runs on the bidder thread
+	private void onArticle(ProxyBid bid, Article article, long detectedNanos) {
+		synchronized (bid) {
+			if (bid.finished) {
+				return;
+			}
+		}
+
+		bid.article = article;
+
+		if (article.auctionEnd() != null && article.auctionEnd().toInstant().isBefore(Instant.now())) {
+			boolean won = bid.lastBid > 0 && !isOutbid(bid, currentPrice(article), bid.lastBid);
+			finish(bid);
+			notifyListeners(bid, currentPrice(article), won, won ? "Auction won" : "Auction ended");
+			return;
+		}
+
+		if (bid.strategy == Strategy.MAX_BID) {
+			if (bid.lastBid > 0 && !isOutbid(bid, currentPrice(article), bid.lastBid)) {
+				return; // The user is still the highest bidder
+			}
+
+			long amount = currentPrice(article) + increment;
+
+			if (amount > bid.maxAmount) {
+				finish(bid);
+				notifyListeners(bid, amount, false, "Outbid above the maximum price");
+				return;
+			}
+
+			String token = bid.token.get();
+			send(bid, serviceProxy.prepareBid(bid.key.articleId(), money(bid, amount), token),
+					amount, 0, detectedNanos, reactionTime);
+		} else {
+			scheduleLastSecond(bid, article);
+		}
+	}
+
+	// Plans (or re-plans, if the end of the auction moved) the preparation of a last-second bid
+	private void scheduleLastSecond(ProxyBid bid, Article article) {
+		if (article.auctionEnd() == null) {
+			return;
+		}
+
+		long endMillis = article.auctionEnd().getTime();
+
+		synchronized (bid) {
+			if (bid.fired || bid.plannedEndMillis == endMillis) {
+				return;
+			}
+
+			if (bid.armTask != null) {
+				bid.armTask.cancel(false);
+			}
+
+			long delay = endMillis - lastSecondOffset.toMillis() - PREPARE_LEAD.toMillis() - System.currentTimeMillis();
+			bid.plannedEndMillis = endMillis;
+			bid.armTask = scheduler.schedule(() -> arm(bid), Math.max(0, delay), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	// Runs on the scheduler thread a few seconds before the target: refreshes the price,
+	// prepares the request, warms the connection and hands over to a sniper thread
+	private void arm(ProxyBid bid) {
+		Article article = bid.article;
+
+		try {
+			article = serviceProxy.getArticleDetails(bid.key.articleId(), bid.key.currency());
+			bid.article = article;
+		} catch (RuntimeException e) {
+			// Go on with the last known price
+		}
+
+		long targetMillis = article.auctionEnd().getTime() - lastSecondOffset.toMillis();
+
+		synchronized (bid) {
+			if (bid.finished) {
+				return;
+			}
+
+			if (targetMillis - System.currentTimeMillis() > 2 * PREPARE_LEAD.toMillis()) {
+				// The auction was extended: prepare again closer to the new end
+				bid.plannedEndMillis = 0;
+				scheduleLastSecond(bid, article);
+				return;
+			}
+
+			bid.fired = true;
+		}
+
+		long amount = currentPrice(article) + increment;
+
+		if (amount > bid.maxAmount) {
+			finish(bid);
+			notifyListeners(bid, amount, false, "Current price above the maximum price");
+			return;
+		}
+
+		PreparedBid prepared = serviceProxy.prepareBid(bid.key.articleId(), money(bid, amount), bid.token.get());
+		prepared.warmUp();
+
+		Thread sniper = new Thread(() -> fire(bid, prepared, amount, targetMillis), "bid-sniper-" + bid.key.articleId());
+		sniper.setDaemon(true);
+		sniper.setPriority(Thread.MAX_PRIORITY);
+		sniper.start();
+	}
+
+	// Waits for the target time with sub-millisecond precision and sends the bid
+	private void fire(ProxyBid bid, PreparedBid prepared, long amount, long targetMillis) {
+		long targetNanos = nanoTimeOf(targetMillis);
+		long remaining;
+
+		while ((remaining = targetNanos - System.nanoTime()) > SPIN_NANOS) {
+			LockSupport.parkNanos(remaining - SPIN_NANOS);
+		}
+
+		// A competitor may have bid while waiting: raise the bid if the maximum allows it
+		Article latest = bid.article;
+
+		if (isOutbid(bid, currentPrice(latest), amount - increment)) {
+			long raised = currentPrice(latest) + increment;
+
+			if (raised <= bid.maxAmount) {
+				prepared = serviceProxy.prepareBid(bid.key.articleId(), money(bid, raised), bid.token.get());
+				amount = raised;
+			}
+		}
+
+		while (System.nanoTime() < targetNanos) {
+			Thread.onSpinWait();
+		}
+
+		synchronized (bid) {
+			if (bid.finished) {
+				return; // Cancelled while waiting
+			}
+		}
+
+		send(bid, prepared, amount, targetMillis, targetNanos, schedulingError);
+	}
+
+	private void send(ProxyBid bid, PreparedBid prepared, long amount, long targetMillis, long scheduledNanos,
+					  LatencyHistogram histogram) {
+		BidEvent event = new BidEvent();
+		event.begin();
+
+		long sentNanos = System.nanoTime();
+		boolean success;
+		String message;
+
+		try {
+			prepared.send();
+			bid.lastBid = amount;
+			success = true;
+			message = "Bid placed";
+		} catch (RuntimeException e) {
+			success = false;
+			message = e.getMessage();
+		}
+
+		event.end();
+		histogram.record(sentNanos - scheduledNanos);
+
+		if (event.shouldCommit()) {
+			event.articleId = bid.key.articleId();
+			event.strategy = bid.strategy.name();
+			event.amount = money(bid, amount).toFloat();
+			event.currency = bid.key.currency();
+			event.targetTime = targetMillis;
+			event.schedulingError = sentNanos - scheduledNanos;
+			event.success = success;
+			event.message = message;
+			event.commit();
+		}
+
+		notifyListeners(bid, amount, success, message);
+	}
+
+	private void finish(ProxyBid bid) {
+		synchronized (bid) {
+			if (bid.finished) {
+				return;
+			}
+
+			bid.finished = true;
+
+			if (bid.armTask != null) {
+				bid.armTask.cancel(false);
+			}
+		}
+
+		bids.remove(bid.key, bid);
+		watchlist.unwatch(bid.key.articleId(), bid.key.currency());
+	}
+
+	private void notifyListeners(ProxyBid bid, long amount, boolean success, String message) {
+		BidResult result = new BidResult(bid.key.articleId(), bid.strategy, money(bid, amount), success, message);
+
+		for (Listener listener : listeners) {
+			listener.bidAttempted(result);
+		}
+	}
+
+	// An amount of the bid in its currency
+	private static Money money(ProxyBid bid, long minorUnits) {
+		return new Money(minorUnits, bid.key.currency());
+	}
+
+	// Current price of an article, in minor units of the currency it was requested in (0 if unknown)
+	private static long currentPrice(Article article) {
+		return (article.currentPrice() == null) ? 0 : article.currentPrice().minorUnits();
+	}
+
+	// Prices in the base currency are exact. Those in another currency come back converted by
+	// the server: allow for the rounding of the conversion when comparing with our bid.
+	private static boolean isOutbid(ProxyBid bid, long currentPrice, long ownBid) {
+		if (BASE_CURRENCY.equals(bid.key.currency())) {
+			return currentPrice > ownBid;
+		}
+
+		return currentPrice > ownBid + ownBid / 10_000 + 1;
+	}
+
+	// Converts a wall-clock time into the System.nanoTime() scale, keeping sub-millisecond precision
+	private static long nanoTimeOf(long epochMillis) {
+		Instant now = Instant.now();
+		long nowEpochNanos = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+
+		return System.nanoTime() + (epochMillis * 1_000_000L - nowEpochNanos);
+	}
+
+	private static Thread daemon(Runnable runnable, String name) {
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	@Override
+	public void close() {
+		watchlist.removeListener(watchListener);
+		scheduler.shutdownNow();
+		bidder.shutdownNow();
+
+		for (ProxyBid bid : bids.values()) {
+			finish(bid);
+		}
+	}
+}
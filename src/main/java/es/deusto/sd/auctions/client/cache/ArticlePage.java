@@ -0,0 +1,159 @@
+package es.deusto.sd.auctions.client.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import es.deusto.sd.auctions.client.data.Article;
+
+/**
+ * One page of the articles of a category, in a given order. However large the
+ * category, a page holds at most {@code size} articles and links to a bounded
+ * window of page numbers, so the page rendered has the same size.
+ *
+ * The page is selected without sorting the whole list when it is near the top:
+ * every article is reduced to a long (its {@link ArticleSort} key, with its
+ * index in the lower bits so ties keep the listed order), and the smallest
+ * keys up to the end of the page are kept in a bounded heap, O(n log k).
+ * Deeper pages sort the keys instead. With the listed order the page is just
+ * a sublist, and only its articles are decoded from the cache.
+ *
+ * @param page number of the page, from 1
+ * @param total number of articles of the category
+ */
+public record ArticlePage(List<Article> articles, ArticleSort sort, int page, int size, int total) {
+	// Largest list that can be sorted: the index of an article takes 24 bits of its key
+	private static final int MAX_ARTICLES = 1 << 24;
+	private static final long INDEX_MASK = MAX_ARTICLES - 1;
+
+	public static ArticlePage of(List<Article> articles, ArticleSort sort, int page, int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("The page size must be positive");
+		}
+
+		int total = articles.size();
+		int pages = Math.max(1, (total + size - 1) / size);
+		int number = Math.clamp(page, 1, pages);
+		int from = Math.min(total, (number - 1) * size);
+		int to = Math.min(total, from + size);
+
+		if (sort == ArticleSort.LISTED) {
+			return new ArticlePage(articles.subList(from, to), sort, number, size, total);
+		}
+
+		if (total > MAX_ARTICLES) {
+			throw new IllegalArgumentException("Too many articles to sort: " + total);
+		}
+
+		long[] smallest = smallest(articles, sort, to);
+		List<Article> selected = new ArrayList<>(to - from);
+
+		for (int i = from; i < to; i++) {
+			selected.add(articles.get((int) (smallest[i] & INDEX_MASK)));
+		}
+
+		return new ArticlePage(selected, sort, number, size, total);
+	}
+
+	public int pages() {
+		return Math.max(1, (total + size - 1) / size);
+	}
+
+	// Position of the first and last articles of the page, from 1 (0 and 0 if there are none)
+	public int first() {
+		return articles.isEmpty() ? 0 : (page - 1) * size + 1;
+	}
+
+	public int last() {
+		return (page - 1) * size + articles.size();
+	}
+
+	public boolean hasPrevious() {
+		return page > 1;
+	}
+
+	public boolean hasNext() {
+		return page < pages();
+	}
+
+	// Numbers of at most {@code links} pages around the current one
+	public List<Integer> window(int links) {
+		int start = Math.max(1, Math.min(page - links / 2, pages() - links + 1));
+		int end = Math.min(pages(), start + links - 1);
+		List<Integer> numbers = new ArrayList<>(end - start + 1);
+
+		for (int number = start; number <= end; number++) {
+			numbers.add(number);
+		}
+
+		return numbers;
+	}
+
+	// The k smallest packed keys, sorted
+	private static long[] smallest(List<Article> articles, ArticleSort sort, int k) {
+		int total = articles.size();
+
+		if (k > total / 2) {
+			long[] keys = new long[total];
+
+			for (int i = 0; i < total; i++) {
+				keys[i] = packed(sort, articles.get(i), i);
+			}
+
+			Arrays.sort(keys);
+			return keys;
+		}
+
+		// Max-heap of the k smallest keys seen so far
+		long[] heap = new long[k];
+
+		for (int i = 0; i < total; i++) {
+			long key = packed(sort, articles.get(i), i);
+
+			if (i < k) {
+				heap[i] = key;
+
+				if (i == k - 1) {
+					for (int parent = k / 2 - 1; parent >= 0; parent--) {
+						siftDown(heap, parent);
+					}
+				}
+			} else if (key < heap[0]) {
+				heap[0] = key;
+				siftDown(heap, 0);
+			}
+		}
+
+		Arrays.sort(heap);
+		return heap;
+	}
+
+	private static long packed(ArticleSort sort, Article article, int index) {
+		return (sort.key(article) << 24) | index;
+	}
+
+	private static void siftDown(long[] heap, int index) {
+		long key = heap[index];
+
+		while (true) {
+			int child = 2 * index + 1;
+
+			if (child >= heap.length) {
+				break;
+			}
+
+			if (child + 1 < heap.length && heap[child + 1] > heap[child]) {
+				child++;
+			}
+
+			if (heap[child] <= key) {
+				break;
+			}
+
+			heap[index] = heap[child];
+			index = child;
+		}
+
+		heap[index] = key;
+	}
+}
@@ -0,0 +1,65 @@
+package es.deusto.sd.auctions.client.cache;
+
+import es.deusto.sd.auctions.client.data.Article;
+
+/**
+ * Orders of the articles of a category page. Each order maps an article to a
+ * primitive sort key, so a page can be selected by comparing longs instead of
+ * articles (see {@link ArticlePage}). Articles without the field sorted on go
+ * last.
+ */
+public enum ArticleSort {
+	// As returned by the AuctionsService
+	LISTED("listed", "As listed"),
+	PRICE("price", "Lowest price"),
+	PRICE_DESC("price-desc", "Highest price"),
+	BIDS("bids", "Most bids"),
+	ENDING("ending", "Ending soonest");
+
+	// Keys fit in 40 bits (signed): the article index takes the lower 24 bits of the packed key
+	static final long MAX_KEY = (1L << 39) - 1;
+
+	private final String param;
+	private final String label;
+
+	ArticleSort(String param, String label) {
+		this.param = param;
+		this.label = label;
+	}
+
+	// Value of the sort parameter of the category page
+	public String param() {
+		return param;
+	}
+
+	public String label() {
+		return label;
+	}
+
+	// The order of a sort parameter; unknown ones keep the listed order
+	public static ArticleSort of(String param) {
+		for (ArticleSort sort : values()) {
+			if (sort.param.equals(param)) {
+				return sort;
+			}
+		}
+
+		return LISTED;
+	}
+
+	// Ascending key of an article (not used by LISTED)
+	long key(Article article) {
+		return switch (this) {
+			case LISTED -> 0;
+			case PRICE -> (article.currentPrice() == null) ? MAX_KEY : sortable(article.currentPrice().minorUnits());
+			case PRICE_DESC -> (article.currentPrice() == null) ? MAX_KEY : -sortable(article.currentPrice().minorUnits());
+			case BIDS -> (article.bids() == null) ? MAX_KEY : -(long) article.bids();
+			case ENDING -> (article.auctionEnd() == null) ? MAX_KEY : article.auctionEnd().getTime() / 1000;
+		};
+	}
+
+	// Minor units of a price, clamped to the keys below MAX_KEY (either sign)
+	private static long sortable(long minorUnits) {
+		return Math.max(-(MAX_KEY - 1), Math.min(MAX_KEY - 1, minorUnits));
+	}
+}
@@ -0,0 +1,275 @@
+package es.deusto.sd.auctions.client.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.deusto.sd.auctions.client.crawler.BinaryArticleCodec;
+import es.deusto.sd.auctions.client.data.Article;
+
+/**
+ * OffHeapArticleCache keeps article lists (one per category and currency)
+ * serialized outside the Java heap, so that a large catalog can be cached
+ * without growing the heap or the garbage collection pauses. Only a small
+ * location record per list lives on the heap.
+ *
+ * Lists are encoded with the record format of {@link BinaryArticleCodec} (each
+ * record preceded by its length) and appended to direct ByteBuffer slabs of a
+ * fixed size, allocated on demand up to the byte budget. The slabs are used as
+ * a ring, like a log: when the budget is exhausted, the oldest slab is recycled
+ * and every list still stored in it is evicted. A list that is read while it
+ * lives in the next slab to be recycled is copied to the newest one (second
+ * chance), so frequently read lists survive while the rest age out. Replaced
+ * lists leave their old copy behind until its slab is recycled.
+ *
+ * A read copies the bytes of the list to the heap and returns a list view that
+ * decodes each article the first time it is accessed. Every list also carries
+ * the time it was stored, so readers can ask only for fresh enough data.
+ *
+ * Thread-safe: all the operations on the slabs are short copies under the lock
+ * of the cache; decoding happens outside of it.
+ */
+public class OffHeapArticleCache {
+	private static final Logger logger = LoggerFactory.getLogger(OffHeapArticleCache.class);
+
+	public static final int DEFAULT_SLAB_BYTES = 1024 * 1024;
+
+	/**
+	 * Where a list is stored: slab, offset and length of its bytes, number of
+	 * articles and time it was stored.
+	 */
+	private record Location(int slab, int offset, int length, int count, long savedAt) {}
+
+	private final int slabBytes;
+	private final ByteBuffer[] slabs;
+	// Keys written in each slab (some may have been replaced since)
+	private final List<Set<String>> slabKeys = new ArrayList<>();
+	private final Map<String, Location> index = new HashMap<>();
+	// Slab being filled, and first free byte in it
+	private int head;
+	private int position;
+	private long evictions;
+
+	public OffHeapArticleCache(long maxBytes) {
+		this(maxBytes, DEFAULT_SLAB_BYTES);
+	}
+
+	public OffHeapArticleCache(long maxBytes, int slabBytes) {
+		if (slabBytes < 1024 || maxBytes / slabBytes < 2) {
+			throw new IllegalArgumentException("The cache needs at least two slabs of at least 1 KiB");
+		}
+
+		this.slabBytes = slabBytes;
+		this.slabs = new ByteBuffer[(int) Math.min(Integer.MAX_VALUE, maxBytes / slabBytes)];
+
+		for (int i = 0; i < slabs.length; i++) {
+			slabKeys.add(new HashSet<>());
+		}
+
+		slabs[0] = ByteBuffer.allocateDirect(slabBytes);
+	}
+
+	// Articles of a category stored less than maxAgeMillis ago, if any
+	public Optional<List<Article>> get(String categoryName, String currency, long maxAgeMillis) {
+		String key = key(categoryName, currency);
+		byte[] bytes;
+		int count;
+
+		synchronized (this) {
+			Location location = index.get(key);
+
+			if (location == null || System.currentTimeMillis() - location.savedAt() > maxAgeMillis) {
+				return Optional.empty();
+			}
+
+			bytes = new byte[location.length()];
+			slabs[location.slab()].get(location.offset(), bytes);
+			count = location.count();
+
+			if (location.slab() == nextToRecycle()) {
+				append(key, bytes, count, location.savedAt()); // Second chance
+			}
+		}
+
+		return Optional.of(new ArticleList(bytes, count));
+	}
+
+	public void put(String categoryName, String currency, List<Article> articles) {
+		String key = key(categoryName, currency);
+		byte[] bytes = encode(articles);
+
+		synchronized (this) {
+			if (bytes.length > slabBytes) {
+				index.remove(key); // Never cached: the old copy would be stale
+				logger.debug("Articles of {} not cached: {} bytes over the slab size", categoryName, bytes.length);
+				return;
+			}
+
+			append(key, bytes, articles.size(), System.currentTimeMillis());
+		}
+	}
+
+	// Time the articles of a category were stored, or -1 if they are not in the cache
+	public synchronized long savedAt(String categoryName, String currency) {
+		Location location = index.get(key(categoryName, currency));
+
+		return (location == null) ? -1 : location.savedAt();
+	}
+
+	// Forgets the articles of a category in every currency (e.g. after a bid changed a price)
+	public synchronized void invalidateCategory(String categoryName) {
+		String prefix = key(categoryName, "");
+
+		index.keySet().removeIf(key -> key.startsWith(prefix));
+	}
+
+	public synchronized int size() {
+		return index.size();
+	}
+
+	// Bytes of direct memory allocated so far
+	public synchronized long allocatedBytes() {
+		long allocated = 0;
+
+		for (ByteBuffer slab : slabs) {
+			if (slab != null) {
+				allocated += slab.capacity();
+			}
+		}
+
+		return allocated;
+	}
+
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	private void append(String key, byte[] bytes, int count, long savedAt) {
+		if (position + bytes.length > slabBytes) {
+			advance();
+		}
+
+		slabs[head].put(position, bytes);
+		index.put(key, new Location(head, position, bytes.length, count, savedAt));
+		slabKeys.get(head).add(key);
+		position += bytes.length;
+	}
+
+	// Moves to the next slab of the ring, allocating it or evicting the lists stored in it
+	private void advance() {
+		head = (head + 1) % slabs.length;
+		position = 0;
+
+		if (slabs[head] == null) {
+			slabs[head] = ByteBuffer.allocateDirect(slabBytes);
+			return;
+		}
+
+		for (String key : slabKeys.get(head)) {
+			Location location = index.get(key);
+
+			if (location != null && location.slab() == head) {
+				index.remove(key);
+				evictions++;
+			}
+		}
+
+		slabKeys.get(head).clear();
+	}
+
+	// Slab that advance() will recycle next (-1 while the ring is not full)
+	private int nextToRecycle() {
+		int next = (head + 1) % slabs.length;
+
+		return (slabs[next] == null) ? -1 : next;
+	}
+
+	// NUL cannot appear in category names or currencies
+	private static String key(String categoryName, String currency) {
+		return categoryName + '\0' + currency;
+	}
+
+	private static byte[] encode(List<Article> articles) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 * articles.size());
+		DataOutputStream out = new DataOutputStream(bytes);
+		ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+		DataOutputStream record = new DataOutputStream(recordBytes);
+
+		try {
+			for (Article article : articles) {
+				recordBytes.reset();
+				BinaryArticleCodec.encode(article, record);
+				out.writeInt(recordBytes.size());
+				recordBytes.writeTo(out);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // Not thrown by in-memory streams
+		}
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Read-only view of a cached list. The offsets of the records are found
+	 * when the view is created; each article is decoded on its first access.
+	 */
+	private static final class ArticleList extends AbstractList<Article> implements RandomAccess {
+		private final byte[] bytes;
+		private final int[] offsets;
+		private final Article[] articles;
+
+		private ArticleList(byte[] bytes, int count) {
+			this.bytes = bytes;
+			this.offsets = new int[count];
+			this.articles = new Article[count];
+
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+			for (int i = 0; i < count; i++) {
+				offsets[i] = buffer.position() + 4;
+				buffer.position(offsets[i] + buffer.getInt());
+			}
+		}
+
+		@Override
+		public Article get(int index) {
+			Article article = articles[index];
+
+			if (article == null) {
+				int length = ByteBuffer.wrap(bytes).getInt(offsets[index] - 4);
+
+				try {
+					article = BinaryArticleCodec.decode(
+							new DataInputStream(new ByteArrayInputStream(bytes, offsets[index], length)));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e); // Corrupted cache entry
+				}
+
+				articles[index] = article;
+			}
+
+			return article;
+		}
+
+		@Override
+		public int size() {
+			return articles.length;
+		}
+	}
+}
@@ -0,0 +1,338 @@
+package es.deusto.sd.auctions.client.cache;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.deusto.sd.auctions.client.data.Article;
+import es.deusto.sd.auctions.client.data.Category;
+import es.deusto.sd.auctions.client.proxies.Deadline;
+import es.deusto.sd.auctions.client.proxies.IAuctionsServiceProxy;
+import es.deusto.sd.auctions.client.proxies.ServiceError;
+import es.deusto.sd.auctions.client.proxies.ServiceException;
+
+/**
+ * RefreshAheadCatalog serves the categories and the article lists of the web
+ * client from memory (the article lists from an {@link OffHeapArticleCache}),
+ * and keeps the popular ones fresh in the background so that visitors almost
+ * never wait for the AuctionsService:
+ *
+ * - Every read counts as an access to its entry. The counts are halved every
+ *   minute, so they follow the recent traffic.
+ * - A background thread refreshes the entries that were accessed recently and
+ *   have lived three quarters of their time to live, the most accessed first,
+ *   within a budget of refreshes per second (a token bucket). Entries nobody
+ *   reads are left to expire.
+ * - Concurrent misses of the same entry share a single backend call. It runs
+ *   outside of the {@link Deadline} of the request that started it, so it is
+ *   not cut short for the other requests waiting for it.
+ * - The most accessed entries are saved to a small file on shutdown (and every
+ *   minute), and preloaded on the next startup together with the categories.
+ *   Without such a file the first categories are preloaded in euros.
+ */
+public class RefreshAheadCatalog implements AutoCloseable {
+	private static final Logger logger = LoggerFactory.getLogger(RefreshAheadCatalog.class);
+
+	// Longest period of the refresh checks (shorter with short times to live, so that
+	// entries are checked several times within their refresh-ahead window)
+	private static final long MAX_TICK_MILLIS = 500;
+	// Fraction of the time to live after which a popular entry is refreshed
+	private static final double REFRESH_AHEAD = 0.75;
+	// Period after which the access counts are halved
+	private static final long DECAY_MILLIS = 60_000;
+	// Number of entries saved for the next startup
+	private static final int SAVED_ENTRIES = 100;
+	private static final String DEFAULT_CURRENCY = "EUR";
+
+	private record Key(String categoryName, String currency) {}
+
+	private record Categories(List<Category> value, long savedAt) {}
+
+	private final IAuctionsServiceProxy serviceProxy;
+	private final OffHeapArticleCache articleCache;
+	private final long ttlMillis;
+	private final long tickMillis;
+	private final double refreshesPerTick;
+	private final int preload;
+	private final Path hotEntriesFile;
+	// Called with every article list received from the AuctionsService
+	private final BiConsumer<String, List<Article>> articlesListener;
+
+	// Recent accesses of every article list, and of the categories
+	private final Map<Key, AtomicLong> accesses = new ConcurrentHashMap<>();
+	private final AtomicLong categoryAccesses = new AtomicLong();
+	private final Map<Key, CompletableFuture<List<Article>>> articlesInFlight = new ConcurrentHashMap<>();
+	private final AtomicReference<CompletableFuture<List<Category>>> categoriesInFlight = new AtomicReference<>();
+	private volatile Categories categories;
+
+	private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "catalog-refresher");
+		thread.setDaemon(true);
+		return thread;
+	});
+	// Token bucket of the refresh budget and time of the last decay, only used by the refresher
+	private double tokens;
+	private long lastDecay = System.currentTimeMillis();
+
+	public RefreshAheadCatalog(IAuctionsServiceProxy serviceProxy, OffHeapArticleCache articleCache, long ttlMillis,
+							   int maxRefreshesPerSecond, int preload, Path hotEntriesFile,
+							   BiConsumer<String, List<Article>> articlesListener) {
+		this.serviceProxy = serviceProxy;
+		this.articleCache = articleCache;
+		this.ttlMillis = ttlMillis;
+		this.tickMillis = Math.max(10, Math.min(MAX_TICK_MILLIS, ttlMillis / 8));
+		this.refreshesPerTick = maxRefreshesPerSecond * tickMillis / 1000.0;
+		this.preload = preload;
+		this.hotEntriesFile = hotEntriesFile;
+		this.articlesListener = articlesListener;
+	}
+
+	// Preloads the catalog (in the background) and starts refreshing it
+	public void start() {
+		List<Key> hotEntries = loadHotEntries();
+
+		fetchCategories().thenAccept(fetched -> {
+			if (hotEntries.isEmpty()) {
+				fetched.stream().limit(preload)
+						.forEach(category -> fetchArticles(new Key(category.name(), DEFAULT_CURRENCY)));
+			}
+		}).exceptionally(e -> {
+			logger.warn("Could not preload the categories: {}", cause(e).getMessage());
+			return null;
+		});
+
+		hotEntries.stream().limit(preload).forEach(this::fetchArticles);
+		refresher.scheduleWithFixedDelay(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public CompletableFuture<List<Category>> getCategories() {
+		categoryAccesses.incrementAndGet();
+		Categories current = categories;
+
+		if (current != null && System.currentTimeMillis() - current.savedAt() <= ttlMillis) {
+			return CompletableFuture.completedFuture(current.value());
+		}
+
+		return fetchCategories();
+	}
+
+	public CompletableFuture<List<Article>> getArticles(String categoryName, String currency) {
+		Key key = new Key(categoryName, currency);
+		accesses.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+
+		return articleCache.get(categoryName, currency, ttlMillis)
+				.map(CompletableFuture::completedFuture)
+				.orElseGet(() -> fetchArticles(key));
+	}
+
+	// One page of the articles of a category, selected from the cached list
+	public CompletableFuture<ArticlePage> getArticlePage(String categoryName, String currency, ArticleSort sort,
+														 int page, int size) {
+		return getArticles(categoryName, currency).thenApply(articles -> ArticlePage.of(articles, sort, page, size));
+	}
+
+	// Forgets the cached articles of a category (e.g. after a bid changed a price); the
+	// refresher fetches them again if they are popular
+	public void invalidateCategory(String categoryName) {
+		articleCache.invalidateCategory(categoryName);
+	}
+
+	private CompletableFuture<List<Category>> fetchCategories() {
+		CompletableFuture<List<Category>> created = new CompletableFuture<>();
+		CompletableFuture<List<Category>> pending = categoriesInFlight.compareAndExchange(null, created);
+
+		if (pending != null) {
+			return pending;
+		}
+
+		Deadline.detached(serviceProxy::getAllCategoriesAsync).whenComplete((fetched, e) -> {
+			if (e == null) {
+				categories = new Categories(fetched, System.currentTimeMillis());
+			}
+
+			categoriesInFlight.set(null);
+			complete(created, fetched, e);
+		});
+
+		return created;
+	}
+
+	private CompletableFuture<List<Article>> fetchArticles(Key key) {
+		CompletableFuture<List<Article>> created = new CompletableFuture<>();
+		CompletableFuture<List<Article>> pending = articlesInFlight.putIfAbsent(key, created);
+
+		if (pending != null) {
+			return pending;
+		}
+
+		CompletableFuture<List<Article>> call = Deadline.detached(
+				() -> serviceProxy.getArticlesByCategoryAsync(key.categoryName(), key.currency()));
+
+		call.whenComplete((articles, e) -> {
+			if (e == null) {
+				try {
+					articleCache.put(key.categoryName(), key.currency(), articles);
+					articlesListener.accept(key.categoryName(), articles);
+				} catch (RuntimeException failure) {
+					// The waiting pages must still get the articles
+					logger.warn("Could not cache the articles of {}: {}", key.categoryName(), failure.getMessage());
+				}
+			} else if (isPermanent(cause(e))) {
+				accesses.remove(key); // Would fail again: not worth refreshing
+			}
+
+			articlesInFlight.remove(key, created);
+			complete(created, articles, e);
+		});
+
+		return created;
+	}
+
+	// Refresher: refreshes the most accessed entries that are close to expiring
+	private void tick() {
+		try {
+			long now = System.currentTimeMillis();
+			long refreshAge = (long) (ttlMillis * REFRESH_AHEAD);
+			// Unused budget is not accumulated beyond one second's worth
+			tokens = Math.min(tokens + refreshesPerTick, refreshesPerTick * 1000 / tickMillis);
+
+			if (now - lastDecay >= DECAY_MILLIS) {
+				lastDecay = now;
+				decay();
+				saveHotEntries();
+			}
+
+			Categories current = categories;
+
+			if (tokens >= 1 && categoryAccesses.get() > 0 && categoriesInFlight.get() == null
+					&& (current == null || now - current.savedAt() >= refreshAge)) {
+				tokens--;
+				fetchCategories();
+			}
+
+			if (tokens < 1) {
+				return;
+			}
+
+			List<Map.Entry<Key, AtomicLong>> due = new ArrayList<>();
+
+			for (Map.Entry<Key, AtomicLong> entry : accesses.entrySet()) {
+				Key key = entry.getKey();
+				long savedAt = articleCache.savedAt(key.categoryName(), key.currency());
+
+				if ((savedAt < 0 || now - savedAt >= refreshAge) && !articlesInFlight.containsKey(key)) {
+					due.add(entry);
+				}
+			}
+
+			due.sort(Comparator.comparingLong((Map.Entry<Key, AtomicLong> entry) -> entry.getValue().get()).reversed());
+
+			for (int i = 0; i < due.size() && tokens >= 1; i++) {
+				tokens--;
+				fetchArticles(due.get(i).getKey());
+			}
+		} catch (RuntimeException e) {
+			logger.warn("Catalog refresh failed: {}", e.getMessage()); // Keeps the refresher alive
+		}
+	}
+
+	// Halves the access counts; entries without recent accesses are no longer refreshed
+	private void decay() {
+		categoryAccesses.updateAndGet(count -> count / 2);
+		accesses.values().forEach(count -> count.updateAndGet(value -> value / 2));
+		accesses.values().removeIf(count -> count.get() == 0);
+	}
+
+	// Most accessed entries of the previous run, one "currency<TAB>category" per line
+	private List<Key> loadHotEntries() {
+		List<Key> keys = new ArrayList<>();
+
+		try {
+			if (Files.isRegularFile(hotEntriesFile)) {
+				for (String line : Files.readAllLines(hotEntriesFile, StandardCharsets.UTF_8)) {
+					int tab = line.indexOf('\t');
+
+					if (tab > 0) {
+						keys.add(new Key(line.substring(tab + 1), line.substring(0, tab)));
+					}
+				}
+			}
+		} catch (IOException e) {
+			logger.warn("Could not read the popular catalog entries: {}", e.getMessage());
+		}
+
+		return keys;
+	}
+
+	private void saveHotEntries() {
+		List<Map.Entry<Key, AtomicLong>> entries = new ArrayList<>(accesses.entrySet());
+
+		if (entries.isEmpty()) {
+			return; // Keep the entries of the previous run
+		}
+
+		entries.sort(Comparator.comparingLong((Map.Entry<Key, AtomicLong> entry) -> entry.getValue().get()).reversed());
+		StringBuilder lines = new StringBuilder();
+
+		for (Map.Entry<Key, AtomicLong> entry : entries.subList(0, Math.min(SAVED_ENTRIES, entries.size()))) {
+			lines.append(entry.getKey().currency()).append('\t').append(entry.getKey().categoryName()).append('\n');
+		}
+
+		try {
+			Files.createDirectories(hotEntriesFile.toAbsolutePath().getParent());
+			Path tempFile = hotEntriesFile.resolveSibling(hotEntriesFile.getFileName() + ".tmp");
+			Files.writeString(tempFile, lines, StandardCharsets.UTF_8);
+
+			try {
+				Files.move(tempFile, hotEntriesFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, hotEntriesFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			logger.warn("Could not save the popular catalog entries: {}", e.getMessage());
+		}
+	}
+
+	// Client errors (unknown category or currency) are not retried by the refresher
+	private static boolean isPermanent(Throwable e) {
+		return e instanceof ServiceException se
+				&& (se.error() == ServiceError.NOT_FOUND || se.error() == ServiceError.BAD_REQUEST);
+	}
+
+	private static <T> void complete(CompletableFuture<T> future, T value, Throwable e) {
+		if (e == null) {
+			future.complete(value);
+		} else {
+			future.completeExceptionally(e);
+		}
+	}
+
+	private static Throwable cause(Throwable e) {
+		return (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+	}
+
+	@Override
+	public void close() {
+		refresher.shutdownNow();
+		saveHotEntries();
+	}
+}
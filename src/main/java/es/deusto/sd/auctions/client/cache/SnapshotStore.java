@@ -0,0 +1,286 @@
+package es.deusto.sd.auctions.client.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.ObjectMapper;
+
+import es.deusto.sd.auctions.client.data.Article;
+import es.deusto.sd.auctions.client.data.Category;
+
+/**
+ * SnapshotStore keeps on disk the last data received from the AuctionsService
+ * (categories, article lists and the session token) so that the desktop and
+ * console clients can show something immediately on startup and revalidate it
+ * against the server in the background (stale-while-revalidate).
+ *
+ * Every snapshot is a small file under {@code ~/.auctions-client/snapshots}
+ * with a fixed header (magic number, save time, payload length and CRC32)
+ * followed by the JSON payload. Files are written to a temporary file first and
+ * then atomically renamed, so a crash in the middle of a write never leaves a
+ * half-written snapshot behind; files are read through a read-only memory
+ * mapping and any snapshot whose header or checksum does not match is deleted
+ * and treated as missing. The total size of the store is bounded: when it grows
+ * over the limit the oldest snapshots are evicted.
+ *
+ * The store is a best-effort cache: failures are logged and never propagated,
+ * since the clients can always fall back to the network.
+ */
+public class SnapshotStore {
+	private static final Logger logger = LoggerFactory.getLogger(SnapshotStore.class);
+
+	// "ASNP" in ASCII: identifies the files written by this class
+	private static final int MAGIC = 0x41534E50;
+	// magic (int) + savedAt (long) + payload length (int) + CRC32 (long)
+	private static final int HEADER_SIZE = 4 + 8 + 4 + 8;
+	private static final String SUFFIX = ".snap";
+
+	// Default limits: a few megabytes are enough for several hundred article lists
+	public static final long DEFAULT_MAX_TOTAL_BYTES = 16L * 1024 * 1024;
+	public static final int DEFAULT_MAX_ENTRY_BYTES = 4 * 1024 * 1024;
+
+	private static final String CATEGORIES_KEY = "categories";
+	private static final String TOKEN_KEY = "token";
+
+	private final Path directory;
+	private final long maxTotalBytes;
+	private final int maxEntryBytes;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	/**
+	 * A value read from the store together with the time it was saved.
+	 */
+	public record Snapshot<T>(T value, long savedAt) {}
+
+	public SnapshotStore() {
+		this(Paths.get(System.getProperty("user.home"), ".auctions-client", "snapshots"),
+				DEFAULT_MAX_TOTAL_BYTES, DEFAULT_MAX_ENTRY_BYTES);
+	}
+
+	public SnapshotStore(Path directory, long maxTotalBytes, int maxEntryBytes) {
+		this.directory = directory;
+		this.maxTotalBytes = maxTotalBytes;
+		this.maxEntryBytes = maxEntryBytes;
+	}
+
+	public Optional<Snapshot<List<Category>>> loadCategories() {
+		return read(CATEGORIES_KEY, new TypeReference<List<Category>>() {});
+	}
+
+	public void saveCategories(List<Category> categories) {
+		write(CATEGORIES_KEY, categories);
+	}
+
+	public Optional<Snapshot<List<Article>>> loadArticles(String categoryName, String currency) {
+		return read(articlesKey(categoryName, currency), new TypeReference<List<Article>>() {});
+	}
+
+	public void saveArticles(String categoryName, String currency, List<Article> articles) {
+		write(articlesKey(categoryName, currency), articles);
+	}
+
+	public Optional<String> loadToken() {
+		return read(TOKEN_KEY, new TypeReference<String>() {}).map(Snapshot::value);
+	}
+
+	public void saveToken(String token) {
+		write(TOKEN_KEY, token);
+	}
+
+	public void clearToken() {
+		delete(fileOf(TOKEN_KEY));
+	}
+
+	private static String articlesKey(String categoryName, String currency) {
+		return "articles/" + categoryName + "/" + currency;
+	}
+
+	// Keys are hashed so that any category name maps to a valid file name
+	private Path fileOf(String key) {
+		return directory.resolve(DigestUtils.sha1Hex(key) + SUFFIX);
+	}
+
+	private <T> Optional<Snapshot<T>> read(String key, TypeReference<T> type) {
+		Path file = fileOf(key);
+
+		if (!Files.isRegularFile(file)) {
+			return Optional.empty();
+		}
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+
+			if (fileSize < HEADER_SIZE || fileSize > HEADER_SIZE + (long) maxEntryBytes) {
+				throw new IOException("Unexpected snapshot size: " + fileSize);
+			}
+
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Bad snapshot header");
+			}
+
+			long savedAt = buffer.getLong();
+			int length = buffer.getInt();
+			long checksum = buffer.getLong();
+
+			if (length != fileSize - HEADER_SIZE) {
+				throw new IOException("Truncated snapshot");
+			}
+
+			byte[] payload = new byte[length];
+			buffer.get(payload);
+
+			if (crc32(payload) != checksum) {
+				throw new IOException("Snapshot checksum mismatch");
+			}
+
+			return Optional.of(new Snapshot<>(objectMapper.readValue(payload, type), savedAt));
+		} catch (IOException | RuntimeException e) {
+			// A corrupted snapshot is discarded; the next save will replace it
+			logger.warn("Discarding unreadable snapshot {}: {}", file.getFileName(), e.getMessage());
+			delete(file);
+
+			return Optional.empty();
+		}
+	}
+
+	private synchronized void write(String key, Object value) {
+		Path tempFile = null;
+
+		try {
+			byte[] payload = objectMapper.writeValueAsBytes(value);
+
+			if (payload.length > maxEntryBytes) {
+				logger.debug("Snapshot {} not saved: {} bytes over the entry limit", key, payload.length);
+				return;
+			}
+
+			createDirectory();
+
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+			buffer.putInt(MAGIC).putLong(System.currentTimeMillis()).putInt(payload.length)
+					.putLong(crc32(payload)).put(payload).flip();
+
+			// Write the whole snapshot to a temporary file in the same directory and make it
+			// durable before renaming it over the previous version
+			tempFile = Files.createTempFile(directory, "snapshot", ".tmp");
+
+			try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+
+				channel.force(true);
+			}
+
+			Path file = fileOf(key);
+
+			try {
+				Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+
+			tempFile = null;
+			enforceSizeLimit(file);
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Could not save snapshot {}: {}", key, e.getMessage());
+		} finally {
+			if (tempFile != null) {
+				delete(tempFile);
+			}
+		}
+	}
+
+	// Evicts the least recently written snapshots (never the one just written nor the
+	// session token) until the store fits in its size limit
+	private void enforceSizeLimit(Path justWritten) throws IOException {
+		List<Path> files = new ArrayList<>();
+		long totalBytes = 0;
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (Path file : stream) {
+				files.add(file);
+				totalBytes += Files.size(file);
+			}
+		}
+
+		if (totalBytes <= maxTotalBytes) {
+			return;
+		}
+
+		files.sort(Comparator.comparing(SnapshotStore::lastModified));
+		Path tokenFile = fileOf(TOKEN_KEY);
+
+		for (Path file : files) {
+			if (totalBytes <= maxTotalBytes) {
+				break;
+			}
+
+			if (!file.equals(justWritten) && !file.equals(tokenFile)) {
+				totalBytes -= Files.size(file);
+				delete(file);
+			}
+		}
+	}
+
+	private void createDirectory() throws IOException {
+		if (Files.isDirectory(directory)) {
+			return;
+		}
+
+		Files.createDirectories(directory);
+
+		try {
+			// The store holds the session token: keep it private to the current user
+			Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwx------"));
+		} catch (UnsupportedOperationException e) {
+			// Non-POSIX file systems (Windows) already restrict the user's home directory
+		}
+	}
+
+	private static FileTime lastModified(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		} catch (IOException e) {
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	private static long crc32(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		return crc.getValue();
+	}
+
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			logger.debug("Could not delete snapshot {}: {}", file, e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package es.deusto.sd.auctions.client.capture;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.deusto.sd.auctions.client.capture.TrafficLog.Call;
+import es.deusto.sd.auctions.client.capture.TrafficLog.Operation;
+import es.deusto.sd.auctions.client.data.Article;
+import es.deusto.sd.auctions.client.data.Category;
+import es.deusto.sd.auctions.client.data.Credentials;
+import es.deusto.sd.auctions.client.data.Money;
+import es.deusto.sd.auctions.client.history.PriceSeries;
+import es.deusto.sd.auctions.client.proxies.CallResult;
+import es.deusto.sd.auctions.client.proxies.IAuctionsServiceProxy;
+import es.deusto.sd.auctions.client.proxies.PreparedBid;
+import es.deusto.sd.auctions.client.proxies.ServiceException;
+
+/**
+ * CapturingServiceProxy is a decorator of another service proxy that records
+ * every call it delegates in a {@link TrafficLog}: the operation and its
+ * arguments, when it started and how long it took, its outcome and the size
+ * of the response. Replayed later by {@link TrafficReplayer}, the log
+ * reproduces the real mix of calls of a client, with its timing.
+ *
+ * Tokens are not written: every token is given a session number the first
+ * time it is seen (usually, returned by a login), so the replay can keep the
+ * calls of each user in order without knowing the token. Numbers continue
+ * those of the captures already in the file. Only the most recently used
+ * sessions are remembered: a token forgotten (e.g. of a session that expired
+ * without a logout) and seen again gets a new number, which the replay logs in
+ * with a made-up account. Passwords are not written either, but the email of
+ * every login is, so the replay can log in with the same accounts: the file
+ * holds personal data.
+ *
+ * The calls are delegated unchanged, asynchronous ones included (recorded
+ * when they complete). Failing to write the log never fails a call: the
+ * capture stops, with a warning. Closing the proxy closes the log and the
+ * proxy it decorates.
+ */
+public class CapturingServiceProxy implements IAuctionsServiceProxy {
+	private static final Logger logger = LoggerFactory.getLogger(CapturingServiceProxy.class);
+	// Maximum number of token -> session numbers kept (least recently used are dropped)
+	private static final int MAX_SESSIONS = 10_000;
+
+	private final IAuctionsServiceProxy delegate;
+	private final TrafficLog.Writer log;
+	// Session numbers of the tokens seen so far
+	private final Map<String, Integer> sessions = Collections.synchronizedMap(
+			new LinkedHashMap<>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+					return size() > MAX_SESSIONS;
+				}
+			});
+	private final AtomicInteger lastSession = new AtomicInteger();
+	// Wall-clock time of the capture, at the resolution of System.nanoTime()
+	private final long originMicros = System.currentTimeMillis() * 1000;
+	private final long originNanos = System.nanoTime();
+	// Set when the capture is closed, or failed to write
+	private volatile boolean stopped;
+
+	public CapturingServiceProxy(IAuctionsServiceProxy delegate, Path file) throws IOException {
+		this.delegate = delegate;
+		this.log = new TrafficLog.Writer(file);
+		this.lastSession.set(log.lastSession());
+	}
+
+	/**
+	 * The proxy itself, or the proxy capturing its calls to the file given with
+	 * -Dcapture.file (appended to if it exists, and closed when the JVM exits).
+	 * Used by the console and Swing clients.
+	 */
+	public static IAuctionsServiceProxy fromSystemProperty(IAuctionsServiceProxy proxy) {
+		String file = System.getProperty("capture.file", "");
+
+		if (file.isBlank()) {
+			return proxy;
+		}
+
+		try {
+			CapturingServiceProxy capturing = new CapturingServiceProxy(proxy, Path.of(file));
+			Runtime.getRuntime().addShutdownHook(new Thread(capturing::close, "capture-close"));
+			logger.info("Capturing the calls to the AuctionsService to {}", file);
+
+			return capturing;
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to open the capture file " + file + ": " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public String login(Credentials credentials) {
+		long start = System.nanoTime();
+
+		try {
+			String token = delegate.login(credentials);
+			record(Operation.LOGIN, session(token), start, null, 0, credentials.email());
+			return token;
+		} catch (RuntimeException e) {
+			record(Operation.LOGIN, 0, start, e, 0, credentials.email());
+			throw e;
+		}
+	}
+
+	@Override
+	public void logout(String token) {
+		capture(Operation.LOGOUT, token, () -> {
+			delegate.logout(token);
+			return null;
+		}, none -> 0);
+		sessions.remove(token);
+	}
+
+	@Override
+	public List<Category> getAllCategories() {
+		return capture(Operation.CATEGORIES, null, delegate::getAllCategories, List::size);
+	}
+
+	@Override
+	public List<Article> getArticlesByCategory(String categoryName, String currency) {
+		return capture(Operation.ARTICLES, null, () -> delegate.getArticlesByCategory(categoryName, currency),
+				List::size, categoryName, currency);
+	}
+
+	@Override
+	public Article getArticleDetails(Long articleId, String currency) {
+		return capture(Operation.DETAILS, null, () -> delegate.getArticleDetails(articleId, currency),
+				article -> 1, String.valueOf(articleId), currency);
+	}
+
+	@Override
+	public void makeBid(Long articleId, Money amount, String token) {
+		capture(Operation.BID, token, () -> {
+			delegate.makeBid(articleId, amount, token);
+			return null;
+		}, none -> 0, bidArgs(articleId, amount));
+	}
+
+	@Override
+	public CompletableFuture<List<Category>> getAllCategoriesAsync() {
+		return captureAsync(Operation.CATEGORIES, null, delegate::getAllCategoriesAsync, List::size);
+	}
+
+	@Override
+	public CompletableFuture<List<Article>> getArticlesByCategoryAsync(String categoryName, String currency) {
+		return captureAsync(Operation.ARTICLES, null,
+				() -> delegate.getArticlesByCategoryAsync(categoryName, currency), List::size, categoryName, currency);
+	}
+
+	@Override
+	public CompletableFuture<Article> getArticleDetailsAsync(Long articleId, String currency) {
+		return captureAsync(Operation.DETAILS, null, () -> delegate.getArticleDetailsAsync(articleId, currency),
+				article -> 1, String.valueOf(articleId), currency);
+	}
+
+	@Override
+	public CompletableFuture<Void> makeBidAsync(Long articleId, Money amount, String token) {
+		return captureAsync(Operation.BID, token, () -> delegate.makeBidAsync(articleId, amount, token),
+				none -> 0, bidArgs(articleId, amount));
+	}
+
+	@Override
+	public CallResult<Void> tryMakeBid(Long articleId, Money amount, String token) {
+		return capture(Operation.BID, token, () -> delegate.tryMakeBid(articleId, amount, token), none -> 0,
+				bidArgs(articleId, amount));
+	}
+
+	@Override
+	public CompletableFuture<CallResult<Void>> tryMakeBidAsync(Long articleId, Money amount, String token) {
+		return captureAsync(Operation.BID, token, () -> delegate.tryMakeBidAsync(articleId, amount, token),
+				none -> 0, bidArgs(articleId, amount));
+	}
+
+	// The bid is recorded when it is sent
+	@Override
+	public PreparedBid prepareBid(Long articleId, Money amount, String token) {
+		PreparedBid bid = delegate.prepareBid(articleId, amount, token);
+
+		return new PreparedBid() {
+			@Override
+			public void send() {
+				capture(Operation.BID, token, () -> {
+					bid.send();
+					return null;
+				}, none -> 0, bidArgs(articleId, amount));
+			}
+
+			@Override
+			public void warmUp() {
+				bid.warmUp();
+			}
+		};
+	}
+
+	@Override
+	public PriceSeries getPriceHistory(Long articleId, String currency) {
+		return delegate.getPriceHistory(articleId, currency);
+	}
+
+	@Override
+	public void close() {
+		stopped = true;
+
+		try {
+			log.close();
+		} catch (IOException e) {
+			logger.warn("Failed to close the capture file: {}", e.getMessage());
+		}
+
+		delegate.close();
+	}
+
+	// Runs a call and records it; a CallResult.Failure returned is recorded as a failure
+	private <T> T capture(Operation operation, String token, Supplier<T> call, ToIntFunction<T> size, String... args) {
+		int session = session(token);
+		long start = System.nanoTime();
+		T result;
+
+		try {
+			result = call.get();
+		} catch (RuntimeException e) {
+			record(operation, session, start, e, 0, args);
+			throw e;
+		}
+
+		record(operation, session, start, failure(result), (result == null) ? 0 : size.applyAsInt(result), args);
+		return result;
+	}
+
+	// Asynchronous variant of capture(): the call is recorded when its future completes
+	private <T> CompletableFuture<T> captureAsync(Operation operation, String token,
+												  Supplier<CompletableFuture<T>> call, ToIntFunction<T> size,
+												  String... args) {
+		int session = session(token);
+		long start = System.nanoTime();
+		CompletableFuture<T> future;
+
+		try {
+			future = call.get();
+		} catch (RuntimeException e) {
+			record(operation, session, start, e, 0, args);
+			throw e;
+		}
+
+		return future.whenComplete((result, e) -> {
+			if (e != null) {
+				record(operation, session, start, unwrap(e), 0, args);
+			} else {
+				record(operation, session, start, failure(result), (result == null) ? 0 : size.applyAsInt(result),
+						args);
+			}
+		});
+	}
+
+	private void record(Operation operation, int session, long start, Throwable failure, int responseSize,
+						String... args) {
+		if (stopped) {
+			return;
+		}
+
+		long end = System.nanoTime();
+		ServiceException serviceException = (failure instanceof ServiceException e) ? e : null;
+		Call call = new Call(originMicros + (start - originNanos) / 1000, (end - start) / 1000, operation, session,
+				failure == null, (serviceException != null) ? serviceException.error() : null,
+				(serviceException != null) ? serviceException.status() : 0, responseSize, List.of(args));
+
+		try {
+			log.write(call);
+		} catch (IOException e) {
+			stopped = true;
+			logger.warn("Capture stopped, failed to write the capture file: {}", e.getMessage());
+		}
+	}
+
+	// Session number of a token (0 for none), given the first time the token is seen
+	private int session(String token) {
+		return (token == null) ? 0 : sessions.computeIfAbsent(token, t -> lastSession.incrementAndGet());
+	}
+
+	private static String[] bidArgs(Long articleId, Money amount) {
+		return new String[] { String.valueOf(articleId), amount.amount(), amount.currency() };
+	}
+
+	// The failure returned by the try* calls (null for any other result)
+	private static Throwable failure(Object result) {
+		return (result instanceof CallResult.Failure<?> failure) ? failure.exception() : null;
+	}
+
+	private static Throwable unwrap(Throwable e) {
+		return (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+	}
+}
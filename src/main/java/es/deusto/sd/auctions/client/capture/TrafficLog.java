@@ -0,0 +1,250 @@
+package es.deusto.sd.auctions.client.capture;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import es.deusto.sd.auctions.client.proxies.ServiceError;
+
+/**
+ * TrafficLog is the compact binary file of the calls captured by
+ * {@link CapturingServiceProxy} and fed back by {@link TrafficReplayer}. A
+ * file starts with a header (magic number "ATRF" and format version) followed
+ * by one record per call, in the order the calls completed:
+ *
+ * <pre>
+ * int    length of the rest of the record
+ * long   start of the call (epoch microseconds)
+ * int    duration (microseconds)
+ * byte   operation (ordinal of {@link Operation})
+ * int    session: number of the token used (0 without a token)
+ * byte   outcome: 0 success, 1 + ordinal of the {@link ServiceError}, -1 other failure
+ * short  HTTP status of the failure (0 if none)
+ * int    size of the response: the number of categories or articles received
+ * byte   number of arguments, then each argument (UTF)
+ * </pre>
+ *
+ * Tokens and passwords are never written: a token is replaced by the number
+ * of its session, and a login keeps only the email. The file is only ever
+ * appended to, so several captures can be written to the same file. An
+ * incomplete record left by a crash is cut before appending to the file, and
+ * ignored when reading it.
+ */
+public final class TrafficLog {
+	// "ATRF" in ASCII: identifies the files written by this class
+	private static final int MAGIC = 0x41545246;
+	private static final short VERSION = 1;
+	private static final int HEADER_BYTES = Integer.BYTES + Short.BYTES;
+	// Position of the session in a record (after the start, the duration and the operation)
+	private static final int SESSION_OFFSET = Long.BYTES + Integer.BYTES + Byte.BYTES;
+
+	private static final byte SUCCESS = 0;
+	private static final byte OTHER_FAILURE = -1;
+
+	/**
+	 * Calls of the service proxy captured.
+	 */
+	public enum Operation { LOGIN, LOGOUT, CATEGORIES, ARTICLES, DETAILS, BID }
+
+	/**
+	 * One call: its timing, the session it belongs to, its outcome and its
+	 * arguments (e.g. the category and the currency of a list of articles).
+	 * {@code error} is null on success and for failures that are not a
+	 * ServiceException.
+	 */
+	public record Call(long startMicros, long durationMicros, Operation operation, int session, boolean success,
+					   ServiceError error, int status, int responseSize, List<String> args) {
+
+		// Outcome compared by the replay: "OK", the ServiceError, or "ERROR"
+		public String outcome() {
+			return success ? "OK" : (error != null) ? error.name() : "ERROR";
+		}
+	}
+
+	private TrafficLog() {}
+
+	/**
+	 * Appends calls to a log file, creating it if needed. Records are encoded
+	 * into a reused buffer to write their length first, and written through a
+	 * buffer flushed at most every second (and when the writer is closed).
+	 */
+	public static final class Writer implements Closeable {
+		private static final long FLUSH_INTERVAL_NANOS = 1_000_000_000L;
+
+		private final DataOutputStream out;
+		private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(128);
+		private final DataOutputStream record = new DataOutputStream(recordBytes);
+		private long lastFlush = System.nanoTime();
+		// Highest session number in the file when it was opened
+		private int lastSession;
+
+		public Writer(Path file) throws IOException {
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+
+			try {
+				channel.truncate(scan(file, channel));
+				channel.position(channel.size());
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+
+			this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+
+			if (channel.size() == 0) {
+				out.writeInt(MAGIC);
+				out.writeShort(VERSION);
+			}
+		}
+
+		public synchronized void write(Call call) throws IOException {
+			recordBytes.reset();
+			encode(call, record);
+			out.writeInt(recordBytes.size());
+			recordBytes.writeTo(out);
+
+			long now = System.nanoTime();
+
+			if (now - lastFlush > FLUSH_INTERVAL_NANOS) {
+				out.flush();
+				lastFlush = now;
+			}
+		}
+
+		// Sessions of a new capture are numbered after this one, so they are not mixed up with
+		// those of the previous captures of the file
+		public int lastSession() {
+			return lastSession;
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			out.close();
+		}
+
+		/**
+		 * Reads the length prefixes of an existing file (0 bytes if it is empty,
+		 * or if not even the header was written) up to the last complete record,
+		 * and returns the length up to it. The highest session number is kept.
+		 */
+		private long scan(Path file, FileChannel channel) throws IOException {
+			long size = channel.size();
+
+			if (size < HEADER_BYTES) {
+				return 0;
+			}
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			checkHeader(in, file);
+
+			long length = HEADER_BYTES;
+
+			while (length + Integer.BYTES <= size) {
+				int recordLength = in.readInt();
+
+				if (length + Integer.BYTES + recordLength > size) {
+					break; // Incomplete record
+				}
+
+				in.skipNBytes(SESSION_OFFSET);
+				lastSession = Math.max(lastSession, in.readInt());
+				in.skipNBytes(recordLength - SESSION_OFFSET - Integer.BYTES);
+				length += Integer.BYTES + recordLength;
+			}
+
+			return length;
+		}
+	}
+
+	// Reads every call of a log file, in order; returns the number of calls
+	public static long read(Path file, Consumer<Call> consumer) throws IOException {
+		try (InputStream stream = Files.newInputStream(file);
+			 DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+			checkHeader(in, file);
+
+			long count = 0;
+
+			while (true) {
+				int length;
+
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					return count; // End of file, or of the records written before a crash
+				}
+
+				byte[] record = in.readNBytes(length);
+
+				if (record.length != length) {
+					return count;
+				}
+
+				consumer.accept(decode(new DataInputStream(new ByteArrayInputStream(record))));
+				count++;
+			}
+		}
+	}
+
+	public static List<Call> readAll(Path file) throws IOException {
+		List<Call> calls = new ArrayList<>();
+		read(file, calls::add);
+
+		return calls;
+	}
+
+	private static void encode(Call call, DataOutputStream out) throws IOException {
+		out.writeLong(call.startMicros());
+		out.writeInt((int) Math.min(Integer.MAX_VALUE, call.durationMicros()));
+		out.writeByte(call.operation().ordinal());
+		out.writeInt(call.session());
+		out.writeByte(call.success() ? SUCCESS : (call.error() != null) ? call.error().ordinal() + 1 : OTHER_FAILURE);
+		out.writeShort(call.status());
+		out.writeInt(call.responseSize());
+		out.writeByte(call.args().size());
+
+		for (String arg : call.args()) {
+			out.writeUTF(arg);
+		}
+	}
+
+	private static Call decode(DataInput in) throws IOException {
+		long start = in.readLong();
+		int duration = in.readInt();
+		Operation operation = Operation.values()[in.readByte()];
+		int session = in.readInt();
+		byte outcome = in.readByte();
+		int status = in.readShort();
+		int responseSize = in.readInt();
+		String[] args = new String[in.readByte()];
+
+		for (int i = 0; i < args.length; i++) {
+			args[i] = in.readUTF();
+		}
+
+		return new Call(start, duration, operation, session, outcome == SUCCESS,
+				(outcome > SUCCESS) ? ServiceError.values()[outcome - 1] : null, status, responseSize, List.of(args));
+	}
+
+	private static void checkHeader(DataInput in, Path file) throws IOException {
+		if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+			throw new IOException("Not a traffic log file: " + file);
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package es.deusto.sd.auctions.client.capture;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import es.deusto.sd.auctions.client.bidding.LatencyHistogram;
+import es.deusto.sd.auctions.client.capture.TrafficLog.Call;
+import es.deusto.sd.auctions.client.capture.TrafficLog.Operation;
+import es.deusto.sd.auctions.client.data.Credentials;
+import es.deusto.sd.auctions.client.data.Money;
+import es.deusto.sd.auctions.client.proxies.IAuctionsServiceProxy;
+import es.deusto.sd.auctions.client.proxies.ServiceException;
+
+/**
+ * TrafficReplayer feeds the calls of a {@link TrafficLog} back to a service
+ * proxy (e.g. against the stub server or a staging backend) and compares the
+ * latency and the outcome of every type of call with the recording.
+ *
+ * The calls are sent in the order they started, with the same time between
+ * them divided by the speed (1 for real time, 10 for ten times faster, or 0
+ * for as fast as possible). The calls of a session are sent one after
+ * another, as the user made them: a call waits for the previous one of its
+ * session even if that makes it late; calls without a session (categories,
+ * articles and details) never wait for each other. Every call runs on its own
+ * virtual thread.
+ *
+ * Sessions are logged in again with the email recorded and the password given
+ * to the replayer (the stub server accepts any); a session whose login was not
+ * captured (e.g. a token saved by a previous run) is logged in with a made-up
+ * account before its first call. Tokens and amounts are those of the replay,
+ * so bids rejected in the recording can be accepted now and vice versa: these
+ * outcome changes are reported with the latencies.
+ */
+public class TrafficReplayer {
+
+	/**
+	 * Recorded and replayed latencies of one type of call, and the number of
+	 * calls whose outcome changed.
+	 */
+	public record Comparison(Operation operation, long calls, long changed, LatencyHistogram recorded,
+							 LatencyHistogram replayed) {}
+
+	private final IAuctionsServiceProxy serviceProxy;
+	private final double speed;
+	private final String password;
+	private final Map<Operation, LatencyHistogram> recorded = new EnumMap<>(Operation.class);
+	private final Map<Operation, LatencyHistogram> replayed = new EnumMap<>(Operation.class);
+	private final Map<Operation, AtomicLong> changed = new EnumMap<>(Operation.class);
+	// Tokens of the replay, by recorded session (written and read by the calls of the session)
+	private final Map<Integer, String> tokens = new ConcurrentHashMap<>();
+
+	// Speed: the recorded time between calls is divided by it (0: no waiting at all)
+	public TrafficReplayer(IAuctionsServiceProxy serviceProxy, double speed, String password) {
+		if (speed < 0) {
+			throw new IllegalArgumentException("The speed of a replay cannot be negative");
+		}
+
+		this.serviceProxy = serviceProxy;
+		this.speed = speed;
+		this.password = password;
+
+		for (Operation operation : Operation.values()) {
+			recorded.put(operation, new LatencyHistogram(operation.name()));
+			replayed.put(operation, new LatencyHistogram(operation.name()));
+			changed.put(operation, new AtomicLong());
+		}
+	}
+
+	/**
+	 * Replays the calls and returns the comparison of each type of call
+	 * replayed, once all of them have completed.
+	 */
+	public List<Comparison> replay(List<Call> calls) throws InterruptedException {
+		List<Call> ordered = new ArrayList<>(calls);
+		ordered.sort(Comparator.comparingLong(Call::startMicros)); // The log is in completion order
+
+		Map<Integer, CompletableFuture<Void>> sessions = new HashMap<>();
+		List<CompletableFuture<Void>> pending = new ArrayList<>();
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			long start = System.nanoTime();
+			long firstMicros = ordered.isEmpty() ? 0 : ordered.get(0).startMicros();
+
+			for (Call call : ordered) {
+				if (speed > 0) {
+					long due = start + (long) ((call.startMicros() - firstMicros) * 1000 / speed);
+					long wait = due - System.nanoTime();
+
+					if (wait > 0) {
+						TimeUnit.NANOSECONDS.sleep(wait);
+					}
+				}
+
+				Runnable task = () -> execute(call);
+
+				if (call.session() == 0) {
+					pending.add(CompletableFuture.runAsync(task, executor));
+				} else {
+					// Chained after the previous call of the same session
+					CompletableFuture<Void> previous = sessions.get(call.session());
+					CompletableFuture<Void> next = (previous == null)
+							? CompletableFuture.runAsync(task, executor)
+							: previous.thenRunAsync(task, executor);
+
+					sessions.put(call.session(), next);
+					pending.add(next);
+				}
+			}
+
+			CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+		}
+
+		List<Comparison> comparisons = new ArrayList<>();
+
+		for (Operation operation : Operation.values()) {
+			LatencyHistogram latency = replayed.get(operation);
+
+			if (latency.count() > 0) {
+				comparisons.add(new Comparison(operation, latency.count(), changed.get(operation).get(),
+						recorded.get(operation), latency));
+			}
+		}
+
+		return comparisons;
+	}
+
+	// Never fails: the outcome of the call is compared with the recorded one
+	private void execute(Call call) {
+		String token = token(call);
+		long start = System.nanoTime();
+		String outcome;
+
+		try {
+			perform(call, token);
+			outcome = "OK";
+		} catch (ServiceException e) {
+			outcome = e.error().name();
+		} catch (RuntimeException e) {
+			outcome = "ERROR";
+		}
+
+		replayed.get(call.operation()).record(System.nanoTime() - start);
+		recorded.get(call.operation()).record(call.durationMicros() * 1000);
+
+		if (!outcome.equals(call.outcome())) {
+			changed.get(call.operation()).incrementAndGet();
+		}
+	}
+
+	// Token of the session of a call (null without a session, or if it cannot log in: the call
+	// is sent without a token)
+	private String token(Call call) {
+		if (call.session() == 0 || call.operation() == Operation.LOGIN) {
+			return null;
+		}
+
+		String token = tokens.get(call.session());
+
+		if (token == null) {
+			try {
+				token = serviceProxy.login(new Credentials("session-" + call.session() + "@replay", password));
+				tokens.put(call.session(), token);
+			} catch (RuntimeException e) {
+				return null;
+			}
+		}
+
+		return token;
+	}
+
+	private void perform(Call call, String token) {
+		List<String> args = call.args();
+
+		switch (call.operation()) {
+			case LOGIN -> {
+				String newToken = serviceProxy.login(new Credentials(args.get(0), password));
+
+				if (call.session() != 0) {
+					tokens.put(call.session(), newToken);
+				}
+			}
+			case LOGOUT -> {
+				serviceProxy.logout(token);
+				tokens.remove(call.session());
+			}
+			case CATEGORIES -> serviceProxy.getAllCategories();
+			case ARTICLES -> serviceProxy.getArticlesByCategory(args.get(0), args.get(1));
+			case DETAILS -> serviceProxy.getArticleDetails(Long.valueOf(args.get(0)), args.get(1));
+			case BID -> serviceProxy.makeBid(Long.valueOf(args.get(0)), Money.parse(args.get(1), args.get(2)), token);
+		}
+	}
+
+	// Comparison table of a replay, latencies in milliseconds (recorded / replayed)
+	public static String report(List<Comparison> comparisons) {
+		StringBuilder report = new StringBuilder(String.format("%-10s %8s %8s %19s %19s %19s%n",
+				"operation", "calls", "changed", "p50 rec/rep", "p99 rec/rep", "max rec/rep"));
+
+		for (Comparison comparison : comparisons) {
+			LatencyHistogram recorded = comparison.recorded();
+			LatencyHistogram replayed = comparison.replayed();
+
+			report.append(String.format("%-10s %8d %8d %9.2f/%-9.2f %9.2f/%-9.2f %9.2f/%-9.2f%n",
+					comparison.operation(), comparison.calls(), comparison.changed(),
+					recorded.percentile(0.5) / 1e6, replayed.percentile(0.5) / 1e6,
+					recorded.percentile(0.99) / 1e6, replayed.percentile(0.99) / 1e6,
+					recorded.max() / 1e6, replayed.max() / 1e6));
+		}
+
+		return report.toString();
+	}
+}
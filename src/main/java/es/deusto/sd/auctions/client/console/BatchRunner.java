@@ -0,0 +1,342 @@
+package es.deusto.sd.auctions.client.console;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import es.deusto.sd.auctions.client.bidding.LatencyHistogram;
+import es.deusto.sd.auctions.client.data.Article;
+import es.deusto.sd.auctions.client.data.Credentials;
+import es.deusto.sd.auctions.client.data.Money;
+import es.deusto.sd.auctions.client.proxies.IAuctionsServiceProxy;
+import es.deusto.sd.auctions.client.session.SessionPool;
+import tools.jackson.databind.ObjectMapper;
+
+/**
+ * BatchRunner executes a file of operations against the AuctionsService, for
+ * bulk operations and for reproducible performance runs. Every line of the file
+ * is an operation (blank lines and lines starting with '#' are ignored;
+ * arguments with spaces can be quoted):
+ *
+ * <pre>
+ * login   &lt;session&gt; &lt;email&gt; &lt;password&gt;
+ * logout  &lt;session&gt;
+ * categories
+ * list    &lt;category&gt; [currency]
+ * details &lt;articleId&gt; [currency]
+ * bid     &lt;session&gt; &lt;articleId&gt; &lt;amount|+increment&gt; [currency]
+ * export  &lt;category&gt; &lt;file&gt; [currency]
+ * </pre>
+ *
+ * A session is a name for one logged-in user: the operations of a session run
+ * one after another, in file order, while everything else (other sessions and
+ * the operations without a session) runs in parallel on a pool of
+ * {@code parallelism} threads. A bid of {@code +increment} first reads the
+ * current price of the article. {@code export} writes the articles of a
+ * category to a file, one JSON object per line.
+ *
+ * The outcome of every operation is written as one JSON object per line
+ * (NDJSON) in completion order: line number, operation, session, success,
+ * latency in microseconds and result or error. The run ends with a summary of
+ * the throughput and the latency of each type of operation.
+ */
+public class BatchRunner {
+	// Currency of the operations that do not give one
+	private static final String DEFAULT_CURRENCY = "EUR";
+
+	/**
+	 * One line of the batch file.
+	 */
+	public record Operation(int line, String type, String session, List<String> args) {}
+
+	/**
+	 * Statistics of one type of operation.
+	 */
+	public record Stats(String type, long count, long errors, double throughput, LatencyHistogram latency) {}
+
+	private final IAuctionsServiceProxy serviceProxy;
+	private final int parallelism;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	// Logged-in sessions, by name (logged in again if their token expires)
+	private final SessionPool sessions;
+	private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+	private final Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+	// First error writing the results, reported at the end of the run
+	private volatile IOException writeFailure;
+
+	public BatchRunner(IAuctionsServiceProxy serviceProxy, int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+		}
+
+		this.serviceProxy = serviceProxy;
+		this.parallelism = parallelism;
+		this.sessions = new SessionPool(serviceProxy);
+	}
+
+	// Reads and validates a batch file; fails on the first malformed line
+	public static List<Operation> parse(Path file) throws IOException {
+		List<Operation> operations = new ArrayList<>();
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).strip();
+
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+
+			operations.add(parseLine(i + 1, line));
+		}
+
+		return operations;
+	}
+
+	static Operation parseLine(int number, String line) {
+		List<String> tokens = tokenize(line);
+		String type = tokens.get(0).toLowerCase();
+		List<String> args = tokens.subList(1, tokens.size());
+
+		int[] arity = switch (type) {
+			case "login" -> new int[] { 3, 3 };
+			case "logout" -> new int[] { 1, 1 };
+			case "categories" -> new int[] { 0, 0 };
+			case "list", "details" -> new int[] { 1, 2 };
+			case "bid" -> new int[] { 3, 4 };
+			case "export" -> new int[] { 2, 3 };
+			default -> throw new IllegalArgumentException("Line " + number + ": unknown operation '" + type + "'");
+		};
+
+		if (args.size() < arity[0] || args.size() > arity[1]) {
+			throw new IllegalArgumentException("Line " + number + ": wrong number of arguments for '" + type + "'");
+		}
+
+		boolean hasSession = type.equals("login") || type.equals("logout") || type.equals("bid");
+
+		return hasSession
+				? new Operation(number, type, args.get(0), List.copyOf(args.subList(1, args.size())))
+				: new Operation(number, type, null, List.copyOf(args));
+	}
+
+	// Splits a line on whitespace, keeping "quoted arguments" together
+	private static List<String> tokenize(String line) {
+		List<String> tokens = new ArrayList<>();
+		StringBuilder current = new StringBuilder();
+		boolean quoted = false;
+		boolean inToken = false;
+
+		for (char c : line.toCharArray()) {
+			if (c == '"') {
+				quoted = !quoted;
+				inToken = true;
+			} else if (Character.isWhitespace(c) && !quoted) {
+				if (inToken) {
+					tokens.add(current.toString());
+					current.setLength(0);
+					inToken = false;
+				}
+			} else {
+				current.append(c);
+				inToken = true;
+			}
+		}
+
+		if (inToken) {
+			tokens.add(current.toString());
+		}
+
+		return tokens;
+	}
+
+	/**
+	 * Runs the operations, writing their results to the given file, and returns
+	 * the statistics of each type of operation (sorted by type).
+	 */
+	public List<Stats> run(List<Operation> operations, Path resultsFile) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+		Map<String, CompletableFuture<Void>> sessions = new LinkedHashMap<>();
+		List<CompletableFuture<Void>> pending = new ArrayList<>();
+		long start = System.nanoTime();
+
+		try (BufferedWriter results = Files.newBufferedWriter(resultsFile, StandardCharsets.UTF_8)) {
+			for (Operation operation : operations) {
+				Runnable task = () -> execute(operation, results);
+
+				if (operation.session() == null) {
+					pending.add(CompletableFuture.runAsync(task, pool));
+				} else {
+					// Chained after the previous operation of the same session
+					CompletableFuture<Void> previous = sessions.get(operation.session());
+					CompletableFuture<Void> next = (previous == null)
+							? CompletableFuture.runAsync(task, pool)
+							: previous.thenRunAsync(task, pool);
+
+					sessions.put(operation.session(), next);
+					pending.add(next);
+				}
+			}
+
+			CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+		} finally {
+			pool.shutdownNow();
+		}
+
+		if (writeFailure != null) {
+			throw writeFailure;
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		List<Stats> stats = new ArrayList<>();
+
+		for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(latencies).entrySet()) {
+			LatencyHistogram latency = entry.getValue();
+			stats.add(new Stats(entry.getKey(), latency.count(), errors.get(entry.getKey()).get(),
+					latency.count() / seconds, latency));
+		}
+
+		return stats;
+	}
+
+	private void execute(Operation operation, Writer results) {
+		Map<String, Object> record = new LinkedHashMap<>();
+		record.put("line", operation.line());
+		record.put("op", operation.type());
+
+		if (operation.session() != null) {
+			record.put("session", operation.session());
+		}
+
+		long start = System.nanoTime();
+		boolean ok;
+
+		try {
+			Object result = perform(operation);
+			ok = true;
+			record.put("ok", true);
+			record.put("micros", (System.nanoTime() - start) / 1000);
+
+			if (result != null) {
+				record.put("result", result);
+			}
+		} catch (RuntimeException e) {
+			ok = false;
+			record.put("ok", false);
+			record.put("micros", (System.nanoTime() - start) / 1000);
+			record.put("error", e.getMessage());
+		}
+
+		latencies.computeIfAbsent(operation.type(), type -> new LatencyHistogram(type)).record(System.nanoTime() - start);
+		AtomicLong typeErrors = errors.computeIfAbsent(operation.type(), type -> new AtomicLong());
+
+		if (!ok) {
+			typeErrors.incrementAndGet();
+		}
+
+		String json = objectMapper.writeValueAsString(record);
+
+		synchronized (results) {
+			try {
+				results.write(json);
+				results.write('\n');
+			} catch (IOException e) {
+				if (writeFailure == null) {
+					writeFailure = e;
+				}
+			}
+		}
+	}
+
+	// Calls the AuctionsService; returns the result written for the operation (or null)
+	private Object perform(Operation operation) {
+		List<String> args = operation.args();
+
+		switch (operation.type()) {
+			case "login" -> {
+				sessions.login(operation.session(), new Credentials(args.get(0), args.get(1)));
+				return null;
+			}
+			case "logout" -> {
+				sessions.token(operation.session()); // Fails if the session is not logged in
+				sessions.logout(operation.session());
+				return null;
+			}
+			case "categories" -> {
+				return serviceProxy.getAllCategories().size();
+			}
+			case "list" -> {
+				return serviceProxy.getArticlesByCategory(args.get(0), currency(args, 1)).size();
+			}
+			case "details" -> {
+				Article article = serviceProxy.getArticleDetails(Long.valueOf(args.get(0)), currency(args, 1));
+				return Map.of("currentPrice", article.currentPrice(), "bids", article.bids());
+			}
+			case "bid" -> {
+				Long articleId = Long.valueOf(args.get(0));
+				String currency = currency(args, 2);
+				Money amount = args.get(1).startsWith("+")
+						? serviceProxy.getArticleDetails(articleId, currency).currentPrice()
+								.plus(Money.of(new BigDecimal(args.get(1)), currency))
+						: Money.of(new BigDecimal(args.get(1)), currency);
+
+				sessions.run(operation.session(), token -> serviceProxy.makeBid(articleId, amount, token));
+				return Map.of("amount", amount);
+			}
+			case "export" -> {
+				List<Article> articles = serviceProxy.getArticlesByCategory(args.get(0), currency(args, 2));
+				export(articles, Path.of(args.get(1)));
+				return articles.size();
+			}
+			default -> throw new IllegalStateException("Unknown operation: " + operation.type());
+		}
+	}
+
+	private void export(List<Article> articles, Path file) {
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			for (Article article : articles) {
+				writer.write(objectMapper.writeValueAsString(article));
+				writer.write('\n');
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to export to " + file + ": " + e.getMessage(), e);
+		}
+	}
+
+	private static String currency(List<String> args, int index) {
+		return (args.size() > index) ? args.get(index).toUpperCase() : DEFAULT_CURRENCY;
+	}
+
+	// Summary table of a run, latencies in milliseconds
+	public static String report(List<Stats> stats) {
+		StringBuilder report = new StringBuilder(String.format("%-12s %8s %8s %10s %9s %9s %9s %9s%n",
+				"operation", "count", "errors", "ops/s", "p50", "p95", "p99", "max"));
+		long total = 0;
+		double throughput = 0;
+
+		for (Stats stat : stats) {
+			LatencyHistogram latency = stat.latency();
+			report.append(String.format("%-12s %8d %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n", stat.type(), stat.count(),
+					stat.errors(), stat.throughput(), latency.percentile(0.5) / 1e6, latency.percentile(0.95) / 1e6,
+					latency.percentile(0.99) / 1e6, latency.max() / 1e6));
+			total += stat.count();
+			throughput += stat.throughput();
+		}
+
+		report.append(String.format("%-12s %8d %8s %10.1f", "total", total, "", throughput));
+
+		return report.toString();
+	}
+}
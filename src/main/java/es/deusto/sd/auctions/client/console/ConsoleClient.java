@@ -5,16 +5,30 @@
  */
 package es.deusto.sd.auctions.client.console;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import es.deusto.sd.auctions.client.bidding.ProxyBidEngine;
+import es.deusto.sd.auctions.client.cache.SnapshotStore;
+import es.deusto.sd.auctions.client.capture.CapturingServiceProxy;
+import es.deusto.sd.auctions.client.crawler.CatalogCrawler;
+import es.deusto.sd.auctions.client.crawler.CatalogFormat;
 import es.deusto.sd.auctions.client.data.Article;
 import es.deusto.sd.auctions.client.data.Category;
 import es.deusto.sd.auctions.client.data.Credentials;
+import es.deusto.sd.auctions.client.data.Money;
+import es.deusto.sd.auctions.client.monitoring.StartupProbe;
 import es.deusto.sd.auctions.client.proxies.HttpServiceProxy;
 import es.deusto.sd.auctions.client.proxies.IAuctionsServiceProxy;
+import es.deusto.sd.auctions.client.session.SessionPool;
+import es.deusto.sd.auctions.client.watchlist.Watchlist;
 
 /**
  * ConsoleClient class serves as a basic client implementation for the AuctionsService 
@@ -27,28 +41,97 @@ import es.deusto.sd.auctions.client.proxies.IAuctionsServiceProxy;
  */
 public class ConsoleClient {
 	// Service proxy for interacting with the AuctionsService using HTTP-based implementation
-	private final IAuctionsServiceProxy serviceProxy = new HttpServiceProxy();	
-	// Token to be used during the session
-	private String token;
+	// (capturing its calls with -Dcapture.file)
+	private final IAuctionsServiceProxy serviceProxy = CapturingServiceProxy.fromSystemProperty(new HttpServiceProxy());
+	// Session of the user, shared with the worker threads and logged in again if it expires
+	private final SessionPool sessions = new SessionPool(serviceProxy);
+	// Whether the token was restored from the snapshot of a previous run
+	private boolean restoredSession;
+	// On-disk snapshot of the last data received, used to start without waiting for the network
+	private final SnapshotStore snapshots = new SnapshotStore();
+	// Categories shown to the user (possibly from the snapshot)
+	private List<Category> categories;
+	// Background revalidation of the snapshot, awaited before exiting
+	private CompletableFuture<Void> revalidation = CompletableFuture.completedFuture(null);
 	// Default email and password for login
 	private String defaultEmail = "blackwidow@marvel.com";
 	private String defaultPassword = "Bl@ckWid0w2023";
 	
+	// Maximum number of requests per second sent to follow an auction in proxy-bid mode
+	private static final int WATCHLIST_REQUESTS_PER_SECOND = 10;
+	
+	// Number of batch operations (or crawled categories) run at the same time when not given
+	private static final int DEFAULT_BATCH_PARALLELISM = 4;
+	
 	private static final Logger logger = LoggerFactory.getLogger(ConsoleClient.class);
 
 	public static void main(String[] args) {
 		ConsoleClient client = new ConsoleClient();
-		
-		if (!client.performLogin() || !client.loadCategories() || !client.loadArticlesAndPlaceBid()) {
+
+		try {
+			client.run(args);
+		} finally {
+			client.close();
+		}
+	}
+
+	private void run(String[] args) {
+		// Crawl mode: crawl <directory> [binary|ndjson] [parallelism] [currency]
+		if (args.length >= 2 && "crawl".equals(args[0])) {
+			CatalogFormat format = (args.length > 2) ? CatalogFormat.valueOf(args[2].toUpperCase()) : CatalogFormat.BINARY;
+			int parallelism = (args.length > 3) ? Integer.parseInt(args[3]) : DEFAULT_BATCH_PARALLELISM;
+			String currency = (args.length > 4) ? args[4].toUpperCase() : "EUR";
+
+			runCrawl(Path.of(args[1]), format, parallelism, currency);
+			return;
+		}
+
+		// Batch mode: batch <file> [parallelism] [results.ndjson]
+		if (args.length >= 2 && "batch".equals(args[0])) {
+			int parallelism = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_BATCH_PARALLELISM;
+			Path results = Path.of((args.length > 3) ? args[3] : "batch-results.ndjson");
+
+			runBatch(Path.of(args[1]), parallelism, results);
+			return;
+		}
+
+		// Proxy-bid mode: proxy-bid <articleId> <maxPrice> [max-bid|last-second]
+		if (args.length >= 3 && "proxy-bid".equals(args[0])) {
+			ProxyBidEngine.Strategy strategy = (args.length > 3 && "last-second".equals(args[3]))
+					? ProxyBidEngine.Strategy.LAST_SECOND : ProxyBidEngine.Strategy.MAX_BID;
+
+			if (performLogin()) {
+				runProxyBid(Long.valueOf(args[1]), Money.parse(args[2], "EUR"), strategy);
+			}
+
+			return;
+		}
+
+		if (!performLogin() || !loadCategories() || !loadArticlesAndPlaceBid()) {
 			logger.info("Exiting application due to failure in one of the steps.");
 		}
+
+		awaitRevalidation();
 	}
 
 	public boolean performLogin() {
-		try {
-			Credentials credentials = new Credentials(defaultEmail, defaultPassword);
+		Optional<String> savedToken = snapshots.loadToken();
+
+		Credentials credentials = new Credentials(defaultEmail, defaultPassword);
 
-			token = serviceProxy.login(credentials);
+		// A token renewed after it expired replaces the saved one
+		sessions.addListener((account, token) -> snapshots.saveToken(token));
+
+		if (savedToken.isPresent()) {
+			sessions.restore(defaultEmail, credentials, savedToken.get());
+			restoredSession = true;
+			logger.info("Reusing the session of a previous run. Token: {}", savedToken.get());
+
+			return true;
+		}
+
+		try {
+			String token = sessions.login(defaultEmail, credentials);
 			logger.info("Login successful. Token: {}", token);
 
 			return true;
@@ -60,8 +143,26 @@ public class ConsoleClient {
 	}
 
 	public boolean loadCategories() {
+		Optional<SnapshotStore.Snapshot<List<Category>>> snapshot = snapshots.loadCategories();
+
+		if (snapshot.isPresent() && !snapshot.get().value().isEmpty()) {
+			// Stale-while-revalidate: show the saved categories and refresh them in the background
+			categories = snapshot.get().value();
+			categories.forEach(category -> logger.info("Category (cached): {}", category.name()));
+			StartupProbe.firstRequestCompleted("console");
+			revalidation = CompletableFuture.runAsync(() -> {
+				try {
+					snapshots.saveCategories(serviceProxy.getAllCategories());
+				} catch (RuntimeException e) {
+					logger.warn("Failed to revalidate categories: {}", e.getMessage());
+				}
+			});
+
+			return true;
+		}
+
 		try {
-			List<Category> categories = serviceProxy.getAllCategories();
+			categories = serviceProxy.getAllCategories();
 			
 			if (categories == null || categories.isEmpty()) {
 				logger.info("No categories found.");
@@ -69,6 +170,8 @@ public class ConsoleClient {
 			}
 			
 			categories.forEach(category -> logger.info("Category: {}", category.name()));
+			snapshots.saveCategories(categories);
+			StartupProbe.firstRequestCompleted("console");
 		
 			return true;
 		} catch (RuntimeException e) {
@@ -80,11 +183,11 @@ public class ConsoleClient {
 
 	public boolean loadArticlesAndPlaceBid() {
 		try {
-			List<Category> categories = serviceProxy.getAllCategories();
 			String categoryName = categories.get(0).name();
 			
 			logger.info("Fetching articles for category: {}", categoryName);
 			List<Article> articles = serviceProxy.getArticlesByCategory(categoryName, "EUR");
+			snapshots.saveArticles(categoryName, "EUR", articles);
 
 			if (articles.isEmpty()) {
 				logger.info("No articles found in category: {}", categoryName);
@@ -103,7 +206,7 @@ public class ConsoleClient {
 	public Article loadArticleDetails(Long articleId) {
 		try {
 			Article article = serviceProxy.getArticleDetails(articleId, "EUR");
-			logger.info("Article Details - Title: {}, Current Price: {} {}, Bids: {}", article.title(), article.currentPrice(), article.currency(), article.bids());
+			logger.info("Article Details - Title: {}, Current Price: {}, Bids: {}", article.title(), article.currentPrice(), article.bids());
 			
 			return article;
 		} catch (RuntimeException e) {
@@ -114,15 +217,102 @@ public class ConsoleClient {
 
 	public boolean placeBid(Article article) {		
 		try {
-			Float bidAmount = article.currentPrice() + 1.0f;
+			Money bidAmount = article.currentPrice().plus(Money.SCALE); // One unit more
 			
-			serviceProxy.makeBid(article.id(), bidAmount, article.currency(), token);
-			logger.info("Bid placed successfully on article ID {} with amount {} {}", article.id(), bidAmount, article.currency());
+			sessions.run(defaultEmail, token -> serviceProxy.makeBid(article.id(), bidAmount, token));
+			logger.info("Bid placed successfully on article ID {} with amount {}", article.id(), bidAmount);
 			
 			return true;
 		} catch (RuntimeException e) {
 			logger.error("Failed to place bid: {}", e.getMessage());
+
+			// The saved session may have expired: forget it so the next run logs in again
+			if (restoredSession) {
+				snapshots.clearToken();
+			}
+
 			return false;
 		}
 	}
+
+	/**
+	 * Bids automatically on an article up to the given maximum price, and waits
+	 * until the auction ends (or the maximum price is exceeded). The precision of
+	 * the bids is logged at the end.
+	 */
+	public void runProxyBid(Long articleId, Money maxPrice, ProxyBidEngine.Strategy strategy) {
+		CountDownLatch done = new CountDownLatch(1);
+
+		try (Watchlist watchlist = new Watchlist(serviceProxy, WATCHLIST_REQUESTS_PER_SECOND);
+			 ProxyBidEngine engine = new ProxyBidEngine(serviceProxy, watchlist, sessions.tokenSupplier(defaultEmail))) {
+			engine.addListener(result -> {
+				logger.info("{} on article ID {} with amount {}: {}", result.strategy(), result.articleId(),
+						result.amount(), result.message());
+
+				if (!engine.isActive(articleId, maxPrice.currency())) {
+					done.countDown();
+				}
+			});
+
+			if (strategy == ProxyBidEngine.Strategy.LAST_SECOND) {
+				engine.lastSecond(articleId, maxPrice);
+			} else {
+				engine.maxBid(articleId, maxPrice);
+			}
+
+			logger.info("Proxy bidding ({}) on article ID {} up to {}", strategy, articleId, maxPrice);
+			done.await();
+			logger.info("Bid timing:{}{}", System.lineSeparator(), engine.report());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Runs a file of operations (see {@link BatchRunner} for the format) with the
+	 * given parallelism, writes their results as NDJSON and logs the throughput
+	 * and latency of each type of operation.
+	 */
+	public void runBatch(Path file, int parallelism, Path results) {
+		try {
+			List<BatchRunner.Operation> operations = BatchRunner.parse(file);
+			logger.info("Running {} operations from {} with parallelism {}", operations.size(), file, parallelism);
+
+			List<BatchRunner.Stats> stats = new BatchRunner(serviceProxy, parallelism).run(operations, results);
+			logger.info("Results written to {}{}{}", results, System.lineSeparator(), BatchRunner.report(stats));
+		} catch (IOException e) {
+			logger.error("Batch failed: {}", e.getMessage());
+		} catch (IllegalArgumentException e) {
+			logger.error("Invalid batch file: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Dumps every article of every category to a directory (see
+	 * {@link CatalogCrawler}). Running it again on the same directory resumes an
+	 * interrupted crawl.
+	 */
+	public void runCrawl(Path directory, CatalogFormat format, int parallelism, String currency) {
+		try {
+			CatalogCrawler.CrawlResult result = new CatalogCrawler(serviceProxy, directory, format, parallelism, currency).crawl();
+
+			logger.info("Crawl of {} finished in {} ms: {} categories written ({} articles, {} bytes), {} already done, {} failed",
+					directory, result.elapsedMillis(), result.written(), result.articles(), result.bytes(),
+					result.resumed(), result.failed());
+		} catch (IOException | RuntimeException e) {
+			logger.error("Crawl failed: {}", e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Waits for the background revalidation so the refreshed snapshot is saved before exiting
+	public void awaitRevalidation() {
+		revalidation.join();
+	}
+
+	// Stops the health checks of the service proxy (and flushes the capture, if any)
+	public void close() {
+		serviceProxy.close();
+	}
 }
\ No newline at end of file
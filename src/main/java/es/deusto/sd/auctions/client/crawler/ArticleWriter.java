@@ -0,0 +1,16 @@
+package es.deusto.sd.auctions.client.crawler;
+
+import java.io.IOException;
+
+import es.deusto.sd.auctions.client.data.Article;
+
+/**
+ * Writes the articles of a crawl to a file, one at a time, in one of the
+ * {@link CatalogFormat}s.
+ */
+public interface ArticleWriter extends AutoCloseable {
+	void write(Article article) throws IOException;
+
+	@Override
+	void close() throws IOException;
+}
@@ -0,0 +1,185 @@
+package es.deusto.sd.auctions.client.crawler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.function.Consumer;
+
+import es.deusto.sd.auctions.client.data.Article;
+import es.deusto.sd.auctions.client.data.Money;
+
+/**
+ * BinaryArticleCodec writes and reads the compact binary format of the
+ * {@link CatalogCrawler}. A file starts with a header (magic number "ACAT" and
+ * format version) followed by one record per article:
+ *
+ * <pre>
+ * int    length of the rest of the record
+ * short  bit mask of the fields that are null (bit 0 = id ... bit 8 = currency)
+ * ...    non-null fields, in the order of {@link Article}: id (long), title
+ *        (UTF), initialPrice (long), currentPrice (long), bids (int),
+ *        auctionEnd (long, epoch millis), categoryName, ownerName, currency (UTF)
+ * </pre>
+ *
+ * Prices are written in minor units, in the currency of the article (EUR if
+ * it has none). Version 1 files, with float prices, are not read.
+ *
+ * The length prefix lets a reader skip records (or detect a truncated file)
+ * without decoding them. The records themselves ({@link #encode} and
+ * {@link #decode}) are also used by the off-heap article cache of the web
+ * client.
+ */
+public final class BinaryArticleCodec {
+	// "ACAT" in ASCII: identifies the files written by this class
+	private static final int MAGIC = 0x41434154;
+	private static final short VERSION = 2;
+
+	private BinaryArticleCodec() {}
+
+	/**
+	 * Streams articles to a binary file. Each record is encoded into a reused
+	 * buffer first, to write its length before it.
+	 */
+	public static final class Writer implements ArticleWriter {
+		private final DataOutputStream out;
+		private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+		private final DataOutputStream record = new DataOutputStream(recordBytes);
+
+		public Writer(OutputStream out) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(out));
+			this.out.writeInt(MAGIC);
+			this.out.writeShort(VERSION);
+		}
+
+		@Override
+		public void write(Article article) throws IOException {
+			recordBytes.reset();
+			encode(article, record);
+			out.writeInt(recordBytes.size());
+			recordBytes.writeTo(out);
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+
+	}
+
+	// Reads every article of a binary file, in order; returns the number of articles
+	public static long read(Path file, Consumer<Article> consumer) throws IOException {
+		try (InputStream stream = Files.newInputStream(file);
+			 DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+			if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+				throw new IOException("Not a binary catalog file (version " + VERSION + "): " + file);
+			}
+
+			long count = 0;
+
+			while (true) {
+				int length;
+
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					return count; // Clean end of file
+				}
+
+				byte[] record = in.readNBytes(length);
+
+				if (record.length != length) {
+					throw new IOException("Truncated record " + count + " in " + file);
+				}
+
+				consumer.accept(decode(new DataInputStream(new ByteArrayInputStream(record))));
+				count++;
+			}
+		}
+	}
+
+	// Writes the fields of an article (null mask and non-null fields, without the length prefix)
+	public static void encode(Article article, DataOutput out) throws IOException {
+		out.writeShort(nullMask(article));
+
+		if (article.id() != null) {
+			out.writeLong(article.id());
+		}
+		if (article.title() != null) {
+			out.writeUTF(article.title());
+		}
+		if (article.initialPrice() != null) {
+			out.writeLong(article.initialPrice().minorUnits());
+		}
+		if (article.currentPrice() != null) {
+			out.writeLong(article.currentPrice().minorUnits());
+		}
+		if (article.bids() != null) {
+			out.writeInt(article.bids());
+		}
+		if (article.auctionEnd() != null) {
+			out.writeLong(article.auctionEnd().getTime());
+		}
+		if (article.categoryName() != null) {
+			out.writeUTF(article.categoryName());
+		}
+		if (article.ownerName() != null) {
+			out.writeUTF(article.ownerName());
+		}
+		if (article.currency() != null) {
+			out.writeUTF(article.currency());
+		}
+	}
+
+	// Reads the fields of an article written by encode()
+	public static Article decode(DataInput in) throws IOException {
+		int mask = in.readShort();
+		Long id = isNull(mask, 0) ? null : in.readLong();
+		String title = isNull(mask, 1) ? null : in.readUTF();
+		Long initialPrice = isNull(mask, 2) ? null : in.readLong();
+		Long currentPrice = isNull(mask, 3) ? null : in.readLong();
+		Integer bids = isNull(mask, 4) ? null : in.readInt();
+		Date auctionEnd = isNull(mask, 5) ? null : new Date(in.readLong());
+		String categoryName = isNull(mask, 6) ? null : in.readUTF();
+		String ownerName = isNull(mask, 7) ? null : in.readUTF();
+		String currency = isNull(mask, 8) ? null : in.readUTF();
+
+		return new Article(id, title, money(initialPrice, currency), money(currentPrice, currency), bids,
+				auctionEnd, categoryName, ownerName, currency);
+	}
+
+	// A price read in minor units, in the currency of its article
+	private static Money money(Long minorUnits, String currency) {
+		return (minorUnits == null) ? null : new Money(minorUnits, (currency != null) ? currency : "EUR");
+	}
+
+	private static int nullMask(Article article) {
+		Object[] fields = { article.id(), article.title(), article.initialPrice(), article.currentPrice(),
+				article.bids(), article.auctionEnd(), article.categoryName(), article.ownerName(),
+				article.currency() };
+		int mask = 0;
+
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i] == null) {
+				mask |= 1 << i;
+			}
+		}
+
+		return mask;
+	}
+
+	private static boolean isNull(int mask, int field) {
+		return (mask & (1 << field)) != 0;
+	}
+}
@@ -0,0 +1,199 @@
+package es.deusto.sd.auctions.client.crawler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.deusto.sd.auctions.client.data.Article;
+import es.deusto.sd.auctions.client.data.Category;
+import es.deusto.sd.auctions.client.proxies.IAuctionsServiceProxy;
+import es.deusto.sd.auctions.client.proxies.ServiceError;
+import es.deusto.sd.auctions.client.proxies.ServiceException;
+
+/**
+ * CatalogCrawler dumps every article of every category of the AuctionsService
+ * to an output directory, for analytics.
+ *
+ * Categories are fetched in parallel by a fixed pool of {@code parallelism}
+ * threads, so the backend never receives more than that many requests from
+ * the crawler at once. Failed requests are retried with exponential backoff and
+ * full jitter; client errors (bad request, not found) are not retried.
+ *
+ * The articles of each category are streamed to their own file under
+ * {@code articles/} in the chosen {@link CatalogFormat}, and only one category
+ * per thread is in memory at any time. A file is written under a temporary name
+ * and renamed when complete, and then the category is added to the
+ * {@link CrawlCheckpoint}: running the crawler again on the same directory
+ * skips the completed categories and retries the rest.
+ */
+public class CatalogCrawler {
+	private static final Logger logger = LoggerFactory.getLogger(CatalogCrawler.class);
+
+	// Retries of a failed request, and bounds of the backoff between them
+	private static final int MAX_ATTEMPTS = 5;
+	private static final long BASE_BACKOFF_MILLIS = 200;
+	private static final long MAX_BACKOFF_MILLIS = 10_000;
+
+	/**
+	 * Outcome of a crawl: categories written by this run, skipped because a
+	 * previous run completed them, and failed (to be retried by the next run).
+	 */
+	public record CrawlResult(int written, int resumed, int failed, long articles, long bytes, long elapsedMillis) {}
+
+	private final IAuctionsServiceProxy serviceProxy;
+	private final Path directory;
+	private final CatalogFormat format;
+	private final int parallelism;
+	private final String currency;
+
+	public CatalogCrawler(IAuctionsServiceProxy serviceProxy, Path directory, CatalogFormat format,
+						  int parallelism, String currency) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+		}
+
+		this.serviceProxy = serviceProxy;
+		this.directory = directory;
+		this.format = format;
+		this.parallelism = parallelism;
+		this.currency = currency;
+	}
+
+	public CrawlResult crawl() throws IOException, InterruptedException {
+		long start = System.currentTimeMillis();
+		Path articlesDirectory = directory.resolve("articles");
+		Files.createDirectories(articlesDirectory);
+
+		CrawlCheckpoint checkpoint = new CrawlCheckpoint(directory, format + " " + currency);
+		int resumed = checkpoint.completedCount();
+		List<Category> categories = withRetries("categories", serviceProxy::getAllCategories);
+
+		AtomicInteger written = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+		AtomicLong articles = new AtomicLong();
+		AtomicLong bytes = new AtomicLong();
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+		List<Future<?>> tasks = new ArrayList<>();
+
+		try {
+			for (Category category : categories) {
+				if (checkpoint.isCompleted(category.name())) {
+					continue;
+				}
+
+				tasks.add(pool.submit(() -> {
+					try {
+						Path file = articlesDirectory.resolve(fileName(category.name()));
+						long count = writeCategory(category.name(), file);
+
+						checkpoint.markCompleted(category.name());
+						written.incrementAndGet();
+						articles.addAndGet(count);
+						bytes.addAndGet(Files.size(file));
+						logger.info("Crawled {} ({} articles)", category.name(), count);
+					} catch (IOException | RuntimeException e) {
+						failed.incrementAndGet();
+						logger.warn("Failed to crawl {}: {}", category.name(), e.getMessage());
+					}
+				}));
+			}
+
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause()); // Tasks catch their own failures
+		} finally {
+			pool.shutdownNow();
+		}
+
+		return new CrawlResult(written.get(), resumed, failed.get(), articles.get(), bytes.get(),
+				System.currentTimeMillis() - start);
+	}
+
+	// Writes the articles of a category to a temporary file and renames it when complete
+	private long writeCategory(String categoryName, Path file) throws IOException {
+		List<Article> articles = withRetries(categoryName, () -> fetchArticles(categoryName));
+		Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try (OutputStream out = Files.newOutputStream(tempFile);
+			 ArticleWriter writer = format.open(out)) {
+			for (Article article : articles) {
+				writer.write(article);
+			}
+		}
+
+		try {
+			Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		return articles.size();
+	}
+
+	private List<Article> fetchArticles(String categoryName) {
+		try {
+			return serviceProxy.getArticlesByCategory(categoryName, currency);
+		} catch (ServiceException e) {
+			if (e.error() == ServiceError.NO_CONTENT) {
+				return List.of(); // Category without articles
+			}
+
+			throw e;
+		}
+	}
+
+	// Calls the service, retrying failures with exponential backoff and full jitter
+	private static <T> T withRetries(String what, Supplier<T> call) {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return call.get();
+			} catch (RuntimeException e) {
+				if (attempt == MAX_ATTEMPTS || !isRetryable(e)) {
+					throw e;
+				}
+
+				long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+				logger.debug("Retrying {} after failure {}: {}", what, attempt, e.getMessage());
+
+				try {
+					Thread.sleep(ThreadLocalRandom.current().nextLong(backoff + 1));
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+	// Client errors would fail again: only server and network errors are retried
+	private static boolean isRetryable(RuntimeException e) {
+		return !(e instanceof ServiceException se)
+				|| !(se.error() == ServiceError.BAD_REQUEST || se.error() == ServiceError.NOT_FOUND);
+	}
+
+	// Readable and unique file name for a category
+	private String fileName(String categoryName) {
+		String readable = categoryName.replaceAll("[^A-Za-z0-9_-]", "_");
+
+		return readable + "-" + DigestUtils.sha1Hex(categoryName).substring(0, 8) + "." + format.extension();
+	}
+}
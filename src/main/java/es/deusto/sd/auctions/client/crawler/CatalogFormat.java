@@ -0,0 +1,58 @@
+package es.deusto.sd.auctions.client.crawler;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import es.deusto.sd.auctions.client.data.Article;
+import tools.jackson.databind.ObjectMapper;
+
+/**
+ * Output formats of the {@link CatalogCrawler}:
+ *
+ * - BINARY: length-prefixed records (see {@link BinaryArticleCodec}), less
+ *   than half the size of the JSON and much cheaper to parse.
+ * - NDJSON: one JSON object per line, for tools that read JSON.
+ */
+public enum CatalogFormat {
+	BINARY("bin") {
+		@Override
+		public ArticleWriter open(OutputStream out) throws IOException {
+			return new BinaryArticleCodec.Writer(out);
+		}
+	},
+	NDJSON("ndjson") {
+		@Override
+		public ArticleWriter open(OutputStream out) {
+			OutputStream buffered = new BufferedOutputStream(out);
+			ObjectMapper objectMapper = new ObjectMapper();
+
+			return new ArticleWriter() {
+				@Override
+				public void write(Article article) throws IOException {
+					buffered.write(objectMapper.writeValueAsString(article).getBytes(StandardCharsets.UTF_8));
+					buffered.write('\n');
+				}
+
+				@Override
+				public void close() throws IOException {
+					buffered.close();
+				}
+			};
+		}
+	};
+
+	private final String extension;
+
+	CatalogFormat(String extension) {
+		this.extension = extension;
+	}
+
+	public String extension() {
+		return extension;
+	}
+
+	// The writer takes ownership of the stream, which is closed with it
+	public abstract ArticleWriter open(OutputStream out) throws IOException;
+}
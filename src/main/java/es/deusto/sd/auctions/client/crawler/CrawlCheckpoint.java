@@ -0,0 +1,58 @@
+package es.deusto.sd.auctions.client.crawler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * CrawlCheckpoint records which categories of a crawl are already complete, so
+ * that an interrupted crawl resumes where it stopped. The checkpoint is a text
+ * file in the output directory: a first line with the settings of the crawl
+ * (format and currency) and then the name of every completed category, one per
+ * line. Each name is appended and synced to disk only after the file of that
+ * category has been written completely.
+ */
+public class CrawlCheckpoint {
+	private static final String FILE_NAME = "checkpoint.txt";
+
+	private final Path file;
+	private final Set<String> completed = new HashSet<>();
+
+	// Opens the checkpoint of the output directory, creating it if this is a new crawl
+	public CrawlCheckpoint(Path directory, String settings) throws IOException {
+		this.file = directory.resolve(FILE_NAME);
+
+		if (!Files.exists(file)) {
+			Files.writeString(file, settings + System.lineSeparator(), StandardCharsets.UTF_8);
+			return;
+		}
+
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+
+		if (lines.isEmpty() || !lines.get(0).equals(settings)) {
+			throw new IllegalStateException("The crawl in " + directory + " was started with other settings ("
+					+ (lines.isEmpty() ? "none" : lines.get(0)) + "): use another output directory");
+		}
+
+		completed.addAll(lines.subList(1, lines.size()));
+	}
+
+	public synchronized boolean isCompleted(String categoryName) {
+		return completed.contains(categoryName);
+	}
+
+	public synchronized int completedCount() {
+		return completed.size();
+	}
+
+	public synchronized void markCompleted(String categoryName) throws IOException {
+		Files.writeString(file, categoryName + System.lineSeparator(), StandardCharsets.UTF_8,
+				StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+		completed.add(categoryName);
+	}
+}
@@ -5,16 +5,39 @@
  */
 package es.deusto.sd.auctions.client.data;
 
+import java.math.BigDecimal;
 import java.util.Date;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 public record Article(
 	    Long id,
 	    String title,
-	    Float initialPrice,
-	    Float currentPrice,
+	    Money initialPrice,
+	    Money currentPrice,
 	    Integer bids,
 	    Date auctionEnd,
 	    String categoryName,
 	    String ownerName,
 	    String currency
-	) {}
\ No newline at end of file
+	) {
+	// The AuctionsService sends the prices as decimals, in the currency of the
+	// article (EUR if it is not sent); a price not sent is null
+	@JsonCreator
+	public static Article fromJson(@JsonProperty("id") Long id,
+								   @JsonProperty("title") String title,
+								   @JsonProperty("initialPrice") BigDecimal initialPrice,
+								   @JsonProperty("currentPrice") BigDecimal currentPrice,
+								   @JsonProperty("bids") Integer bids,
+								   @JsonProperty("auctionEnd") Date auctionEnd,
+								   @JsonProperty("categoryName") String categoryName,
+								   @JsonProperty("ownerName") String ownerName,
+								   @JsonProperty("currency") String currency) {
+		String priceCurrency = (currency != null) ? currency : "EUR";
+
+		return new Article(id, title, (initialPrice == null) ? null : Money.of(initialPrice, priceCurrency),
+				(currentPrice == null) ? null : Money.of(currentPrice, priceCurrency), bids, auctionEnd,
+				categoryName, ownerName, currency);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,97 @@
+package es.deusto.sd.auctions.client.data;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Objects;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * Money is an amount in fixed point: a whole number of minor units
+ * (hundredths of the currency, as the AuctionsService quotes every price with
+ * two decimals, JPY included) and the code of the currency. Unlike a float,
+ * it is exact, so amounts can be added and compared without rounding errors
+ * and are sent to the AuctionsService as the decimal the user asked for.
+ *
+ * The AuctionsService sends prices as decimal numbers in its JSON, without
+ * their currency: {@link Article} reads them with {@link #of(BigDecimal, String)}
+ * and a Money is written back as the same kind of number. Formatted with
+ * {@link MoneyFormat}.
+ */
+public record Money(long minorUnits, String currency) implements Comparable<Money> {
+	// Minor units in a unit of the currency
+	public static final int SCALE = 100;
+
+	public Money {
+		Objects.requireNonNull(currency, "The currency of an amount is required");
+	}
+
+	// The amount of a price received as a float, rounded to the nearest minor unit
+	public static Money of(float amount, String currency) {
+		return new Money(toMinorUnits(amount), currency);
+	}
+
+	// The amount of a price received as a decimal, rounded to the nearest minor unit
+	public static Money of(BigDecimal amount, String currency) {
+		return new Money(amount.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact(), currency);
+	}
+
+	// An amount written as a plain decimal (e.g. by amount()); fails with an
+	// ArithmeticException if it has more than two decimals
+	public static Money parse(String amount, String currency) {
+		return new Money(parseMinorUnits(amount), currency);
+	}
+
+	// Minor units of an amount written as a plain decimal, as parse()
+	public static long parseMinorUnits(String amount) {
+		return new BigDecimal(amount).movePointRight(2).longValueExact();
+	}
+
+	// Minor units of a float price (the same rounding as the price history)
+	public static long toMinorUnits(float amount) {
+		return Math.round(amount * (double) SCALE);
+	}
+
+	// The amount as a float, for the code that still works with them
+	public float toFloat() {
+		return (float) ((double) minorUnits / SCALE);
+	}
+
+	public Money plus(Money other) {
+		checkCurrency(other);
+		return new Money(Math.addExact(minorUnits, other.minorUnits), currency);
+	}
+
+	public Money plus(long minorUnits) {
+		return new Money(Math.addExact(this.minorUnits, minorUnits), currency);
+	}
+
+	@Override
+	public int compareTo(Money other) {
+		checkCurrency(other);
+		return Long.compare(minorUnits, other.minorUnits);
+	}
+
+	// The amount as a plain decimal, without the currency (e.g. "1234.50")
+	public String amount() {
+		return MoneyFormat.amount(minorUnits);
+	}
+
+	// The amount as an exact decimal: how it is written in JSON (e.g. 1234.50)
+	@JsonValue
+	public BigDecimal decimal() {
+		return BigDecimal.valueOf(minorUnits, 2);
+	}
+
+	// The amount with the symbol of the currency (e.g. "1234.50 €")
+	@Override
+	public String toString() {
+		return MoneyFormat.of(currency).format(minorUnits);
+	}
+
+	private void checkCurrency(Money other) {
+		if (!currency.equals(other.currency)) {
+			throw new IllegalArgumentException("Amounts in different currencies: " + currency + " and " + other.currency);
+		}
+	}
+}
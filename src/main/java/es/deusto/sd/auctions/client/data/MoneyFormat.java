@@ -0,0 +1,114 @@
+package es.deusto.sd.auctions.client.data;
+
+/**
+ * MoneyFormat writes amounts of a currency with its symbol, e.g. "$ 12.50" or
+ * "12.50 €", always with two decimals and a dot (whatever the locale), the
+ * way the clients show prices. There is one shared instance per currency,
+ * used by the table of the Swing client and by the pages of the web client
+ * for every price they show.
+ *
+ * The digits are written, from the last one, into a buffer of the thread
+ * instead of going through String.format or a DecimalFormat, so formatting a
+ * price allocates nothing but the String returned; {@link #formatTo} appends
+ * to a StringBuilder without allocating at all.
+ *
+ * Thread-safe: the instances are immutable and every thread has its own
+ * buffer.
+ */
+public final class MoneyFormat {
+	private static final int FRACTION_DIGITS = 2;
+	// Sign and the 19 digits of a long, the dot and room for the symbol
+	private static final int BUFFER_SIZE = 32;
+	private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[BUFFER_SIZE]);
+
+	private static final MoneyFormat EUR = new MoneyFormat("", " €");
+	private static final MoneyFormat USD = new MoneyFormat("$ ", "");
+	private static final MoneyFormat GBP = new MoneyFormat("", " £");
+	private static final MoneyFormat JPY = new MoneyFormat("¥ ", "");
+	// Without symbol: the amount alone
+	private static final MoneyFormat PLAIN = new MoneyFormat("", "");
+
+	private final char[] prefix;
+	private final char[] suffix;
+
+	private MoneyFormat(String prefix, String suffix) {
+		this.prefix = prefix.toCharArray();
+		this.suffix = suffix.toCharArray();
+	}
+
+	// The format of a currency (as the clients did so far, any other currency is shown in euros)
+	public static MoneyFormat of(String currency) {
+		return switch (currency) {
+			case "USD" -> USD;
+			case "GBP" -> GBP;
+			case "JPY" -> JPY;
+			default -> EUR;
+		};
+	}
+
+	// The format without symbol, e.g. for the pages that show the currency as an icon
+	public static MoneyFormat plain() {
+		return PLAIN;
+	}
+
+	// The amount as a plain decimal, without the currency (e.g. "1234.50")
+	public static String amount(long minorUnits) {
+		return PLAIN.format(minorUnits);
+	}
+
+	// Null for an unknown price (e.g. not sent by the AuctionsService)
+	public String format(Money money) {
+		return (money == null) ? null : format(money.minorUnits());
+	}
+
+	public String format(long minorUnits) {
+		char[] buffer = BUFFER.get();
+		int start = write(minorUnits, buffer);
+
+		return new String(buffer, start, buffer.length - start);
+	}
+
+	// Appends the amount to a StringBuilder (e.g. a line being built), without allocating
+	public StringBuilder formatTo(long minorUnits, StringBuilder out) {
+		char[] buffer = BUFFER.get();
+		int start = write(minorUnits, buffer);
+
+		return out.append(buffer, start, buffer.length - start);
+	}
+
+	/**
+	 * Writes the amount at the end of the buffer, from the last character to
+	 * the first, and returns the index of the first one. The digits are taken
+	 * from the amount made negative, so that Long.MIN_VALUE fits as well.
+	 */
+	private int write(long minorUnits, char[] buffer) {
+		int position = buffer.length;
+		long value = (minorUnits < 0) ? minorUnits : -minorUnits;
+
+		for (int i = suffix.length - 1; i >= 0; i--) {
+			buffer[--position] = suffix[i];
+		}
+
+		for (int i = 0; i < FRACTION_DIGITS; i++) {
+			buffer[--position] = (char) ('0' - value % 10);
+			value /= 10;
+		}
+
+		buffer[--position] = '.';
+
+		do {
+			buffer[--position] = (char) ('0' - value % 10);
+			value /= 10;
+		} while (value != 0);
+
+		if (minorUnits < 0) {
+			buffer[--position] = '-';
+		}
+
+		for (int i = prefix.length - 1; i >= 0; i--) {
+			buffer[--position] = prefix[i];
+		}
+
+		return position;
+	}
+}
@@ -0,0 +1,181 @@
+package es.deusto.sd.auctions.client.history;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import es.deusto.sd.auctions.client.data.Money;
+
+/**
+ * PriceHistory records the prices observed for each article (in each currency)
+ * so that the clients can show how the bidding evolves. Only changes are
+ * recorded: a price equal to the last one of the article is ignored.
+ *
+ * Each article has a ring buffer of primitive arrays: the time of every change
+ * (epoch milliseconds) and the price in hundredths (fixed point), 16 bytes per
+ * sample. A ring starts small and doubles up to {@code samplesPerArticle}; once
+ * full, the oldest sample is overwritten. The memory of all the rings is
+ * bounded by {@code maxBytes}: when a ring would exceed it, the articles whose
+ * history was recorded or read the longest time ago are forgotten first.
+ *
+ * Thread-safe: recorded from the threads of the service proxy and read from
+ * those of the pages, always under the lock of the history.
+ */
+public class PriceHistory {
+	public static final int DEFAULT_SAMPLES_PER_ARTICLE = 64;
+
+	// Bytes of a sample (time and price) and estimated overhead of every ring
+	private static final int SAMPLE_BYTES = 2 * Long.BYTES;
+	private static final int RING_BYTES = 96;
+	private static final int INITIAL_CAPACITY = 4;
+
+	private record Key(long articleId, String currency) {}
+
+	private final long maxBytes;
+	private final int samplesPerArticle;
+	// Rings by article, least recently used first
+	private final LinkedHashMap<Key, Ring> rings = new LinkedHashMap<>(64, 0.75f, true);
+	private long usedBytes;
+
+	public PriceHistory(long maxBytes) {
+		this(maxBytes, DEFAULT_SAMPLES_PER_ARTICLE);
+	}
+
+	public PriceHistory(long maxBytes, int samplesPerArticle) {
+		if (samplesPerArticle < 2 || maxBytes < RING_BYTES + (long) samplesPerArticle * SAMPLE_BYTES) {
+			throw new IllegalArgumentException("The history needs room for at least one article of two samples");
+		}
+
+		this.maxBytes = maxBytes;
+		this.samplesPerArticle = samplesPerArticle;
+	}
+
+	// A price observed, in minor units of the currency
+	public void record(long articleId, String currency, long minorUnits) {
+		record(articleId, currency, System.currentTimeMillis(), minorUnits);
+	}
+
+	// An exact amount (e.g. a bid accepted), in hundredths like the samples
+	public void record(long articleId, Money price) {
+		record(articleId, price.currency(), System.currentTimeMillis(), price.minorUnits());
+	}
+
+	private synchronized void record(long articleId, String currency, long timeMillis, long minorUnits) {
+		Key key = new Key(articleId, currency);
+		Ring ring = rings.get(key);
+
+		if (ring == null) {
+			ring = new Ring(Math.min(INITIAL_CAPACITY, samplesPerArticle));
+			rings.put(key, ring);
+			usedBytes += RING_BYTES + (long) ring.times.length * SAMPLE_BYTES;
+		} else if (ring.size > 0 && ring.lastCents() == minorUnits) {
+			return; // Not a change
+		}
+
+		if (ring.size == ring.times.length && ring.times.length < samplesPerArticle) {
+			int capacity = Math.min(samplesPerArticle, ring.times.length * 2);
+			usedBytes += (long) (capacity - ring.times.length) * SAMPLE_BYTES;
+			ring.grow(capacity);
+		}
+
+		ring.add(timeMillis, minorUnits);
+		evict(ring);
+	}
+
+	// Prices of an article observed so far, oldest first (empty if none)
+	public synchronized PriceSeries get(long articleId, String currency) {
+		Ring ring = rings.get(new Key(articleId, currency));
+
+		if (ring == null || ring.size == 0) {
+			return PriceSeries.EMPTY;
+		}
+
+		long[] times = new long[ring.size];
+		long[] cents = new long[ring.size];
+		int first = ring.times.length - ring.start;
+
+		// The ring in order: from start to the end of the arrays, then from the beginning
+		if (first >= ring.size) {
+			System.arraycopy(ring.times, ring.start, times, 0, ring.size);
+			System.arraycopy(ring.cents, ring.start, cents, 0, ring.size);
+		} else {
+			System.arraycopy(ring.times, ring.start, times, 0, first);
+			System.arraycopy(ring.cents, ring.start, cents, 0, first);
+			System.arraycopy(ring.times, 0, times, first, ring.size - first);
+			System.arraycopy(ring.cents, 0, cents, first, ring.size - first);
+		}
+
+		return new PriceSeries(times, cents);
+	}
+
+	// Number of articles with a history
+	public synchronized int size() {
+		return rings.size();
+	}
+
+	// Estimated memory used by the rings
+	public synchronized long usedBytes() {
+		return usedBytes;
+	}
+
+	// Forgets the least recently used articles (except the given one) while over the budget
+	private void evict(Ring keep) {
+		Iterator<Ring> eldest = rings.values().iterator();
+
+		while (usedBytes > maxBytes && eldest.hasNext()) {
+			Ring ring = eldest.next();
+
+			if (ring != keep) {
+				usedBytes -= RING_BYTES + (long) ring.times.length * SAMPLE_BYTES;
+				eldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * Samples of an article: parallel arrays used as a ring, with the oldest
+	 * sample at {@code start}.
+	 */
+	private static final class Ring {
+		private long[] times;
+		private long[] cents;
+		private int start;
+		private int size;
+
+		private Ring(int capacity) {
+			this.times = new long[capacity];
+			this.cents = new long[capacity];
+		}
+
+		private long lastCents() {
+			return cents[(start + size - 1) % cents.length];
+		}
+
+		private void add(long time, long price) {
+			int index = (start + size) % times.length;
+
+			times[index] = time;
+			cents[index] = price;
+
+			if (size < times.length) {
+				size++;
+			} else {
+				start = (start + 1) % times.length; // Full: the oldest sample was overwritten
+			}
+		}
+
+		// Moves the samples of a full ring, in order, to larger arrays
+		private void grow(int capacity) {
+			long[] newTimes = new long[capacity];
+			long[] newCents = new long[capacity];
+			int first = times.length - start;
+
+			System.arraycopy(times, start, newTimes, 0, first);
+			System.arraycopy(cents, start, newCents, 0, first);
+			System.arraycopy(times, 0, newTimes, first, start);
+			System.arraycopy(cents, 0, newCents, first, start);
+			times = newTimes;
+			cents = newCents;
+			start = 0;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package es.deusto.sd.auctions.client.history;
+
+/**
+ * PriceSeries is an immutable copy of the price history of an article: the
+ * time (epoch milliseconds) and price (in hundredths) of each change, oldest
+ * first, in primitive arrays. It also provides the sparkline of the prices,
+ * computed straight from the arrays, without allocating anything per sample:
+ * as an SVG path for the web pages, or as the points of a polyline for Swing.
+ *
+ * The sparkline is a step line (a price holds until the next change) scaled to
+ * the given box: time along the x axis and price, from the lowest to the
+ * highest one of the series, along the y axis (upwards).
+ */
+public final class PriceSeries {
+	public static final PriceSeries EMPTY = new PriceSeries(new long[0], new long[0]);
+
+	private final long[] times;
+	private final long[] cents;
+	private final long minCents;
+	private final long maxCents;
+
+	PriceSeries(long[] times, long[] cents) {
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+
+		for (long price : cents) {
+			min = Math.min(min, price);
+			max = Math.max(max, price);
+		}
+
+		this.times = times;
+		this.cents = cents;
+		this.minCents = min;
+		this.maxCents = max;
+	}
+
+	public int size() {
+		return times.length;
+	}
+
+	public boolean isEmpty() {
+		return times.length == 0;
+	}
+
+	public long time(int index) {
+		return times[index];
+	}
+
+	// Prices in minor units (hundredths), as they were recorded
+	public long price(int index) {
+		return cents[index];
+	}
+
+	public long minPrice() {
+		return isEmpty() ? 0 : minCents;
+	}
+
+	public long maxPrice() {
+		return isEmpty() ? 0 : maxCents;
+	}
+
+	// Points of the sparkline that fit in the box (xs and ys need room for 2 * size() - 1)
+	public int points(int width, int height, int[] xs, int[] ys) {
+		int count = 0;
+
+		for (int i = 0; i < times.length; i++) {
+			int x = x(i, width);
+			int y = y(i, height);
+
+			if (i > 0) {
+				xs[count] = x; // Horizontal step at the previous price
+				ys[count] = ys[count - 1];
+				count++;
+			}
+
+			xs[count] = x;
+			ys[count++] = y;
+		}
+
+		return count;
+	}
+
+	// SVG path data ("M x y H x V y ...") of the sparkline, or "" if there are no samples
+	public String svgPath(int width, int height) {
+		if (isEmpty()) {
+			return "";
+		}
+
+		StringBuilder path = new StringBuilder(12 * times.length);
+		path.append('M').append(x(0, width)).append(' ').append(y(0, height));
+
+		for (int i = 1; i < times.length; i++) {
+			path.append('H').append(x(i, width)).append('V').append(y(i, height));
+		}
+
+		if (times.length == 1) {
+			path.append('H').append(width - 1); // A single price: a flat line
+		}
+
+		return path.toString();
+	}
+
+	private int x(int index, int width) {
+		long span = times[times.length - 1] - times[0];
+
+		if (span <= 0) {
+			return (times.length == 1) ? 0 : (int) ((long) index * (width - 1) / (times.length - 1));
+		}
+
+		return (int) ((times[index] - times[0]) * (width - 1) / span);
+	}
+
+	private int y(int index, int height) {
+		double range = (double) maxCents - minCents;
+
+		if (range == 0) {
+			return (height - 1) / 2; // Flat
+		}
+
+		return (int) ((height - 1) - ((double) cents[index] - minCents) * (height - 1) / range);
+	}
+}
@@ -0,0 +1,60 @@
+package es.deusto.sd.auctions.client.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder event emitted for every call of a service proxy to the
+ * AuctionsService, with the time spent in each phase of the call. The duration
+ * of the event is the whole call. Created and committed by
+ * {@link BackendCallTimer}.
+ */
+@Name(BackendCallEvent.NAME)
+@Label("Backend Call")
+@Category({ "Auctions", "Backend" })
+@Description("Call of a service proxy to the AuctionsService, split by phase")
+@StackTrace(false)
+class BackendCallEvent extends Event {
+	static final String NAME = "es.deusto.sd.auctions.BackendCall";
+
+	@Label("Client")
+	@Description("Service proxy that made the call (http or resttemplate)")
+	String client;
+
+	@Label("Endpoint")
+	@Description("HTTP method and path template, e.g. GET /auctions/articles/{id}/details")
+	String endpoint;
+
+	@Label("Status")
+	int status;
+
+	@Label("Payload Size")
+	@DataAmount
+	long payloadSize;
+
+	@Label("Connect")
+	@Description("Opening the connection, or taking it from the pool (not reported: counted in firstByte)")
+	@Timespan(Timespan.NANOSECONDS)
+	long connect;
+
+	@Label("First Byte")
+	@Description("Sending the request and waiting for the response headers")
+	@Timespan(Timespan.NANOSECONDS)
+	long firstByte;
+
+	@Label("Transfer")
+	@Description("Receiving the response body")
+	@Timespan(Timespan.NANOSECONDS)
+	long transfer;
+
+	@Label("Decode")
+	@Description("Converting the JSON body into Java objects")
+	@Timespan(Timespan.NANOSECONDS)
+	long decode;
+}
@@ -0,0 +1,188 @@
+package es.deusto.sd.auctions.client.monitoring;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.function.Supplier;
+
+/**
+ * BackendCallTimer measures the phases of one call to the AuctionsService and
+ * reports them as a {@link BackendCallEvent}: connecting, waiting for the first
+ * byte of the response, transferring the body and decoding the JSON.
+ *
+ * The HTTP transport of the service proxies starts a timer for every call and
+ * ends it when the call completes (possibly on another thread, for asynchronous
+ * calls). The arrival of the headers and the end of the body are observed
+ * through a wrapped body handler ({@link #timed}), invoked on the client's own
+ * threads. java.net.http does not expose connection setup: new connections
+ * count as time to the first byte, and the connect phase is reported as zero.
+ *
+ * RestTemplateServiceProxy, kept to compare the transport with, reports the
+ * phases from its interceptor (see {@link RestTemplateTiming}), which runs on
+ * the calling thread and finds the timer through {@link #current()}; its
+ * connect phase is reported as zero too.
+ *
+ * The times are always taken (a few nanoTime() calls per request); the event is
+ * only committed when a JFR recording has it enabled.
+ */
+public final class BackendCallTimer {
+	// Timer of the call being made by the current thread (used by RestTemplate)
+	private static final ThreadLocal<BackendCallTimer> CURRENT = new ThreadLocal<>();
+
+	private final BackendCallEvent event = new BackendCallEvent();
+	private final long startNanos;
+	// Whether the timer is the current one of the thread that started it
+	private final boolean bound;
+	private final BackendCallTimer previous;
+	// Written by the HTTP client threads, read when the call ends
+	private volatile long firstByteAt;
+	private volatile long bodyCompleteAt;
+	private volatile long readNanos;
+	private volatile long payloadSize;
+	private volatile int status;
+	private long decodeNanos = -1;
+
+	private BackendCallTimer(String client, String endpoint, boolean bound) {
+		this.bound = bound;
+		this.previous = bound ? CURRENT.get() : null;
+		this.event.client = client;
+		this.event.endpoint = endpoint;
+		this.event.begin();
+		this.startNanos = System.nanoTime();
+	}
+
+	// Starts timing a call; end() must be called when it returns (or fails)
+	public static BackendCallTimer start(String client, String endpoint) {
+		return new BackendCallTimer(client, endpoint, false);
+	}
+
+	// Starts timing a blocking call, as the current timer of the thread until it ends
+	public static BackendCallTimer startOnThread(String client, String endpoint) {
+		BackendCallTimer timer = new BackendCallTimer(client, endpoint, true);
+		CURRENT.set(timer);
+
+		return timer;
+	}
+
+	// Timer of the call in progress on this thread, or null
+	public static BackendCallTimer current() {
+		return CURRENT.get();
+	}
+
+	// The status line and headers of the response have arrived
+	public void firstByte(int statusCode) {
+		status = statusCode;
+		firstByteAt = System.nanoTime();
+	}
+
+	// Some bytes of the body have been read, taking the given time
+	public void bodyRead(long bytes, long nanos) {
+		payloadSize += bytes;
+		readNanos += nanos;
+	}
+
+	// The whole body has been received
+	public void bodyComplete() {
+		bodyCompleteAt = System.nanoTime();
+	}
+
+	// Runs the JSON decoding of the body, timing it
+	public <T> T decode(Supplier<T> decoder) {
+		long start = System.nanoTime();
+
+		try {
+			return decoder.get();
+		} finally {
+			decodeNanos = System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Wraps a body handler of java.net.http so that the arrival of the headers,
+	 * the size of the body and the end of the transfer are recorded.
+	 */
+	public <T> HttpResponse.BodyHandler<T> timed(HttpResponse.BodyHandler<T> handler) {
+		return responseInfo -> {
+			firstByte(responseInfo.statusCode());
+			HttpResponse.BodySubscriber<T> subscriber = handler.apply(responseInfo);
+
+			return new HttpResponse.BodySubscriber<T>() {
+				@Override
+				public CompletionStage<T> getBody() {
+					return subscriber.getBody();
+				}
+
+				@Override
+				public void onSubscribe(Flow.Subscription subscription) {
+					subscriber.onSubscribe(subscription);
+				}
+
+				@Override
+				public void onNext(List<ByteBuffer> buffers) {
+					long bytes = 0;
+
+					for (ByteBuffer buffer : buffers) {
+						bytes += buffer.remaining();
+					}
+
+					payloadSize += bytes;
+					subscriber.onNext(buffers);
+				}
+
+				@Override
+				public void onError(Throwable throwable) {
+					bodyComplete();
+					subscriber.onError(throwable);
+				}
+
+				@Override
+				public void onComplete() {
+					bodyComplete();
+					subscriber.onComplete();
+				}
+			};
+		};
+	}
+
+	// Ends the call, committing the event if a recording wants it
+	public void end() {
+		long endNanos = System.nanoTime();
+
+		if (bound && previous == null) {
+			CURRENT.remove();
+		} else if (bound) {
+			CURRENT.set(previous);
+		}
+
+		event.end();
+
+		if (!event.shouldCommit()) {
+			return;
+		}
+
+		long headersAt = (firstByteAt != 0) ? firstByteAt : endNanos; // No response at all (I/O error)
+		long transfer;
+		long decode;
+
+		if (bodyCompleteAt != 0 || !bound) {
+			// java.net.http: the body is fully received before it is decoded
+			transfer = (bodyCompleteAt != 0) ? bodyCompleteAt - headersAt : 0;
+			decode = Math.max(0, decodeNanos);
+		} else {
+			// RestTemplate: the body is decoded while it is read, so the time blocked
+			// reading is the transfer and the rest of the extraction is decoding
+			transfer = readNanos;
+			decode = (decodeNanos >= 0) ? decodeNanos : Math.max(0, endNanos - headersAt - readNanos);
+		}
+
+		event.status = status;
+		event.payloadSize = payloadSize;
+		event.connect = 0;
+		event.firstByte = Math.max(0, headersAt - startNanos);
+		event.transfer = transfer;
+		event.decode = decode;
+		event.commit();
+	}
+}
@@ -0,0 +1,143 @@
+package es.deusto.sd.auctions.client.monitoring;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.ToLongFunction;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * JfrLatencyReport summarizes a JFR recording of the clients into a latency
+ * breakdown per endpoint:
+ *
+ * - Backend calls (Backend Call events of both service proxies): count, median
+ *   and 95th percentile of the whole call, and the mean time of each phase
+ *   (connect, first byte, transfer, decode) and of the payload size.
+ * - Pages of the web client (Page Request events): count, median and 95th
+ *   percentile, and the mean time spent in backend calls, in the rest of the
+ *   controller and in rendering. The backend time of a page is the sum of the
+ *   Backend Call events recorded by the same thread while the page was served.
+ *   Asynchronous pages make their calls on other threads: their backend time
+ *   shows up as controller time.
+ *
+ * Usage: {@code java ... JfrLatencyReport recording.jfr} (or the
+ * {@code jfrReport} Gradle task). Record with the bundled profile, e.g.
+ * {@code -XX:StartFlightRecording=settings=src/main/resources/jfr/auctions.jfc,filename=auctions.jfr}.
+ */
+public final class JfrLatencyReport {
+	private static final String PAGE_EVENT = "es.deusto.sd.auctions.PageRequest";
+
+	private record Call(long threadId, Instant start, Instant end, long total, long connect, long firstByte,
+						long transfer, long decode, long bytes) {}
+
+	private record Page(long threadId, Instant start, Instant end, long total, long controller, long render) {}
+
+	private JfrLatencyReport() {}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: JfrLatencyReport <recording.jfr>");
+			System.exit(1);
+		}
+
+		Map<String, List<Call>> calls = new TreeMap<>();
+		Map<String, List<Page>> pages = new TreeMap<>();
+
+		for (RecordedEvent event : RecordingFile.readAllEvents(Path.of(args[0]))) {
+			String name = event.getEventType().getName();
+			long threadId = (event.getThread() != null) ? event.getThread().getJavaThreadId() : -1;
+
+			if (BackendCallEvent.NAME.equals(name)) {
+				String key = event.getString("client") + " " + event.getString("endpoint");
+				calls.computeIfAbsent(key, k -> new ArrayList<>()).add(new Call(threadId, event.getStartTime(),
+						event.getEndTime(), event.getDuration().toNanos(), event.getDuration("connect").toNanos(),
+						event.getDuration("firstByte").toNanos(), event.getDuration("transfer").toNanos(),
+						event.getDuration("decode").toNanos(), event.getLong("payloadSize")));
+			} else if (PAGE_EVENT.equals(name)) {
+				pages.computeIfAbsent(event.getString("endpoint"), k -> new ArrayList<>()).add(new Page(threadId,
+						event.getStartTime(), event.getEndTime(), event.getDuration().toNanos(),
+						event.getDuration("controller").toNanos(), event.getDuration("render").toNanos()));
+			}
+		}
+
+		print(System.out, calls, pages);
+	}
+
+	private static void print(PrintStream out, Map<String, List<Call>> calls, Map<String, List<Page>> pages) {
+		out.println("Backend calls (times in ms)");
+		out.printf("%-55s %7s %8s %8s %8s %9s %8s %8s %10s%n", "endpoint", "count", "p50", "p95",
+				"connect", "firstByte", "transfer", "decode", "bytes");
+
+		for (Map.Entry<String, List<Call>> entry : calls.entrySet()) {
+			List<Call> list = entry.getValue();
+			long[] totals = list.stream().mapToLong(Call::total).toArray();
+
+			out.printf("%-55s %7d %8.2f %8.2f %8.2f %9.2f %8.2f %8.2f %10.0f%n", entry.getKey(), list.size(),
+					millis(percentile(totals, 0.5)), millis(percentile(totals, 0.95)),
+					millis(mean(list, Call::connect)), millis(mean(list, Call::firstByte)),
+					millis(mean(list, Call::transfer)), millis(mean(list, Call::decode)), mean(list, Call::bytes));
+		}
+
+		if (pages.isEmpty()) {
+			return;
+		}
+
+		// Backend calls by thread, to find the ones made while serving each page
+		Map<Long, List<Call>> callsByThread = new HashMap<>();
+
+		for (List<Call> list : calls.values()) {
+			for (Call call : list) {
+				callsByThread.computeIfAbsent(call.threadId(), k -> new ArrayList<>()).add(call);
+			}
+		}
+
+		out.println();
+		out.println("Pages (times in ms)");
+		out.printf("%-55s %7s %8s %8s %8s %10s %8s%n", "endpoint", "count", "p50", "p95",
+				"backend", "controller", "render");
+
+		for (Map.Entry<String, List<Page>> entry : pages.entrySet()) {
+			List<Page> list = entry.getValue();
+			long[] totals = list.stream().mapToLong(Page::total).toArray();
+			double backend = 0;
+
+			for (Page page : list) {
+				for (Call call : callsByThread.getOrDefault(page.threadId(), List.of())) {
+					if (!call.start().isBefore(page.start()) && !call.end().isAfter(page.end())) {
+						backend += call.total();
+					}
+				}
+			}
+
+			backend /= list.size();
+
+			out.printf("%-55s %7d %8.2f %8.2f %8.2f %10.2f %8.2f%n", entry.getKey(), list.size(),
+					millis(percentile(totals, 0.5)), millis(percentile(totals, 0.95)), millis(backend),
+					millis(Math.max(0, mean(list, Page::controller) - backend)), millis(mean(list, Page::render)));
+		}
+	}
+
+	private static <T> double mean(List<T> list, ToLongFunction<T> value) {
+		return list.stream().mapToLong(value).average().orElse(0);
+	}
+
+	private static long percentile(long[] values, double fraction) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+
+		return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)];
+	}
+
+	private static double millis(double nanos) {
+		return nanos / 1e6;
+	}
+}
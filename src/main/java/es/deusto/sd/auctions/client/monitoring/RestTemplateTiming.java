@@ -0,0 +1,106 @@
+package es.deusto.sd.auctions.client.monitoring;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * RestTemplateTiming feeds the phases of the RestTemplate calls into the
+ * {@link BackendCallTimer} of the calling thread: {@link Interceptor} records
+ * the arrival of the response headers and wraps the body stream to count its
+ * bytes and the time spent blocked reading it.
+ *
+ * The connection cannot be opened ahead of the request (HttpURLConnection
+ * rejects the headers RestTemplate adds afterwards), so, as with java.net.http,
+ * new connections count as time to the first byte. Calls made without a timer
+ * (e.g. health checks) are not measured.
+ */
+public final class RestTemplateTiming {
+
+	private RestTemplateTiming() {}
+
+	/**
+	 * Interceptor that times the response headers and body of every call.
+	 */
+	public static class Interceptor implements ClientHttpRequestInterceptor {
+		@Override
+		public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+				throws IOException {
+			ClientHttpResponse response = execution.execute(request, body);
+			BackendCallTimer timer = BackendCallTimer.current();
+
+			if (timer == null) {
+				return response;
+			}
+
+			timer.firstByte(response.getStatusCode().value());
+
+			return new ClientHttpResponse() {
+				private InputStream timedBody;
+
+				@Override
+				public HttpStatusCode getStatusCode() throws IOException {
+					return response.getStatusCode();
+				}
+
+				@Override
+				public String getStatusText() throws IOException {
+					return response.getStatusText();
+				}
+
+				@Override
+				public HttpHeaders getHeaders() {
+					return response.getHeaders();
+				}
+
+				@Override
+				public InputStream getBody() throws IOException {
+					if (timedBody == null) {
+						timedBody = new TimedInputStream(response.getBody(), timer);
+					}
+
+					return timedBody;
+				}
+
+				@Override
+				public void close() {
+					response.close();
+				}
+			};
+		}
+	}
+
+	private static class TimedInputStream extends FilterInputStream {
+		private final BackendCallTimer timer;
+
+		TimedInputStream(InputStream in, BackendCallTimer timer) {
+			super(in);
+			this.timer = timer;
+		}
+
+		@Override
+		public int read() throws IOException {
+			long start = System.nanoTime();
+			int b = super.read();
+			timer.bodyRead((b < 0) ? 0 : 1, System.nanoTime() - start);
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			long start = System.nanoTime();
+			int read = super.read(buffer, offset, length);
+			timer.bodyRead(Math.max(0, read), System.nanoTime() - start);
+
+			return read;
+		}
+	}
+}
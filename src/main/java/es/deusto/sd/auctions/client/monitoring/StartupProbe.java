@@ -0,0 +1,46 @@
+package es.deusto.sd.auctions.client.monitoring;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * StartupProbe marks the moment a client has received and shown its first
+ * response from the AuctionsService, so that startup time can be measured from
+ * outside the process (see the {@code startupBenchmark} Gradle task).
+ *
+ * It is disabled unless the {@code auctions.startup.probe} system property is
+ * set. With {@code -Dauctions.startup.probe=true} the probe prints a single
+ * marker line to the standard output; with {@code -Dauctions.startup.probe=exit}
+ * it also terminates the JVM right after it, which is what the AppCDS training
+ * runs and the benchmark use (the console client, for instance, then exits
+ * before placing any bid).
+ */
+public final class StartupProbe {
+	// System property that enables the probe
+	public static final String PROPERTY = "auctions.startup.probe";
+	// Prefix of the marker line, searched for by the benchmark
+	public static final String MARKER = "[startup-probe] first-request";
+
+	private static final AtomicBoolean reported = new AtomicBoolean();
+
+	private StartupProbe() {}
+
+	public static boolean isEnabled() {
+		return System.getProperty(PROPERTY) != null;
+	}
+
+	// Reports the first response shown by the given client (only the first call counts)
+	public static void firstRequestCompleted(String client) {
+		if (!isEnabled() || !reported.compareAndSet(false, true)) {
+			return;
+		}
+
+		// Deliberately cheap: the time is taken by the benchmark when it reads the line,
+		// so the probe does not load any extra classes (e.g. JMX) into the measured path
+		System.out.println(MARKER + " client=" + client);
+		System.out.flush();
+
+		if ("exit".equals(System.getProperty(PROPERTY))) {
+			System.exit(0);
+		}
+	}
+}
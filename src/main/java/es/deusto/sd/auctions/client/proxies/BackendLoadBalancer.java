@@ -0,0 +1,329 @@
+package es.deusto.sd.auctions.client.proxies;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BackendLoadBalancer spreads the calls of a service proxy over several
+ * replicas of the AuctionsService. It is used by {@link HttpTransport}, which
+ * only asks it for a node before every call and reports back how the call went.
+ *
+ * Nodes are chosen with the "power of two choices" strategy: two healthy nodes
+ * are picked at random and the one with the lowest expected cost (EWMA latency
+ * multiplied by the number of calls in flight) wins. This follows the fastest
+ * replicas without the herd behaviour of always picking the single best one.
+ * The first call of a node, which opens its connection, is not part of its
+ * latency, and the latency of a node that gets no calls decays over time: a
+ * node measured on a bad moment is tried again instead of being starved.
+ *
+ * A node is ejected after several consecutive failures (connection errors or
+ * 5xx responses) and stays out of the rotation for a cool-down period that
+ * doubles on every new ejection. In the meantime a background health check
+ * probes it and brings it back as soon as it answers again.
+ *
+ * When session affinity is enabled, the calls that carry a session token
+ * (logout, bids) are sent to the node that issued the token at login, for
+ * backends that keep their sessions in memory.
+ */
+public class BackendLoadBalancer implements AutoCloseable {
+	// Weight of the latest sample in the latency average
+	private static final double EWMA_ALPHA = 0.3;
+	// Time constant of the decay of the latency of a node without calls
+	private static final long IDLE_DECAY_NANOS = 2_000_000_000L;
+	// Consecutive failures that eject a node
+	private static final int FAILURES_TO_EJECT = 3;
+	// Cool-down of the first ejection, doubled on every new one up to the maximum
+	private static final long BASE_EJECTION_MILLIS = 1_000;
+	private static final long MAX_EJECTION_MILLIS = 60_000;
+	// Interval between health checks of the ejected nodes
+	private static final long HEALTH_CHECK_MILLIS = 2_000;
+	// Maximum number of session -> node bindings kept (least recently used are dropped)
+	private static final int MAX_SESSIONS = 10_000;
+
+	/**
+	 * Probe used to decide whether an ejected node is back online.
+	 */
+	@FunctionalInterface
+	public interface HealthCheck {
+		boolean isHealthy(String baseUrl);
+	}
+
+	/**
+	 * A replica of the AuctionsService and the statistics used to choose it.
+	 */
+	public static final class BackendNode {
+		private final String baseUrl;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		// Statistics below are only written under the node's monitor
+		private double ewmaLatencyNanos;
+		private long lastSampleNanos;
+		private boolean connected;
+		private int consecutiveFailures;
+		private int ejections;
+		private volatile long ejectedUntilMillis;
+
+		BackendNode(String baseUrl) {
+			this.baseUrl = baseUrl;
+		}
+
+		public String baseUrl() {
+			return baseUrl;
+		}
+
+		boolean isAvailable(long nowMillis) {
+			return ejectedUntilMillis <= nowMillis;
+		}
+
+		// Expected cost of sending one more call to this node
+		synchronized double cost(long nowNanos) {
+			// Nodes without samples yet are tried first
+			return decayedLatency(nowNanos) * (inFlight.get() + 1);
+		}
+
+		synchronized void record(long latencyNanos, boolean success) {
+			long now = System.nanoTime();
+
+			// The first call also opened the connection (and warmed up the client)
+			if (connected) {
+				double latency = decayedLatency(now);
+				ewmaLatencyNanos = (latency == 0) ? latencyNanos
+						: EWMA_ALPHA * latencyNanos + (1 - EWMA_ALPHA) * latency;
+				lastSampleNanos = now;
+			}
+
+			connected = true;
+
+			if (success) {
+				consecutiveFailures = 0;
+				ejections = 0;
+			} else if (++consecutiveFailures >= FAILURES_TO_EJECT) {
+				eject();
+			}
+		}
+
+		synchronized void eject() {
+			long coolDown = Math.min(MAX_EJECTION_MILLIS, BASE_EJECTION_MILLIS << Math.min(ejections, 16));
+			ejections++;
+			consecutiveFailures = 0;
+			ejectedUntilMillis = System.currentTimeMillis() + coolDown;
+		}
+
+		synchronized void reinstate() {
+			ejectedUntilMillis = 0;
+			consecutiveFailures = 0;
+			ewmaLatencyNanos = 0; // Forget the latency measured while it was failing
+		}
+
+		// Latency average, decayed for the time since its last sample
+		private double decayedLatency(long nowNanos) {
+			return ewmaLatencyNanos * Math.exp(-(double) (nowNanos - lastSampleNanos) / IDLE_DECAY_NANOS);
+		}
+
+		@Override
+		public String toString() {
+			return baseUrl;
+		}
+	}
+
+	private final List<BackendNode> nodes;
+	private final boolean sessionAffinity;
+	private final HealthCheck healthCheck;
+	private final ScheduledExecutorService healthChecker;
+	// Node that issued every session token (only used with session affinity)
+	private final Map<String, BackendNode> sessions = Collections.synchronizedMap(
+			new LinkedHashMap<>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, BackendNode> eldest) {
+					return size() > MAX_SESSIONS;
+				}
+			});
+
+	public BackendLoadBalancer(List<String> baseUrls, boolean sessionAffinity, HealthCheck healthCheck) {
+		if (baseUrls == null || baseUrls.isEmpty()) {
+			throw new IllegalArgumentException("At least one backend URL is required");
+		}
+
+		List<BackendNode> list = new ArrayList<>();
+
+		for (String baseUrl : baseUrls) {
+			if (!baseUrl.isBlank()) {
+				// Normalize so that paths can be appended directly
+				list.add(new BackendNode(baseUrl.strip().replaceAll("/+$", "")));
+			}
+		}
+
+		this.nodes = List.copyOf(list);
+		this.sessionAffinity = sessionAffinity;
+		this.healthCheck = healthCheck;
+
+		// A single node has nobody to fail over to: no need for health checks
+		if (nodes.size() > 1 && healthCheck != null) {
+			healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "backend-health-check");
+				thread.setDaemon(true);
+				return thread;
+			});
+			healthChecker.scheduleWithFixedDelay(this::checkEjectedNodes,
+					HEALTH_CHECK_MILLIS, HEALTH_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+		} else {
+			healthChecker = null;
+		}
+	}
+
+	// Parses a comma-separated list of base URLs (as in the api.base.url property)
+	public static List<String> parseUrls(String urls) {
+		List<String> list = new ArrayList<>();
+
+		for (String url : urls.split(",")) {
+			if (!url.isBlank()) {
+				list.add(url.strip());
+			}
+		}
+
+		return list;
+	}
+
+	public List<BackendNode> nodes() {
+		return nodes;
+	}
+
+	/**
+	 * Chooses the node for a call that is not bound to a session.
+	 */
+	public BackendNode choose() {
+		if (nodes.size() == 1) {
+			return nodes.get(0);
+		}
+
+		long now = System.currentTimeMillis();
+		List<BackendNode> available = new ArrayList<>(nodes.size());
+
+		for (BackendNode node : nodes) {
+			if (node.isAvailable(now)) {
+				available.add(node);
+			}
+		}
+
+		if (available.isEmpty()) {
+			// Every node is ejected: try the one whose cool-down ends first
+			BackendNode best = nodes.get(0);
+
+			for (BackendNode node : nodes) {
+				if (node.ejectedUntilMillis < best.ejectedUntilMillis) {
+					best = node;
+				}
+			}
+
+			return best;
+		}
+
+		if (available.size() == 1) {
+			return available.get(0);
+		}
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = random.nextInt(available.size());
+		int second = random.nextInt(available.size() - 1);
+
+		if (second >= first) {
+			second++; // Two distinct nodes
+		}
+
+		BackendNode a = available.get(first);
+		BackendNode b = available.get(second);
+		long nowNanos = System.nanoTime();
+
+		return (a.cost(nowNanos) <= b.cost(nowNanos)) ? a : b;
+	}
+
+	/**
+	 * Chooses the node for a call made on behalf of a session: the node that
+	 * issued the token when session affinity is enabled, any node otherwise.
+	 */
+	public BackendNode chooseForSession(String token) {
+		if (sessionAffinity && token != null) {
+			BackendNode node = sessions.get(token);
+
+			if (node != null) {
+				return node;
+			}
+		}
+
+		return choose();
+	}
+
+	// Remembers the node that issued a session token
+	public void bindSession(String token, BackendNode node) {
+		if (sessionAffinity && token != null) {
+			sessions.put(token, node);
+		}
+	}
+
+	public void unbindSession(String token) {
+		if (token != null) {
+			sessions.remove(token);
+		}
+	}
+
+	/**
+	 * Marks the start of a call; the returned value must be passed to
+	 * {@link #complete} when the call finishes.
+	 */
+	public long start(BackendNode node) {
+		node.inFlight.incrementAndGet();
+
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records the outcome of a call. {@code success} must be false only for
+	 * failures attributable to the node (I/O errors, 5xx statuses), not for
+	 * client errors such as an invalid bid.
+	 */
+	public void complete(BackendNode node, long startNanos, boolean success) {
+		node.inFlight.decrementAndGet();
+		node.record(System.nanoTime() - startNanos, success);
+	}
+
+	/**
+	 * Ends a call without recording it: one cut short by the deadline of the
+	 * caller says nothing about the node (a healthy node may just be slower
+	 * than the budget of a page).
+	 */
+	public void abandon(BackendNode node) {
+		node.inFlight.decrementAndGet();
+	}
+
+	private void checkEjectedNodes() {
+		long now = System.currentTimeMillis();
+
+		for (BackendNode node : nodes) {
+			if (!node.isAvailable(now)) {
+				try {
+					if (healthCheck.isHealthy(node.baseUrl())) {
+						node.reinstate();
+					}
+				} catch (RuntimeException e) {
+					// Still unhealthy: it stays ejected until its cool-down ends
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		if (healthChecker != null) {
+			healthChecker.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package es.deusto.sd.auctions.client.proxies;
+
+import java.util.concurrent.CompletionException;
+
+/**
+ * Result of a call to the AuctionsService that returns its expected failures
+ * instead of throwing them: either a {@link Success} with the value or a
+ * {@link Failure} with the {@link ServiceError}, the status and the message.
+ * Used where failures are frequent and not exceptional, such as the bids
+ * rejected (409 and 410) while an auction is closing.
+ */
+public sealed interface CallResult<T> {
+
+	record Success<T>(T value) implements CallResult<T> {}
+
+	record Failure<T>(ServiceException exception) implements CallResult<T> {
+
+		public ServiceError error() {
+			return exception.error();
+		}
+
+		public int status() {
+			return exception.status();
+		}
+
+		public String message() {
+			return exception.getMessage();
+		}
+	}
+
+	static <T> CallResult<T> success(T value) {
+		return new Success<>(value);
+	}
+
+	// Failures of the same status of an endpoint share one (immutable) result
+	static <T> CallResult<T> failure(ServiceException exception) {
+		return exception.failure();
+	}
+
+	// Result of a completed future (for CompletableFuture.handle): failures other than
+	// a ServiceException (e.g. an unreadable body) are not expected, so they are rethrown
+	static <T> CallResult<T> of(T value, Throwable e) {
+		if (e == null) {
+			return success(value);
+		}
+
+		Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+
+		if (cause instanceof ServiceException serviceException) {
+			return failure(serviceException);
+		}
+
+		throw (e instanceof CompletionException completion) ? completion : new CompletionException(cause);
+	}
+
+	default boolean isSuccess() {
+		return this instanceof Success;
+	}
+
+	// The value, or the exception of the failure thrown
+	default T orThrow() {
+		return switch (this) {
+			case Success<T> success -> success.value();
+			case Failure<T> failure -> throw failure.exception();
+		};
+	}
+}
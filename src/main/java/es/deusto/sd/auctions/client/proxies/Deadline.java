@@ -0,0 +1,134 @@
+package es.deusto.sd.auctions.client.proxies;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Deadline is the time by which a piece of work (e.g. a web request) must be
+ * finished. It is the current deadline of a thread while the work runs on it,
+ * and every call of the service proxies made in the meantime inherits it:
+ * {@link HttpTransport} limits the timeout of each request to the time left,
+ * fails without sending anything once the deadline has passed, and can forward
+ * the time left to the AuctionsService as a header. So a request that has
+ * already spent most of its budget does not start calls that cannot finish in
+ * time, and a slow backend cannot hold a thread longer than the budget.
+ *
+ * The current deadline is a thread local: asynchronous steps that run on
+ * other threads carry it with {@link #call}, and results shared between
+ * requests are awaited with {@link #bound}, which gives up waiting without
+ * cancelling the shared work.
+ */
+public final class Deadline {
+	private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+	private final long expiresAtNanos;
+
+	private Deadline(long expiresAtNanos) {
+		this.expiresAtNanos = expiresAtNanos;
+	}
+
+	public static Deadline after(Duration budget) {
+		return new Deadline(System.nanoTime() + budget.toNanos());
+	}
+
+	// Deadline of the work running on this thread, or null if it has none
+	public static Deadline current() {
+		return CURRENT.get();
+	}
+
+	// Runs an action under the given deadline, or under none if it is null (e.g. a step
+	// that continues, on another thread, work started under Deadline.current())
+	public static <T> T within(Deadline deadline, Supplier<T> action) {
+		return (deadline == null) ? detached(action) : deadline.call(action);
+	}
+
+	// Runs an action outside of the current deadline (e.g. work shared by several requests)
+	public static <T> T detached(Supplier<T> action) {
+		Deadline previous = CURRENT.get();
+		CURRENT.remove();
+
+		try {
+			return action.get();
+		} finally {
+			if (previous != null) {
+				CURRENT.set(previous);
+			}
+		}
+	}
+
+	// Time left (zero or negative once the deadline has passed)
+	public Duration remaining() {
+		return Duration.ofNanos(expiresAtNanos - System.nanoTime());
+	}
+
+	public boolean isExpired() {
+		return expiresAtNanos - System.nanoTime() <= 0;
+	}
+
+	// Runs an action with this deadline as the current one of the thread
+	public <T> T call(Supplier<T> action) {
+		Scope scope = enter();
+
+		try {
+			return action.get();
+		} finally {
+			scope.close();
+		}
+	}
+
+	// Makes this the current deadline of the thread until the scope is closed
+	public Scope enter() {
+		Deadline previous = CURRENT.get();
+		CURRENT.set(this);
+
+		return () -> {
+			if (previous == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(previous);
+			}
+		};
+	}
+
+	/**
+	 * A copy of the future that fails with a "Deadline Exceeded" RuntimeException
+	 * (wrapped in a CompletionException) if the future has not completed by the
+	 * deadline. The future itself is left alone, so other waiters still get it.
+	 */
+	public <T> CompletableFuture<T> bound(CompletableFuture<T> future) {
+		if (future.isDone()) {
+			return future;
+		}
+
+		return future.copy()
+				.orTimeout(Math.max(0, expiresAtNanos - System.nanoTime()), TimeUnit.NANOSECONDS)
+				.exceptionallyCompose(e -> CompletableFuture.failedFuture(
+						(unwrap(e) instanceof TimeoutException) ? exceeded("waiting for the AuctionsService") : e));
+	}
+
+	// The exception of the work given up because of the deadline
+	public static ServiceException exceeded(String what) {
+		return exceeded(what, null);
+	}
+
+	static ServiceException exceeded(String what, Throwable cause) {
+		return new ServiceException(ServiceError.DEADLINE_EXCEEDED, 0, "Deadline Exceeded: no time left " + what, cause);
+	}
+
+	private static Throwable unwrap(Throwable e) {
+		return (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+	}
+
+	/**
+	 * Period during which a deadline is the current one of a thread.
+	 */
+	@FunctionalInterface
+	public interface Scope extends AutoCloseable {
+		@Override
+		void close();
+	}
+}
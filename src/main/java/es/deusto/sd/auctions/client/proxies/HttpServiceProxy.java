@@ -5,23 +5,19 @@
  */
 package es.deusto.sd.auctions.client.proxies;
 
-import java.io.IOException;
-import java.net.URI;
-import java.net.URLEncoder;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.codec.digest.DigestUtils;
 
 import tools.jackson.core.type.TypeReference;
-import tools.jackson.databind.ObjectMapper;
 
 import es.deusto.sd.auctions.client.data.Article;
 import es.deusto.sd.auctions.client.data.Category;
 import es.deusto.sd.auctions.client.data.Credentials;
+import es.deusto.sd.auctions.client.data.Money;
+import es.deusto.sd.auctions.client.proxies.BackendLoadBalancer.BackendNode;
+import es.deusto.sd.auctions.client.proxies.HttpTransport.Endpoint;
 
 /**
  * HttpServiceProxy class is an implementation of the Service Proxy design pattern
@@ -41,167 +37,226 @@ import es.deusto.sd.auctions.client.data.Credentials;
  * like the `Credentials`, `Category`, and `Article` classes, into JSON format for 
  * transmission in HTTP requests, and vice versa for processing the responses.
  * 
- * The absence of the @Service annotation indicates that this class is not managed 
- * by a Spring container, which means that it will not benefit from Spring's 
- * dependency injection features. Instead, it operates independently, which can 
- * be suitable for applications preferring a more lightweight approach without 
- * the overhead of a full Spring context.
+ * The HTTP work itself (shared HTTP/2 client, URI templates, load balancing,
+ * timing) is done by {@link HttpTransport}; this class only describes each
+ * endpoint of the AuctionsService and how its status codes map to results and
+ * errors. The same proxy is used by every client: the console and Swing
+ * clients create it directly, and the web client registers it as a Spring bean
+ * (see WebClientApplication).
  * 
  * (Description generated with ChatGPT 4o mini)
  */
 public class HttpServiceProxy implements IAuctionsServiceProxy {
-    private static final String BASE_URL = "http://localhost:8082";
-    private final HttpClient httpClient;
-    private final ObjectMapper objectMapper;
+    // Comma-separated list of backend base URLs, overridable with -Dapi.base.url=...
+    private static final String BASE_URL = System.getProperty("api.base.url", "http://localhost:8082");
+    // Whether calls carrying a token must go to the node that issued it (-Dapi.session-affinity=...)
+    private static final boolean SESSION_AFFINITY = Boolean.parseBoolean(
+            System.getProperty("api.session-affinity", "true"));
+    // Name of this proxy in the JFR backend call events
+    private static final String CLIENT = "http";
+
+    // Endpoints of the AuctionsService and the mapping of their status codes. The
+    // exceptions of the error statuses are created once (see StatusErrors).
+
+    private static final StatusErrors LOGIN_ERRORS = new StatusErrors("Login failed with status code: ")
+            .on(401, "Unauthorized: Invalid credentials");
+
+    private static final Endpoint<String> LOGIN = Endpoint.post("/auth/login", "Error during login",
+            (status, body) -> switch (status) {
+                case 200 -> body.text(); // Successful login, returns token
+                default -> throw LOGIN_ERRORS.get(status);
+            });
+
+    private static final StatusErrors LOGOUT_ERRORS = new StatusErrors("Logout failed with status code: ")
+            .on(401, "Unauthorized: Invalid token, logout failed");
+
+    private static final Endpoint<Void> LOGOUT = Endpoint.post("/auth/logout", "Error during logout",
+            (status, body) -> switch (status) {
+                case 204 -> null; // Logout successful
+                default -> throw LOGOUT_ERRORS.get(status);
+            });
+
+    private static final StatusErrors CATEGORIES_ERRORS = new StatusErrors(
+            "Failed to fetch categories with status code: ")
+            .on(204, "No Content: No categories found")
+            .on(500, "Internal server error while fetching categories");
+
+    private static final Endpoint<List<Category>> CATEGORIES = Endpoint.get("/auctions/categories",
+            "Error while fetching categories",
+            (status, body) -> switch (status) {
+                case 200 -> body.as(new TypeReference<List<Category>>() {});
+                default -> throw CATEGORIES_ERRORS.get(status);
+            });
+
+    private static final StatusErrors ARTICLES_ERRORS = new StatusErrors("Failed to fetch articles with status code: ")
+            .on(204, "No Content: Category has no articles")
+            .on(400, "Bad Request: Currency not supported")
+            .on(404, "Not Found: Category not found")
+            .on(500, "Internal server error while fetching articles");
+
+    private static final Endpoint<List<Article>> ARTICLES = Endpoint.get(
+            "/auctions/categories/{name}/articles?currency={currency}", "Error while fetching articles by category",
+            (status, body) -> switch (status) {
+                case 200 -> body.as(new TypeReference<List<Article>>() {});
+                default -> throw ARTICLES_ERRORS.get(status);
+            });
+
+    private static final StatusErrors DETAILS_ERRORS = new StatusErrors(
+            "Failed to fetch article details with status code: ")
+            .on(400, "Bad Request: Currency not supported")
+            .on(404, "Not Found: Article not found")
+            .on(500, "Internal server error while fetching article details");
+
+    private static final Endpoint<Article> DETAILS = Endpoint.get(
+            "/auctions/articles/{id}/details?currency={currency}", "Error while fetching article details",
+            (status, body) -> switch (status) {
+                case 200 -> body.as(Article.class);
+                default -> throw DETAILS_ERRORS.get(status);
+            });
+
+    private static final StatusErrors BID_ERRORS = new StatusErrors("Failed to make a bid with status code: ")
+            .on(400, "Bad Request: Currency not supported")
+            .on(401, "Unauthorized: User not authenticated")
+            .on(404, "Not Found: Article not found")
+            .on(409, "Conflict: Bid amount must be greater than the current price")
+            .on(410, "Gone: The auction has already ended")
+            .on(500, "Internal server error while placing a bid");
+
+    private static final Endpoint<Void> BID = Endpoint.post(
+            "/auctions/articles/{id}/bid?amount={amount}&currency={currency}", "Error while making a bid",
+            (status, body) -> switch (status) {
+                case 204 -> null; // Bid placed successfully
+                default -> throw BID_ERRORS.get(status);
+            });
+
+    private final HttpTransport transport;
+    private final BackendLoadBalancer loadBalancer;
 
     public HttpServiceProxy() {
-        this.httpClient = HttpClient.newHttpClient();
-        this.objectMapper = new ObjectMapper();
+        this(BackendLoadBalancer.parseUrls(BASE_URL), SESSION_AFFINITY);
+    }
+
+    public HttpServiceProxy(List<String> baseUrls, boolean sessionAffinity) {
+        this(baseUrls, sessionAffinity, HttpTransport.Settings.fromSystemProperties());
+    }
+
+    public HttpServiceProxy(List<String> baseUrls, boolean sessionAffinity, HttpTransport.Settings settings) {
+        this.transport = new HttpTransport(CLIENT, baseUrls, sessionAffinity, settings);
+        this.loadBalancer = transport.loadBalancer();
+    }
+
+    BackendLoadBalancer loadBalancer() {
+        return loadBalancer;
+    }
+
+    // Stops the health checks of the backend nodes
+    @Override
+    public void close() {
+        transport.close();
     }
 
     @Override
     public String login(Credentials credentials) {
-        try {
-            // Hash the password with SHA-1 before sending it. The password never travels
-            // in clear text; the server hashes it again before storing it.
-            Credentials hashedCredentials = new Credentials(
-                    credentials.email(), DigestUtils.sha1Hex(credentials.password()));
-            String credentialsJson = objectMapper.writeValueAsString(hashedCredentials);
-
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(BASE_URL + "/auth/login"))
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(credentialsJson))
-                .build();
-
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-            return switch (response.statusCode()) {
-                case 200 -> response.body(); // Successful login, returns token
-                case 401 -> throw new RuntimeException("Unauthorized: Invalid credentials");
-                default -> throw new RuntimeException("Login failed with status code: " + response.statusCode());
-            };
-        } catch (IOException | InterruptedException e) {
-            throw new RuntimeException("Error during login", e);
-        }
+        // Hash the password with SHA-1 before sending it. The password never travels
+        // in clear text; the server hashes it again before storing it.
+        Credentials hashedCredentials = new Credentials(
+                credentials.email(), DigestUtils.sha1Hex(credentials.password()));
+
+        BackendNode node = loadBalancer.choose();
+        String token = transport.call(LOGIN, node, transport.toJson(hashedCredentials));
+        loadBalancer.bindSession(token, node);
+
+        return token;
     }
 
     @Override
     public void logout(String token) {
-        try {
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(BASE_URL + "/auth/logout"))
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(token))
-                .build();
-
-            HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
-
-            switch (response.statusCode()) {
-                case 204 -> {} // Logout successful
-                case 401 -> throw new RuntimeException("Unauthorized: Invalid token, logout failed");
-                default -> throw new RuntimeException("Logout failed with status code: " + response.statusCode());
-            }
-        } catch (IOException | InterruptedException e) {
-            throw new RuntimeException("Error during logout", e);
-        }
+        transport.call(LOGOUT, loadBalancer.chooseForSession(token), token);
+        loadBalancer.unbindSession(token);
     }
 
     @Override
     public List<Category> getAllCategories() {
-        try {
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(BASE_URL + "/auctions/categories"))
-                .header("Content-Type", "application/json")
-                .GET()
-                .build();
-
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-            return switch (response.statusCode()) {
-                case 200 -> objectMapper.readValue(response.body(), new TypeReference<List<Category>>() {});
-                case 204 -> throw new RuntimeException("No Content: No categories found");
-                case 500 -> throw new RuntimeException("Internal server error while fetching categories");
-                default -> throw new RuntimeException("Failed to fetch categories with status code: " + response.statusCode());
-            };
-        } catch (IOException | InterruptedException e) {
-            throw new RuntimeException("Error while fetching categories", e);
-        }
-    }
-    
+        return transport.call(CATEGORIES, loadBalancer.choose(), null);
+    }
+
     @Override
     public List<Article> getArticlesByCategory(String categoryName, String currency) {
-        try {
-            // Encode the category name to handle spaces and special characters
-            String encodedCategoryName = URLEncoder.encode(categoryName, StandardCharsets.UTF_8);
-        	
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(BASE_URL + "/auctions/categories/" + encodedCategoryName + "/articles?currency=" + currency))
-                .header("Content-Type", "application/json")
-                .GET()
-                .build();
-
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-            return switch (response.statusCode()) {
-                case 200 -> objectMapper.readValue(response.body(), new TypeReference<List<Article>>() {});
-                case 204 -> throw new RuntimeException("No Content: Category has no articles");
-                case 400 -> throw new RuntimeException("Bad Request: Currency not supported");
-                case 404 -> throw new RuntimeException("Not Found: Category not found");
-                case 500 -> throw new RuntimeException("Internal server error while fetching articles");
-                default -> throw new RuntimeException("Failed to fetch articles with status code: " + response.statusCode());
-            };
-        } catch (IOException | InterruptedException e) {
-            throw new RuntimeException("Error while fetching articles by category", e);
-        }
+        return transport.call(ARTICLES, loadBalancer.choose(), null, categoryName, currency);
     }
 
     @Override
     public Article getArticleDetails(Long articleId, String currency) {
-        try {
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(BASE_URL + "/auctions/articles/" + articleId + "/details?currency=" + currency))
-                .header("Content-Type", "application/json")
-                .GET()
-                .build();
-
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-
-            return switch (response.statusCode()) {
-                case 200 -> objectMapper.readValue(response.body(), Article.class);
-                case 400 -> throw new RuntimeException("Bad Request: Currency not supported");
-                case 404 -> throw new RuntimeException("Not Found: Article not found");
-                case 500 -> throw new RuntimeException("Internal server error while fetching article details");
-                default -> throw new RuntimeException("Failed to fetch article details with status code: " + response.statusCode());
-            };
-        } catch (IOException | InterruptedException e) {
-            throw new RuntimeException("Error while fetching article details", e);
-        }
+        return transport.call(DETAILS, loadBalancer.choose(), null, articleId, currency);
+    }
+
+    // The amount is sent as its exact decimal (e.g. "10000000.00" rather than the "1.0E7" of a Float)
+    @Override
+    public void makeBid(Long articleId, Money amount, String token) {
+        transport.call(BID, loadBalancer.chooseForSession(token), token, articleId,
+                amount.amount(), amount.currency());
+    }
+
+    // Rejected bids are frequent while an auction is closing: they are returned, not thrown
+    @Override
+    public CallResult<Void> tryMakeBid(Long articleId, Money amount, String token) {
+        return transport.tryCall(BID, loadBalancer.chooseForSession(token), token, articleId,
+                amount.amount(), amount.currency());
     }
 
+    // The request is built and the node chosen up front; warmUp() opens the connection
+    // to that node, so send() only has to write the request on an open connection
     @Override
-    public void makeBid(Long articleId, Float amount, String currency, String token) {
-        try {
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(BASE_URL + "/auctions/articles/" + articleId + "/bid?amount=" + amount + "&currency=" + currency))
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(token))
-                .build();
-
-            HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
-
-            switch (response.statusCode()) {
-                case 204 -> {} // Bid placed successfully
-                case 400 -> throw new RuntimeException("Bad Request: Currency not supported");
-                case 401 -> throw new RuntimeException("Unauthorized: User not authenticated");
-                case 404 -> throw new RuntimeException("Not Found: Article not found");
-                case 409 -> throw new RuntimeException("Conflict: Bid amount must be greater than the current price");
-                case 410 -> throw new RuntimeException("Gone: The auction has already ended");
-                case 500 -> throw new RuntimeException("Internal server error while placing a bid");
-                default -> throw new RuntimeException("Failed to make a bid with status code: " + response.statusCode());
+    public PreparedBid prepareBid(Long articleId, Money amount, String token) {
+        HttpTransport.PreparedCall<Void> bid = transport.prepare(BID, loadBalancer.chooseForSession(token),
+                token, articleId, amount.amount(), amount.currency());
+        HttpTransport.PreparedCall<Article> warmUp = transport.prepare(DETAILS, bid.node(), null, articleId,
+                amount.currency());
+
+        return new PreparedBid() {
+            @Override
+            public void send() {
+                bid.send();
+            }
+
+            @Override
+            public void warmUp() {
+                try {
+                    warmUp.send();
+                } catch (RuntimeException e) {
+                    // The bid will open its own connection
+                }
             }
-        } catch (IOException | InterruptedException e) {
-            throw new RuntimeException("Error while making a bid", e);
-        }
+        };
+    }
+
+    // Asynchronous calls: the request is sent with HttpClient.sendAsync, so no thread waits
+    // for the server. The responses are mapped exactly as in the blocking calls.
+
+    @Override
+    public CompletableFuture<List<Category>> getAllCategoriesAsync() {
+        return transport.callAsync(CATEGORIES, loadBalancer.choose(), null);
+    }
+
+    @Override
+    public CompletableFuture<List<Article>> getArticlesByCategoryAsync(String categoryName, String currency) {
+        return transport.callAsync(ARTICLES, loadBalancer.choose(), null, categoryName, currency);
+    }
+
+    @Override
+    public CompletableFuture<Article> getArticleDetailsAsync(Long articleId, String currency) {
+        return transport.callAsync(DETAILS, loadBalancer.choose(), null, articleId, currency);
+    }
+
+    @Override
+    public CompletableFuture<Void> makeBidAsync(Long articleId, Money amount, String token) {
+        return transport.callAsync(BID, loadBalancer.chooseForSession(token), token, articleId,
+                amount.amount(), amount.currency());
+    }
+
+    @Override
+    public CompletableFuture<CallResult<Void>> tryMakeBidAsync(Long articleId, Money amount, String token) {
+        return transport.tryCallAsync(BID, loadBalancer.chooseForSession(token), token, articleId,
+                amount.amount(), amount.currency());
     }
-}
\ No newline at end of file
+}
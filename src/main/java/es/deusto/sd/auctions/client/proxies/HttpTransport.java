@@ -0,0 +1,385 @@
+package es.deusto.sd.auctions.client.proxies;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.ObjectMapper;
+
+import es.deusto.sd.auctions.client.monitoring.BackendCallTimer;
+import es.deusto.sd.auctions.client.proxies.BackendLoadBalancer.BackendNode;
+
+/**
+ * HttpTransport is the HTTP engine of the service proxies: it sends the calls
+ * to the AuctionsService described by {@link Endpoint}s and hands the status
+ * and body of the response to the endpoint's mapper. Everything that is not
+ * specific to one endpoint lives here, once:
+ *
+ * - A shared java.net.http client per configuration ({@link Settings}), so all
+ *   the proxies of a JVM reuse the same connections. The client prefers HTTP/2:
+ *   with a server that accepts it (TLS or h2c), all concurrent calls to a node
+ *   are multiplexed as streams of a single connection; with an HTTP/1.1 server
+ *   it falls back to a pool of keep-alive connections.
+ * - URIs expanded from precompiled {@link UriTemplate}s.
+ * - Node selection feedback for the {@link BackendLoadBalancer} and health
+ *   checks of ejected nodes.
+ * - Timing of every call as a JFR event ({@link BackendCallTimer}).
+ * - The {@link Deadline} of the caller: the timeout of a request is limited to
+ *   the time left, optionally sent to the server in a header, and a call whose
+ *   deadline has passed fails without being sent.
+ * - Blocking, asynchronous and prepared (pre-built) calls, and calls that
+ *   return their failures as a {@link CallResult} instead of throwing them.
+ */
+public final class HttpTransport implements AutoCloseable {
+	// One client per configuration for the whole JVM
+	private static final Map<Settings, HttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+	/**
+	 * Tunables of the HTTP client. The deadline header, if not blank, carries the
+	 * milliseconds left to the deadline of the caller in every request that has one.
+	 */
+	public record Settings(HttpClient.Version version, Duration connectTimeout, Duration requestTimeout,
+						   String deadlineHeader) {
+
+		// Reads -Dapi.http.version (HTTP_2 or HTTP_1_1), -Dapi.http.connect-timeout and
+		// -Dapi.http.request-timeout (milliseconds) and -Dapi.http.deadline-header
+		public static Settings fromSystemProperties() {
+			return new Settings(
+					HttpClient.Version.valueOf(System.getProperty("api.http.version", "HTTP_2")),
+					Duration.ofMillis(Long.getLong("api.http.connect-timeout", 2000)),
+					Duration.ofMillis(Long.getLong("api.http.request-timeout", 10000)),
+					System.getProperty("api.http.deadline-header", ""));
+		}
+	}
+
+	/**
+	 * Turns a response into the result of a call, or into a ServiceException for
+	 * the statuses that are errors (preallocated, see {@link StatusErrors}).
+	 */
+	@FunctionalInterface
+	interface ResponseMapper<T> {
+		T map(int status, Body body);
+	}
+
+	/**
+	 * Body of a response. JSON decoding is timed as the decode phase of the call.
+	 */
+	final class Body {
+		private final byte[] bytes;
+		private final BackendCallTimer timer;
+
+		private Body(byte[] bytes, BackendCallTimer timer) {
+			this.bytes = bytes;
+			this.timer = timer;
+		}
+
+		String text() {
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		<T> T as(Class<T> type) {
+			return timer.decode(() -> objectMapper.readValue(bytes, type));
+		}
+
+		<T> T as(TypeReference<T> type) {
+			return timer.decode(() -> objectMapper.readValue(bytes, type));
+		}
+	}
+
+	/**
+	 * One operation of the AuctionsService: method, URI template, mapping of the
+	 * response and message of the exception thrown on I/O errors.
+	 */
+	record Endpoint<T>(String method, UriTemplate uri, String name, ResponseMapper<T> mapper, String failure) {
+
+		static <T> Endpoint<T> get(String template, String failure, ResponseMapper<T> mapper) {
+			return of("GET", template, failure, mapper);
+		}
+
+		static <T> Endpoint<T> post(String template, String failure, ResponseMapper<T> mapper) {
+			return of("POST", template, failure, mapper);
+		}
+
+		private static <T> Endpoint<T> of(String method, String template, String failure, ResponseMapper<T> mapper) {
+			UriTemplate uri = new UriTemplate(template);
+
+			return new Endpoint<>(method, uri, method + " " + uri.path(), mapper, failure);
+		}
+	}
+
+	/**
+	 * A call whose request is already built, to be sent later (possibly many
+	 * times) with as little work as possible.
+	 */
+	final class PreparedCall<T> {
+		private final Endpoint<T> endpoint;
+		private final BackendNode node;
+		private final HttpRequest request;
+
+		private PreparedCall(Endpoint<T> endpoint, BackendNode node, HttpRequest request) {
+			this.endpoint = endpoint;
+			this.node = node;
+			this.request = request;
+		}
+
+		T send() {
+			return HttpTransport.this.send(endpoint, node, request);
+		}
+
+		BackendNode node() {
+			return node;
+		}
+	}
+
+	private final String clientName;
+	private final Settings settings;
+	private final HttpClient httpClient;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final BackendLoadBalancer loadBalancer;
+
+	// The client name identifies the proxy in the JFR backend call events
+	HttpTransport(String clientName, List<String> baseUrls, boolean sessionAffinity, Settings settings) {
+		this.clientName = clientName;
+		this.settings = settings;
+		// The deadline header does not change the client: proxies that only differ in it share one
+		this.httpClient = CLIENTS.computeIfAbsent(new Settings(settings.version(), settings.connectTimeout(),
+				settings.requestTimeout(), ""), HttpTransport::newClient);
+		this.loadBalancer = new BackendLoadBalancer(baseUrls, sessionAffinity, this::isHealthy);
+	}
+
+	private static HttpClient newClient(Settings settings) {
+		return HttpClient.newBuilder()
+				.version(settings.version())
+				.connectTimeout(settings.connectTimeout())
+				.followRedirects(HttpClient.Redirect.NEVER)
+				.build();
+	}
+
+	BackendLoadBalancer loadBalancer() {
+		return loadBalancer;
+	}
+
+	String toJson(Object value) {
+		return objectMapper.writeValueAsString(value);
+	}
+
+	// Blocking call; the body (if any) is sent as JSON
+	<T> T call(Endpoint<T> endpoint, BackendNode node, String body, Object... uriVariables) {
+		return send(endpoint, node, request(endpoint, node, body, uriVariables));
+	}
+
+	// Blocking call whose ServiceExceptions are returned as a failure
+	<T> CallResult<T> tryCall(Endpoint<T> endpoint, BackendNode node, String body, Object... uriVariables) {
+		try {
+			return CallResult.success(call(endpoint, node, body, uriVariables));
+		} catch (ServiceException e) {
+			return CallResult.failure(e);
+		}
+	}
+
+	// Non-blocking call: no thread waits for the server. The future fails with the same
+	// RuntimeExceptions as the blocking call.
+	<T> CompletableFuture<T> callAsync(Endpoint<T> endpoint, BackendNode node, String body, Object... uriVariables) {
+		return exchangeAsync(endpoint, node, body, uriVariables, new Outcome<T, T>() {
+			@Override
+			public T success(T value) {
+				return value;
+			}
+
+			@Override
+			public T failure(ServiceException e) {
+				throw e;
+			}
+		});
+	}
+
+	// Non-blocking call whose ServiceExceptions complete the future with a failure. No
+	// exception is thrown (nor wrapped in a CompletionException) for an error status.
+	<T> CompletableFuture<CallResult<T>> tryCallAsync(Endpoint<T> endpoint, BackendNode node, String body,
+													   Object... uriVariables) {
+		return exchangeAsync(endpoint, node, body, uriVariables, new Outcome<T, CallResult<T>>() {
+			@Override
+			public CallResult<T> success(T value) {
+				return CallResult.success(value);
+			}
+
+			@Override
+			public CallResult<T> failure(ServiceException e) {
+				return CallResult.failure(e);
+			}
+		});
+	}
+
+	/**
+	 * How an asynchronous call completes its future: with the result of the
+	 * endpoint, or with its ServiceException (either thrown or as a result).
+	 */
+	private interface Outcome<T, R> {
+		R success(T value);
+
+		R failure(ServiceException e);
+	}
+
+	private <T, R> CompletableFuture<R> exchangeAsync(Endpoint<T> endpoint, BackendNode node, String body,
+													  Object[] uriVariables, Outcome<T, R> outcome) {
+		Deadline deadline = Deadline.current();
+		HttpRequest request;
+
+		try {
+			request = request(endpoint, node, body, uriVariables);
+		} catch (ServiceException e) {
+			// Deadline already exceeded
+			try {
+				return CompletableFuture.completedFuture(outcome.failure(e));
+			} catch (ServiceException thrown) {
+				return CompletableFuture.failedFuture(thrown);
+			}
+		}
+
+		BackendCallTimer timer = BackendCallTimer.start(clientName, endpoint.name());
+		long start = loadBalancer.start(node);
+
+		return httpClient.sendAsync(request, timer.timed(HttpResponse.BodyHandlers.ofByteArray()))
+				.handle((response, e) -> {
+					if (e != null) {
+						ServiceException failure = failure(endpoint, deadline,
+								(e instanceof CompletionException) ? e.getCause() : e);
+						end(node, start, failure);
+						return outcome.failure(failure);
+					}
+
+					loadBalancer.complete(node, start, response.statusCode() < 500);
+
+					T value;
+
+					try {
+						value = endpoint.mapper().map(response.statusCode(), new Body(response.body(), timer));
+					} catch (ServiceException failure) {
+						return outcome.failure(failure);
+					}
+
+					return outcome.success(value);
+				})
+				.whenComplete((result, e) -> timer.end());
+	}
+
+	<T> PreparedCall<T> prepare(Endpoint<T> endpoint, BackendNode node, String body, Object... uriVariables) {
+		return new PreparedCall<>(endpoint, node, request(endpoint, node, body, uriVariables));
+	}
+
+	// Builds the request of a call, limited to the deadline of the caller (if any)
+	private HttpRequest request(Endpoint<?> endpoint, BackendNode node, String body, Object... uriVariables) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(endpoint.uri().expand(node.baseUrl(), uriVariables))
+				.timeout(settings.requestTimeout())
+				.header("Content-Type", "application/json")
+				.method(endpoint.method(), (body == null)
+						? HttpRequest.BodyPublishers.noBody()
+						: HttpRequest.BodyPublishers.ofString(body));
+		Deadline deadline = Deadline.current();
+
+		if (deadline != null) {
+			Duration remaining = deadline.remaining();
+
+			// Whole milliseconds: a timeout under 1 ms could not be met anyway
+			if (remaining.toMillis() <= 0) {
+				throw Deadline.exceeded("for " + endpoint.name());
+			}
+
+			if (remaining.compareTo(settings.requestTimeout()) < 0) {
+				builder.timeout(remaining);
+			}
+
+			if (settings.deadlineHeader() != null && !settings.deadlineHeader().isBlank()) {
+				builder.header(settings.deadlineHeader(), String.valueOf(remaining.toMillis()));
+			}
+		}
+
+		return builder.build();
+	}
+
+	// Exception of a call that failed with an I/O error: a timeout caused by the deadline
+	// of the caller is reported as such
+	private static ServiceException failure(Endpoint<?> endpoint, Deadline deadline, Throwable cause) {
+		if (deadline != null && deadline.isExpired()) {
+			return Deadline.exceeded("for " + endpoint.name(), cause);
+		}
+
+		return new ServiceException(ServiceError.IO_ERROR, 0, endpoint.failure(), cause);
+	}
+
+	// Sends a request to the given backend node, reporting its latency and outcome to the
+	// load balancer. Only I/O errors and 5xx statuses count as failures of the node; a call
+	// cut short by the deadline of the caller is not reported.
+	private <T> T send(Endpoint<T> endpoint, BackendNode node, HttpRequest request) {
+		Deadline deadline = Deadline.current();
+		BackendCallTimer timer = BackendCallTimer.start(clientName, endpoint.name());
+		long start = loadBalancer.start(node);
+		HttpResponse<byte[]> response;
+
+		try {
+			response = httpClient.send(request, timer.timed(HttpResponse.BodyHandlers.ofByteArray()));
+		} catch (IOException e) {
+			ServiceException failure = failure(endpoint, deadline, e);
+			end(node, start, failure);
+			timer.end();
+			throw failure;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			loadBalancer.complete(node, start, false);
+			timer.end();
+			throw new ServiceException(ServiceError.IO_ERROR, 0, endpoint.failure(), e);
+		}
+
+		loadBalancer.complete(node, start, response.statusCode() < 500);
+
+		try {
+			return endpoint.mapper().map(response.statusCode(), new Body(response.body(), timer));
+		} finally {
+			timer.end();
+		}
+	}
+
+	// Reports a call that failed with an I/O error: a failure of the node, unless the
+	// deadline of the caller cut it short
+	private void end(BackendNode node, long start, ServiceException failure) {
+		if (failure.error() == ServiceError.DEADLINE_EXCEEDED) {
+			loadBalancer.abandon(node);
+		} else {
+			loadBalancer.complete(node, start, false);
+		}
+	}
+
+	// Stops the health checks of the load balancer. The HTTP client is shared by the JVM and
+	// stays open.
+	@Override
+	public void close() {
+		loadBalancer.close();
+	}
+
+	// Health check of ejected nodes: any non-5xx answer to the (cheap) categories endpoint
+	private boolean isHealthy(String baseUrl) {
+		try {
+			HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/auctions/categories"))
+					.timeout(Duration.ofSeconds(2))
+					.GET()
+					.build();
+
+			return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() < 500;
+		} catch (IOException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
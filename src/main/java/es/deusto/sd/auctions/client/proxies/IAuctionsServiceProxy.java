@@ -6,10 +6,16 @@
 package es.deusto.sd.auctions.client.proxies;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 import es.deusto.sd.auctions.client.data.Article;
 import es.deusto.sd.auctions.client.data.Category;
 import es.deusto.sd.auctions.client.data.Credentials;
+import es.deusto.sd.auctions.client.data.Money;
+import es.deusto.sd.auctions.client.history.PriceSeries;
 
 /**
  * IAuctionsServiceProxy interface defines a contract for communication 
@@ -25,9 +31,9 @@ import es.deusto.sd.auctions.client.data.Credentials;
  * for greater flexibility and easier maintenance, as clients can work 
  * with any implementation of the interface without needing to know the 
  * specifics of how the HTTP communication is handled. For instance, 
- * both `HttpServiceProxy` and `RestTemplateServiceProxy` can implement 
- * this interface, allowing developers to switch between different 
- * implementations based on performance requirements, error handling strategies, 
+ * `HttpServiceProxy` implements this interface on top of the shared 
+ * `HttpTransport`, and other implementations (or decorators) can be swapped 
+ * in based on performance requirements, error handling strategies, 
  * or other factors without modifying the client code.
  * 
  * Additionally, using an interface facilitates unit testing and mocking, 
@@ -38,7 +44,7 @@ import es.deusto.sd.auctions.client.data.Credentials;
  * 
  * (Description generated with ChatGPT 4o mini)
  */
-public interface IAuctionsServiceProxy {
+public interface IAuctionsServiceProxy extends AutoCloseable {
 	// Method for user login
 	String login(Credentials credentials);
 
@@ -54,6 +60,83 @@ public interface IAuctionsServiceProxy {
 	// Method to get details of a specific article by ID
 	Article getArticleDetails(Long articleId, String currency);
 
-	// Method to place a bid on an article
-	void makeBid(Long articleId, Float amount, String currency, String token);
+	// Method to place a bid on an article, in the currency of the amount
+	void makeBid(Long articleId, Money amount, String token);
+
+	// Asynchronous variants of the methods above. The futures complete with the same
+	// results, or fail with the same RuntimeExceptions (wrapped in a CompletionException).
+	// By default the blocking method runs on a virtual thread, which releases its carrier
+	// thread while it waits for the server; implementations may use non-blocking I/O.
+	// Either way, the calls keep the Deadline of the caller.
+
+	default CompletableFuture<List<Category>> getAllCategoriesAsync() {
+		return AsyncCalls.supply(this::getAllCategories);
+	}
+
+	default CompletableFuture<List<Article>> getArticlesByCategoryAsync(String categoryName, String currency) {
+		return AsyncCalls.supply(() -> getArticlesByCategory(categoryName, currency));
+	}
+
+	default CompletableFuture<Article> getArticleDetailsAsync(Long articleId, String currency) {
+		return AsyncCalls.supply(() -> getArticleDetails(articleId, currency));
+	}
+
+	default CompletableFuture<Void> makeBidAsync(Long articleId, Money amount, String token) {
+		return AsyncCalls.supply(() -> {
+			makeBid(articleId, amount, token);
+			return null;
+		});
+	}
+
+	// Variants of makeBid that return every ServiceException (a bid that is not higher
+	// than the current price, an auction that has ended, but also I/O errors, exceeded
+	// deadlines and unexpected statuses) as a CallResult.Failure instead of throwing it.
+	// Only other runtime exceptions (bugs) are still thrown. By default they adapt the
+	// methods above.
+
+	default CallResult<Void> tryMakeBid(Long articleId, Money amount, String token) {
+		try {
+			makeBid(articleId, amount, token);
+			return CallResult.success(null);
+		} catch (ServiceException e) {
+			return CallResult.failure(e);
+		}
+	}
+
+	default CompletableFuture<CallResult<Void>> tryMakeBidAsync(Long articleId, Money amount, String token) {
+		return makeBidAsync(articleId, amount, token).handle(CallResult::of);
+	}
+
+	// Method to prepare a bid that will be sent later, when timing matters
+	default PreparedBid prepareBid(Long articleId, Money amount, String token) {
+		return () -> makeBid(articleId, amount, token);
+	}
+
+	// Method to get the prices of an article observed so far, oldest first. Proxies that
+	// do not record them (see PriceHistoryServiceProxy) return an empty series.
+	default PriceSeries getPriceHistory(Long articleId, String currency) {
+		return PriceSeries.EMPTY;
+	}
+
+	// Method to release the resources of the proxy (e.g. the health checks of the backend
+	// nodes of HttpServiceProxy). Decorators close the proxy they decorate.
+	@Override
+	default void close() {
+	}
+}
+
+/**
+ * Executor of the default asynchronous calls of {@link IAuctionsServiceProxy}:
+ * one virtual thread per call, which runs under the deadline of the caller.
+ */
+final class AsyncCalls {
+	static final Executor EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+	private AsyncCalls() {}
+
+	static <T> CompletableFuture<T> supply(Supplier<T> call) {
+		Deadline deadline = Deadline.current();
+
+		return CompletableFuture.supplyAsync(() -> Deadline.within(deadline, call), EXECUTOR);
+	}
 }
@@ -0,0 +1,17 @@
+package es.deusto.sd.auctions.client.proxies;
+
+/**
+ * PreparedBid is a bid whose request has been built in advance (see
+ * {@link IAuctionsServiceProxy#prepareBid}), so that sending it at a precise
+ * moment costs as little as possible: no serialization, URL building or node
+ * selection is left for {@link #send}.
+ */
+@FunctionalInterface
+public interface PreparedBid {
+	// Sends the bid; fails with a RuntimeException like IAuctionsServiceProxy.makeBid
+	void send();
+
+	// Opens (or refreshes) the connection the bid will be sent through, if the proxy
+	// keeps connections; by default there is nothing to warm up
+	default void warmUp() {}
+}
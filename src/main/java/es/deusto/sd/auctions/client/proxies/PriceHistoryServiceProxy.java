@@ -0,0 +1,151 @@
+package es.deusto.sd.auctions.client.proxies;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import es.deusto.sd.auctions.client.data.Article;
+import es.deusto.sd.auctions.client.data.Category;
+import es.deusto.sd.auctions.client.data.Credentials;
+import es.deusto.sd.auctions.client.data.Money;
+import es.deusto.sd.auctions.client.history.PriceHistory;
+import es.deusto.sd.auctions.client.history.PriceSeries;
+
+/**
+ * PriceHistoryServiceProxy is a decorator of another service proxy that
+ * records in a {@link PriceHistory} every price it sees pass by: the articles
+ * of the lists and details received (in the currency requested) and the
+ * amount of every bid accepted. The calls themselves are delegated unchanged,
+ * asynchronous ones included, so the clients and the caches built on top of
+ * the proxy feed the history without knowing about it.
+ */
+public class PriceHistoryServiceProxy implements IAuctionsServiceProxy {
+	// Memory of the history when it is not configured (-Dprice-history.max-bytes)
+	public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+	private final IAuctionsServiceProxy delegate;
+	private final PriceHistory history;
+
+	public PriceHistoryServiceProxy(IAuctionsServiceProxy delegate) {
+		this(delegate, new PriceHistory(Long.getLong("price-history.max-bytes", DEFAULT_MAX_BYTES)));
+	}
+
+	public PriceHistoryServiceProxy(IAuctionsServiceProxy delegate, PriceHistory history) {
+		this.delegate = delegate;
+		this.history = history;
+	}
+
+	@Override
+	public void close() {
+		delegate.close();
+	}
+
+	@Override
+	public String login(Credentials credentials) {
+		return delegate.login(credentials);
+	}
+
+	@Override
+	public void logout(String token) {
+		delegate.logout(token);
+	}
+
+	@Override
+	public List<Category> getAllCategories() {
+		return delegate.getAllCategories();
+	}
+
+	@Override
+	public List<Article> getArticlesByCategory(String categoryName, String currency) {
+		return record(delegate.getArticlesByCategory(categoryName, currency), currency);
+	}
+
+	@Override
+	public Article getArticleDetails(Long articleId, String currency) {
+		return record(delegate.getArticleDetails(articleId, currency), currency);
+	}
+
+	@Override
+	public void makeBid(Long articleId, Money amount, String token) {
+		delegate.makeBid(articleId, amount, token);
+		history.record(articleId, amount); // Accepted: it is the new price
+	}
+
+	@Override
+	public CompletableFuture<List<Category>> getAllCategoriesAsync() {
+		return delegate.getAllCategoriesAsync();
+	}
+
+	@Override
+	public CompletableFuture<List<Article>> getArticlesByCategoryAsync(String categoryName, String currency) {
+		return delegate.getArticlesByCategoryAsync(categoryName, currency).thenApply(articles -> record(articles, currency));
+	}
+
+	@Override
+	public CompletableFuture<Article> getArticleDetailsAsync(Long articleId, String currency) {
+		return delegate.getArticleDetailsAsync(articleId, currency).thenApply(article -> record(article, currency));
+	}
+
+	@Override
+	public CompletableFuture<Void> makeBidAsync(Long articleId, Money amount, String token) {
+		return delegate.makeBidAsync(articleId, amount, token)
+				.thenRun(() -> history.record(articleId, amount));
+	}
+
+	@Override
+	public CallResult<Void> tryMakeBid(Long articleId, Money amount, String token) {
+		return record(delegate.tryMakeBid(articleId, amount, token), articleId, amount);
+	}
+
+	@Override
+	public CompletableFuture<CallResult<Void>> tryMakeBidAsync(Long articleId, Money amount, String token) {
+		return delegate.tryMakeBidAsync(articleId, amount, token)
+				.thenApply(result -> record(result, articleId, amount));
+	}
+
+	@Override
+	public PreparedBid prepareBid(Long articleId, Money amount, String token) {
+		PreparedBid bid = delegate.prepareBid(articleId, amount, token);
+
+		return new PreparedBid() {
+			@Override
+			public void send() {
+				bid.send();
+				history.record(articleId, amount);
+			}
+
+			@Override
+			public void warmUp() {
+				bid.warmUp();
+			}
+		};
+	}
+
+	@Override
+	public PriceSeries getPriceHistory(Long articleId, String currency) {
+		return history.get(articleId, currency);
+	}
+
+	private CallResult<Void> record(CallResult<Void> bid, Long articleId, Money amount) {
+		if (bid.isSuccess()) {
+			history.record(articleId, amount);
+		}
+
+		return bid;
+	}
+
+	private List<Article> record(List<Article> articles, String currency) {
+		for (Article article : articles) {
+			record(article, currency);
+		}
+
+		return articles;
+	}
+
+	private Article record(Article article, String currency) {
+		if (article != null && article.id() != null && article.currentPrice() != null) {
+			history.record(article.id(), currency, article.currentPrice().minorUnits());
+		}
+
+		return article;
+	}
+}
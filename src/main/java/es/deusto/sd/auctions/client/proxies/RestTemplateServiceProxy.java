@@ -6,19 +6,23 @@
 package es.deusto.sd.auctions.client.proxies;
 
 import java.util.List;
+import java.util.function.Function;
 
 import org.apache.commons.codec.digest.DigestUtils;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
-import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
 import es.deusto.sd.auctions.client.data.Article;
 import es.deusto.sd.auctions.client.data.Category;
 import es.deusto.sd.auctions.client.data.Credentials;
+import es.deusto.sd.auctions.client.data.Money;
+import es.deusto.sd.auctions.client.monitoring.BackendCallTimer;
+import es.deusto.sd.auctions.client.proxies.BackendLoadBalancer.BackendNode;
 
 /**
  * RestTemplateServiceProxy class is an implementation of the Service Proxy design pattern.
@@ -30,10 +34,10 @@ import es.deusto.sd.auctions.client.data.Credentials;
  * the HTTP request logic and handling various exceptions, this proxy provides a cleaner 
  * interface for clients to interact with the underlying service.
  * 
- * The @Service annotation indicates that this class is a Spring service component, 
- * which allows it to be detected and managed by the Spring container. This enables 
- * dependency injection for the RestTemplate instance, promoting loose coupling and 
- * enhancing testability.
+ * The web client used this proxy until it moved to HttpServiceProxy (and its shared
+ * HttpTransport). It is no longer registered as a Spring bean: it is kept as the
+ * baseline of TransportBenchmark, until the transport has been compared with it.
+ * Its failures are ServiceExceptions, like those of HttpServiceProxy.
  * 
  * RestTemplate is a synchronous client provided by Spring for making HTTP requests. 
  * It simplifies the interaction with RESTful services by providing a higher-level 
@@ -47,21 +51,26 @@ import es.deusto.sd.auctions.client.data.Credentials;
  * 
  * (Description generated with ChatGPT 4o mini)
  */
-@Service
 public class RestTemplateServiceProxy implements IAuctionsServiceProxy{
+    // Name of this proxy in the JFR backend call events
+    private static final String CLIENT = "resttemplate";
 
     private final RestTemplate restTemplate;
+    private final BackendLoadBalancer loadBalancer;
 
-    @Value("${api.base.url}")
-    private String apiBaseUrl;
-
-    public RestTemplateServiceProxy(RestTemplate restTemplate) {
+    public RestTemplateServiceProxy(RestTemplate restTemplate, List<String> baseUrls, boolean sessionAffinity) {
         this.restTemplate = restTemplate;
+        this.loadBalancer = new BackendLoadBalancer(baseUrls, sessionAffinity, this::isHealthy);
+    }
+
+    // Stops the health checks of the backend nodes
+    @Override
+    public void close() {
+        loadBalancer.close();
     }
 
     @Override
     public String login(Credentials credentials) {
-        String url = apiBaseUrl + "/auth/login";
 
         // Hash the password with SHA-1 before sending it. The password never travels
         // in clear text; the server hashes it again before storing it.
@@ -69,98 +78,147 @@ public class RestTemplateServiceProxy implements IAuctionsServiceProxy{
                 credentials.email(), DigestUtils.sha1Hex(credentials.password()));
 
         try {
-            return restTemplate.postForObject(url, hashedCredentials, String.class);
+            BackendNode node = loadBalancer.choose();
+            String token = call(node, "POST /auth/login", baseUrl -> restTemplate.postForObject(baseUrl + "/auth/login", hashedCredentials, String.class));
+            loadBalancer.bindSession(token, node);
+
+            return token;
         } catch (HttpStatusCodeException e) {
             switch (e.getStatusCode().value()) {
-                case 401 -> throw new RuntimeException("Login failed: Invalid credentials.");
-                default -> throw new RuntimeException("Login failed: " + e.getStatusText());
+                case 401 -> throw error(e, "Login failed: Invalid credentials.");
+                default -> throw error(e, "Login failed: " + e.getStatusText());
             }
         }
     }
     
     @Override    
     public void logout(String token) {
-        String url = apiBaseUrl + "/auth/logout";
-        
         try {
-            restTemplate.postForObject(url, token, Void.class);
+            call(loadBalancer.chooseForSession(token), "POST /auth/logout",
+                    baseUrl -> restTemplate.postForObject(baseUrl + "/auth/logout", token, Void.class));
+            loadBalancer.unbindSession(token);
         } catch (HttpStatusCodeException e) {
             switch (e.getStatusCode().value()) {
-                case 401 -> throw new RuntimeException("Logout failed: Invalid token.");
-                default -> throw new RuntimeException("Logout failed: " + e.getStatusText());
+                case 401 -> throw error(e, "Logout failed: Invalid token.");
+                default -> throw error(e, "Logout failed: " + e.getStatusText());
             }
         }
     }
 
     @Override
     public List<Category> getAllCategories() {
-        String url = apiBaseUrl + "/auctions/categories";
-
         try {
             // Use exchange() with a ParameterizedTypeReference so the response is
             // deserialized into a real List<Category>. getForObject(url, List.class)
             // would return a List<LinkedHashMap> due to generic type erasure.
-            ResponseEntity<List<Category>> response = restTemplate.exchange(
-                    url, HttpMethod.GET, null, new ParameterizedTypeReference<List<Category>>() {});
+            ResponseEntity<List<Category>> response = call(loadBalancer.choose(), "GET /auctions/categories", baseUrl -> restTemplate.exchange(
+                    baseUrl + "/auctions/categories", HttpMethod.GET, null, new ParameterizedTypeReference<List<Category>>() {}));
             return response.getBody();
         } catch (HttpStatusCodeException e) {
             switch (e.getStatusCode().value()) {
-                case 404 -> throw new RuntimeException("No categories found.");
-                default -> throw new RuntimeException("Failed to retrieve categories: " + e.getStatusText());
+                case 404 -> throw error(e, "No categories found.");
+                default -> throw error(e, "Failed to retrieve categories: " + e.getStatusText());
             }
         }
     }
 
     @Override
     public List<Article> getArticlesByCategory(String categoryName, String currency) {
-        String url = apiBaseUrl + "/auctions/categories/" + categoryName + "/articles?currency=" + currency;
+        String path = "/auctions/categories/" + categoryName + "/articles?currency=" + currency;
 
         try {
-            ResponseEntity<List<Article>> response = restTemplate.exchange(
-                    url, HttpMethod.GET, null, new ParameterizedTypeReference<List<Article>>() {});
+            ResponseEntity<List<Article>> response = call(loadBalancer.choose(), "GET /auctions/categories/{name}/articles",
+                    baseUrl -> restTemplate.exchange(baseUrl + path, HttpMethod.GET, null,
+                            new ParameterizedTypeReference<List<Article>>() {}));
             return response.getBody();
         } catch (HttpStatusCodeException e) {
             switch (e.getStatusCode().value()) {
-                case 404 -> throw new RuntimeException("Category not found: " + categoryName);
-                case 400 -> throw new RuntimeException("Invalid currency: " + currency);
-                default -> throw new RuntimeException("Failed to retrieve articles: " + e.getStatusText());
+                case 404 -> throw error(e, "Category not found: " + categoryName);
+                case 400 -> throw error(e, "Invalid currency: " + currency);
+                default -> throw error(e, "Failed to retrieve articles: " + e.getStatusText());
             }
         }
     }
 
     @Override
     public Article getArticleDetails(Long articleId, String currency) {
-        String url = apiBaseUrl + "/auctions/articles/" + articleId + "/details?currency=" + currency;
+        String path = "/auctions/articles/" + articleId + "/details?currency=" + currency;
         
         try {
-            return restTemplate.getForObject(url, Article.class);
+            return call(loadBalancer.choose(), "GET /auctions/articles/{id}/details",
+                    baseUrl -> restTemplate.getForObject(baseUrl + path, Article.class));
         } catch (HttpStatusCodeException e) {
             switch (e.getStatusCode().value()) {
-                case 404 -> throw new RuntimeException("Article not found: ID " + articleId);
-                case 400 -> throw new RuntimeException("Invalid currency: " + currency);
-                default -> throw new RuntimeException("Failed to retrieve article details: " + e.getStatusText());
+                case 404 -> throw error(e, "Article not found: ID " + articleId);
+                case 400 -> throw error(e, "Invalid currency: " + currency);
+                default -> throw error(e, "Failed to retrieve article details: " + e.getStatusText());
             }
         }
     }
     
     @Override
-    public void makeBid(Long articleId, Float amount, String currency, String token) {
-    	String url = apiBaseUrl + "/auctions/articles/" + articleId + "/bid?amount=" +  amount + "&currency=" + currency;
+    public void makeBid(Long articleId, Money amount, String token) {
+        String currency = amount.currency();
+    	String path = "/auctions/articles/" + articleId + "/bid?amount=" +  amount.amount() + "&currency=" + currency;
         
         try {
             // A 204 (successful bid) does not throw, so it is handled by simply
             // returning normally after this call.
-            restTemplate.postForObject(url, token, Void.class);
+            call(loadBalancer.chooseForSession(token), "POST /auctions/articles/{id}/bid",
+                    baseUrl -> restTemplate.postForObject(baseUrl + path, token, Void.class));
         } catch (HttpStatusCodeException e) {
             switch (e.getStatusCode().value()) {
-                case 401 -> throw new RuntimeException("User not authenticated");
-                case 404 -> throw new RuntimeException("Article not found");
-                case 400 -> throw new RuntimeException("Invalid currency: " + currency);
-                case 409 -> throw new RuntimeException("Bid amount must be greater than the current price");
-                case 410 -> throw new RuntimeException("The auction has already ended");
-                case 500 -> throw new RuntimeException("Internal server error while processing bid");
-                default -> throw new RuntimeException("Bid failed with status code: " + e.getStatusCode());
+                case 401 -> throw error(e, "User not authenticated");
+                case 404 -> throw error(e, "Article not found");
+                case 400 -> throw error(e, "Invalid currency: " + currency);
+                case 409 -> throw error(e, "Bid amount must be greater than the current price");
+                case 410 -> throw error(e, "The auction has already ended");
+                case 500 -> throw error(e, "Internal server error while processing bid");
+                default -> throw error(e, "Bid failed with status code: " + e.getStatusCode());
             }
         }
     }
-}
\ No newline at end of file
+
+    // Runs a call against the given backend node, reporting its latency and outcome to the
+    // load balancer. Only I/O errors and 5xx statuses count as failures of the node.
+    // The phases of the call are timed as a JFR event under the given endpoint name.
+    private <T> T call(BackendNode node, String endpoint, Function<String, T> request) {
+        BackendCallTimer timer = BackendCallTimer.startOnThread(CLIENT, endpoint);
+        long start = loadBalancer.start(node);
+        boolean success = false;
+
+        try {
+            T result = request.apply(node.baseUrl());
+            success = true;
+
+            return result;
+        } catch (HttpStatusCodeException e) {
+            success = e.getStatusCode().value() < 500;
+            throw e;
+        } catch (ResourceAccessException e) {
+            throw new ServiceException(ServiceError.IO_ERROR, 0, "Error while calling " + endpoint, e);
+        } finally {
+            loadBalancer.complete(node, start, success);
+            timer.end();
+        }
+    }
+
+    // The ServiceException of an error status, with the message of the endpoint
+    private static ServiceException error(HttpStatusCodeException e, String message) {
+        int status = e.getStatusCode().value();
+
+        return new ServiceException(ServiceError.ofStatus(status), status, message);
+    }
+
+    // Health check of ejected nodes: any non-5xx answer to the (cheap) categories endpoint
+    private boolean isHealthy(String baseUrl) {
+        try {
+            restTemplate.exchange(baseUrl + "/auctions/categories", HttpMethod.GET, null, Void.class);
+            return true;
+        } catch (HttpStatusCodeException e) {
+            return e.getStatusCode().value() < 500;
+        } catch (RestClientException e) {
+            return false;
+        }
+    }
+}
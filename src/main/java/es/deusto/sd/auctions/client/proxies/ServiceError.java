@@ -0,0 +1,33 @@
+package es.deusto.sd.auctions.client.proxies;
+
+/**
+ * Kinds of failure of a call to the AuctionsService: one per status code the
+ * service answers with, plus the failures that have no status (I/O errors and
+ * deadlines exceeded before the answer arrived).
+ */
+public enum ServiceError {
+	NO_CONTENT,
+	BAD_REQUEST,
+	UNAUTHORIZED,
+	NOT_FOUND,
+	// The bid is not higher than the current price
+	CONFLICT,
+	// The auction has already ended
+	GONE,
+	SERVER_ERROR,
+	UNEXPECTED_STATUS,
+	IO_ERROR,
+	DEADLINE_EXCEEDED;
+
+	public static ServiceError ofStatus(int status) {
+		return switch (status) {
+			case 204 -> NO_CONTENT;
+			case 400 -> BAD_REQUEST;
+			case 401 -> UNAUTHORIZED;
+			case 404 -> NOT_FOUND;
+			case 409 -> CONFLICT;
+			case 410 -> GONE;
+			default -> (status >= 500 && status < 600) ? SERVER_ERROR : UNEXPECTED_STATUS;
+		};
+	}
+}
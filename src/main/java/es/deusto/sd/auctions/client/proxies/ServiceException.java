@@ -0,0 +1,53 @@
+package es.deusto.sd.auctions.client.proxies;
+
+/**
+ * ServiceException is the RuntimeException of a failed call to the
+ * AuctionsService. Its message keeps the prefix the clients look for (e.g.
+ * "Unauthorized: ...", "Conflict: ..."), and the failure is also available as
+ * a {@link ServiceError} and a status code (0 when there is no answer).
+ *
+ * It has no stack trace: the place where a status was mapped says nothing
+ * useful, and filling in the trace was most of the cost of a rejected bid.
+ * Exceptions for status codes are preallocated per endpoint and shared (see
+ * {@link StatusErrors}), so they must not be modified; I/O errors keep their
+ * stack trace in the cause.
+ */
+public class ServiceException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	private final ServiceError error;
+	private final int status;
+	// The failure as a result, created on first use and shared like the exception itself
+	private transient CallResult.Failure<?> failure;
+
+	public ServiceException(ServiceError error, int status, String message) {
+		this(error, status, message, null);
+	}
+
+	public ServiceException(ServiceError error, int status, String message, Throwable cause) {
+		super(message, cause, false, false);
+		this.error = error;
+		this.status = status;
+	}
+
+	public ServiceError error() {
+		return error;
+	}
+
+	public int status() {
+		return status;
+	}
+
+	@SuppressWarnings("unchecked")
+	<T> CallResult<T> failure() {
+		CallResult.Failure<?> result = failure;
+
+		// A race only creates the same (immutable) result twice
+		if (result == null) {
+			result = new CallResult.Failure<>(this);
+			failure = result;
+		}
+
+		return (CallResult<T>) result;
+	}
+}
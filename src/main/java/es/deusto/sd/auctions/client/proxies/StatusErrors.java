@@ -0,0 +1,40 @@
+package es.deusto.sd.auctions.client.proxies;
+
+/**
+ * The exceptions of the error statuses of an endpoint, created once: mapping
+ * a status to its error (e.g. the 409 of a bid that is not high enough) only
+ * looks up a preallocated, stackless {@link ServiceException}.
+ */
+final class StatusErrors {
+	private static final int MAX_STATUS = 599;
+
+	private final String unexpected;
+	// Indexed by status. Statuses without a message get one on first use; a race
+	// only creates the same (immutable) exception twice.
+	private final ServiceException[] byStatus = new ServiceException[MAX_STATUS + 1];
+
+	// The message of statuses without their own one is the given prefix and the status
+	StatusErrors(String unexpected) {
+		this.unexpected = unexpected;
+	}
+
+	StatusErrors on(int status, String message) {
+		byStatus[status] = new ServiceException(ServiceError.ofStatus(status), status, message);
+		return this;
+	}
+
+	ServiceException get(int status) {
+		if (status < 0 || status > MAX_STATUS) {
+			return new ServiceException(ServiceError.UNEXPECTED_STATUS, status, unexpected + status);
+		}
+
+		ServiceException exception = byStatus[status];
+
+		if (exception == null) {
+			exception = new ServiceException(ServiceError.ofStatus(status), status, unexpected + status);
+			byStatus[status] = exception;
+		}
+
+		return exception;
+	}
+}
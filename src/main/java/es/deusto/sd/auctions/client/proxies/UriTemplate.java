@@ -0,0 +1,89 @@
+package es.deusto.sd.auctions.client.proxies;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * UriTemplate is a URI template such as
+ * {@code /auctions/articles/{id}/details?currency={currency}}, parsed once into
+ * its literal parts and variables so that expanding it for a request is a
+ * single pass over a StringBuilder: no regular expressions or parsing per call,
+ * unlike building the URI from concatenated strings and then parsing it.
+ *
+ * Variables are percent-encoded (spaces as %20, so they are valid both in the
+ * path and in the query).
+ */
+final class UriTemplate {
+	private final String template;
+	// Literal parts; a variable goes between every two consecutive literals
+	private final String[] literals;
+	private final int length;
+
+	UriTemplate(String template) {
+		List<String> parts = new ArrayList<>();
+		int start = 0;
+		int open;
+
+		while ((open = template.indexOf('{', start)) >= 0) {
+			int close = template.indexOf('}', open);
+
+			if (close < 0) {
+				throw new IllegalArgumentException("Unclosed variable in URI template: " + template);
+			}
+
+			parts.add(template.substring(start, open));
+			start = close + 1;
+		}
+
+		parts.add(template.substring(start));
+
+		this.template = template;
+		this.literals = parts.toArray(String[]::new);
+		this.length = template.length();
+	}
+
+	int variables() {
+		return literals.length - 1;
+	}
+
+	URI expand(String baseUrl, Object... values) {
+		if (values.length != variables()) {
+			throw new IllegalArgumentException("URI template " + template + " expects " + variables() + " values");
+		}
+
+		StringBuilder uri = new StringBuilder(baseUrl.length() + length + 16 * values.length).append(baseUrl);
+
+		for (int i = 0; i < values.length; i++) {
+			uri.append(literals[i]).append(encode(String.valueOf(values[i])));
+		}
+
+		return URI.create(uri.append(literals[values.length]).toString());
+	}
+
+	// Endpoint name without the query, e.g. "/auctions/articles/{id}/details" (for the JFR events)
+	String path() {
+		int query = template.indexOf('?');
+
+		return (query < 0) ? template : template.substring(0, query);
+	}
+
+	private static String encode(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+
+			if (!(Character.isLetterOrDigit(c) && c < 128) && c != '-' && c != '.' && c != '_') {
+				return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+			}
+		}
+
+		return value; // Fast path: ids, currencies and plain names need no encoding
+	}
+
+	@Override
+	public String toString() {
+		return template;
+	}
+}
@@ -0,0 +1,640 @@
+package es.deusto.sd.auctions.client.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import es.deusto.sd.auctions.client.data.Article;
+
+/**
+ * ArticleSearchIndex is a client-side inverted index over the title, owner name
+ * and category name of the articles returned by the AuctionsService. It is fed
+ * with the article lists the clients already fetch (see {@link #update}) and is
+ * kept up to date incrementally: when a category is refreshed only the articles
+ * that appeared, disappeared or changed one of the indexed fields touch the
+ * postings.
+ *
+ * Every indexed article gets a small internal document number, and the postings
+ * of a term are kept as a sorted array of document numbers plus the fields where
+ * the term occurs. Terms are kept in a sorted dictionary, so a query token is
+ * resolved as a prefix range over the dictionary and every term of the range is
+ * used, however short the prefix; the postings of the tokens are then
+ * intersected with a linear merge (all the tokens must match) and the best
+ * {@code limit} results are selected with a score histogram. The matches of the
+ * one- and two-letter tokens, which expand to a large part of the dictionary,
+ * are kept until the postings change, ranked by score: a query of one such
+ * token reads its first {@code limit} hits instead of scanning every match.
+ * Nothing in the query path boxes document numbers.
+ *
+ * Measured with 300,000 indexed articles (see SearchBenchmark): words,
+ * two-word queries, three-letter prefixes and single letters answer with a p99
+ * under 0.15 ms. Longer tokens that expand to a hundred terms or more (e.g.
+ * "owner12" among 2,000 owners) still merge every expansion: owner queries
+ * reach a p99 of 1 to 1.3 ms.
+ *
+ * Results are ranked by field: a hit in the title weighs more than a hit in the
+ * owner name, and that one more than a hit in the category name; exact term
+ * matches weigh twice as much as prefix matches.
+ *
+ * The index is safe to use from several threads: queries share a read lock and
+ * updates take the write lock for the (short) time needed to patch the postings.
+ */
+public class ArticleSearchIndex {
+	// Bit flags identifying the field in which a term occurs
+	private static final int FIELD_TITLE = 1;
+	private static final int FIELD_OWNER = 2;
+	private static final int FIELD_CATEGORY = 4;
+
+	// Highest score a single query token can contribute (exact match in every field)
+	private static final int MAX_TOKEN_SCORE = 20;
+
+	// Expansions of a prefix whose postings add up to more than 1 / DENSE_MERGE_RATIO of the
+	// documents are merged through a score per document instead of sorting the postings
+	private static final int DENSE_MERGE_RATIO = 16;
+
+	// Best score of every document for the prefix being merged, reset after each merge
+	private static final ThreadLocal<byte[]> denseScores = ThreadLocal.withInitial(() -> new byte[0]);
+
+	// Tokens up to this length expand to so many terms that their matches are kept until
+	// the postings change, as the first letters typed in the search box repeat constantly
+	private static final int SHORT_PREFIX_LENGTH = 2;
+
+	// Sorted dictionary: term -> postings of the term
+	private final NavigableMap<String, Postings> dictionary = new TreeMap<>();
+	// Indexed articles by internal document number (null for free slots)
+	private Article[] documents = new Article[1024];
+	// Internal document number of every indexed article id
+	private final Map<Long, Integer> documentNumbers = new HashMap<>();
+	// Document numbers released by removed articles, reused by new ones
+	private int[] freeNumbers = new int[64];
+	private int freeCount;
+	private int nextNumber;
+	// Article ids indexed for every category, used to detect removed articles
+	private final Map<String, Set<Long>> categories = new HashMap<>();
+
+	// Matches of the short tokens queried since the postings last changed (filled by the
+	// queries, under the read lock; cleared under the write lock)
+	private final Map<String, ShortPrefix> shortPrefixMatches = new ConcurrentHashMap<>();
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Result of a query: the matching article and its relevance score.
+	 */
+	public record SearchHit(Article article, int score) {}
+
+	/**
+	 * Replaces the indexed content of a category with a freshly fetched list of
+	 * its articles. Unchanged articles are left untouched; new or modified ones
+	 * are (re)indexed and the ones no longer present are removed.
+	 */
+	public void update(String categoryName, List<Article> articles) {
+		if (categoryName == null || articles == null) {
+			return;
+		}
+
+		lock.writeLock().lock();
+
+		try {
+			Set<Long> previousIds = categories.getOrDefault(categoryName, Collections.emptySet());
+			Set<Long> currentIds = new HashSet<>(articles.size() * 2);
+
+			for (Article article : articles) {
+				if (article != null && article.id() != null) {
+					currentIds.add(article.id());
+					index(article);
+				}
+			}
+
+			for (Long id : previousIds) {
+				if (!currentIds.contains(id)) {
+					Integer number = documentNumbers.get(id);
+
+					// Articles moved to another category in the meantime are kept
+					if (number != null && categoryName.equals(documents[number].categoryName())) {
+						removeDocument(number);
+					}
+				}
+			}
+
+			categories.put(categoryName, currentIds);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Updates a single article (e.g. after fetching its details) without
+	 * affecting the rest of its category.
+	 */
+	public void update(Article article) {
+		if (article == null || article.id() == null) {
+			return;
+		}
+
+		lock.writeLock().lock();
+
+		try {
+			index(article);
+
+			if (article.categoryName() != null) {
+				categories.computeIfAbsent(article.categoryName(), k -> new HashSet<>()).add(article.id());
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns up to {@code limit} articles matching every token of the query,
+	 * sorted by descending score. Every token is matched as a prefix, so
+	 * partially typed words already find results.
+	 */
+	public List<SearchHit> search(String query, int limit) {
+		List<String> tokens = tokenize(query);
+
+		if (tokens.isEmpty() || limit <= 0) {
+			return Collections.emptyList();
+		}
+
+		lock.readLock().lock();
+
+		try {
+			if (tokens.size() == 1 && tokens.get(0).length() <= SHORT_PREFIX_LENGTH) {
+				return shortPrefix(tokens.get(0)).topHits(documents, limit); // Already ranked
+			}
+
+			Matches matches = null;
+
+			for (String token : tokens) {
+				Matches tokenMatches = (token.length() <= SHORT_PREFIX_LENGTH)
+						? shortPrefix(token).matches()
+						: matchToken(token);
+				matches = (matches == null) ? tokenMatches : matches.intersect(tokenMatches);
+
+				if (matches.size() == 0) {
+					return Collections.emptyList(); // AND semantics: nothing can match
+				}
+			}
+
+			return topHits(matches, limit, tokens.size() * MAX_TOKEN_SCORE);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// Number of indexed articles
+	public int size() {
+		lock.readLock().lock();
+
+		try {
+			return documentNumbers.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// Category of an indexed article
+	public Optional<String> categoryOf(Long articleId) {
+		lock.readLock().lock();
+
+		try {
+			Integer number = documentNumbers.get(articleId);
+
+			return (number == null) ? Optional.empty() : Optional.ofNullable(documents[number].categoryName());
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// Whether a list of the articles of the category has been indexed
+	public boolean containsCategory(String categoryName) {
+		lock.readLock().lock();
+
+		try {
+			return categories.containsKey(categoryName);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// Removes every indexed article (e.g. after a logout)
+	public void clear() {
+		lock.writeLock().lock();
+
+		try {
+			dictionary.clear();
+			shortPrefixMatches.clear();
+			documentNumbers.clear();
+			categories.clear();
+			Arrays.fill(documents, null);
+			freeCount = 0;
+			nextNumber = 0;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// Cached matches of a short token, resolved by the first query since the postings changed
+	private ShortPrefix shortPrefix(String token) {
+		return shortPrefixMatches.computeIfAbsent(token, t -> ShortPrefix.of(matchToken(t), MAX_TOKEN_SCORE));
+	}
+
+	// Resolves a token as a prefix over the dictionary, keeping the best score per document
+	private Matches matchToken(String token) {
+		// Every term starting with the token: the range [token, token + '\uffff')
+		Collection<Map.Entry<String, Postings>> range =
+				dictionary.subMap(token, true, token + Character.MAX_VALUE, false).entrySet();
+
+		int terms = 0;
+		int total = 0;
+
+		for (Map.Entry<String, Postings> entry : range) {
+			terms++;
+			total += entry.getValue().size;
+		}
+
+		if (terms == 0) {
+			return new Matches(new int[0], new int[0], 0);
+		}
+
+		if (terms == 1) {
+			// Common case (whole word typed): the postings are already sorted
+			Map.Entry<String, Postings> entry = range.iterator().next();
+			Postings postings = entry.getValue();
+			boolean exact = entry.getKey().length() == token.length();
+			int[] scores = new int[postings.size];
+
+			for (int i = 0; i < postings.size; i++) {
+				scores[i] = fieldScore(postings.fields[i], exact);
+			}
+
+			return new Matches(postings.documents, scores, postings.size);
+		}
+
+		return (total > nextNumber / DENSE_MERGE_RATIO) ? denseMerge(token, range, total)
+				: sortedMerge(token, range, total);
+	}
+
+	// Few postings share the prefix: concatenate (document, score) pairs packed in a long
+	// so that a single primitive sort leaves them ordered by document number
+	private static Matches sortedMerge(String token, Collection<Map.Entry<String, Postings>> range, int total) {
+		long[] packed = new long[total];
+		int count = 0;
+
+		for (Map.Entry<String, Postings> entry : range) {
+			Postings postings = entry.getValue();
+			boolean exact = entry.getKey().length() == token.length();
+
+			for (int i = 0; i < postings.size; i++) {
+				packed[count++] = ((long) postings.documents[i] << 32) | fieldScore(postings.fields[i], exact);
+			}
+		}
+
+		Arrays.sort(packed);
+
+		int[] documentsMatched = new int[total];
+		int[] scores = new int[total];
+		int size = 0;
+
+		for (long pair : packed) {
+			int document = (int) (pair >>> 32);
+			int score = (int) pair;
+
+			if (size > 0 && documentsMatched[size - 1] == document) {
+				scores[size - 1] = Math.max(scores[size - 1], score);
+			} else {
+				documentsMatched[size] = document;
+				scores[size++] = score;
+			}
+		}
+
+		return new Matches(documentsMatched, scores, size);
+	}
+
+	// Short prefixes (e.g. "a") expand to a large part of the dictionary: the best score of
+	// every document is kept in an array indexed by document number, which is then read in
+	// order, so the merge is linear in the postings and the documents, without sorting
+	private Matches denseMerge(String token, Collection<Map.Entry<String, Postings>> range, int total) {
+		byte[] best = denseScores.get();
+
+		if (best.length < nextNumber) {
+			best = new byte[documents.length];
+			denseScores.set(best);
+		}
+
+		for (Map.Entry<String, Postings> entry : range) {
+			Postings postings = entry.getValue();
+			boolean exact = entry.getKey().length() == token.length();
+
+			for (int i = 0; i < postings.size; i++) {
+				int score = fieldScore(postings.fields[i], exact);
+
+				if (score > best[postings.documents[i]]) {
+					best[postings.documents[i]] = (byte) score;
+				}
+			}
+		}
+
+		int capacity = Math.min(total, nextNumber);
+		int[] documentsMatched = new int[capacity];
+		int[] scores = new int[capacity];
+		int size = 0;
+
+		for (int document = 0; document < nextNumber; document++) {
+			if (best[document] != 0) {
+				documentsMatched[size] = document;
+				scores[size++] = best[document];
+				best[document] = 0; // Ready for the next merge
+			}
+		}
+
+		return new Matches(documentsMatched, scores, size);
+	}
+
+	// Selects the best hits without sorting every match: a histogram of the scores
+	// gives the lowest score that makes it into the top, then a single pass collects them
+	private List<SearchHit> topHits(Matches matches, int limit, int maxScore) {
+		int[] histogram = new int[maxScore + 1];
+
+		for (int i = 0; i < matches.size(); i++) {
+			histogram[Math.min(matches.scores()[i], maxScore)]++;
+		}
+
+		int threshold = maxScore;
+		int above = 0;
+
+		while (threshold > 0 && above + histogram[threshold] < limit) {
+			above += histogram[threshold--];
+		}
+
+		int tiesAllowed = limit - above;
+		List<SearchHit> hits = new ArrayList<>(Math.min(limit, matches.size()));
+
+		for (int i = 0; i < matches.size(); i++) {
+			int score = matches.scores()[i];
+
+			if (score > threshold || (score == threshold && tiesAllowed-- > 0)) {
+				hits.add(new SearchHit(documents[matches.documents()[i]], score));
+			}
+		}
+
+		// Only the selected hits are sorted; ties keep the document order (stable sort)
+		hits.sort((a, b) -> Integer.compare(b.score(), a.score()));
+
+		return hits;
+	}
+
+	// Weight of a term occurrence depending on the fields where it appears
+	private static int fieldScore(int fields, boolean exact) {
+		int score = 0;
+
+		if ((fields & FIELD_TITLE) != 0) {
+			score += 6;
+		}
+		if ((fields & FIELD_OWNER) != 0) {
+			score += 3;
+		}
+		if ((fields & FIELD_CATEGORY) != 0) {
+			score += 1;
+		}
+
+		return exact ? score * 2 : score;
+	}
+
+	// Adds a new article or refreshes an indexed one, touching the postings only if needed
+	private void index(Article article) {
+		Integer number = documentNumbers.get(article.id());
+
+		if (number == null) {
+			addDocument(article);
+		} else if (!sameIndexedFields(documents[number], article)) {
+			removeDocument(number);
+			addDocument(article);
+		} else {
+			// Keep the latest prices and bids without touching the postings
+			documents[number] = article;
+		}
+	}
+
+	private void addDocument(Article article) {
+		int number;
+
+		if (freeCount > 0) {
+			number = freeNumbers[--freeCount];
+		} else {
+			number = nextNumber++;
+
+			if (number == documents.length) {
+				documents = Arrays.copyOf(documents, documents.length * 2);
+			}
+		}
+
+		documents[number] = article;
+		documentNumbers.put(article.id(), number);
+		shortPrefixMatches.clear();
+
+		for (Map.Entry<String, Integer> term : documentTerms(article).entrySet()) {
+			dictionary.computeIfAbsent(term.getKey(), k -> new Postings()).add(number, term.getValue());
+		}
+	}
+
+	private void removeDocument(int number) {
+		Article article = documents[number];
+
+		for (String term : documentTerms(article).keySet()) {
+			Postings postings = dictionary.get(term);
+
+			if (postings != null && postings.remove(number) && postings.size == 0) {
+				dictionary.remove(term);
+			}
+		}
+
+		documents[number] = null;
+		documentNumbers.remove(article.id());
+		shortPrefixMatches.clear();
+
+		if (freeCount == freeNumbers.length) {
+			freeNumbers = Arrays.copyOf(freeNumbers, freeNumbers.length * 2);
+		}
+
+		freeNumbers[freeCount++] = number;
+	}
+
+	// Terms of an article together with the fields where each one occurs
+	private static Map<String, Integer> documentTerms(Article article) {
+		Map<String, Integer> terms = new HashMap<>();
+
+		addTerms(terms, article.title(), FIELD_TITLE);
+		addTerms(terms, article.ownerName(), FIELD_OWNER);
+		addTerms(terms, article.categoryName(), FIELD_CATEGORY);
+
+		return terms;
+	}
+
+	private static void addTerms(Map<String, Integer> terms, String text, int field) {
+		for (String token : tokenize(text)) {
+			terms.merge(token, field, (a, b) -> a | b);
+		}
+	}
+
+	private static boolean sameIndexedFields(Article a, Article b) {
+		return Objects.equals(a.title(), b.title())
+				&& Objects.equals(a.ownerName(), b.ownerName())
+				&& Objects.equals(a.categoryName(), b.categoryName());
+	}
+
+	/**
+	 * Splits a text into lower-case alphanumeric tokens. Used both to index the
+	 * articles and to parse the queries, so both sides are normalized alike.
+	 */
+	static List<String> tokenize(String text) {
+		if (text == null || text.isBlank()) {
+			return Collections.emptyList();
+		}
+
+		List<String> tokens = new ArrayList<>();
+		StringBuilder current = new StringBuilder();
+
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+
+			if (Character.isLetterOrDigit(c)) {
+				current.append(Character.toLowerCase(c));
+			} else if (current.length() > 0) {
+				tokens.add(current.toString());
+				current.setLength(0);
+			}
+		}
+
+		if (current.length() > 0) {
+			tokens.add(current.toString());
+		}
+
+		return tokens;
+	}
+
+	/**
+	 * Postings of a term: document numbers in ascending order and, in a parallel
+	 * array, the fields of each document where the term occurs.
+	 */
+	private static final class Postings {
+		private int[] documents = new int[4];
+		private byte[] fields = new byte[4];
+		private int size;
+
+		void add(int document, int field) {
+			int position = Arrays.binarySearch(documents, 0, size, document);
+
+			if (position >= 0) {
+				fields[position] = (byte) field;
+				return;
+			}
+
+			position = -position - 1;
+
+			if (size == documents.length) {
+				documents = Arrays.copyOf(documents, size * 2);
+				fields = Arrays.copyOf(fields, size * 2);
+			}
+
+			System.arraycopy(documents, position, documents, position + 1, size - position);
+			System.arraycopy(fields, position, fields, position + 1, size - position);
+			documents[position] = document;
+			fields[position] = (byte) field;
+			size++;
+		}
+
+		boolean remove(int document) {
+			int position = Arrays.binarySearch(documents, 0, size, document);
+
+			if (position < 0) {
+				return false;
+			}
+
+			System.arraycopy(documents, position + 1, documents, position, size - position - 1);
+			System.arraycopy(fields, position + 1, fields, position, size - position - 1);
+			size--;
+
+			return true;
+		}
+	}
+
+	/**
+	 * Matches of a short token together with their ranking: the positions of
+	 * the matches by descending score, ties in document order (the order of
+	 * {@link #topHits}), found with a counting sort of the scores.
+	 */
+	private record ShortPrefix(Matches matches, int[] ranking) {
+		static ShortPrefix of(Matches matches, int maxScore) {
+			int[] starts = new int[maxScore + 2];
+
+			for (int i = 0; i < matches.size(); i++) {
+				starts[maxScore - Math.min(matches.scores()[i], maxScore) + 1]++;
+			}
+
+			for (int score = 1; score < starts.length; score++) {
+				starts[score] += starts[score - 1];
+			}
+
+			int[] ranking = new int[matches.size()];
+
+			for (int i = 0; i < matches.size(); i++) {
+				ranking[starts[maxScore - Math.min(matches.scores()[i], maxScore)]++] = i;
+			}
+
+			return new ShortPrefix(matches, ranking);
+		}
+
+		// The first hits of the ranking (the documents are read at query time: they may have been updated)
+		List<SearchHit> topHits(Article[] documents, int limit) {
+			List<SearchHit> hits = new ArrayList<>(Math.min(limit, ranking.length));
+
+			for (int i = 0; i < ranking.length && hits.size() < limit; i++) {
+				hits.add(new SearchHit(documents[matches.documents()[ranking[i]]], matches.scores()[ranking[i]]));
+			}
+
+			return hits;
+		}
+	}
+
+	/**
+	 * Documents matched by (part of) a query, sorted by document number, with
+	 * the score accumulated by each one.
+	 */
+	private record Matches(int[] documents, int[] scores, int size) {
+		// Keeps the documents present in both sides, adding their scores
+		Matches intersect(Matches other) {
+			int capacity = Math.min(size, other.size);
+			int[] documentsMatched = new int[capacity];
+			int[] scoresMatched = new int[capacity];
+			int count = 0;
+
+			for (int i = 0, j = 0; i < size && j < other.size;) {
+				if (documents[i] < other.documents[j]) {
+					i++;
+				} else if (documents[i] > other.documents[j]) {
+					j++;
+				} else {
+					documentsMatched[count] = documents[i];
+					scoresMatched[count++] = scores[i++] + other.scores[j++];
+				}
+			}
+
+			return new Matches(documentsMatched, scoresMatched, count);
+		}
+	}
+}
@@ -0,0 +1,344 @@
+package es.deusto.sd.auctions.client.session;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import es.deusto.sd.auctions.client.data.Credentials;
+import es.deusto.sd.auctions.client.proxies.IAuctionsServiceProxy;
+import es.deusto.sd.auctions.client.proxies.ServiceError;
+import es.deusto.sd.auctions.client.proxies.ServiceException;
+
+/**
+ * SessionPool keeps several accounts logged in at the same time, so that one
+ * client can act on behalf of a team of users (for example, bidding in
+ * parallel from several accounts). Operations are routed by account name: the
+ * pool supplies the token of the account and keeps it valid.
+ *
+ * Reading the token of an account is lock-free: a concurrent map lookup and
+ * the read of an atomic reference, so any number of worker threads can use the
+ * pool without contending with each other. Tokens are renewed in the
+ * background:
+ *
+ * - When the server rejects a token (an "Unauthorized" error), {@link #call}
+ *   logs the account in again and retries the operation once with the new
+ *   token. However many callers hit the same expired token, a single login is
+ *   sent and all of them wait for it; callers of other accounts are not
+ *   affected.
+ * - With a maximum token age, a token older than that is renewed ahead of time
+ *   by a background login, while callers keep using the current one.
+ *
+ * An account restored with a saved token and no credentials cannot log in
+ * again by itself: when its token expires, the credentials are asked for
+ * through the prompt of the pool (e.g. a login dialog), if it has one;
+ * otherwise, or if the prompt gives up, the error reaches the caller.
+ */
+public class SessionPool {
+	private static final Logger logger = LoggerFactory.getLogger(SessionPool.class);
+
+	// Logins run on virtual threads: they only wait for the server
+	private static final Executor LOGINS = Executors.newThreadPerTaskExecutor(
+			Thread.ofVirtual().name("session-login-", 0).factory());
+
+	/**
+	 * Token of an account and when it was obtained (System.nanoTime()).
+	 */
+	private record Session(String token, long obtainedAt) {}
+
+	private static final class Account {
+		private final String name;
+		// Credentials used to log in again (null if the account was restored without them)
+		private volatile Credentials credentials;
+		// Current session, or null while the account is not logged in
+		private final AtomicReference<Session> session = new AtomicReference<>();
+		// Login in progress, shared by all the callers waiting for a new token
+		private final AtomicReference<CompletableFuture<Session>> login = new AtomicReference<>();
+
+		private Account(String name) {
+			this.name = name;
+		}
+	}
+
+	private final IAuctionsServiceProxy serviceProxy;
+	private final long maxTokenAgeNanos;
+	private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+	// Called with the account and its new token after every login, before the callers waiting for it resume
+	private final List<BiConsumer<String, String>> listeners = new CopyOnWriteArrayList<>();
+	// Asks for the credentials of an account that has none (null: none can be asked for)
+	private volatile Function<String, Credentials> credentialsPrompt;
+
+	public SessionPool(IAuctionsServiceProxy serviceProxy) {
+		this(serviceProxy, Duration.ZERO);
+	}
+
+	// Tokens older than maxTokenAge are renewed in the background (zero: only when rejected)
+	public SessionPool(IAuctionsServiceProxy serviceProxy, Duration maxTokenAge) {
+		this.serviceProxy = serviceProxy;
+		this.maxTokenAgeNanos = maxTokenAge.toNanos();
+	}
+
+	// Logs an account in (adding it to the pool) and returns its token; fails like
+	// IAuctionsServiceProxy.login
+	public String login(String account, Credentials credentials) {
+		return join(loginAsync(account, credentials));
+	}
+
+	// Logs an account in without waiting for the server, e.g. to log a whole team in parallel
+	public CompletableFuture<String> loginAsync(String account, Credentials credentials) {
+		Account state = accounts.computeIfAbsent(account, Account::new);
+		state.credentials = credentials;
+		Session current = state.session.get();
+
+		return renew(state, (current == null) ? null : current.token()).thenApply(Session::token);
+	}
+
+	// Adds an account with a token obtained elsewhere (e.g. saved by a previous run); without
+	// credentials it cannot log in again once the token expires
+	public void restore(String account, Credentials credentials, String token) {
+		Account state = accounts.computeIfAbsent(account, Account::new);
+		state.credentials = credentials;
+		state.session.set(new Session(token, System.nanoTime()));
+	}
+
+	// Current token of the account; fails with "Unauthorized" if it is not logged in
+	public String token(String account) {
+		Account state = accounts.get(account);
+		Session session = (state == null) ? null : state.session.get();
+
+		if (session == null) {
+			throw new RuntimeException("Unauthorized: Account '" + account + "' is not logged in");
+		}
+
+		if (maxTokenAgeNanos > 0 && System.nanoTime() - session.obtainedAt() > maxTokenAgeNanos
+				&& state.credentials != null && state.login.get() == null) {
+			renew(state, session.token()); // Ahead of time: the current token is still used meanwhile
+		}
+
+		return session.token();
+	}
+
+	// Token of the account whenever it is asked for (e.g. by the automatic bidding)
+	public Supplier<String> tokenSupplier(String account) {
+		return () -> token(account);
+	}
+
+	/**
+	 * Runs an operation with the token of the account. If the server rejects
+	 * the token, the account logs in again and the operation is retried once.
+	 */
+	public <T> T call(String account, Function<String, T> operation) {
+		String token = token(account);
+
+		try {
+			return operation.apply(token);
+		} catch (RuntimeException e) {
+			Account state = accounts.get(account);
+
+			if (!isUnauthorized(e) || state == null || !canLogIn(state)) {
+				throw e;
+			}
+
+			logger.info("Token of account '{}' rejected, logging in again", account);
+			return operation.apply(join(renew(state, token)).token());
+		}
+	}
+
+	public void run(String account, Consumer<String> operation) {
+		call(account, token -> {
+			operation.accept(token);
+			return null;
+		});
+	}
+
+	// Asynchronous variant of call(), for the asynchronous methods of the service proxy
+	public <T> CompletableFuture<T> callAsync(String account, Function<String, CompletableFuture<T>> operation) {
+		String token;
+
+		try {
+			token = token(account);
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+
+		return operation.apply(token).exceptionallyCompose(e -> {
+			Account state = accounts.get(account);
+
+			if (!isUnauthorized(unwrap(e)) || state == null || !canLogIn(state)) {
+				return CompletableFuture.failedFuture(e);
+			}
+
+			return renew(state, token).thenCompose(session -> operation.apply(session.token()));
+		});
+	}
+
+	// Logs the account out and removes it from the pool
+	public void logout(String account) {
+		Account state = accounts.remove(account);
+		Session session = (state == null) ? null : state.session.getAndSet(null);
+
+		if (session != null) {
+			serviceProxy.logout(session.token());
+		}
+	}
+
+	// Logs every account out; failures are logged, so the remaining accounts are still logged out
+	public void logoutAll() {
+		for (String account : accounts()) {
+			try {
+				logout(account);
+			} catch (RuntimeException e) {
+				logger.warn("Failed to log out account '{}': {}", account, e.getMessage());
+			}
+		}
+	}
+
+	public boolean isLoggedIn(String account) {
+		Account state = accounts.get(account);
+
+		return state != null && state.session.get() != null;
+	}
+
+	// Names of the accounts of the pool, sorted
+	public List<String> accounts() {
+		return accounts.keySet().stream().sorted().toList();
+	}
+
+	// The listener is called from the login threads
+	public void addListener(BiConsumer<String, String> listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Sets how the credentials of an account restored without them are asked
+	 * for when its token is rejected. The prompt is called from a login thread,
+	 * with the name of the account, and returns null to give up.
+	 */
+	public void setCredentialsPrompt(Function<String, Credentials> prompt) {
+		this.credentialsPrompt = prompt;
+	}
+
+	/**
+	 * Logs the account in again, unless its token already changed since the
+	 * caller read the stale one. Concurrent callers share the login in progress.
+	 */
+	private CompletableFuture<Session> renew(Account account, String staleToken) {
+		while (true) {
+			CompletableFuture<Session> running = account.login.get();
+
+			if (running != null) {
+				return running;
+			}
+
+			Session current = account.session.get();
+
+			if (current != null && staleToken != null && !current.token().equals(staleToken)) {
+				return CompletableFuture.completedFuture(current); // Renewed by another caller
+			}
+
+			CompletableFuture<Session> login = new CompletableFuture<>();
+
+			if (account.login.compareAndSet(null, login)) {
+				Credentials credentials = account.credentials;
+				Function<String, Credentials> prompt = credentialsPrompt;
+
+				if (credentials == null && prompt == null) {
+					account.login.set(null);
+					login.completeExceptionally(noCredentials(account));
+					return login;
+				}
+
+				LOGINS.execute(() -> login(account, (credentials != null) ? credentials : ask(account, prompt), login));
+				return login;
+			}
+		}
+	}
+
+	private void login(Account account, Credentials credentials, CompletableFuture<Session> login) {
+		Session session;
+
+		if (credentials == null) {
+			account.login.set(null);
+			login.completeExceptionally(noCredentials(account));
+			return;
+		}
+
+		try {
+			session = new Session(serviceProxy.login(credentials), System.nanoTime());
+		} catch (RuntimeException e) {
+			account.login.set(null);
+			login.completeExceptionally(e);
+			return;
+		}
+
+		// The new session is published before the login is cleared, so no caller can find
+		// neither of them and log in once more. Listeners run before the waiting callers resume.
+		account.session.set(session);
+
+		for (BiConsumer<String, String> listener : listeners) {
+			try {
+				listener.accept(account.name, session.token());
+			} catch (RuntimeException e) {
+				logger.warn("Session listener failed for account '{}': {}", account.name, e.getMessage());
+			}
+		}
+
+		account.login.set(null);
+		login.complete(session);
+	}
+
+	// Credentials of an account restored without them, asked for through the prompt
+	// (kept for the next logins); null if the prompt gives up or fails
+	private static Credentials ask(Account account, Function<String, Credentials> prompt) {
+		try {
+			Credentials credentials = prompt.apply(account.name);
+
+			if (credentials != null) {
+				account.credentials = credentials;
+			}
+
+			return credentials;
+		} catch (RuntimeException e) {
+			logger.warn("Failed to ask for the credentials of account '{}': {}", account.name, e.getMessage());
+			return null;
+		}
+	}
+
+	private boolean canLogIn(Account account) {
+		return account.credentials != null || credentialsPrompt != null;
+	}
+
+	private static RuntimeException noCredentials(Account account) {
+		return new RuntimeException("Unauthorized: Account '" + account.name + "' has no credentials to log in again");
+	}
+
+	private static boolean isUnauthorized(Throwable e) {
+		return e instanceof ServiceException se && se.error() == ServiceError.UNAUTHORIZED;
+	}
+
+	private static Throwable unwrap(Throwable e) {
+		return (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+	}
+
+	// Waits for a login, failing with the RuntimeException of the proxy
+	private static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			throw (e.getCause() instanceof RuntimeException cause) ? cause : e;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package es.deusto.sd.auctions.client.swing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import es.deusto.sd.auctions.client.data.Article;
+
+/**
+ * ArticleListDiff is the difference between two lists of articles, matched by
+ * id: which articles were removed from the first list, which were inserted in
+ * the second one and which are in both but changed.
+ *
+ * Articles kept in both lists keep their relative order: when the order of the
+ * common articles changed, the longest subsequence that is still in order is
+ * kept and the rest count as removed and inserted again. So applying the diff
+ * to the first list (removals in descending order, then insertions in ascending
+ * order, then changes) gives the second one, and the work (and the events of a
+ * table model) is proportional to what changed.
+ */
+final class ArticleListDiff {
+	private static final int[] NONE = new int[0];
+
+	// Indexes in the old list, ascending
+	private final int[] removed;
+	// Indexes in the new list, ascending
+	private final int[] inserted;
+	private final int[] changed;
+
+	private ArticleListDiff(int[] removed, int[] inserted, int[] changed) {
+		this.removed = removed;
+		this.inserted = inserted;
+		this.changed = changed;
+	}
+
+	static ArticleListDiff between(List<Article> before, List<Article> after) {
+		Map<Long, Integer> positions = new HashMap<>(after.size() * 2);
+
+		for (int j = 0; j < after.size(); j++) {
+			Long id = after.get(j).id();
+
+			if (id == null || positions.put(id, j) != null) {
+				return replaceAll(before.size(), after.size()); // Cannot match without unique ids
+			}
+		}
+
+		// Position in the new list of each article of the old list (-1 if removed)
+		int[] matches = new int[before.size()];
+
+		for (int i = 0; i < before.size(); i++) {
+			Integer j = positions.remove(before.get(i).id()); // Only the first occurrence matches
+			matches[i] = (j == null) ? -1 : j;
+		}
+
+		boolean[] kept = longestIncreasing(matches);
+		boolean[] keptAfter = new boolean[after.size()];
+		int[] removed = new int[before.size()];
+		int[] changed = new int[after.size()];
+		int removedCount = 0;
+		int changedCount = 0;
+
+		for (int i = 0; i < before.size(); i++) {
+			if (!kept[i]) {
+				removed[removedCount++] = i;
+			} else {
+				keptAfter[matches[i]] = true;
+
+				if (!before.get(i).equals(after.get(matches[i]))) {
+					changed[changedCount++] = matches[i];
+				}
+			}
+		}
+
+		int[] inserted = new int[after.size()];
+		int insertedCount = 0;
+
+		for (int j = 0; j < after.size(); j++) {
+			if (!keptAfter[j]) {
+				inserted[insertedCount++] = j;
+			}
+		}
+
+		changed = Arrays.copyOf(changed, changedCount);
+		Arrays.sort(changed);
+
+		return new ArticleListDiff(Arrays.copyOf(removed, removedCount), Arrays.copyOf(inserted, insertedCount),
+				changed);
+	}
+
+	private static ArticleListDiff replaceAll(int beforeSize, int afterSize) {
+		int[] removed = new int[beforeSize];
+		int[] inserted = new int[afterSize];
+		Arrays.setAll(removed, i -> i);
+		Arrays.setAll(inserted, j -> j);
+
+		return new ArticleListDiff(removed, inserted, NONE);
+	}
+
+	// Marks the longest strictly increasing subsequence of the non-negative values
+	// (patience sorting, O(n log n))
+	private static boolean[] longestIncreasing(int[] values) {
+		int[] tails = new int[values.length]; // Index of the last value of the best run of each length
+		int[] previous = new int[values.length];
+		int length = 0;
+
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] < 0) {
+				continue;
+			}
+
+			int low = 0;
+			int high = length;
+
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+
+				if (values[tails[middle]] < values[i]) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+
+			previous[i] = (low > 0) ? tails[low - 1] : -1;
+			tails[low] = i;
+			length = Math.max(length, low + 1);
+		}
+
+		boolean[] kept = new boolean[values.length];
+
+		for (int i = (length > 0) ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+			kept[i] = true;
+		}
+
+		return kept;
+	}
+
+	int[] removed() {
+		return removed;
+	}
+
+	int[] inserted() {
+		return inserted;
+	}
+
+	int[] changed() {
+		return changed;
+	}
+
+	boolean isEmpty() {
+		return removed.length == 0 && inserted.length == 0 && changed.length == 0;
+	}
+}
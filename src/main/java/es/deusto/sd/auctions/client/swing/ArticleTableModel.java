@@ -0,0 +1,138 @@
+package es.deusto.sd.auctions.client.swing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import javax.swing.table.AbstractTableModel;
+
+import es.deusto.sd.auctions.client.data.Article;
+import es.deusto.sd.auctions.client.data.MoneyFormat;
+
+/**
+ * ArticleTableModel is the model of the articles table of the Swing client.
+ *
+ * A refreshed list of articles is not loaded from scratch: it is diffed by id
+ * against the rows shown ({@link ArticleListDiff}) and only the rows that were
+ * removed, inserted or changed are touched, each contiguous range with a single
+ * event. JTable moves the selection with inserted and deleted rows, so the
+ * selected article stays selected (and the view does not jump) while the list
+ * around it is refreshed, and only the changed rows are repainted.
+ */
+class ArticleTableModel extends AbstractTableModel {
+	private static final long serialVersionUID = 1L;
+
+	private static final String[] COLUMNS = { "ID", "Title", "Current Price", "Bids" };
+
+	// Swing models are never serialized: the rows are not kept
+	private final transient List<Article> rows = new ArrayList<>();
+	// Currency of the prices shown, or null to show each article in its own currency
+	private String currency;
+
+	// Shows the given articles, with their prices in the given currency (null: their own)
+	void update(List<Article> articles, String currency) {
+		ArticleListDiff diff = ArticleListDiff.between(rows, articles);
+		int[] removed = diff.removed();
+		int[] inserted = diff.inserted();
+		int[] changed = diff.changed();
+
+		// Removals from the end, so the indexes of the pending ones stay valid
+		for (int end = removed.length - 1; end >= 0; ) {
+			int start = end;
+
+			while (start > 0 && removed[start - 1] == removed[start] - 1) {
+				start--;
+			}
+
+			rows.subList(removed[start], removed[end] + 1).clear();
+			fireTableRowsDeleted(removed[start], removed[end]);
+			end = start - 1;
+		}
+
+		for (int start = 0; start < inserted.length; ) {
+			int end = runEnd(inserted, start);
+
+			rows.addAll(inserted[start], articles.subList(inserted[start], inserted[end] + 1));
+			fireTableRowsInserted(inserted[start], inserted[end]);
+			start = end + 1;
+		}
+
+		for (int index : changed) {
+			rows.set(index, articles.get(index));
+		}
+
+		if (!Objects.equals(this.currency, currency)) {
+			// Every price is shown in another currency
+			this.currency = currency;
+
+			if (!rows.isEmpty()) {
+				fireTableRowsUpdated(0, rows.size() - 1);
+			}
+		} else {
+			for (int start = 0; start < changed.length; ) {
+				int end = runEnd(changed, start);
+
+				fireTableRowsUpdated(changed[start], changed[end]);
+				start = end + 1;
+			}
+		}
+	}
+
+	// Replaces the row of the article (if shown) with a newer version of it
+	void updateArticle(Article article) {
+		for (int row = 0; row < rows.size(); row++) {
+			if (rows.get(row).id().equals(article.id())) {
+				rows.set(row, article);
+				fireTableRowsUpdated(row, row);
+			}
+		}
+	}
+
+	void clear() {
+		update(List.of(), currency);
+	}
+
+	Article getArticle(int row) {
+		return rows.get(row);
+	}
+
+	@Override
+	public int getRowCount() {
+		return rows.size();
+	}
+
+	@Override
+	public int getColumnCount() {
+		return COLUMNS.length;
+	}
+
+	@Override
+	public String getColumnName(int column) {
+		return COLUMNS[column];
+	}
+
+	@Override
+	public Object getValueAt(int row, int column) {
+		Article article = rows.get(row);
+
+		return switch (column) {
+			case 0 -> article.id();
+			case 1 -> article.title();
+			// The shared format of the currency: only the text of the cell is allocated
+			case 2 -> (article.currentPrice() == null) ? null : MoneyFormat.of((currency != null) ? currency
+					: Objects.requireNonNullElse(article.currency(), "EUR")).format(article.currentPrice().minorUnits());
+			default -> article.bids();
+		};
+	}
+
+	// Last index of the run of consecutive values that starts at the given index
+	private static int runEnd(int[] indexes, int start) {
+		int end = start;
+
+		while (end + 1 < indexes.length && indexes[end + 1] == indexes[end] + 1) {
+			end++;
+		}
+
+		return end;
+	}
+}
@@ -0,0 +1,75 @@
+package es.deusto.sd.auctions.client.swing;
+
+import java.awt.BasicStroke;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Insets;
+import java.awt.RenderingHints;
+
+import javax.swing.JComponent;
+
+import es.deusto.sd.auctions.client.data.MoneyFormat;
+import es.deusto.sd.auctions.client.history.PriceSeries;
+
+/**
+ * PriceSparkline draws the price history of an article as a small step line,
+ * scaled to the component. The points are computed into arrays kept between
+ * paints, so repainting allocates nothing per sample. The tooltip
+ * shows the lowest and highest prices seen.
+ */
+class PriceSparkline extends JComponent {
+	private static final long serialVersionUID = 1L;
+
+	private transient PriceSeries series = PriceSeries.EMPTY;
+	private int[] xs = new int[0];
+	private int[] ys = new int[0];
+
+	PriceSparkline() {
+		setPreferredSize(new Dimension(120, 24));
+	}
+
+	void setSeries(PriceSeries series, String currency) {
+		this.series = series;
+
+		if (xs.length < 2 * series.size()) {
+			xs = new int[2 * series.size()];
+			ys = new int[2 * series.size()];
+		}
+
+		MoneyFormat format = MoneyFormat.of(currency);
+		setToolTipText(series.isEmpty() ? null : String.format("%d price changes, %s - %s", series.size(),
+				format.format(series.minPrice()), format.format(series.maxPrice())));
+		repaint();
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		Insets insets = getInsets();
+		int width = getWidth() - insets.left - insets.right;
+		int height = getHeight() - insets.top - insets.bottom;
+
+		if (series.isEmpty() || width < 2 || height < 2) {
+			return;
+		}
+
+		Graphics2D g2 = (Graphics2D) g.create();
+
+		try {
+			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g2.setStroke(new BasicStroke(1.5f));
+			g2.setColor(getForeground());
+			g2.translate(insets.left, insets.top);
+
+			int count = series.points(width, height, xs, ys);
+
+			if (count == 1) {
+				g2.drawLine(0, ys[0], width - 1, ys[0]); // A single price: a flat line
+			} else {
+				g2.drawPolyline(xs, ys, count);
+			}
+		} finally {
+			g2.dispose();
+		}
+	}
+}
@@ -5,13 +5,25 @@
  */
 package es.deusto.sd.auctions.client.swing;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
 
+import es.deusto.sd.auctions.client.bidding.ProxyBidEngine;
+import es.deusto.sd.auctions.client.cache.SnapshotStore;
+import es.deusto.sd.auctions.client.capture.CapturingServiceProxy;
 import es.deusto.sd.auctions.client.data.Article;
 import es.deusto.sd.auctions.client.data.Category;
 import es.deusto.sd.auctions.client.data.Credentials;
+import es.deusto.sd.auctions.client.data.Money;
+import es.deusto.sd.auctions.client.history.PriceSeries;
 import es.deusto.sd.auctions.client.proxies.HttpServiceProxy;
 import es.deusto.sd.auctions.client.proxies.IAuctionsServiceProxy;
+import es.deusto.sd.auctions.client.proxies.PriceHistoryServiceProxy;
+import es.deusto.sd.auctions.client.search.ArticleSearchIndex;
+import es.deusto.sd.auctions.client.session.SessionPool;
+import es.deusto.sd.auctions.client.watchlist.Watchlist;
 
 /**
  * SwingClientController class acts as a Controller in the Model-View-Controller 
@@ -23,22 +35,51 @@ import es.deusto.sd.auctions.client.proxies.IAuctionsServiceProxy;
  * The class encapsulates the logic for user authentication (login/logout), 
  * retrieving categories and articles, and placing bids on articles. By utilizing 
  * the IAuctionsServiceProxy interface, the controller can interact with various 
- * implementations of the service proxy, such as HttpServiceProxy or RestTemplateServiceProxy, 
+ * implementations of the service proxy, such as HttpServiceProxy, 
  * without being tightly coupled to any specific implementation. This promotes flexibility 
  * and allows for easier testing and maintenance of the application.
  * 
  * (Description generated with ChatGPT 4o mini)
  */
 public class SwingClientController {
-	// Service proxy for interacting with the AuctionsService using HTTP-based implementation
-	private IAuctionsServiceProxy serviceProxy = new HttpServiceProxy();
-	// Token to be used during the session
-    private String token;
+	// Service proxy for interacting with the AuctionsService using HTTP-based implementation,
+	// recording the prices of the articles received (and capturing its calls with -Dcapture.file)
+	private IAuctionsServiceProxy serviceProxy = CapturingServiceProxy.fromSystemProperty(
+			new PriceHistoryServiceProxy(new HttpServiceProxy()));
+	// Accounts logged in (several can be used at once), with their tokens kept valid
+    private final SessionPool sessions = new SessionPool(serviceProxy);
+    // Account the operations are sent from (its token is saved for the next run)
+    private volatile String account;
+    // Name of the account of a session restored from the snapshot (only the token is saved)
+    private static final String SAVED_ACCOUNT = "Saved session";
+    // Client-side index of every article fetched so far, used by the search box
+    private final ArticleSearchIndex searchIndex = new ArticleSearchIndex();
+    // Maximum number of results returned by a search
+    private static final int MAX_SEARCH_RESULTS = 50;
+    // On-disk snapshot of the last data received, used to start without waiting for the network
+    private final SnapshotStore snapshots = new SnapshotStore();
+    // Maximum number of requests per second sent by the watchlist
+    private static final int WATCHLIST_REQUESTS_PER_SECOND = 10;
+    // Articles refreshed automatically, more often as their auction end approaches
+    private final Watchlist watchlist = new Watchlist(serviceProxy, WATCHLIST_REQUESTS_PER_SECOND);
+    // Automatic bids up to a maximum price, following the auctions through the watchlist
+    private final ProxyBidEngine bidEngine = new ProxyBidEngine(serviceProxy, watchlist, () -> sessions.token(account));
+
+    public SwingClientController() {
+        // A token renewed after it expired replaces the saved one
+        sessions.addListener((renewed, token) -> {
+            if (renewed.equals(account)) {
+                snapshots.saveToken(token);
+            }
+        });
+    }
 
 	public boolean login(String email, String password) {
         try {
             Credentials credentials = new Credentials(email, password);
-            token = serviceProxy.login(credentials);
+            String token = sessions.login(email, credentials);
+            account = email;
+            snapshots.saveToken(token);
             
             return true;
         } catch (RuntimeException e) {
@@ -46,23 +87,149 @@ public class SwingClientController {
         }
     }
 
+    // Reuses the session token saved by a previous run, if any; once that token is rejected,
+    // the credentials are asked for through the prompt
+    public boolean restoreSession(Function<String, Credentials> credentialsPrompt) {
+        Optional<String> savedToken = snapshots.loadToken();
+        savedToken.ifPresent(token -> {
+            sessions.restore(SAVED_ACCOUNT, null, token);
+            sessions.setCredentialsPrompt(credentialsPrompt);
+            account = SAVED_ACCOUNT;
+        });
+        
+        return savedToken.isPresent();
+    }
+
+    // Accounts logged in, any of which can be made the active one
+    public List<String> getAccounts() {
+        return sessions.accounts();
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    // Sends the next operations from another logged-in account
+    public void switchAccount(String account) {
+        snapshots.saveToken(sessions.token(account));
+        this.account = account;
+    }
+
+    // Logs every account out
     public void logout() {
-        serviceProxy.logout(token);
+        sessions.logoutAll();
+        snapshots.clearToken();
+    }
+
+    // Stops the automatic bids, the watchlist and the service proxy, when the client exits
+    public void close() {
+        bidEngine.close();
+        watchlist.close();
+        serviceProxy.close();
     }
 
     public List<Category> getCategories() {
-        return serviceProxy.getAllCategories();
+        List<Category> categories = serviceProxy.getAllCategories();
+        snapshots.saveCategories(categories);
+        
+        return categories;
+    }
+
+    // Categories from the last run (possibly stale), or an empty list if there are none
+    public List<Category> getCachedCategories() {
+        return snapshots.loadCategories().map(SnapshotStore.Snapshot::value).orElse(Collections.emptyList());
     }
 
     public List<Article> getArticlesByCategory(String categoryName, String currency) {
-        return serviceProxy.getArticlesByCategory(categoryName, currency);
+        List<Article> articles = serviceProxy.getArticlesByCategory(categoryName, currency);
+        searchIndex.update(categoryName, articles); // Keep the search index up to date
+        snapshots.saveArticles(categoryName, currency, articles);
+        
+        return articles;
+    }
+
+    // Articles from the last run (possibly stale), or an empty list if there are none
+    public List<Article> getCachedArticlesByCategory(String categoryName, String currency) {
+        List<Article> articles = snapshots.loadArticles(categoryName, currency)
+                .map(SnapshotStore.Snapshot::value).orElse(Collections.emptyList());
+        searchIndex.update(categoryName, articles);
+        
+        return articles;
     }
 
     public Article getArticleDetails(Long articleId, String currency) {
-        return serviceProxy.getArticleDetails(articleId, currency);
+        Article article = serviceProxy.getArticleDetails(articleId, currency);
+        searchIndex.update(article);
+        
+        return article;
+    }
+
+    // Prices of the article seen so far in the given currency
+    public PriceSeries getPriceHistory(Long articleId, String currency) {
+        return serviceProxy.getPriceHistory(articleId, currency);
+    }
+
+    // Whether the search box can already find the articles of the category
+    public boolean isIndexed(String categoryName) {
+        return searchIndex.containsCategory(categoryName);
+    }
+
+    public List<Article> searchArticles(String query) {
+        return searchIndex.search(query, MAX_SEARCH_RESULTS).stream()
+                .map(ArticleSearchIndex.SearchHit::article)
+                .toList();
+    }
+
+    public void watch(Long articleId, String currency) {
+        watchlist.watch(articleId, currency);
+    }
+
+    public void unwatch(Long articleId, String currency) {
+        watchlist.unwatch(articleId, currency);
+    }
+
+    public boolean isWatched(Long articleId, String currency) {
+        return watchlist.isWatched(articleId, currency);
+    }
+
+    // The listener is called from the watchlist threads, not from the Event Dispatch Thread
+    public void addWatchListener(Watchlist.Listener listener) {
+        watchlist.addListener(listener);
+    }
+
+    // Automatic bids are sent from the account active when they are started
+    public void maxBid(Long articleId, Money maxAmount) {
+        bidEngine.maxBid(articleId, maxAmount, sessions.tokenSupplier(account));
+    }
+
+    public void lastSecondBid(Long articleId, Money maxAmount) {
+        bidEngine.lastSecond(articleId, maxAmount, sessions.tokenSupplier(account));
+    }
+
+    public void cancelProxyBid(Long articleId, String currency) {
+        bidEngine.cancel(articleId, currency);
+    }
+
+    public boolean isProxyBidActive(Long articleId, String currency) {
+        return bidEngine.isActive(articleId, currency);
+    }
+
+    // The listener is called from the engine threads, not from the Event Dispatch Thread
+    public void addBidListener(ProxyBidEngine.Listener listener) {
+        bidEngine.addListener(listener);
+    }
+
+    // Precision of the automatic bids sent so far
+    public String getBidTimingReport() {
+        return bidEngine.report();
+    }
+
+    public void placeBid(Long articleId, Money amount) {
+        placeBid(account, articleId, amount);
     }
 
-    public void placeBid(Long articleId, Float amount, String currency) {
-        serviceProxy.makeBid(articleId, amount, currency, token);
+    // Bids from the given account (logged in again if its token expired)
+    public void placeBid(String account, Long articleId, Money amount) {
+        sessions.run(account, token -> serviceProxy.makeBid(articleId, amount, token));
     }
 }
\ No newline at end of file
@@ -9,10 +9,16 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Dimension;
+import java.awt.FlowLayout;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 import javax.swing.JButton;
 import javax.swing.JComboBox;
@@ -26,18 +32,26 @@ import javax.swing.JScrollPane;
 import javax.swing.JSpinner;
 import javax.swing.JTable;
 import javax.swing.JTextField;
+import javax.swing.JToggleButton;
 import javax.swing.ListSelectionModel;
 import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 import javax.swing.border.TitledBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
-import javax.swing.table.DefaultTableModel;
 
+import es.deusto.sd.auctions.client.bidding.ProxyBidEngine;
 import es.deusto.sd.auctions.client.data.Article;
 import es.deusto.sd.auctions.client.data.Category;
+import es.deusto.sd.auctions.client.data.Credentials;
+import es.deusto.sd.auctions.client.data.Money;
+import es.deusto.sd.auctions.client.data.MoneyFormat;
+import es.deusto.sd.auctions.client.monitoring.StartupProbe;
+import es.deusto.sd.auctions.client.watchlist.Watchlist;
 
 /**
  * SwingClientGUI class is a Swing-based client that demonstrates the usage of the
@@ -53,28 +67,52 @@ public class SwingClientGUI extends JFrame {
 	private String defaultEmail = "blackwidow@marvel.com";
 	private String defaultPassword = "Bl@ckWid0w2023";
 
+	private JComboBox<String> accountComboBox;
 	private JLabel logoutLabel;
 	private JComboBox<String> currencyComboBox;
+	private JTextField searchField;
 	private JList<Category> categoryList;
 	private JTable jtbleArticles;
+	private ArticleTableModel articleTableModel;
 	private JLabel lblArticleTitle;
 	private JLabel lblArticlePrice;
 	private JLabel lblArticleBids;
+	private PriceSparkline priceSparkline;
 	private JSpinner spinBidAmount;
 	private JButton btnBid;
+	private JToggleButton btnWatch;
+	private JSpinner spinMaxPrice;
+	private JButton btnMaxBid;
+	private JButton btnLastSecond;
+	// Article shown in the details panel
+	private Long detailsArticleId;
+	// Set once the categories are being indexed for the search box
+	private boolean indexing;
 
 	private static final String[] CURRENCIES = { "EUR", "USD", "GBP", "JPY" };
+	// Pause between the requests that fetch the categories for the search box
+	private static final long INDEX_FETCH_PAUSE_MILLIS = 200;
+	// Last item of the accounts combo box, which logs one more account in
+	private static final String ADD_ACCOUNT = "Add account...";
 
 	public SwingClientGUI(SwingClientController controller) {
 		this.controller = controller;
 
-		if (!performLogin()) {
+		// A session saved by a previous run is reused, so the window opens without
+		// waiting for the login round-trip; the login dialog is shown once its token is rejected
+		if (!controller.restoreSession(account -> askCredentials()) && !(StartupProbe.isEnabled() ? performDefaultLogin() : performLogin())) {
 			System.exit(0);
 		}
 
 		setTitle("Auctions Client");
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		setSize(1024, 400);
+		addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				controller.close();
+			}
+		});
+		setSize(1024, 500);
 		setResizable(false);
 		setLocationRelativeTo(null);
 		setLayout(new BorderLayout());
@@ -90,6 +128,30 @@ public class SwingClientGUI extends JFrame {
 		});
 		topPanel.add(currencyComboBox, BorderLayout.WEST);
 
+		// Search box: queries the local index on every keystroke
+		searchField = new JTextField();
+		searchField.setToolTipText("Search articles by title, owner or category");
+		searchField.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				searchArticles();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				searchArticles();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				searchArticles();
+			}
+		});
+		JPanel searchPanel = new JPanel(new BorderLayout(5, 0));
+		searchPanel.add(new JLabel("  Search:"), BorderLayout.WEST);
+		searchPanel.add(searchField, BorderLayout.CENTER);
+		topPanel.add(searchPanel, BorderLayout.CENTER);
+
 		// Logout Label
 		logoutLabel = new JLabel("Logout", SwingConstants.RIGHT);
 		logoutLabel.setForeground(Color.BLUE);
@@ -99,7 +161,17 @@ public class SwingClientGUI extends JFrame {
 				performLogout();
 			}
 		});
-		topPanel.add(logoutLabel, BorderLayout.EAST);
+
+		// Accounts logged in: bids are sent from the selected one
+		accountComboBox = new JComboBox<>();
+		accountComboBox.setToolTipText("Account the bids are sent from");
+		refreshAccounts();
+		accountComboBox.addActionListener(e -> selectAccount());
+
+		JPanel accountPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+		accountPanel.add(accountComboBox);
+		accountPanel.add(logoutLabel);
+		topPanel.add(accountPanel, BorderLayout.EAST);
 		add(topPanel, BorderLayout.NORTH);
 
 		// Category List
@@ -132,17 +204,13 @@ public class SwingClientGUI extends JFrame {
 		add(categoryScrollPane, BorderLayout.WEST);
 
 		// Articles Table
-		jtbleArticles = new JTable(new DefaultTableModel(new Object[] { "ID", "Title", "Current Price", "Bids" }, 0)) {
-			private static final long serialVersionUID = 1L;
-
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-		};
+		articleTableModel = new ArticleTableModel();
+		jtbleArticles = new JTable(articleTableModel);
 		jtbleArticles.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 		jtbleArticles.getSelectionModel().addListSelectionListener(e -> {
-			if (!e.getValueIsAdjusting()) {
+			// Refreshes of the list move the selection along with its article: the details
+			// shown are still the right ones
+			if (!e.getValueIsAdjusting() && !Objects.equals(getSelectedArticleId(), detailsArticleId)) {
 				loadArticleDetails();
 			}
 		});
@@ -156,7 +224,7 @@ public class SwingClientGUI extends JFrame {
 		add(articleScrollPane, BorderLayout.CENTER);
 
 		// Article Details
-		JPanel jPanelArticleDetails = new JPanel(new GridLayout(5, 2, 10, 10));
+		JPanel jPanelArticleDetails = new JPanel(new GridLayout(8, 2, 10, 10));
 		jPanelArticleDetails.setBorder(new TitledBorder("Article Details"));
 		jPanelArticleDetails.setPreferredSize(new Dimension(300, getHeight())); // Remaining width
 
@@ -172,6 +240,12 @@ public class SwingClientGUI extends JFrame {
 		lblArticleBids = new JLabel();
 		jPanelArticleDetails.add(lblArticleBids);
 
+		// Prices seen so far, to show the bidding momentum
+		jPanelArticleDetails.add(new JLabel("Price History:"));
+		priceSparkline = new PriceSparkline();
+		priceSparkline.setForeground(new Color(0, 102, 204));
+		jPanelArticleDetails.add(priceSparkline);
+
 		jPanelArticleDetails.add(new JLabel("Bid Amount:"));
 		spinBidAmount = new JSpinner(new SpinnerNumberModel(1, 1, Integer.MAX_VALUE, 1));
 		jPanelArticleDetails.add(spinBidAmount);
@@ -189,13 +263,58 @@ public class SwingClientGUI extends JFrame {
 		jPanelBidButton.add(btnBid);
 		jPanelArticleDetails.add(jPanelBidButton);
 
+		// Watched articles are refreshed automatically until their auction ends
+		btnWatch = new JToggleButton("Watch");
+		btnWatch.setEnabled(false);
+		btnWatch.addActionListener(e -> toggleWatch());
+
+		JPanel jPanelWatchButton = new JPanel();
+		jPanelWatchButton.add(btnWatch);
+		jPanelArticleDetails.add(jPanelWatchButton);
+
+		// Automatic bidding up to a maximum price
+		jPanelArticleDetails.add(new JLabel("Max. Price:"));
+		spinMaxPrice = new JSpinner(new SpinnerNumberModel(1, 1, Integer.MAX_VALUE, 1));
+		jPanelArticleDetails.add(spinMaxPrice);
+
+		btnMaxBid = new JButton("Auto-bid");
+		btnMaxBid.setToolTipText("Outbid competitors automatically up to the maximum price");
+		btnMaxBid.setEnabled(false);
+		btnMaxBid.addActionListener(e -> startProxyBid(ProxyBidEngine.Strategy.MAX_BID));
+		jPanelArticleDetails.add(btnMaxBid);
+
+		btnLastSecond = new JButton("Last-second");
+		btnLastSecond.setToolTipText("Bid once, right before the auction ends, up to the maximum price");
+		btnLastSecond.setEnabled(false);
+		btnLastSecond.addActionListener(e -> startProxyBid(ProxyBidEngine.Strategy.LAST_SECOND));
+		jPanelArticleDetails.add(btnLastSecond);
+
 		add(jPanelArticleDetails, BorderLayout.EAST);
 
+		controller.addWatchListener(this::watchedArticleChanged);
+		controller.addBidListener(this::proxyBidAttempted);
+
 		loadCategories();
 		setVisible(true);
 	}
 
 	private boolean performLogin() {
+		Credentials credentials = showLoginDialog("Login");
+
+		if (credentials == null) {
+			return false;
+		}
+
+		try {
+			return controller.login(credentials.email(), credentials.password());
+		} catch (RuntimeException e) {
+			JOptionPane.showMessageDialog(this, e.getMessage());
+			return false;
+		}
+	}
+
+	// The credentials entered in the login dialog, or null if it was cancelled (on the EDT)
+	private Credentials showLoginDialog(String title) {
 		JTextField emailField = new JTextField(20);
 		emailField.setText(defaultEmail);
 		JPasswordField passwordField = new JPasswordField(20);
@@ -203,16 +322,65 @@ public class SwingClientGUI extends JFrame {
 
 		Object[] message = { new JLabel("Enter Email:"), emailField, new JLabel("Enter Password:"), passwordField };
 
-		int option = JOptionPane.showConfirmDialog(this, message, "Login", JOptionPane.OK_CANCEL_OPTION);
+		int option = JOptionPane.showConfirmDialog(this, message, title, JOptionPane.OK_CANCEL_OPTION);
 
-		if (option == JOptionPane.OK_OPTION) {
-			try {
-				return controller.login(emailField.getText(), new String(passwordField.getPassword()));
-			} catch (RuntimeException e) {
-				JOptionPane.showMessageDialog(this, e.getMessage());
-				return false;
-			}
-		} else {
+		return (option == JOptionPane.OK_OPTION)
+				? new Credentials(emailField.getText(), new String(passwordField.getPassword()))
+				: null;
+	}
+
+	// Called by the session pool (on a login thread) when the saved session was rejected
+	private Credentials askCredentials() {
+		Credentials[] credentials = new Credentials[1];
+
+		try {
+			SwingUtilities.invokeAndWait(() -> credentials[0] = showLoginDialog("Session expired: log in again"));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (InvocationTargetException e) {
+			return null;
+		}
+
+		return credentials[0];
+	}
+
+	// Makes the selected account the active one, or logs one more account in
+	private void selectAccount() {
+		Object selected = accountComboBox.getSelectedItem();
+
+		if (ADD_ACCOUNT.equals(selected)) {
+			performLogin(); // The new account becomes the active one
+			refreshAccounts();
+		} else if (selected != null && !selected.equals(controller.getAccount())) {
+			controller.switchAccount((String) selected);
+		}
+	}
+
+	// Fills the accounts combo box, selecting the active account
+	private void refreshAccounts() {
+		ActionListener[] listeners = accountComboBox.getActionListeners();
+
+		for (ActionListener listener : listeners) {
+			accountComboBox.removeActionListener(listener);
+		}
+
+		accountComboBox.removeAllItems();
+		controller.getAccounts().forEach(accountComboBox::addItem);
+		accountComboBox.addItem(ADD_ACCOUNT);
+		accountComboBox.setSelectedItem(controller.getAccount());
+
+		for (ActionListener listener : listeners) {
+			accountComboBox.addActionListener(listener);
+		}
+	}
+
+	// Logs in with the default credentials without asking, used by the unattended
+	// startup measurements (see StartupProbe)
+	private boolean performDefaultLogin() {
+		try {
+			return controller.login(defaultEmail, defaultPassword);
+		} catch (RuntimeException e) {
+			System.err.println(e.getMessage());
 			return false;
 		}
 	}
@@ -238,6 +406,7 @@ public class SwingClientGUI extends JFrame {
 				try {
 					get();
 					JOptionPane.showMessageDialog(SwingClientGUI.this, "Logged out successfully.");
+					controller.close();
 					System.exit(0);
 				} catch (Exception e) {
 					showError(e);
@@ -247,6 +416,13 @@ public class SwingClientGUI extends JFrame {
 	}
 
 	private void loadCategories() {
+		// Show the categories of the last run immediately and revalidate them in the background
+		List<Category> cachedCategories = controller.getCachedCategories();
+
+		if (!cachedCategories.isEmpty()) {
+			categoryList.setListData(cachedCategories.toArray(new Category[0]));
+		}
+
 		new SwingWorker<List<Category>, Void>() {
 			@Override
 			protected List<Category> doInBackground() {
@@ -256,7 +432,14 @@ public class SwingClientGUI extends JFrame {
 			@Override
 			protected void done() {
 				try {
-					categoryList.setListData(get().toArray(new Category[0]));
+					List<Category> categories = get();
+
+					// Replace the list only if it changed, to keep the user's selection
+					if (!categories.equals(cachedCategories)) {
+						categoryList.setListData(categories.toArray(new Category[0]));
+					}
+
+					StartupProbe.firstRequestCompleted("swing");
 				} catch (Exception e) {
 					showError(e);
 				}
@@ -264,6 +447,74 @@ public class SwingClientGUI extends JFrame {
 		}.execute();
 	}
 
+	// Makes every category searchable, in the background, the first time the user searches:
+	// the lists saved by the last run are indexed first, then the categories still missing
+	// are fetched one at a time, INDEX_FETCH_PAUSE_MILLIS apart, so the backend never gets a
+	// burst of requests. The results are refreshed as categories are indexed.
+	private void indexCategories() {
+		indexing = true;
+
+		String currency = (String) currencyComboBox.getSelectedItem();
+		List<Category> categories = new ArrayList<>();
+
+		for (int i = 0; i < categoryList.getModel().getSize(); i++) {
+			categories.add(categoryList.getModel().getElementAt(i));
+		}
+
+		new SwingWorker<Void, Void>() {
+			@Override
+			protected Void doInBackground() throws InterruptedException {
+				for (Category category : categories) {
+					if (!controller.isIndexed(category.name())
+							&& !controller.getCachedArticlesByCategory(category.name(), currency).isEmpty()) {
+						publish();
+					}
+				}
+
+				for (Category category : categories) {
+					if (!controller.isIndexed(category.name())) {
+						try {
+							controller.getArticlesByCategory(category.name(), currency);
+							publish();
+						} catch (RuntimeException e) {
+							// Categories that cannot be loaded are searchable once they are opened
+						}
+
+						Thread.sleep(INDEX_FETCH_PAUSE_MILLIS);
+					}
+				}
+
+				return null;
+			}
+
+			@Override
+			protected void process(List<Void> indexed) {
+				if (!searchField.getText().isBlank() && categoryList.isSelectionEmpty()) {
+					searchArticles();
+				}
+			}
+		}.execute();
+	}
+
+	private void searchArticles() {
+		String query = searchField.getText();
+
+		if (query.isBlank()) {
+			articleTableModel.clear();
+			return;
+		}
+
+		if (!indexing && categoryList.getModel().getSize() > 0) {
+			indexCategories();
+		}
+
+		// The index is local: over 300,000 articles, SearchBenchmark measures a median of
+		// tens of microseconds per query (a few hundred for a single letter), so the search
+		// runs on the Event Dispatch Thread. Results are shown in their own currency.
+		categoryList.clearSelection();
+		articleTableModel.update(controller.searchArticles(query), null);
+	}
+
 	private void loadArticlesForCategory() {
 		Category selectedCategory = categoryList.getSelectedValue();
 		String currency = (String) currencyComboBox.getSelectedItem();
@@ -272,6 +523,13 @@ public class SwingClientGUI extends JFrame {
 			return;
 		}
 
+		// Stale-while-revalidate: render the last known articles before the network call
+		List<Article> cachedArticles = controller.getCachedArticlesByCategory(selectedCategory.name(), currency);
+
+		if (!cachedArticles.isEmpty()) {
+			showArticles(cachedArticles, currency);
+		}
+
 		new SwingWorker<List<Article>, Void>() {
 			@Override
 			protected List<Article> doInBackground() {
@@ -281,14 +539,7 @@ public class SwingClientGUI extends JFrame {
 			@Override
 			protected void done() {
 				try {
-					List<Article> articles = get();
-					DefaultTableModel model = (DefaultTableModel) jtbleArticles.getModel();
-					model.setRowCount(0);
-
-					for (Article article : articles) {
-						model.addRow(new Object[] { article.id(), article.title(),
-								formatPrice(article.currentPrice(), currency), article.bids() });
-					}
+					showArticles(get(), currency);
 				} catch (Exception e) {
 					showError(e);
 				}
@@ -296,6 +547,17 @@ public class SwingClientGUI extends JFrame {
 		}.execute();
 	}
 
+	// Only the rows that changed since the last refresh are updated (see ArticleTableModel)
+	private void showArticles(List<Article> articles, String currency) {
+		articleTableModel.update(articles, currency);
+	}
+
+	private Long getSelectedArticleId() {
+		int selectedRow = jtbleArticles.getSelectedRow();
+
+		return (selectedRow == -1) ? null : articleTableModel.getArticle(selectedRow).id();
+	}
+
 	private void loadArticleDetails() {
 		int selectedRow = jtbleArticles.getSelectedRow();
 		String currency = (String) currencyComboBox.getSelectedItem();
@@ -316,11 +578,18 @@ public class SwingClientGUI extends JFrame {
 			protected void done() {
 				try {
 					Article article = get();
+					detailsArticleId = article.id();
 					lblArticleTitle.setText(article.title());
-					lblArticlePrice.setText(formatPrice(article.currentPrice(), currency));
+					lblArticlePrice.setText(formatPrice(article.currentPrice().minorUnits(), currency));
 					lblArticleBids.setText(String.valueOf(article.bids()));
-					spinBidAmount.setValue((int) Math.ceil(article.currentPrice()) + 1);
+					priceSparkline.setSeries(controller.getPriceHistory(article.id(), currency), currency);
+					spinBidAmount.setValue(wholeUnitsAbove(article.currentPrice()) + 1);
 					btnBid.setEnabled(true);
+					btnWatch.setSelected(controller.isWatched(article.id(), currency));
+					btnWatch.setEnabled(true);
+					spinMaxPrice.setValue(wholeUnitsAbove(article.currentPrice()) + 10);
+					btnMaxBid.setEnabled(true);
+					btnLastSecond.setEnabled(true);
 				} catch (Exception e) {
 					showError(e);
 				}
@@ -337,12 +606,12 @@ public class SwingClientGUI extends JFrame {
 		}
 
 		Long articleId = (Long) jtbleArticles.getValueAt(selectedRow, 0);
-		Float bidAmount = ((Integer) spinBidAmount.getValue()).floatValue();
+		Money bidAmount = new Money((Integer) spinBidAmount.getValue() * (long) Money.SCALE, currency);
 
 		new SwingWorker<Void, Void>() {
 			@Override
 			protected Void doInBackground() {
-				controller.placeBid(articleId, bidAmount, currency);
+				controller.placeBid(articleId, bidAmount);
 				return null;
 			}
 
@@ -361,13 +630,77 @@ public class SwingClientGUI extends JFrame {
 		}.execute();
 	}
 
-	private String formatPrice(float price, String currency) {
-		return switch (currency) {
-				case "USD" -> String.format("$ %.2f", price);
-				case "GBP" -> String.format("%.2f £", price);
-				case "JPY" -> String.format("¥ %.2f", price);
-				default -> String.format("%.2f €", price);
-		};
+	private void toggleWatch() {
+		String currency = (String) currencyComboBox.getSelectedItem();
+
+		if (detailsArticleId == null) {
+			return;
+		}
+
+		if (btnWatch.isSelected()) {
+			controller.watch(detailsArticleId, currency);
+		} else {
+			controller.unwatch(detailsArticleId, currency);
+		}
+	}
+
+	private void startProxyBid(ProxyBidEngine.Strategy strategy) {
+		String currency = (String) currencyComboBox.getSelectedItem();
+		Money maxPrice = new Money((Integer) spinMaxPrice.getValue() * (long) Money.SCALE, currency);
+
+		if (detailsArticleId == null) {
+			return;
+		}
+
+		if (strategy == ProxyBidEngine.Strategy.LAST_SECOND) {
+			controller.lastSecondBid(detailsArticleId, maxPrice);
+		} else {
+			controller.maxBid(detailsArticleId, maxPrice);
+		}
+
+		JOptionPane.showMessageDialog(this, "Automatic bidding started up to " + formatPrice(maxPrice.minorUnits(), currency));
+	}
+
+	// Called by the bidding engine (on its own threads): automatic bids that fail and the
+	// end of each automatic bidding are reported to the user
+	private void proxyBidAttempted(ProxyBidEngine.BidResult result) {
+		if (result.success() && controller.isProxyBidActive(result.articleId(), result.currency())) {
+			return; // The new price is shown by the watchlist
+		}
+
+		SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, String.format(
+				"Automatic bid on article %d (%s): %s%n%n%s", result.articleId(),
+				formatPrice(result.amount().minorUnits(), result.currency()), result.message(),
+				controller.getBidTimingReport())));
+	}
+
+	// Called by the watchlist (on its own threads) when a watched article changes
+	private void watchedArticleChanged(Watchlist.WatchKey key, Article article) {
+		SwingUtilities.invokeLater(() -> {
+			String currency = (String) currencyComboBox.getSelectedItem();
+
+			if (!key.currency().equals(currency)) {
+				return; // Prices shown in another currency
+			}
+
+			// Update the row of the article in place, keeping the selection
+			articleTableModel.updateArticle(article);
+
+			if (key.articleId().equals(detailsArticleId)) {
+				lblArticlePrice.setText(formatPrice(article.currentPrice().minorUnits(), currency));
+				lblArticleBids.setText(String.valueOf(article.bids()));
+				priceSparkline.setSeries(controller.getPriceHistory(article.id(), currency), currency);
+			}
+		});
+	}
+
+	private String formatPrice(long minorUnits, String currency) {
+		return MoneyFormat.of(currency).format(minorUnits);
+	}
+
+	// The smallest whole amount (e.g. of euros) not below a price, for the spinners
+	private static int wholeUnitsAbove(Money price) {
+		return (int) Math.ceilDiv(price.minorUnits(), Money.SCALE);
 	}
 
 	public static void main(String[] args) {
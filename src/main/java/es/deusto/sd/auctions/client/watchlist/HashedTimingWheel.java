@@ -0,0 +1,162 @@
+package es.deusto.sd.auctions.client.watchlist;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * HashedTimingWheel is a timer for a large number of short tasks with coarse
+ * deadlines, such as the polls of thousands of watched articles. Instead of a
+ * priority queue (O(log n) per timer) it hashes every task into one of the
+ * slots of a wheel according to its deadline; a single worker thread advances
+ * one slot per tick and runs the tasks whose deadline has come. Scheduling and
+ * cancelling are O(1), and the cost of a tick only depends on the tasks that
+ * fall into that slot. Deadlines further than one wheel rotation away simply
+ * wait in their slot for the required number of rounds.
+ *
+ * Tasks run on the worker thread, so they must be short (e.g. enqueue some work
+ * for another executor). An optional tick hook runs after the expired tasks of
+ * every tick.
+ */
+public final class HashedTimingWheel implements AutoCloseable {
+
+	/**
+	 * Handle of a scheduled task.
+	 */
+	public interface Timeout {
+		void cancel();
+	}
+
+	private final class Task implements Timeout {
+		private final Runnable action;
+		private final long deadlineNanos;
+		private long remainingRounds;
+		private volatile boolean cancelled;
+
+		Task(Runnable action, long deadlineNanos) {
+			this.action = action;
+			this.deadlineNanos = deadlineNanos;
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true; // Removed lazily when its slot is visited
+		}
+	}
+
+	private final long tickNanos;
+	private final List<Task>[] wheel;
+	private final int mask;
+	// Tasks scheduled from other threads, moved into the wheel by the worker
+	private final Queue<Task> pending = new ConcurrentLinkedQueue<>();
+	private final Runnable tickHook;
+	private final Thread worker;
+	private final long startNanos;
+	private volatile boolean running = true;
+	// Current tick, only used by the worker thread
+	private long tick;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public HashedTimingWheel(String name, long tickDuration, TimeUnit unit, int slots, Runnable tickHook) {
+		if (Integer.bitCount(slots) != 1) {
+			throw new IllegalArgumentException("The number of slots must be a power of two");
+		}
+
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.wheel = new List[slots];
+		this.mask = slots - 1;
+		this.tickHook = tickHook;
+
+		for (int i = 0; i < slots; i++) {
+			wheel[i] = new ArrayList<>();
+		}
+
+		this.startNanos = System.nanoTime();
+		this.worker = new Thread(this::run, name);
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	public Timeout schedule(Runnable action, long delay, TimeUnit unit) {
+		Task task = new Task(action, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+		pending.add(task);
+
+		return task;
+	}
+
+	public long tickNanos() {
+		return tickNanos;
+	}
+
+	private void run() {
+		while (running) {
+			// Sleep until the end of the current tick (absolute, so ticks do not drift)
+			long deadline = startNanos + (tick + 1) * tickNanos;
+			long sleep;
+
+			while (running && (sleep = deadline - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(this, sleep);
+			}
+
+			if (!running) {
+				break;
+			}
+
+			transferPending();
+			expire(wheel[(int) (tick & mask)], deadline);
+			tick++;
+
+			if (tickHook != null) {
+				runSafely(tickHook);
+			}
+		}
+	}
+
+	// Places the newly scheduled tasks in the slot of their deadline
+	private void transferPending() {
+		Task task;
+
+		while ((task = pending.poll()) != null) {
+			if (task.cancelled) {
+				continue;
+			}
+
+			long deadlineTick = Math.max(tick, (task.deadlineNanos - startNanos + tickNanos - 1) / tickNanos - 1);
+			task.remainingRounds = (deadlineTick - tick) / wheel.length;
+			wheel[(int) (deadlineTick & mask)].add(task);
+		}
+	}
+
+	private void expire(List<Task> slot, long tickDeadline) {
+		for (Iterator<Task> iterator = slot.iterator(); iterator.hasNext();) {
+			Task task = iterator.next();
+
+			if (task.cancelled) {
+				iterator.remove();
+			} else if (task.remainingRounds > 0) {
+				task.remainingRounds--;
+			} else if (task.deadlineNanos <= tickDeadline) {
+				iterator.remove();
+				runSafely(task.action);
+			}
+		}
+	}
+
+	private static void runSafely(Runnable action) {
+		try {
+			action.run();
+		} catch (RuntimeException e) {
+			// A failing task must not stop the timer
+		}
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		LockSupport.unpark(worker);
+	}
+}
@@ -0,0 +1,271 @@
+package es.deusto.sd.auctions.client.watchlist;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import es.deusto.sd.auctions.client.data.Article;
+import es.deusto.sd.auctions.client.proxies.IAuctionsServiceProxy;
+
+/**
+ * Watchlist keeps a set of articles up to date by polling the AuctionsService,
+ * and notifies its listeners whenever the price, the number of bids or the end
+ * of an auction changes.
+ *
+ * The poll rate of every article depends on how close its auction is to the
+ * end: auctions ending in days are polled every few minutes, while auctions in
+ * their final minute are polled several times per second. Ended auctions get a
+ * last poll (to show the final price) and are not polled again.
+ *
+ * Polls are scheduled with a {@link HashedTimingWheel}, so thousands of watched
+ * articles cost a handful of list operations per tick. Due polls are not sent
+ * right away: they wait in a queue ordered by auction end, and on every tick
+ * the queue is drained within a global request budget (a token bucket of
+ * {@code maxRequestsPerSecond}), so the watchlist never floods the backend and,
+ * when it falls behind, the auctions that end first are polled first. The
+ * requests of a tick are sent together by a small pool of worker threads.
+ */
+public class Watchlist implements AutoCloseable {
+	// Duration of a tick of the timing wheel and number of slots (one rotation = 51.2 s)
+	private static final long TICK_MILLIS = 100;
+	private static final int WHEEL_SLOTS = 512;
+	// Delay before polling again an article whose last poll failed
+	private static final Duration ERROR_RETRY = Duration.ofSeconds(10);
+	// Threads sending the polls of each tick
+	private static final int POLL_THREADS = 4;
+
+	/**
+	 * Receives every change of a watched article. Called from the watchlist
+	 * threads: UIs must hand the update over to their own thread.
+	 */
+	@FunctionalInterface
+	public interface Listener {
+		void articleChanged(WatchKey key, Article article);
+	}
+
+	/**
+	 * A watched article: prices are polled in the given currency.
+	 */
+	public record WatchKey(Long articleId, String currency) {}
+
+	private static final class Entry {
+		private final WatchKey key;
+		private volatile Article article;
+		// Number of users watching the article (the web client shares one watchlist)
+		private int watchers;
+		private HashedTimingWheel.Timeout timeout;
+		private boolean ended;
+
+		Entry(WatchKey key) {
+			this.key = key;
+		}
+
+		long auctionEndMillis() {
+			Article current = article;
+
+			return (current == null || current.auctionEnd() == null) ? 0 : current.auctionEnd().getTime();
+		}
+	}
+
+	private final IAuctionsServiceProxy serviceProxy;
+	private final Map<WatchKey, Entry> entries = new ConcurrentHashMap<>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	// Polls that are due, the auctions that end first at the head (guarded by itself)
+	private final PriorityQueue<Entry> due = new PriorityQueue<>(Comparator.comparingLong(Entry::auctionEndMillis));
+	private final HashedTimingWheel timer;
+	private final ExecutorService pollers;
+	private final double requestsPerTick;
+	// Token bucket of the request budget, only used by the timer thread
+	private double tokens;
+
+	public Watchlist(IAuctionsServiceProxy serviceProxy, int maxRequestsPerSecond) {
+		this.serviceProxy = serviceProxy;
+		this.requestsPerTick = maxRequestsPerSecond * TICK_MILLIS / 1000.0;
+		this.pollers = Executors.newFixedThreadPool(POLL_THREADS, runnable -> {
+			Thread thread = new Thread(runnable, "watchlist-poller");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.timer = new HashedTimingWheel("watchlist-timer", TICK_MILLIS, TimeUnit.MILLISECONDS,
+				WHEEL_SLOTS, this::dispatchDuePolls);
+	}
+
+	/**
+	 * Starts watching an article (or adds one more watcher to it). The first
+	 * poll is sent as soon as the request budget allows it.
+	 */
+	public void watch(Long articleId, String currency) {
+		WatchKey key = new WatchKey(articleId, currency);
+		Entry entry = entries.computeIfAbsent(key, Entry::new);
+
+		synchronized (entry) {
+			if (entry.watchers++ == 0) {
+				schedule(entry, Duration.ZERO);
+			}
+		}
+	}
+
+	// Removes one watcher of an article; polls stop when nobody watches it
+	public void unwatch(Long articleId, String currency) {
+		Entry entry = entries.get(new WatchKey(articleId, currency));
+
+		if (entry == null) {
+			return;
+		}
+
+		synchronized (entry) {
+			if (--entry.watchers <= 0) {
+				entries.remove(entry.key);
+
+				if (entry.timeout != null) {
+					entry.timeout.cancel();
+				}
+			}
+		}
+	}
+
+	public boolean isWatched(Long articleId, String currency) {
+		return entries.containsKey(new WatchKey(articleId, currency));
+	}
+
+	// Latest known state of every watched article already polled
+	public List<Article> articles() {
+		List<Article> articles = new ArrayList<>();
+
+		for (Entry entry : entries.values()) {
+			if (entry.article != null) {
+				articles.add(entry.article);
+			}
+		}
+
+		return articles;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Time until the next poll of an article, depending on how far the end of
+	 * its auction is.
+	 */
+	static Duration pollInterval(Article article, long nowMillis) {
+		if (article == null || article.auctionEnd() == null) {
+			return Duration.ofMinutes(1);
+		}
+
+		long remaining = article.auctionEnd().getTime() - nowMillis;
+
+		if (remaining > Duration.ofDays(1).toMillis()) {
+			return Duration.ofMinutes(10);
+		} else if (remaining > Duration.ofHours(1).toMillis()) {
+			return Duration.ofMinutes(1);
+		} else if (remaining > Duration.ofMinutes(10).toMillis()) {
+			return Duration.ofSeconds(15);
+		} else if (remaining > Duration.ofMinutes(1).toMillis()) {
+			return Duration.ofSeconds(2);
+		} else {
+			return Duration.ofMillis(500);
+		}
+	}
+
+	// Called by the timer when the poll of an entry is due: just queue it
+	private void enqueue(Entry entry) {
+		synchronized (due) {
+			due.add(entry);
+		}
+	}
+
+	// Tick hook of the timer: sends as many due polls as the request budget allows
+	private void dispatchDuePolls() {
+		// Unused budget is not accumulated beyond one second's worth
+		tokens = Math.min(tokens + requestsPerTick, requestsPerTick * (1000 / TICK_MILLIS));
+
+		synchronized (due) {
+			while (tokens >= 1 && !due.isEmpty()) {
+				Entry entry = due.poll();
+
+				if (entries.get(entry.key) == entry) { // Skip entries unwatched in the meantime
+					tokens--;
+					pollers.execute(() -> poll(entry));
+				}
+			}
+		}
+	}
+
+	private void poll(Entry entry) {
+		Article previous = entry.article;
+		Article current;
+
+		try {
+			current = serviceProxy.getArticleDetails(entry.key.articleId(), entry.key.currency());
+		} catch (RuntimeException e) {
+			reschedule(entry, ERROR_RETRY);
+			return;
+		}
+
+		entry.article = current;
+
+		if (previous == null || changed(previous, current)) {
+			for (Listener listener : listeners) {
+				try {
+					listener.articleChanged(entry.key, current);
+				} catch (RuntimeException e) {
+					// A failing listener must not stop the polls of the article
+				}
+			}
+		}
+
+		long now = System.currentTimeMillis();
+		boolean ended = current.auctionEnd() != null && current.auctionEnd().getTime() <= now;
+
+		synchronized (entry) {
+			// Once the auction is over, one last poll gets the final price
+			if (entry.ended) {
+				return;
+			}
+
+			entry.ended = ended;
+		}
+
+		reschedule(entry, ended ? Duration.ofSeconds(1) : pollInterval(current, now));
+	}
+
+	private void reschedule(Entry entry, Duration delay) {
+		synchronized (entry) {
+			if (entry.watchers > 0) {
+				schedule(entry, delay);
+			}
+		}
+	}
+
+	// Must be called holding the entry's monitor
+	private void schedule(Entry entry, Duration delay) {
+		entry.timeout = timer.schedule(() -> enqueue(entry), delay.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	private static boolean changed(Article previous, Article current) {
+		return !Objects.equals(previous.currentPrice(), current.currentPrice())
+				|| !Objects.equals(previous.bids(), current.bids())
+				|| !Objects.equals(previous.auctionEnd(), current.auctionEnd());
+	}
+
+	@Override
+	public void close() {
+		timer.close();
+		pollers.shutdownNow();
+	}
+}
@@ -0,0 +1,115 @@
+package es.deusto.sd.auctions.client.web;
+
+/**
+ * AdaptiveConcurrencyLimiter bounds the number of requests of one kind that
+ * are being processed at the same time, adapting the bound to the observed
+ * latency with an AIMD (additive increase, multiplicative decrease) rule:
+ *
+ * - The lowest latency seen recently is taken as the no-load latency of the
+ *   backend. While requests complete within {@code tolerance} times that
+ *   latency, the limit grows by about one for every "window" of requests.
+ * - When a request is much slower than that (the backend is queueing) or fails,
+ *   the limit is multiplied by {@code backoff}, releasing capacity quickly. As
+ *   in TCP, this happens at most once per round trip: the requests that were
+ *   already in progress at the last decrease are answered by the same queue,
+ *   so they do not decrease the limit again (otherwise a burst of slow answers
+ *   would collapse it to the minimum).
+ *
+ * Requests over the limit are rejected immediately ({@link #tryAcquire} returns
+ * false) instead of waiting, so that a slow backend cannot pile up every
+ * servlet thread. The no-load latency is re-estimated periodically, so the
+ * limiter follows permanent changes in the backend speed.
+ */
+public class AdaptiveConcurrencyLimiter {
+	// Samples after which the no-load latency estimate is refreshed
+	private static final int MIN_LATENCY_WINDOW = 500;
+
+	private final String name;
+	private final int minLimit;
+	private final int maxLimit;
+	private final double tolerance;
+	private final double backoff;
+
+	// All the state below is guarded by this object's monitor
+	private double limit;
+	private int inFlight;
+	private long minLatencyNanos = Long.MAX_VALUE;
+	private long windowMinLatencyNanos = Long.MAX_VALUE;
+	private int windowSamples;
+	// When the limit was last decreased
+	private long lastDecreaseNanos = System.nanoTime();
+	private long rejected;
+
+	public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit,
+									  double tolerance, double backoff) {
+		if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+			throw new IllegalArgumentException("Invalid limits for " + name);
+		}
+
+		this.name = name;
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.tolerance = tolerance;
+		this.backoff = backoff;
+	}
+
+	// Takes a slot if the current limit allows it; never blocks
+	public synchronized boolean tryAcquire() {
+		if (inFlight >= (int) limit) {
+			rejected++;
+			return false;
+		}
+
+		inFlight++;
+		return true;
+	}
+
+	/**
+	 * Releases a slot taken with {@link #tryAcquire}, feeding the latency of the
+	 * request (and whether it failed) into the limit.
+	 */
+	public synchronized void release(long latencyNanos, boolean failed) {
+		inFlight--;
+
+		windowMinLatencyNanos = Math.min(windowMinLatencyNanos, latencyNanos);
+
+		if (++windowSamples >= MIN_LATENCY_WINDOW) {
+			// Start over from the best latency of the last window, forgetting older ones
+			minLatencyNanos = windowMinLatencyNanos;
+			windowMinLatencyNanos = Long.MAX_VALUE;
+			windowSamples = 0;
+		} else {
+			minLatencyNanos = Math.min(minLatencyNanos, latencyNanos);
+		}
+
+		if (failed || latencyNanos > minLatencyNanos * tolerance) {
+			long now = System.nanoTime();
+
+			// Only the requests sent after the last decrease reflect the current limit
+			if (now - latencyNanos - lastDecreaseNanos > 0) {
+				limit = Math.max(minLimit, limit * backoff);
+				lastDecreaseNanos = now;
+			}
+		} else if (inFlight * 2 >= (int) limit) {
+			// Only grow while the limit is actually being used
+			limit = Math.min(maxLimit, limit + 1.0 / limit);
+		}
+	}
+
+	public String name() {
+		return name;
+	}
+
+	public synchronized int limit() {
+		return (int) limit;
+	}
+
+	public synchronized int inFlight() {
+		return inFlight;
+	}
+
+	public synchronized long rejected() {
+		return rejected;
+	}
+}
@@ -0,0 +1,89 @@
+package es.deusto.sd.auctions.client.web;
+
+import java.util.concurrent.CompletionException;
+
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import es.deusto.sd.auctions.client.proxies.ServiceError;
+import es.deusto.sd.auctions.client.proxies.ServiceException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * ConcurrencyLimitInterceptor applies an {@link AdaptiveConcurrencyLimiter} to
+ * the controller methods of one bulkhead (e.g. browsing or bidding). A request
+ * that finds no free slot is not queued: it fails immediately with a
+ * {@link ServiceOverloadedException}, which {@link WebErrorHandler} renders as
+ * a "try again" page.
+ *
+ * The latency fed to the limiter is the time spent in the controller method,
+ * which is dominated by the calls to the AuctionsService. Asynchronous pages
+ * keep their slot until the future completes and the page is rendered: Spring
+ * MVC dispatches them twice, and only the first dispatch takes a slot.
+ *
+ * A request fails, for the limiter, when it ends with an exception or a 5xx
+ * status, or when the controller marks it with {@link #recordFailure}: the
+ * asynchronous pages and the bids render the failures of the AuctionsService
+ * as a page (or a redirect) instead of throwing them.
+ */
+public class ConcurrencyLimitInterceptor implements AsyncHandlerInterceptor {
+	// Request attribute set on the requests whose failure was rendered as a page
+	private static final String FAILED_ATTRIBUTE = ConcurrencyLimitInterceptor.class.getName() + ".failed";
+
+	// Request attribute holding the start time of a request that took a slot
+	private final String startAttribute;
+	private final AdaptiveConcurrencyLimiter limiter;
+
+	public ConcurrencyLimitInterceptor(AdaptiveConcurrencyLimiter limiter) {
+		this.limiter = limiter;
+		this.startAttribute = ConcurrencyLimitInterceptor.class.getName() + "." + limiter.name();
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		if (request.getAttribute(startAttribute) != null) {
+			return true; // Dispatch of the result of an asynchronous page, which already holds a slot
+		}
+
+		if (!limiter.tryAcquire()) {
+			throw new ServiceOverloadedException(limiter.name());
+		}
+
+		request.setAttribute(startAttribute, System.nanoTime());
+		return true;
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+								Exception ex) {
+		Object start = request.getAttribute(startAttribute);
+
+		if (start instanceof Long startNanos) {
+			request.removeAttribute(startAttribute); // Release the slot only once
+			boolean failed = ex != null || response.getStatus() >= 500 || request.getAttribute(FAILED_ATTRIBUTE) != null;
+			limiter.release(System.nanoTime() - startNanos, failed);
+		}
+	}
+
+	/**
+	 * Marks a request as failed if the failure of its call to the AuctionsService
+	 * means that the service is in trouble (a server or I/O error, a deadline
+	 * exceeded...). Failures that answer the request itself, such as an article
+	 * not found or a bid that is too low, do not lower the limit.
+	 */
+	public static void recordFailure(HttpServletRequest request, Throwable failure) {
+		Throwable cause = (failure instanceof CompletionException && failure.getCause() != null)
+				? failure.getCause() : failure;
+
+		if (!(cause instanceof ServiceException e) || isServiceFailure(e.error())) {
+			request.setAttribute(FAILED_ATTRIBUTE, Boolean.TRUE);
+		}
+	}
+
+	private static boolean isServiceFailure(ServiceError error) {
+		return switch (error) {
+			case SERVER_ERROR, UNEXPECTED_STATUS, IO_ERROR, DEADLINE_EXCEEDED -> true;
+			default -> false;
+		};
+	}
+}
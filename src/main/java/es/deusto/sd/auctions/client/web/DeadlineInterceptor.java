@@ -0,0 +1,97 @@
+package es.deusto.sd.auctions.client.web;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import es.deusto.sd.auctions.client.proxies.Deadline;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * DeadlineInterceptor gives every page a {@link Deadline}, counted from the
+ * arrival of the request: the budget of its endpoint ("METHOD pattern", as in
+ * the {@link PageRequestEvent}s) or the default one. The deadline is the
+ * current one of the thread while the controller method runs, so the calls it
+ * makes to the AuctionsService inherit it. Asynchronous pages keep it across
+ * their two dispatches.
+ */
+public class DeadlineInterceptor implements AsyncHandlerInterceptor {
+	// Request attributes holding the deadline of the request and the scope that makes it current
+	private static final String DEADLINE_ATTRIBUTE = DeadlineInterceptor.class.getName() + ".deadline";
+	private static final String SCOPE_ATTRIBUTE = DeadlineInterceptor.class.getName() + ".scope";
+
+	private final Duration defaultBudget;
+	private final Map<String, Duration> budgets;
+
+	public DeadlineInterceptor(Duration defaultBudget, Map<String, Duration> budgets) {
+		this.defaultBudget = defaultBudget;
+		this.budgets = Map.copyOf(budgets);
+	}
+
+	// Parses comma-separated "METHOD pattern=millis" pairs (e.g. "GET /article/{id}=3000")
+	public static Map<String, Duration> parseBudgets(String budgets) {
+		Map<String, Duration> parsed = new HashMap<>();
+
+		for (String entry : budgets.split(",")) {
+			if (entry.isBlank()) {
+				continue;
+			}
+
+			int separator = entry.lastIndexOf('=');
+
+			if (separator < 0) {
+				throw new IllegalArgumentException("Invalid endpoint deadline (METHOD pattern=millis): " + entry.trim());
+			}
+
+			parsed.put(entry.substring(0, separator).trim(),
+					Duration.ofMillis(Long.parseLong(entry.substring(separator + 1).trim())));
+		}
+
+		return parsed;
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		Deadline deadline = (Deadline) request.getAttribute(DEADLINE_ATTRIBUTE);
+
+		// Otherwise, dispatch of the result of an asynchronous page: same deadline as the first one
+		if (deadline == null) {
+			deadline = Deadline.after(budget(request));
+			request.setAttribute(DEADLINE_ATTRIBUTE, deadline);
+		}
+
+		request.setAttribute(SCOPE_ATTRIBUTE, deadline.enter());
+		return true;
+	}
+
+	// The controller method returned a future: the servlet thread moves on to other requests
+	@Override
+	public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+											   Object handler) {
+		exit(request);
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+								Exception ex) {
+		exit(request);
+	}
+
+	private Duration budget(HttpServletRequest request) {
+		Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+
+		return budgets.getOrDefault(request.getMethod() + " " + (pattern != null ? pattern : request.getRequestURI()),
+				defaultBudget);
+	}
+
+	private static void exit(HttpServletRequest request) {
+		if (request.getAttribute(SCOPE_ATTRIBUTE) instanceof Deadline.Scope scope) {
+			request.removeAttribute(SCOPE_ATTRIBUTE);
+			scope.close();
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package es.deusto.sd.auctions.client.web;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder event emitted for every page served by the web client.
+ * The duration of the event is the whole request; the backend calls made while
+ * handling it are recorded as separate Backend Call events on the same thread.
+ */
+@Name(PageRequestEvent.NAME)
+@Label("Page Request")
+@Category({ "Auctions", "Web" })
+@Description("Page served by the web client, split into controller and rendering time")
+@StackTrace(false)
+class PageRequestEvent extends Event {
+	static final String NAME = "es.deusto.sd.auctions.PageRequest";
+
+	@Label("Endpoint")
+	@Description("HTTP method and path pattern, e.g. GET /article/{id}")
+	String endpoint;
+
+	@Label("Status")
+	int status;
+
+	@Label("Controller")
+	@Description("Time spent in the controller method, including the backend calls")
+	@Timespan(Timespan.NANOSECONDS)
+	long controller;
+
+	@Label("Render")
+	@Description("Time spent rendering the Thymeleaf view")
+	@Timespan(Timespan.NANOSECONDS)
+	long render;
+}
@@ -0,0 +1,74 @@
+package es.deusto.sd.auctions.client.web;
+
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.ModelAndView;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * PageTimingInterceptor emits a {@link PageRequestEvent} for every page of the
+ * {@link WebClientController}. Spring MVC calls {@code postHandle} between the
+ * controller method and the rendering of the view, which splits the request
+ * into controller time (mostly backend calls) and Thymeleaf rendering time.
+ * For asynchronous pages, the event spans both dispatches: the controller time
+ * lasts until the future completes.
+ */
+public class PageTimingInterceptor implements AsyncHandlerInterceptor {
+	// Request attribute holding the event of the request in progress
+	private static final String EVENT_ATTRIBUTE = PageTimingInterceptor.class.getName() + ".event";
+	// Request attributes holding the start of the request and the time at which the controller method returned
+	private static final String START_ATTRIBUTE = PageTimingInterceptor.class.getName() + ".start";
+	private static final String HANDLED_ATTRIBUTE = PageTimingInterceptor.class.getName() + ".handled";
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		if (request.getAttribute(EVENT_ATTRIBUTE) != null) {
+			return true; // Dispatch of the result of an asynchronous page, already being timed
+		}
+
+		PageRequestEvent event = new PageRequestEvent();
+
+		if (event.isEnabled()) {
+			event.begin();
+			request.setAttribute(EVENT_ATTRIBUTE, event);
+			request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+		}
+
+		return true;
+	}
+
+	@Override
+	public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+						   ModelAndView modelAndView) {
+		if (request.getAttribute(EVENT_ATTRIBUTE) != null) {
+			request.setAttribute(HANDLED_ATTRIBUTE, System.nanoTime());
+		}
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+								Exception ex) {
+		if (!(request.getAttribute(EVENT_ATTRIBUTE) instanceof PageRequestEvent event)) {
+			return;
+		}
+
+		request.removeAttribute(EVENT_ATTRIBUTE);
+		event.end();
+
+		if (event.shouldCommit()) {
+			long end = System.nanoTime();
+			long start = (Long) request.getAttribute(START_ATTRIBUTE);
+			// postHandle is skipped when the controller throws: all the time was spent in it
+			long handled = (request.getAttribute(HANDLED_ATTRIBUTE) instanceof Long time) ? time : end;
+			Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+
+			event.endpoint = request.getMethod() + " " + (pattern != null ? pattern : request.getRequestURI());
+			event.status = response.getStatus();
+			event.render = end - handled;
+			event.controller = handled - start;
+			event.commit();
+		}
+	}
+}
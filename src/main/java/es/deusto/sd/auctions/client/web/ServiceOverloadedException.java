@@ -0,0 +1,19 @@
+package es.deusto.sd.auctions.client.web;
+
+/**
+ * Thrown when a request is shed because its bulkhead has no free capacity.
+ */
+public class ServiceOverloadedException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	private final String bulkhead;
+
+	public ServiceOverloadedException(String bulkhead) {
+		super("Too many concurrent " + bulkhead + " requests");
+		this.bulkhead = bulkhead;
+	}
+
+	public String getBulkhead() {
+		return bulkhead;
+	}
+}
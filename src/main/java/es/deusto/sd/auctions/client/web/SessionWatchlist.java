@@ -0,0 +1,108 @@
+package es.deusto.sd.auctions.client.web;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import es.deusto.sd.auctions.client.data.Article;
+import es.deusto.sd.auctions.client.watchlist.Watchlist;
+import jakarta.servlet.http.HttpSessionBindingEvent;
+import jakarta.servlet.http.HttpSessionBindingListener;
+
+/**
+ * SessionWatchlist holds the articles watched by one user of the web client.
+ * All the users share a single {@link Watchlist}, so an article watched by many
+ * users is polled only once; this object keeps the user's own subset and pushes
+ * the changes of those articles to the user's open pages as server-sent events.
+ *
+ * It is stored as an attribute of the HttpSession. When the session expires (or
+ * the attribute is removed) the container unbinds it, and every article it was
+ * watching is released from the shared watchlist.
+ */
+public class SessionWatchlist implements HttpSessionBindingListener, Watchlist.Listener {
+	// Name of the server-sent events carrying article updates
+	private static final String EVENT_NAME = "article";
+
+	private final Watchlist watchlist;
+	private final Set<Watchlist.WatchKey> keys = ConcurrentHashMap.newKeySet();
+	// Event streams of the pages opened by the user
+	private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+
+	public SessionWatchlist(Watchlist watchlist) {
+		this.watchlist = watchlist;
+	}
+
+	// Watches the article if it was not watched by this user, unwatches it otherwise.
+	// Returns whether the article is watched after the call.
+	public boolean toggle(Long articleId, String currency) {
+		Watchlist.WatchKey key = new Watchlist.WatchKey(articleId, currency);
+
+		if (keys.remove(key)) {
+			watchlist.unwatch(articleId, currency);
+			return false;
+		}
+
+		keys.add(key);
+		watchlist.watch(articleId, currency);
+		return true;
+	}
+
+	public boolean isWatched(Long articleId, String currency) {
+		return keys.contains(new Watchlist.WatchKey(articleId, currency));
+	}
+
+	// Registers the event stream of a page; it is dropped when the client disconnects
+	public void addEmitter(SseEmitter emitter) {
+		emitters.add(emitter);
+		emitter.onCompletion(() -> emitters.remove(emitter));
+		emitter.onTimeout(() -> emitters.remove(emitter));
+		emitter.onError(e -> emitters.remove(emitter));
+	}
+
+	@Override
+	public void articleChanged(Watchlist.WatchKey key, Article article) {
+		if (!keys.contains(key)) {
+			return;
+		}
+
+		Map<String, Object> data = Map.of(
+				"id", key.articleId(),
+				"currency", key.currency(),
+				"currentPrice", article.currentPrice(),
+				"bids", article.bids());
+
+		for (SseEmitter emitter : emitters) {
+			try {
+				emitter.send(SseEmitter.event().name(EVENT_NAME).data(data, MediaType.APPLICATION_JSON));
+			} catch (IOException | IllegalStateException e) {
+				emitters.remove(emitter); // The page was closed
+			}
+		}
+	}
+
+	@Override
+	public void valueBound(HttpSessionBindingEvent event) {
+		watchlist.addListener(this);
+	}
+
+	@Override
+	public void valueUnbound(HttpSessionBindingEvent event) {
+		watchlist.removeListener(this);
+
+		for (Watchlist.WatchKey key : keys) {
+			watchlist.unwatch(key.articleId(), key.currency());
+		}
+
+		keys.clear();
+
+		for (SseEmitter emitter : emitters) {
+			emitter.complete();
+		}
+	}
+}
@@ -5,10 +5,28 @@
  */
 package es.deusto.sd.auctions.client.web;
 
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
-import org.springframework.web.client.RestTemplate;
+
+import es.deusto.sd.auctions.client.cache.OffHeapArticleCache;
+import es.deusto.sd.auctions.client.cache.RefreshAheadCatalog;
+import es.deusto.sd.auctions.client.capture.CapturingServiceProxy;
+import es.deusto.sd.auctions.client.history.PriceHistory;
+import es.deusto.sd.auctions.client.proxies.BackendLoadBalancer;
+import es.deusto.sd.auctions.client.proxies.HttpServiceProxy;
+import es.deusto.sd.auctions.client.proxies.HttpTransport;
+import es.deusto.sd.auctions.client.proxies.IAuctionsServiceProxy;
+import es.deusto.sd.auctions.client.proxies.PriceHistoryServiceProxy;
+import es.deusto.sd.auctions.client.search.ArticleSearchIndex;
+import es.deusto.sd.auctions.client.watchlist.Watchlist;
 
 /**
  * WebClientApplication class is the main class for the web client application.
@@ -21,8 +39,63 @@ public class WebClientApplication {
         SpringApplication.run(WebClientApplication.class, args);
     }
 
+    // Same proxy (and HTTP transport) as the console and Swing clients, configured from application.properties,
+    // recording the prices of the articles it receives (and capturing its calls, if a capture file is set)
+    @Bean
+    IAuctionsServiceProxy auctionsServiceProxy(@Value("${api.base.url}") String baseUrls,
+                                               @Value("${api.session-affinity:true}") boolean sessionAffinity,
+                                               @Value("${api.http.version:HTTP_2}") HttpClient.Version version,
+                                               @Value("${api.http.connect-timeout:2000}") long connectTimeout,
+                                               @Value("${api.http.request-timeout:10000}") long requestTimeout,
+                                               @Value("${api.http.deadline-header:}") String deadlineHeader,
+                                               @Value("${price-history.max-bytes:4194304}") long priceHistoryBytes,
+                                               @Value("${capture.file:}") String captureFile) throws IOException {
+        HttpServiceProxy proxy = new HttpServiceProxy(BackendLoadBalancer.parseUrls(baseUrls), sessionAffinity,
+                new HttpTransport.Settings(version, Duration.ofMillis(connectTimeout), Duration.ofMillis(requestTimeout),
+                        deadlineHeader));
+
+        IAuctionsServiceProxy recording = new PriceHistoryServiceProxy(proxy, new PriceHistory(priceHistoryBytes));
+
+        // Closed by Spring on shutdown, which stops the health checks of the backend nodes (and flushes
+        // the capture)
+        return captureFile.isBlank() ? recording : new CapturingServiceProxy(recording, Path.of(captureFile));
+    }
+
+    // Article lists of the category pages, kept off the heap
+    @Bean
+    OffHeapArticleCache articleCache(@Value("${web.article-cache.max-bytes:67108864}") long maxBytes) {
+        return new OffHeapArticleCache(maxBytes);
+    }
+
+    // Categories and article lists of the pages, preloaded at startup and refreshed ahead of
+    // their expiry while they are popular (closed, saving the popular entries, on shutdown)
+    @Bean
+    RefreshAheadCatalog catalog(IAuctionsServiceProxy auctionsServiceProxy, OffHeapArticleCache articleCache,
+                                ArticleSearchIndex articleSearchIndex,
+                                @Value("${web.article-cache.ttl:5000}") long ttlMillis,
+                                @Value("${web.cache-warmer.max-refreshes-per-second:10}") int maxRefreshesPerSecond,
+                                @Value("${web.cache-warmer.preload:20}") int preload,
+                                @Value("${web.cache-warmer.hot-entries-file:}") String hotEntriesFile) {
+        Path file = hotEntriesFile.isBlank()
+                ? Paths.get(System.getProperty("user.home"), ".auctions-client", "web-hot-entries.txt")
+                : Paths.get(hotEntriesFile);
+        RefreshAheadCatalog catalog = new RefreshAheadCatalog(auctionsServiceProxy, articleCache, ttlMillis,
+                maxRefreshesPerSecond, preload, file, articleSearchIndex::update);
+        catalog.start();
+
+        return catalog;
+    }
+
+    // Shared search index, fed with every article list fetched by the controller
+    @Bean
+    ArticleSearchIndex articleSearchIndex() {
+        return new ArticleSearchIndex();
+    }
+
+    // Watchlist shared by all the users, so that every watched article is polled once
     @Bean
-    RestTemplate restTemplate() {
-        return new RestTemplate();
+    Watchlist watchlist(IAuctionsServiceProxy auctionsServiceProxy,
+                        @Value("${watchlist.max-requests-per-second:20}") int maxRequestsPerSecond) {
+        return new Watchlist(auctionsServiceProxy, maxRequestsPerSecond);
     }
 }
\ No newline at end of file
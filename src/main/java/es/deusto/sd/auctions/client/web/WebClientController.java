@@ -5,8 +5,16 @@
  */
 package es.deusto.sd.auctions.client.web;
 
+import java.math.BigDecimal;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -14,13 +22,23 @@ import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import es.deusto.sd.auctions.client.cache.ArticleSort;
+import es.deusto.sd.auctions.client.cache.RefreshAheadCatalog;
 import es.deusto.sd.auctions.client.data.Article;
-import es.deusto.sd.auctions.client.data.Category;
 import es.deusto.sd.auctions.client.data.Credentials;
+import es.deusto.sd.auctions.client.data.Money;
+import es.deusto.sd.auctions.client.data.MoneyFormat;
+import es.deusto.sd.auctions.client.proxies.CallResult;
+import es.deusto.sd.auctions.client.proxies.Deadline;
 import es.deusto.sd.auctions.client.proxies.IAuctionsServiceProxy;
+import es.deusto.sd.auctions.client.search.ArticleSearchIndex;
+import es.deusto.sd.auctions.client.watchlist.Watchlist;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpSession;
 
@@ -28,7 +46,7 @@ import jakarta.servlet.http.HttpSession;
  * WebClientController class serves as the primary controller for the web client
  * application built with Spring Boot. It orchestrates the interactions between
  * the web application and the AuctionsService through the
- * RestTemplateServiceProxy, managing HTTP requests and responses while serving
+ * HttpServiceProxy bean, managing HTTP requests and responses while serving
  * Thymeleaf templates.
  * 
  * The use of the `@Controller` annotation in the WebClientController class
@@ -78,11 +96,36 @@ public class WebClientController {
 	// Session attribute key under which the per-user token is stored.
 	private static final String TOKEN_ATTRIBUTE = "token";
 
+	// Maximum number of results shown by the search page.
+	private static final int MAX_SEARCH_RESULTS = 50;
+
+	// Articles per category page (by default and at most), and page links shown around the current one.
+	private static final int DEFAULT_PAGE_SIZE = 25;
+	private static final int MAX_PAGE_SIZE = 100;
+	private static final int PAGE_LINKS = 5;
+
+	// Session attribute key under which the articles watched by the user are stored.
+	private static final String WATCHLIST_ATTRIBUTE = "watchlist";
+
+	// Time after which the browser has to reopen the stream of watchlist events.
+	private static final long WATCHLIST_EVENTS_TIMEOUT_MILLIS = 30 * 60 * 1000L;
+
+	// Size (SVG user units) of the price history sparkline of the article page.
+	private static final int SPARKLINE_WIDTH = 240;
+	private static final int SPARKLINE_HEIGHT = 40;
+
 	private final IAuctionsServiceProxy auctionsServiceProxy;
+	private final ArticleSearchIndex searchIndex;
+	private final Watchlist watchlist;
+	private final RefreshAheadCatalog catalog;
 
-	// Constructor injection of the AuctionsServiceProxy dependency.
-	WebClientController(IAuctionsServiceProxy auctionsServiceProxy) {
+	// Constructor injection of the AuctionsServiceProxy, search index, watchlist and catalog dependencies.
+	WebClientController(IAuctionsServiceProxy auctionsServiceProxy, ArticleSearchIndex searchIndex,
+						Watchlist watchlist, RefreshAheadCatalog catalog) {
 		this.auctionsServiceProxy = auctionsServiceProxy;
+		this.searchIndex = searchIndex;
+		this.watchlist = watchlist;
+		this.catalog = catalog;
 	}
 
 	// Add current URL and token to all views.
@@ -94,20 +137,25 @@ public class WebClientController {
 		String currentUrl = ServletUriComponentsBuilder.fromRequestUri(request).toUriString();
 		model.addAttribute("currentUrl", currentUrl); // Makes current URL available in all templates
 		model.addAttribute("token", session.getAttribute(TOKEN_ATTRIBUTE)); // Per-session token
+		model.addAttribute("moneyFormat", MoneyFormat.plain()); // Shared format of the prices (icons show the currency)
 	}
 
+	// The pages that call the AuctionsService return a CompletableFuture: the servlet
+	// thread is released while the call is in progress, and Spring MVC renders the view
+	// (with the model filled in by the future) once it completes. The categories and the
+	// article lists come from the catalog, which keeps the popular ones fresh.
 	@GetMapping("/")
-	public String home(Model model) {
-		List<Category> categories;
-
-		try {
-			categories = auctionsServiceProxy.getAllCategories();
-			model.addAttribute("categories", categories);
-		} catch (RuntimeException e) {
-			model.addAttribute("errorMessage", "Failed to load categories: " + e.getMessage());
-		}
-
-		return "index";
+	public CompletableFuture<String> home(Model model, HttpServletRequest request) {
+		return withinDeadline(catalog.getCategories())
+				.thenApply(categories -> {
+					model.addAttribute("categories", categories);
+					return "index";
+				})
+				.exceptionally(e -> {
+					ConcurrencyLimitInterceptor.recordFailure(request, e);
+					model.addAttribute("errorMessage", "Failed to load categories: " + cause(e).getMessage());
+					return "index";
+				});
 	}
 
 	@GetMapping("/login")
@@ -124,6 +172,7 @@ public class WebClientController {
 							   @RequestParam("password") String userPassword,
 							   @RequestParam(value = "redirectUrl", required = false) String redirection,
 							   HttpSession session,
+							   HttpServletRequest request,
 							   Model model) {
 		Credentials credentials = new Credentials(userEmail, userPassword);
 
@@ -134,6 +183,7 @@ public class WebClientController {
 			// Redirect to the original page or root if redirectUrl is null
 			return "redirect:" + (redirection != null && !redirection.isEmpty() ? redirection : "/");
 		} catch (RuntimeException e) {
+			ConcurrencyLimitInterceptor.recordFailure(request, e);
 			model.addAttribute("errorMessage", "Login failed: " + e.getMessage());
 			return "login"; // Return to login page with error message
 		}
@@ -142,12 +192,14 @@ public class WebClientController {
 	@GetMapping("/logout")
 	public String performLogout(@RequestParam(value = "redirectUrl", defaultValue = "/") String redirection,
 								HttpSession session,
+								HttpServletRequest request,
 								Model model) {
 		try {
 			auctionsServiceProxy.logout((String) session.getAttribute(TOKEN_ATTRIBUTE));
 			session.removeAttribute(TOKEN_ATTRIBUTE); // Clear the token from the session after logout
 			model.addAttribute("successMessage", "Logout successful.");
 		} catch (RuntimeException e) {
+			ConcurrencyLimitInterceptor.recordFailure(request, e);
 			model.addAttribute("errorMessage", "Logout failed: " + e.getMessage());
 		}
 
@@ -155,64 +207,277 @@ public class WebClientController {
 		return "redirect:" + redirection;
 	}
 
+	// Only one page of the articles is rendered, however large the category: it is
+	// selected (and sorted) from the list cached by the catalog.
 	@GetMapping("/category/{name}")
-	public String getCategoryArticles(@PathVariable("name") String categoryName,
+	public CompletableFuture<String> getCategoryArticles(@PathVariable("name") String categoryName,
 									  @RequestParam(value = "currency", defaultValue = "EUR") String selectedCurrency, 
+									  @RequestParam(value = "sort", defaultValue = "listed") String sort,
+									  @RequestParam(value = "page", defaultValue = "1") int page,
+									  @RequestParam(value = "size", defaultValue = "" + DEFAULT_PAGE_SIZE) int size,
+									  HttpServletRequest request,
 									  Model model) {
-		List<Article> articles;
+		ArticleSort articleSort = ArticleSort.of(sort);
+		int pageSize = Math.clamp(size, 1, MAX_PAGE_SIZE);
 
-		try {
-			articles = auctionsServiceProxy.getArticlesByCategory(categoryName, selectedCurrency);
-			model.addAttribute("articles", articles);
-			model.addAttribute("categoryName", categoryName);
-			model.addAttribute("selectedCurrency", selectedCurrency);
-		} catch (RuntimeException e) {
-			model.addAttribute("errorMessage", "Failed to load articles for category: " + e.getMessage());
-			model.addAttribute("articles", null);
-			model.addAttribute("categoryName", categoryName);
-			model.addAttribute("selectedCurrency", "EUR");
-		}
+		model.addAttribute("sorts", ArticleSort.values());
+		model.addAttribute("selectedSort", articleSort);
+		model.addAttribute("pageLinks", PAGE_LINKS);
+
+		return withinDeadline(catalog.getArticlePage(categoryName, selectedCurrency, articleSort, page, pageSize))
+				.thenApply(articlePage -> {
+					model.addAttribute("articles", articlePage.articles());
+					model.addAttribute("page", articlePage);
+					model.addAttribute("categoryName", categoryName);
+					model.addAttribute("selectedCurrency", selectedCurrency);
+					return "category";
+				})
+				.exceptionally(e -> {
+					ConcurrencyLimitInterceptor.recordFailure(request, e);
+					model.addAttribute("errorMessage", "Failed to load articles for category: " + cause(e).getMessage());
+					model.addAttribute("articles", null);
+					model.addAttribute("page", null);
+					model.addAttribute("categoryName", categoryName);
+					model.addAttribute("selectedCurrency", "EUR");
+					return "category";
+				});
+	}
 
-		return "category";
+	// Partial page: only the articles table of a category. Used by the category page to
+	// switch currency without reloading the whole page.
+	@GetMapping("/category/{name}/articles")
+	public CompletableFuture<String> getCategoryArticlesFragment(@PathVariable("name") String categoryName,
+									  @RequestParam(value = "currency", defaultValue = "EUR") String selectedCurrency,
+									  @RequestParam(value = "sort", defaultValue = "listed") String sort,
+									  @RequestParam(value = "page", defaultValue = "1") int page,
+									  @RequestParam(value = "size", defaultValue = "" + DEFAULT_PAGE_SIZE) int size,
+									  HttpServletRequest request,
+									  Model model) {
+		return getCategoryArticles(categoryName, selectedCurrency, sort, page, size, request, model)
+				.thenApply(view -> "category :: articles");
 	}
 
 	@GetMapping("/article/{id}")
-	public String getArticleDetails(@PathVariable("id") Long productId,
+	public CompletableFuture<String> getArticleDetails(@PathVariable("id") Long productId,
 									@RequestParam(value = "currency", defaultValue = "EUR") String selectedCurrency,
+									HttpSession session,
+									HttpServletRequest request,
 									Model model) {
-		Article article;
+		boolean watched = getSessionWatchlist(session).isWatched(productId, selectedCurrency);
+
+		return auctionsServiceProxy.getArticleDetailsAsync(productId, selectedCurrency)
+				.thenApply(article -> {
+					searchIndex.update(article);
+					model.addAttribute("article", article);
+					model.addAttribute("selectedCurrency", selectedCurrency);
+					model.addAttribute("watched", watched);
+					model.addAttribute("sparkline", sparkline(article.id(), selectedCurrency));
+					return "article";
+				})
+				.exceptionally(e -> {
+					ConcurrencyLimitInterceptor.recordFailure(request, e);
+					model.addAttribute("errorMessage", "Failed to load article details: " + cause(e).getMessage());
+					model.addAttribute("article", null);
+					model.addAttribute("selectedCurrency", "EUR");
+					return "article";
+				});
+	}
+
+	// Compact JSON with the price and bids of an article in the given currency. Used by
+	// the article page to switch currency without reloading the whole page.
+	@GetMapping(path = "/article/{id}/prices", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public CompletableFuture<Map<String, Object>> getArticlePrices(@PathVariable("id") Long productId,
+									@RequestParam(value = "currency", defaultValue = "EUR") String selectedCurrency,
+									HttpSession session,
+									HttpServletRequest request) {
+		boolean watched = getSessionWatchlist(session).isWatched(productId, selectedCurrency);
+
+		return auctionsServiceProxy.getArticleDetailsAsync(productId, selectedCurrency)
+				.thenApply(article -> {
+					searchIndex.update(article);
+					Map<String, Object> prices = prices(article, selectedCurrency);
+					prices.put("watched", watched);
+					return prices;
+				})
+				.exceptionally(e -> {
+					ConcurrencyLimitInterceptor.recordFailure(request, e);
+					return Map.of("errorMessage", "Failed to load article details: " + cause(e).getMessage());
+				});
+	}
+
+	// Searches the articles of the categories browsed so far (by any user) in the
+	// local index. No backend call is needed, so the page is answered immediately.
+	@GetMapping("/search")
+	public String searchArticles(@RequestParam(value = "q", defaultValue = "") String query,
+								 Model model) {
+		List<Article> articles = searchIndex.search(query, MAX_SEARCH_RESULTS).stream()
+				.map(ArticleSearchIndex.SearchHit::article)
+				.toList();
+
+		model.addAttribute("query", query);
+		model.addAttribute("articles", articles);
+
+		return "search";
+	}
+
+	// Watches or unwatches an article. Watched articles are refreshed in the background
+	// and their changes are pushed to the open article pages (see /watchlist/events).
+	@PostMapping("/watch")
+	public String toggleWatch(@RequestParam("id") Long productId,
+							  @RequestParam(value = "currency", defaultValue = "EUR") String selectedCurrency,
+							  HttpSession session) {
+		getSessionWatchlist(session).toggle(productId, selectedCurrency);
+
+		return "redirect:/article/" + productId + "?currency=" + selectedCurrency;
+	}
+
+	// Stream of server-sent events with the changes of the articles watched by the user
+	@GetMapping("/watchlist/events")
+	public SseEmitter watchlistEvents(HttpSession session) {
+		SseEmitter emitter = new SseEmitter(WATCHLIST_EVENTS_TIMEOUT_MILLIS);
+		getSessionWatchlist(session).addEmitter(emitter);
 
+		return emitter;
+	}
+
+	// The amount of a bid as entered: exact, with at most two decimals (any other is a 400)
+	private static Money bidMoney(BigDecimal amount, String currency) {
 		try {
-			article = auctionsServiceProxy.getArticleDetails(productId, selectedCurrency);
-			model.addAttribute("article", article);
-			model.addAttribute("selectedCurrency", selectedCurrency);
-		} catch (RuntimeException e) {
-			model.addAttribute("errorMessage", "Failed to load article details: " + e.getMessage());
-			model.addAttribute("article", null);
-			model.addAttribute("selectedCurrency", "EUR");
+			return Money.parse(amount.toPlainString(), currency);
+		} catch (ArithmeticException e) {
+			throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Bid amounts have at most two decimals", e);
+		}
+	}
+
+	// Articles watched by the user, created on first use
+	private SessionWatchlist getSessionWatchlist(HttpSession session) {
+		SessionWatchlist sessionWatchlist = (SessionWatchlist) session.getAttribute(WATCHLIST_ATTRIBUTE);
+
+		if (sessionWatchlist == null) {
+			sessionWatchlist = new SessionWatchlist(watchlist);
+			session.setAttribute(WATCHLIST_ATTRIBUTE, sessionWatchlist); // Registers it with the watchlist
 		}
 
-		return "article";
+		return sessionWatchlist;
 	}
 
 	@PostMapping("/bid")
-	public String makeBid(@RequestParam("id") Long productId,
-						  @RequestParam("amount") Float bidAmount,
+	public CompletableFuture<String> makeBid(@RequestParam("id") Long productId,
+						  @RequestParam("amount") BigDecimal bidAmount,
 						  @RequestParam(value = "currency", defaultValue = "EUR") String selectedCurrency,
 						  HttpSession session,
+						  HttpServletRequest request,
 						  Model model,
 						  RedirectAttributes redirectAttributes) {
-		try {
-			auctionsServiceProxy.makeBid(productId, bidAmount, selectedCurrency,
-					(String) session.getAttribute(TOKEN_ATTRIBUTE));
-			// RedirectAttributes are used to pass attributes to the redirected page
-			// Add a success message to be displayed in the article view
-			redirectAttributes.addFlashAttribute("successMessage", "Bid placed successfully!");
-		} catch (RuntimeException e) {
-			// Add an error message to be displayed in the article view
-			redirectAttributes.addFlashAttribute("errorMessage", "Failed to place bid: " + e.getMessage());
+		String redirect = "redirect:/article/" + productId + "?currency=" + selectedCurrency;
+		Deadline deadline = Deadline.current(); // The category may be looked up from another thread
+
+		// Rejected bids (e.g. outbid while the auction closes) come back as a result, not as an exception
+		return auctionsServiceProxy.tryMakeBidAsync(productId, bidMoney(bidAmount, selectedCurrency),
+					(String) session.getAttribute(TOKEN_ATTRIBUTE))
+				.thenCompose(result -> {
+					// RedirectAttributes are used to pass attributes to the redirected page
+					// Add a success or error message to be displayed in the article view
+					if (result instanceof CallResult.Failure<Void> failure) {
+						ConcurrencyLimitInterceptor.recordFailure(request, failure.exception());
+						redirectAttributes.addFlashAttribute("errorMessage", "Failed to place bid: " + failure.message());
+						return CompletableFuture.completedFuture(redirect);
+					}
+
+					redirectAttributes.addFlashAttribute("successMessage", "Bid placed successfully!");
+					return invalidateCategoryOf(productId, selectedCurrency, deadline).thenApply(none -> redirect);
+				})
+				.exceptionally(e -> {
+					ConcurrencyLimitInterceptor.recordFailure(request, e);
+					// Add an error message to be displayed in the article view
+					redirectAttributes.addFlashAttribute("errorMessage", "Failed to place bid: " + cause(e).getMessage());
+					return redirect;
+				});
+	}
+
+	// Bid placed from the article page script (Accept: application/json): instead of a
+	// redirect and a full page, it answers the outcome and the updated price and bids.
+	@PostMapping(path = "/bid", produces = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseBody
+	public CompletableFuture<Map<String, Object>> makeBidJson(@RequestParam("id") Long productId,
+						  @RequestParam("amount") BigDecimal bidAmount,
+						  @RequestParam(value = "currency", defaultValue = "EUR") String selectedCurrency,
+						  HttpSession session,
+						  HttpServletRequest request) {
+		Deadline deadline = Deadline.current(); // The details are requested from another thread
+
+		return auctionsServiceProxy.tryMakeBidAsync(productId, bidMoney(bidAmount, selectedCurrency),
+					(String) session.getAttribute(TOKEN_ATTRIBUTE))
+				.thenCompose(result -> {
+					if (result instanceof CallResult.Failure<Void> failure) {
+						ConcurrencyLimitInterceptor.recordFailure(request, failure.exception());
+						return CompletableFuture.completedFuture(
+								Map.<String, Object>of("errorMessage", "Failed to place bid: " + failure.message()));
+					}
+
+					return Deadline.within(deadline,
+							() -> auctionsServiceProxy.getArticleDetailsAsync(productId, selectedCurrency))
+							.thenApply(article -> {
+								// The price changed: the category pages must not show the cached one
+								catalog.invalidateCategory(article.categoryName());
+								Map<String, Object> prices = prices(article, selectedCurrency);
+								prices.put("successMessage", "Bid placed successfully!");
+								return prices;
+							});
+				})
+				.exceptionally(e -> {
+					ConcurrencyLimitInterceptor.recordFailure(request, e);
+					return Map.of("errorMessage", "Failed to place bid: " + cause(e).getMessage());
+				});
+	}
+
+	// A bid changed the price of the article: the category pages must not show the cached one.
+	// The category is known by the search index if the article was seen (e.g. on its page);
+	// otherwise it is taken from the details of the article.
+	private CompletableFuture<Void> invalidateCategoryOf(Long articleId, String currency, Deadline deadline) {
+		Optional<String> categoryName = searchIndex.categoryOf(articleId);
+
+		if (categoryName.isPresent()) {
+			catalog.invalidateCategory(categoryName.get());
+			return CompletableFuture.completedFuture(null);
 		}
 
-		return "redirect:/article/" + productId + "?currency=" + selectedCurrency;
+		return Deadline.within(deadline, () -> auctionsServiceProxy.getArticleDetailsAsync(articleId, currency))
+				.thenAccept(article -> {
+					searchIndex.update(article);
+					catalog.invalidateCategory(article.categoryName());
+				})
+				.exceptionally(e -> null); // The bid was placed: the cached list only waits to expire
+	}
+
+	// Fields of an article patched in place by the article page
+	private Map<String, Object> prices(Article article, String currency) {
+		Map<String, Object> prices = new HashMap<>();
+		prices.put("id", article.id());
+		prices.put("currency", currency);
+		prices.put("currentPrice", article.currentPrice());
+		prices.put("bids", article.bids());
+		prices.put("sparkline", sparkline(article.id(), currency));
+
+		return prices;
+	}
+
+	// SVG path of the prices of the article seen so far in the currency ("" if none)
+	private String sparkline(Long articleId, String currency) {
+		return auctionsServiceProxy.getPriceHistory(articleId, currency).svgPath(SPARKLINE_WIDTH, SPARKLINE_HEIGHT);
+	}
+
+	// The catalog loads are shared between requests and outlive the deadline of any of
+	// them: each page only waits for them until its own deadline
+	private static <T> CompletableFuture<T> withinDeadline(CompletableFuture<T> future) {
+		Deadline deadline = Deadline.current();
+
+		return (deadline == null) ? future : deadline.bound(future);
+	}
+
+	// The exception thrown by the service proxy, unwrapped from the CompletionException
+	private static Throwable cause(Throwable e) {
+		return (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
 	}
 }
\ No newline at end of file
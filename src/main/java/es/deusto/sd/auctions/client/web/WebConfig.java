@@ -0,0 +1,134 @@
+package es.deusto.sd.auctions.client.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.EncodedResourceResolver;
+import org.springframework.web.servlet.resource.ResourceUrlEncodingFilter;
+import org.springframework.web.servlet.resource.VersionResourceResolver;
+
+/**
+ * WebConfig registers the Spring MVC extensions of the web client.
+ *
+ * Requests are split into two bulkheads, each one guarded by its own adaptive
+ * concurrency limit: browsing (home, category and article pages) and bidding
+ * (login, logout and bids). When the AuctionsService slows down, browsing
+ * requests are shed first and never take the capacity reserved for bids.
+ * The limits are configured with the {@code web.concurrency.*} properties.
+ *
+ * Every page is also timed by a {@link PageTimingInterceptor}, which records
+ * JFR events when a recording is active.
+ *
+ * The pages that call the AuctionsService are served asynchronously; the time
+ * they may wait for it is limited by {@code web.async.request-timeout}. Within
+ * that limit, every page has a deadline ({@link DeadlineInterceptor}), set per
+ * endpoint with {@code web.deadline.*}: its calls to the AuctionsService are cut
+ * short when it passes, so a slow backend fails the page early instead of
+ * piling up requests.
+ *
+ * The CSS, scripts and fonts of the pages (Bootstrap and Font Awesome) are
+ * served by the web client itself under {@code /assets/}, from the files the
+ * build extracts from their WebJars and precompresses (the {@code webAssets}
+ * Gradle task). Their URLs carry a hash of the content, added to the links of
+ * the templates by the {@link ResourceUrlEncodingFilter} (and to the links
+ * between assets, such as the fonts of a stylesheet), so they are cached by
+ * browsers for a year as immutable: a new version is a new URL. The gzip or
+ * brotli variant is sent to the browsers that accept it, with an ETag.
+ */
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+	private final AdaptiveConcurrencyLimiter browseLimiter;
+	private final AdaptiveConcurrencyLimiter bidLimiter;
+	private final long asyncRequestTimeout;
+	private final DeadlineInterceptor deadlineInterceptor;
+	// ETags of the assets (and of their compressed variants) by URL, computed once from their content
+	private final Map<String, String> assetEtags = new ConcurrentHashMap<>();
+
+	public WebConfig(@Value("${web.concurrency.browse.initial-limit:20}") int browseInitial,
+					 @Value("${web.concurrency.browse.min-limit:2}") int browseMin,
+					 @Value("${web.concurrency.browse.max-limit:100}") int browseMax,
+					 @Value("${web.concurrency.bid.initial-limit:10}") int bidInitial,
+					 @Value("${web.concurrency.bid.min-limit:5}") int bidMin,
+					 @Value("${web.concurrency.bid.max-limit:50}") int bidMax,
+					 @Value("${web.concurrency.latency-tolerance:2.0}") double tolerance,
+					 @Value("${web.concurrency.backoff:0.9}") double backoff,
+					 @Value("${web.async.request-timeout:30000}") long asyncRequestTimeout,
+					 @Value("${web.deadline.default:10000}") long defaultDeadline,
+					 @Value("${web.deadline.endpoints:}") String endpointDeadlines) {
+		this.browseLimiter = new AdaptiveConcurrencyLimiter("browse", browseInitial, browseMin, browseMax, tolerance, backoff);
+		this.bidLimiter = new AdaptiveConcurrencyLimiter("bid", bidInitial, bidMin, bidMax, tolerance, backoff);
+		this.asyncRequestTimeout = asyncRequestTimeout;
+		this.deadlineInterceptor = new DeadlineInterceptor(Duration.ofMillis(defaultDeadline),
+				DeadlineInterceptor.parseBudgets(endpointDeadlines));
+	}
+
+	@Override
+	public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+		configurer.setDefaultTimeout(asyncRequestTimeout);
+	}
+
+	// Rewrites the links of the templates (@{/assets/...}) to the fingerprinted URLs
+	@Bean
+	ResourceUrlEncodingFilter resourceUrlEncodingFilter() {
+		return new ResourceUrlEncodingFilter();
+	}
+
+	@Override
+	public void addResourceHandlers(ResourceHandlerRegistry registry) {
+		registry.addResourceHandler("/assets/**")
+				.addResourceLocations("classpath:/web-assets/")
+				.setCacheControl(CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable())
+				.setEtagGenerator(this::assetEtag)
+				.resourceChain(true)
+				.addResolver(new EncodedResourceResolver()) // .br and .gz files next to the asset
+				.addResolver(new VersionResourceResolver().addContentVersionStrategy("/**"));
+	}
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		// First, so that the deadline counts from the arrival of the request
+		registry.addInterceptor(deadlineInterceptor)
+				.addPathPatterns("/**")
+				.excludePathPatterns("/watchlist/events", "/assets/**");
+		registry.addInterceptor(new ConcurrencyLimitInterceptor(browseLimiter))
+				.addPathPatterns("/", "/category/**", "/article/**");
+		registry.addInterceptor(new ConcurrencyLimitInterceptor(bidLimiter))
+				.addPathPatterns("/bid", "/login", "/logout");
+		registry.addInterceptor(new PageTimingInterceptor())
+				.addPathPatterns("/**")
+				.excludePathPatterns("/watchlist/events", "/assets/**"); // Event stream and static files, not pages
+	}
+
+	private String assetEtag(Resource resource) {
+		try {
+			String url = resource.getURL().toString();
+			String etag = assetEtags.get(url);
+
+			if (etag == null) {
+				try (InputStream content = resource.getInputStream()) {
+					etag = DigestUtils.md5DigestAsHex(content);
+				}
+
+				assetEtags.put(url, etag);
+			}
+
+			return etag;
+		} catch (IOException e) {
+			return null; // Served without an ETag
+		}
+	}
+}
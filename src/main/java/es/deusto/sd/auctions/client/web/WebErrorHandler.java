@@ -0,0 +1,62 @@
+package es.deusto.sd.auctions.client.web;
+
+import java.io.IOException;
+
+import org.springframework.http.MediaType;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * WebErrorHandler renders the errors raised outside the controller methods,
+ * such as the requests shed by the concurrency limits. They get a light
+ * "service busy" page with a 503 status and a Retry-After header, instead of
+ * the generic error page. The requests of the page scripts (which accept
+ * JSON) get the 503 with a JSON error message instead, like the one of a
+ * failed bid.
+ */
+@ControllerAdvice
+public class WebErrorHandler {
+
+	@ExceptionHandler(ServiceOverloadedException.class)
+	public String handleOverload(ServiceOverloadedException e,
+								 HttpServletRequest request,
+								 HttpServletResponse response,
+								 Model model) throws IOException {
+		response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		response.setHeader("Retry-After", "1");
+
+		if (acceptsJson(request)) {
+			response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+			response.getWriter().write("{\"errorMessage\":\"The auctions service is busy, try again in a few seconds\"}");
+			return null; // Written: no view
+		}
+
+		model.addAttribute("retryUrl", retryUrl(request));
+
+		return "busy";
+	}
+
+	// A GET is retried as it was (query string included); a form sent with a POST
+	// (e.g. a bid) cannot be, so its page is offered again: the referring one, or home
+	private static String retryUrl(HttpServletRequest request) {
+		if ("GET".equals(request.getMethod())) {
+			String query = request.getQueryString();
+
+			return (query == null) ? request.getRequestURI() : request.getRequestURI() + "?" + query;
+		}
+
+		String referer = request.getHeader("Referer");
+
+		return (referer == null || referer.isBlank()) ? "/" : referer;
+	}
+
+	private static boolean acceptsJson(HttpServletRequest request) {
+		String accept = request.getHeader("Accept");
+
+		return accept != null && accept.contains(MediaType.APPLICATION_JSON_VALUE);
+	}
+}
@@ -0,0 +1,189 @@
+package es.deusto.sd.auctions.client.proxies;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import es.deusto.sd.auctions.client.benchmark.StubAuctionsServer;
+import es.deusto.sd.auctions.client.data.Credentials;
+import es.deusto.sd.auctions.client.data.Money;
+import es.deusto.sd.auctions.client.proxies.BackendLoadBalancer.BackendNode;
+
+/**
+ * Tests of the load balancing of HttpServiceProxy over several replicas, each
+ * one a StubAuctionsServer on its own port.
+ */
+class BackendLoadBalancerTest {
+	private static final String HEALTH_CHECK_THREAD = "backend-health-check";
+
+	private final List<StubAuctionsServer> servers = new ArrayList<>();
+	private HttpServiceProxy proxy;
+
+	@AfterEach
+	void close() {
+		if (proxy != null) {
+			proxy.close();
+		}
+
+		servers.forEach(StubAuctionsServer::close);
+	}
+
+	@Test
+	void trafficMovesOffASlowNode() throws IOException {
+		start(3, 1, true);
+		StubAuctionsServer slow = servers.get(2);
+
+		// All the nodes answer alike: every one gets part of the calls (long enough for the
+		// latencies of the first calls, while the connections warm up, to fade away)
+		long warmUpEnd = System.currentTimeMillis() + 4_000;
+
+		while (System.currentTimeMillis() < warmUpEnd) {
+			proxy.getAllCategories();
+		}
+
+		assertTrue(slow.requests() > 0, "The node was never chosen while it was fast");
+
+		slow.setLatencyMillis(50);
+		long before = slow.requests();
+		call(200);
+
+		long slowCalls = slow.requests() - before;
+		assertTrue(slowCalls < 20, "The slow node still got " + slowCalls + " of 200 calls");
+	}
+
+	@Test
+	void unhealthyNodeIsEjectedAndReadmitted() throws Exception {
+		start(2, 0, true);
+		StubAuctionsServer unhealthy = servers.get(1);
+		BackendNode node = node(unhealthy);
+
+		// The calls sent to the failing node fail (500) until it is ejected
+		unhealthy.setFailing(true);
+
+		for (int i = 0; i < 100 && node.isAvailable(System.currentTimeMillis()); i++) {
+			try {
+				proxy.getAllCategories();
+			} catch (ServiceException e) {
+				assertEquals(ServiceError.SERVER_ERROR, e.error());
+			}
+		}
+
+		assertFalse(node.isAvailable(System.currentTimeMillis()), "The failing node was not ejected");
+
+		// Out of the rotation (for a second): every call goes to the healthy node
+		for (int i = 0; i < 20 && !node.isAvailable(System.currentTimeMillis()); i++) {
+			assertDoesNotThrow(() -> proxy.getAllCategories());
+		}
+
+		// Back online: readmitted by the health check (or at the end of its cool-down)
+		unhealthy.setFailing(false);
+		long deadline = System.currentTimeMillis() + 10_000;
+
+		while (!node.isAvailable(System.currentTimeMillis()) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+
+		assertTrue(node.isAvailable(System.currentTimeMillis()), "The node was not readmitted");
+
+		long before = unhealthy.requests();
+
+		for (int i = 0; i < 100; i++) {
+			assertDoesNotThrow(() -> proxy.getAllCategories());
+		}
+
+		assertTrue(unhealthy.requests() > before, "The readmitted node got no calls");
+	}
+
+	@Test
+	void sessionAffinityKeepsAUserOnItsNode() throws IOException {
+		start(3, 0, true);
+
+		// The stub only accepts the tokens it issued: a call sent to another node fails with a 401
+		for (int user = 0; user < 10; user++) {
+			String token = proxy.login(new Credentials("user" + user + "@example.com", "secret"));
+
+			for (int bid = 0; bid < 5; bid++) {
+				Money amount = new Money(200_000 + user * 100 + bid, "EUR");
+				long article = 1 + bid;
+
+				assertDoesNotThrow(() -> proxy.makeBid(article, amount, token));
+			}
+
+			assertDoesNotThrow(() -> proxy.logout(token));
+		}
+	}
+
+	@Test
+	void withoutSessionAffinityCallsLeaveTheNode() throws IOException {
+		start(3, 0, false);
+		String token = proxy.login(new Credentials("user@example.com", "secret"));
+		int unauthorized = 0;
+
+		for (int bid = 0; bid < 30; bid++) {
+			try {
+				proxy.makeBid(1L, new Money(200_000 + bid, "EUR"), token);
+			} catch (ServiceException e) {
+				assertEquals(ServiceError.UNAUTHORIZED, e.error());
+				unauthorized++;
+			}
+		}
+
+		assertTrue(unauthorized > 0, "Every bid went to the node that issued the token");
+	}
+
+	@Test
+	void closeStopsTheHealthChecks() throws Exception {
+		int before = healthCheckThreads();
+		start(2, 0, true);
+		assertEquals(before + 1, healthCheckThreads());
+
+		proxy.close();
+		long deadline = System.currentTimeMillis() + 2_000;
+
+		while (healthCheckThreads() > before && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+
+		assertEquals(before, healthCheckThreads());
+	}
+
+	// Starts the replicas and a proxy that balances over all of them
+	private void start(int replicas, long latencyMillis, boolean sessionAffinity) throws IOException {
+		List<String> urls = new ArrayList<>();
+
+		for (int i = 0; i < replicas; i++) {
+			StubAuctionsServer server = new StubAuctionsServer(2, 10, latencyMillis);
+			servers.add(server);
+			urls.add(server.baseUrl());
+		}
+
+		proxy = new HttpServiceProxy(urls, sessionAffinity);
+	}
+
+	private void call(int calls) {
+		for (int i = 0; i < calls; i++) {
+			proxy.getAllCategories();
+		}
+	}
+
+	private BackendNode node(StubAuctionsServer server) {
+		return proxy.loadBalancer().nodes().stream()
+				.filter(node -> node.baseUrl().equals(server.baseUrl()))
+				.findFirst()
+				.orElseThrow();
+	}
+
+	private static int healthCheckThreads() {
+		return (int) Thread.getAllStackTraces().keySet().stream()
+				.filter(thread -> thread.getName().equals(HEALTH_CHECK_THREAD) && thread.isAlive())
+				.count();
+	}
+}